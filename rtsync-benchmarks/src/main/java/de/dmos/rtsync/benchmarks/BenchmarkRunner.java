@@ -0,0 +1,55 @@
+package de.dmos.rtsync.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The main class of the benchmark jar. It accepts the same arguments as JMH's own main class but writes the results as
+ * JSON to {@value #DEFAULT_RESULT_FILE} unless another result format or file is given, so they can be compared between
+ * runs to track regressions. Unless other profilers are given, JMH's {@link GCProfiler} is enabled, so the results also
+ * contain the allocations per operation.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class BenchmarkRunner
+{
+  public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  private BenchmarkRunner()
+  {
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+	CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+	if ( commandLineOptions.shouldHelp()
+		|| commandLineOptions.shouldList()
+		|| commandLineOptions.shouldListWithParams()
+		|| commandLineOptions.shouldListProfilers()
+		|| commandLineOptions.shouldListResultFormats() )
+	{
+	  // Only JMH's own main class prints these.
+	  org.openjdk.jmh.Main.main(args);
+	  return;
+	}
+	ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+	if ( !commandLineOptions.getResultFormat().hasValue() )
+	{
+	  options.resultFormat(ResultFormatType.JSON);
+	}
+	if ( !commandLineOptions.getResult().hasValue() )
+	{
+	  options.result(DEFAULT_RESULT_FILE);
+	}
+	if ( commandLineOptions.getProfilers().isEmpty() )
+	{
+	  options.addProfiler(GCProfiler.class);
+	}
+	new Runner(options.build()).run();
+  }
+}
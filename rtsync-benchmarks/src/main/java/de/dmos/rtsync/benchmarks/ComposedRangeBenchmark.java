@@ -0,0 +1,96 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.ComposedRangeCache;
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.engine.CloseableIterator;
+import se.l4.otter.operations.Composer;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Compares composing the latest operations of a {@link CustomHistory} with a warm {@link ComposedRangeCache} to
+ * composing them one after another, depending on the length of the range. The cache should need about log(k)
+ * compositions for a range of k operations while direct composition needs k.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComposedRangeBenchmark
+{
+  private static final String							 STRING_ID	  = "text";
+  private static final int								 HISTORY_SIZE = 10_000;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int											 _rangeLength;
+
+  private CustomHistory<Operation<CombinedHandler>>		 _history;
+  private ComposedRangeCache<Operation<CombinedHandler>> _cache;
+  private long											 _start;
+  private long											 _end;
+
+  @Setup
+  public void setUp()
+  {
+	_history = new CustomHistory<>(
+	  MessageSerialization.COMBINED_TYPE,
+	  CombinedDelta.builder().update(STRING_ID, "string", StringDelta.builder().insert("x").done()).done(),
+	  true);
+	for ( int i = 0; i < HISTORY_SIZE; i++ )
+	{
+	  // Every operation appends one character to the string.
+	  _history
+	  .store(
+		CombinedDelta
+		.builder()
+		.update(STRING_ID, "string", StringDelta.builder().retain(i + 1).insert("x").done())
+		.done());
+	}
+	_end = _history.getLatest() + 1;
+	_start = _end - _rangeLength;
+	_cache = new ComposedRangeCache<>(_history.getType());
+	_cache.compose(_history, _start, _end);
+  }
+
+  @Benchmark
+  public Operation<CombinedHandler> composeCached()
+  {
+	return _cache.compose(_history, _start, _end);
+  }
+
+  @Benchmark
+  public Operation<CombinedHandler> composeDirectly()
+  {
+	Composer<Operation<CombinedHandler>> composer = _history.getType().newComposer();
+	try (CloseableIterator<Operation<CombinedHandler>> it = _history.between(_start, _end))
+	{
+	  while (it.hasNext())
+	  {
+		composer.add(it.next());
+	  }
+	}
+	return composer.done();
+  }
+}
@@ -0,0 +1,66 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.function.Consumer;
+
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.engine.OperationSync;
+import se.l4.otter.engine.TaggedOperation;
+import se.l4.otter.operations.OTType;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+/**
+ * An {@link OperationSync} which confirms every sent operation immediately with the next historyId, so neither the
+ * network nor a server history is measured by the benchmarks which use it. It can also deliver remote operations.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+class ConfirmingOperationSync implements OperationSync<Operation<CombinedHandler>>
+{
+  private static final String								REMOTE_TOKEN = "remote";
+
+  private final TaggedOperation<Operation<CombinedHandler>>	_initial;
+  private Consumer<TaggedOperation<Operation<CombinedHandler>>> _listener;
+  private long												_latestId;
+
+  ConfirmingOperationSync(Operation<CombinedHandler> document)
+  {
+	_latestId = 1;
+	_initial = new TaggedOperation<>(_latestId, "benchmark", document);
+  }
+
+  /**
+   * Delivers the given operation as if another client had sent it based on the latest version.
+   */
+  void receiveRemote(Operation<CombinedHandler> op)
+  {
+	_listener.accept(new TaggedOperation<>(++_latestId, REMOTE_TOKEN, op));
+  }
+
+  @Override
+  public OTType<Operation<CombinedHandler>> getType()
+  {
+	return MessageSerialization.COMBINED_TYPE;
+  }
+
+  @Override
+  public TaggedOperation<Operation<CombinedHandler>> connect(
+	Consumer<TaggedOperation<Operation<CombinedHandler>>> listener)
+  {
+	_listener = listener;
+	return _initial;
+  }
+
+  @Override
+  public void send(TaggedOperation<Operation<CombinedHandler>> op)
+  {
+	_listener.accept(new TaggedOperation<>(++_latestId, op.getToken(), op.getOperation()));
+  }
+
+  @Override
+  public void close()
+  {
+	// Nothing to close here.
+  }
+}
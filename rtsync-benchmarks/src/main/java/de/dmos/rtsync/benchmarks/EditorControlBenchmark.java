@@ -0,0 +1,92 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.CustomEditorControl;
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Measures how long {@link CustomEditorControl#store(TaggedUserOperation, boolean)} takes depending on how many versions
+ * the stored operations lag behind the latest one. Every operation inserts a character into the middle of the same
+ * string, so it conflicts with all the operations which it lags behind and needs to be composed and transformed over
+ * them. A lag of 0 stores the operations without transforming them.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EditorControlBenchmark
+{
+  private static final String								STRING_ID	   = "text";
+  private static final int									INITIAL_LENGTH = 1000;
+
+  @Param({"0", "1", "10", "100", "1000"})
+  public int												_lag;
+
+  private CustomEditorControl<Operation<CombinedHandler>>	_control;
+  private long												_initialVersion;
+  private long												_storeCount;
+
+  @Setup(Level.Iteration)
+  public void setUp()
+  {
+	Operation<CombinedHandler> document = CombinedDelta
+		.builder()
+		.update(STRING_ID, "string", StringDelta.builder().insert("x".repeat(INITIAL_LENGTH)).done())
+		.done();
+	_control = new CustomEditorControl<>(new CustomHistory<>(MessageSerialization.COMBINED_TYPE, document, true));
+	_initialVersion = _control.getLatestVersion();
+	_storeCount = 0;
+	// Fills the history so the first operations can lag behind as well.
+	for ( int i = 0; i < _lag; i++ )
+	{
+	  store(0);
+	}
+  }
+
+  @Benchmark
+  public TaggedUserOperation store()
+  {
+	return store(_lag);
+  }
+
+  private TaggedUserOperation store(int lag)
+  {
+	long base = _control.getLatestVersion() - lag;
+	// Every stored operation inserts one character, so this is the length of the string at the base version.
+	int length = INITIAL_LENGTH + (int) (base - _initialVersion);
+	Operation<CombinedHandler> op = CombinedDelta
+		.builder()
+		.update(
+		  STRING_ID,
+		  "string",
+		  StringDelta.builder().retain(length / 2).insert("y").retain(length - length / 2).done())
+		.done();
+	_storeCount++;
+	return _control.store(new TaggedUserOperation(base, "op" + _storeCount, op, "benchmark"), false);
+  }
+}
@@ -0,0 +1,78 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.engine.CloseableIterator;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.internal.combined.DefaultCombinedDelta;
+import se.l4.otter.operations.map.MapDelta;
+
+/**
+ * Measures how long it takes to iterate over the latest operations of a {@link CustomHistory} depending on the length
+ * of the range, like the server does to transform outdated operations or to send missed ones to resuming clients.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryRangeBenchmark
+{
+  private static final int						 HISTORY_SIZE = 100_000;
+
+  @Param({"10", "1000", "100000"})
+  public int									 _rangeLength;
+
+  private CustomHistory<Operation<CombinedHandler>> _history;
+
+  @Setup
+  public void setUp()
+  {
+	_history =
+		new CustomHistory<>(MessageSerialization.COMBINED_TYPE, new DefaultCombinedDelta<>(o -> o).done(), true);
+	for ( int i = 0; i < HISTORY_SIZE; i++ )
+	{
+	  _history
+	  .store(
+		CombinedDelta
+		.builder()
+		.update("map", "map", MapDelta.builder().set("key", DataValues.toData(null), DataValues.toData(i)).done())
+		.done());
+	}
+  }
+
+  @Benchmark
+  public void iterateLatestRange(Blackhole blackhole)
+  {
+	long end = _history.getLatest() + 1;
+	try (CloseableIterator<Operation<CombinedHandler>> it = _history.between(end - _rangeLength, end))
+	{
+	  while (it.hasNext())
+	  {
+		blackhole.consume(it.next());
+	  }
+	}
+  }
+}
@@ -0,0 +1,114 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.customotter.FileOperationHistory;
+import de.dmos.rtsync.customotter.LogDurability;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.internal.combined.DefaultCombinedDelta;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Compares the number of operations per second which the in-memory {@link CustomHistory} and the
+ * {@link FileOperationHistory} with its different {@link LogDurability} levels can store. Like the servers, it stores
+ * the operations in batches and awaits their durability once per batch.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryStoreBenchmark
+{
+  private static final int					   BATCH_SIZE = 16;
+
+  /**
+   * MEMORY uses the in-memory {@link CustomHistory}, the other values are {@link LogDurability} levels of the
+   * {@link FileOperationHistory}.
+   */
+  @Param({"MEMORY", "NONE", "GROUP_COMMIT", "SYNC"})
+  public String							   _historyKind;
+
+  private Path							   _directory;
+  private CustomHistory<Operation<CombinedHandler>> _history;
+  private TaggedUserOperation				   _userOp;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException
+  {
+	if ( "MEMORY".equals(_historyKind) )
+	{
+	  _history = new CustomHistory<>(
+		MessageSerialization.COMBINED_TYPE,
+		new DefaultCombinedDelta<>(o -> o).done(),
+		true);
+	}
+	else
+	{
+	  _directory = Files.createTempDirectory("rtsync-history-benchmark");
+	  _history = FileOperationHistory.openCombined(_directory, LogDurability.valueOf(_historyKind));
+	}
+	Operation<CombinedHandler> op = CombinedDelta
+		.builder()
+		.update("s1", "string", StringDelta.builder().retain(100).insert("x").retain(100).done())
+		.done();
+	_userOp = new TaggedUserOperation(1, "token", op, "user");
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException
+  {
+	if ( _history instanceof FileOperationHistory<?> fileHistory )
+	{
+	  fileHistory.close();
+	  try (Stream<Path> files = Files.walk(_directory))
+	  {
+		for ( Path file : files.sorted(Comparator.reverseOrder()).toList() )
+		{
+		  Files.delete(file);
+		}
+	  }
+	}
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public long store()
+  {
+	for ( int i = 0; i < BATCH_SIZE; i++ )
+	{
+	  _history.store(_userOp, false);
+	}
+	_history.awaitDurable();
+	return _history.getLatest();
+  }
+}
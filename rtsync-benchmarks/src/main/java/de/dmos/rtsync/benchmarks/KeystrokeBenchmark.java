@@ -0,0 +1,69 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.CustomEditor;
+import de.dmos.rtsync.customotter.CustomModel;
+import de.dmos.rtsync.customotter.CustomModelBuilder;
+import de.dmos.rtsync.customotter.CustomSharedString;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Measures the cost of typing a single character at the end of a {@link CustomSharedString} depending on the size of
+ * the document. Each keystroke passes through {@link CustomModel}'s object data and the {@link CustomEditor}, whose
+ * values are composed lazily, so the average time per keystroke should stay flat from 1 KB to 10 MB.
+ *
+ * The editor is connected to a {@link ConfirmingOperationSync}, so neither the network nor a server history is measured.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeystrokeBenchmark
+{
+  private static final String STRING_ID = "text";
+
+  @Param({"1024", "102400", "1048576", "10485760"})
+  public int				  _documentSize;
+
+  private CustomSharedString  _string;
+
+  @Setup(Level.Iteration)
+  public void setUp()
+  {
+	Operation<CombinedHandler> document = CombinedDelta
+		.builder()
+		.update(STRING_ID, "string", StringDelta.builder().insert("x".repeat(_documentSize)).done())
+		.done();
+	CustomModel model = new CustomModelBuilder(new CustomEditor<>(new ConfirmingOperationSync(document))).build();
+	_string = (CustomSharedString) model.getObject(STRING_ID, "string");
+  }
+
+  @Benchmark
+  public CustomSharedString typeCharacter()
+  {
+	_string.append("y");
+	return _string;
+  }
+}
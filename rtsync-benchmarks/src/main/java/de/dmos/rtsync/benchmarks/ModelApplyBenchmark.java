@@ -0,0 +1,106 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.CustomEditor;
+import de.dmos.rtsync.customotter.CustomModel;
+import de.dmos.rtsync.customotter.CustomModelBuilder;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.list.ListDelta;
+import se.l4.otter.operations.map.MapDelta;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Measures how long a {@link CustomModel} takes to apply remote combined deltas depending on the number of map, list and
+ * string objects which each delta changes. The deltas alternately insert values into the objects and remove them again,
+ * so the objects keep their sizes.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelApplyBenchmark
+{
+  private static final String						  TEXT		= "x".repeat(100);
+
+  @Param({"1", "100", "10000"})
+  public int										  _objectCount;
+
+  private ConfirmingOperationSync					  _sync;
+  private CustomModel								  _model;
+  private Operation<CombinedHandler>[]				  _deltas;
+  private int										  _applyCount;
+
+  @Setup(Level.Iteration)
+  public void setUp()
+  {
+	var document = CombinedDelta.builder();
+	var insert = CombinedDelta.builder();
+	var remove = CombinedDelta.builder();
+	for ( int i = 0; i < _objectCount; i++ )
+	{
+	  String id = "o" + i;
+	  switch (i % 3)
+	  {
+		case 0 ->
+		{
+		  document.update(id, "string", StringDelta.builder().insert(TEXT).done());
+		  insert.update(id, "string", StringDelta.builder().retain(50).insert("y").retain(50).done());
+		  remove.update(id, "string", StringDelta.builder().retain(50).delete("y").retain(50).done());
+		}
+		case 1 ->
+		{
+		  document.update(id, "list", ListDelta.builder().insert(DataValues.toData("a")).done());
+		  insert.update(id, "list", ListDelta.builder().retain(1).insert(DataValues.toData("b")).done());
+		  remove.update(id, "list", ListDelta.builder().retain(1).delete(DataValues.toData("b")).done());
+		}
+		default ->
+		{
+		  document.update(id, "map", MapDelta.builder().set("a", DataValues.toData(null), DataValues.toData(1)).done());
+		  insert
+		  .update(id, "map", MapDelta.builder().set("b", DataValues.toData(null), DataValues.toData(2)).done());
+		  remove
+		  .update(id, "map", MapDelta.builder().set("b", DataValues.toData(2), null).done());
+		}
+	  }
+	}
+	_sync = new ConfirmingOperationSync(document.done());
+	_model = new CustomModelBuilder(new CustomEditor<>(_sync)).build();
+	_deltas = createDeltaArray(insert.done(), remove.done());
+	_applyCount = 0;
+  }
+
+  @SafeVarargs
+  private static Operation<CombinedHandler>[] createDeltaArray(Operation<CombinedHandler>... deltas)
+  {
+	return deltas;
+  }
+
+  @Benchmark
+  public CustomModel applyRemoteDelta()
+  {
+	_sync.receiveRemote(_deltas[_applyCount++ % _deltas.length]);
+	return _model;
+  }
+}
@@ -0,0 +1,121 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.PartitionedTransformer;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.OperationPair;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.list.ListDelta;
+import se.l4.otter.operations.map.MapDelta;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Compares composing and transforming combined operations as a whole with the {@link PartitionedTransformer} on a model
+ * whose map, list and string objects are all changed concurrently. Every object is changed by both operations, so
+ * each partition has to be transformed.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionedTransformBenchmark
+{
+  private static final String										TEXT		 = "abcdefgh";
+  private static final int										LIST_SIZE	 = 4;
+
+  @Param({"100", "10000"})
+  public int														_objectCount;
+
+  private final PartitionedTransformer<Operation<CombinedHandler>> _transformer =
+	  new PartitionedTransformer<>(MessageSerialization.COMBINED_TYPE);
+  private Operation<CombinedHandler>								_left;
+  private Operation<CombinedHandler>								_right;
+  private Operation<CombinedHandler>								_next;
+
+  @Setup
+  public void setUp()
+  {
+	var left = CombinedDelta.builder();
+	var right = CombinedDelta.builder();
+	var next = CombinedDelta.builder();
+	for ( int i = 0; i < _objectCount; i++ )
+	{
+	  String id = "o" + i;
+	  switch (i % 3)
+	  {
+		case 0 ->
+		{
+		  left.update(id, "string", StringDelta.builder().retain(4).insert("l").retain(4).done());
+		  right.update(id, "string", StringDelta.builder().retain(2).insert("r").retain(6).done());
+		  next.update(id, "string", StringDelta.builder().retain(TEXT.length() + 1).insert("n").done());
+		}
+		case 1 ->
+		{
+		  left.update(id, "list", ListDelta.builder().retain(1).insert(DataValues.toData("l")).retain(3).done());
+		  right.update(id, "list", ListDelta.builder().retain(3).insert(DataValues.toData("r")).retain(1).done());
+		  next
+		  .update(id, "list", ListDelta.builder().retain(LIST_SIZE + 1).insert(DataValues.toData("n")).done());
+		}
+		default ->
+		{
+		  left.update(id, "map", createSet("key", "l"));
+		  right.update(id, "map", createSet("key", "r"));
+		  next.update(id, "map", createSet("other", "n"));
+		}
+	  }
+	}
+	_left = left.done();
+	_right = right.done();
+	_next = next.done();
+  }
+
+  private static Operation<?> createSet(String key, String value)
+  {
+	return MapDelta.builder().set(key, DataValues.toData(null), DataValues.toData(value)).done();
+  }
+
+  @Benchmark
+  public OperationPair<Operation<CombinedHandler>> transformSerially()
+  {
+	return MessageSerialization.COMBINED_TYPE.transform(_left, _right);
+  }
+
+  @Benchmark
+  public OperationPair<Operation<CombinedHandler>> transformPartitioned()
+  {
+	return _transformer.transform(_left, _right);
+  }
+
+  @Benchmark
+  public Operation<CombinedHandler> composeSerially()
+  {
+	return MessageSerialization.COMBINED_TYPE.compose(_left, _next);
+  }
+
+  @Benchmark
+  public Operation<CombinedHandler> composePartitioned()
+  {
+	return _transformer.compose(_left, _next);
+  }
+}
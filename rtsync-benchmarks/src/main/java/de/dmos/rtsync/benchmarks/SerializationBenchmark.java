@@ -0,0 +1,132 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.BinaryMessageCodec;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.streaming.ByteArrayJsonInput;
+import de.dmos.rtsync.streaming.CustomJsonInput;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.list.ListDelta;
+import se.l4.otter.operations.map.MapDelta;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Measures writing and reading {@link TaggedUserOperation}s with {@link MessageSerialization}, both as JSON messages
+ * and in the storage format, and with the {@link BinaryMessageCodec}, depending on the number of objects which the
+ * operation changes. The sizes of the JSON and binary messages are printed on setup. JSON messages are read both with
+ * the {@link ByteArrayJsonInput}, which {@link MessageSerialization} uses, and with the {@link CustomJsonInput}, which
+ * decodes through a reader. Run with JMH's gc profiler, which {@link BenchmarkRunner} enables by default, to compare
+ * their allocations per message.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark
+{
+  @Param({"1", "100", "10000"})
+  public int				  _objectCount;
+
+  private TaggedUserOperation _userOp;
+  private byte[]			  _json;
+  private byte[]			  _stored;
+  private byte[]			  _binary;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+	var builder = CombinedDelta.builder();
+	for ( int i = 0; i < _objectCount; i++ )
+	{
+	  switch (i % 3)
+	  {
+		case 0 -> builder
+		.update("s" + i, "string", StringDelta.builder().retain(20).insert("Hello World").retain(30).done());
+		case 1 -> builder
+		.update("l" + i, "list", ListDelta.builder().retain(2).insert(List.of("ref", "s" + i, "string")).done());
+		default -> builder
+		.update(
+		  "m" + i,
+		  "map",
+		  MapDelta.builder().set("key" + i, DataValues.toData(null), DataValues.toData(i)).done());
+	  }
+	}
+	Operation<CombinedHandler> op = builder.done();
+	_userOp = new TaggedUserOperation(42, "editor-7", op, "benchmark");
+	_json = MessageSerialization.toByteArray(_userOp);
+	_stored = MessageSerialization.toStorageByteArray(_userOp);
+	_binary = BinaryMessageCodec.encode(_userOp);
+	System.out
+	.printf("%n%d objects: JSON %d bytes, binary %d bytes%n", _objectCount, _json.length, _binary.length);
+  }
+
+  @Benchmark
+  public byte[] writeJson() throws IOException
+  {
+	return MessageSerialization.toByteArray(_userOp);
+  }
+
+  @Benchmark
+  public TaggedUserOperation readJson() throws IOException
+  {
+	return MessageSerialization.readTaggedUserOperation(_json);
+  }
+
+  @Benchmark
+  public TaggedUserOperation readJsonWithReader() throws IOException
+  {
+	try (CustomJsonInput in = new CustomJsonInput(new ByteArrayInputStream(_json)))
+	{
+	  return in.readObject(MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER);
+	}
+  }
+
+  @Benchmark
+  public byte[] writeBinary()
+  {
+	return BinaryMessageCodec.encode(_userOp);
+  }
+
+  @Benchmark
+  public TaggedUserOperation readBinary() throws IOException
+  {
+	return BinaryMessageCodec.decode(_binary, TaggedUserOperation.class);
+  }
+
+  @Benchmark
+  public byte[] writeStorage() throws IOException
+  {
+	return MessageSerialization.toStorageByteArray(_userOp);
+  }
+
+  @Benchmark
+  public TaggedUserOperation readStorage() throws IOException
+  {
+	return MessageSerialization.readStoredTaggedUserOperation(_stored);
+  }
+}
@@ -0,0 +1,92 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.CustomEditor;
+import de.dmos.rtsync.customotter.CustomModel;
+import de.dmos.rtsync.customotter.CustomModelBuilder;
+import de.dmos.rtsync.customotter.CustomSharedString;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.string.StringDelta;
+
+/**
+ * Measures local edits in the middle of large {@link CustomSharedString}s: inserting a character, inserting and removing
+ * it again, and setting the whole text to a value which differs in one character, so the text has to be diffed.
+ *
+ * Like in {@link KeystrokeBenchmark}, the editor is connected to a {@link ConfirmingOperationSync}.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SharedStringBenchmark
+{
+  private static final String STRING_ID = "text";
+
+  @Param({"1024", "102400", "1048576"})
+  public int				  _documentSize;
+
+  private CustomSharedString  _string;
+  private String[]			  _values;
+  private int				  _setCount;
+  private int				  _insertCount;
+
+  @Setup(Level.Iteration)
+  public void setUp()
+  {
+	String text = "x".repeat(_documentSize);
+	Operation<CombinedHandler> document = CombinedDelta
+		.builder()
+		.update(STRING_ID, "string", StringDelta.builder().insert(text).done())
+		.done();
+	CustomModel model = new CustomModelBuilder(new CustomEditor<>(new ConfirmingOperationSync(document))).build();
+	_string = (CustomSharedString) model.getObject(STRING_ID, "string");
+	int middle = _documentSize / 2;
+	_values = new String[] {text.substring(0, middle) + "y" + text.substring(middle + 1), text};
+	_setCount = 0;
+	_insertCount = 0;
+  }
+
+  @Benchmark
+  public CustomSharedString insertInMiddle()
+  {
+	_string.insert((_documentSize + _insertCount++) / 2, "y");
+	return _string;
+  }
+
+  @Benchmark
+  public CustomSharedString insertAndRemoveInMiddle()
+  {
+	int middle = _documentSize / 2;
+	_string.insert(middle, "y");
+	_string.remove(middle, middle + 1);
+	return _string;
+  }
+
+  @Benchmark
+  public CustomSharedString setWithOneChangedCharacter()
+  {
+	_string.set(_values[_setCount++ % _values.length]);
+	return _string;
+  }
+}
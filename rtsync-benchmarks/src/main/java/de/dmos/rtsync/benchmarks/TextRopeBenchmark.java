@@ -0,0 +1,84 @@
+package de.dmos.rtsync.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dmos.rtsync.customotter.CustomSharedString;
+import de.dmos.rtsync.util.TextRope;
+
+/**
+ * Compares the {@link TextRope} which backs {@link CustomSharedString} with the {@link StringBuilder} which backed it
+ * before. Each invocation applies a remote keystroke in the middle of the text: it validates and deletes the character
+ * which the previous invocation inserted and inserts another one, like the string's operation handler does. Getting the
+ * value of an unchanged rope only returns its cached string.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextRopeBenchmark
+{
+  private static final String INSERTED = "y";
+
+  @Param({"1024", "102400", "5242880"})
+  public int			_documentSize;
+
+  private StringBuilder	_builder;
+  private TextRope		_rope;
+  private int			_middle;
+
+  @Setup(Level.Iteration)
+  public void setUp()
+  {
+	String text = "x".repeat(_documentSize);
+	_builder = new StringBuilder(text);
+	_rope = new TextRope(text);
+	_middle = _documentSize / 2;
+  }
+
+  @Benchmark
+  public StringBuilder replaceCharacterInStringBuilder()
+  {
+	String middleCharacter = _builder.substring(_middle, _middle + 1);
+	if ( middleCharacter.equals(INSERTED) || middleCharacter.equals("x") )
+	{
+	  _builder.delete(_middle, _middle + 1);
+	}
+	_builder.insert(_middle, INSERTED);
+	return _builder;
+  }
+
+  @Benchmark
+  public TextRope replaceCharacterInRope()
+  {
+	if ( _rope.regionMatches(_middle, INSERTED) || _rope.regionMatches(_middle, "x") )
+	{
+	  _rope.delete(_middle, _middle + 1);
+	}
+	_rope.insert(_middle, INSERTED);
+	return _rope;
+  }
+
+  @Benchmark
+  public String getRopeValue()
+  {
+	return _rope.toString();
+  }
+}
@@ -10,6 +10,7 @@ import org.springframework.messaging.simp.stomp.StompSession;
 import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
 
 import de.dmos.rtsync.client.internalinterfaces.StompSessionSync;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.message.UserCursors;
@@ -69,6 +70,19 @@ public abstract class AbstractRTSyncStompSessionHandler extends StompSessionHand
 		TaggedUserOperation.toTaggedUserOperation(receivedTaggedOp),
 		isWholeState);
 	}
+	else if ( payload instanceof TaggedUserOperation[] batch )
+	{
+	  LOG.trace("Interpreted payload as batch of {} operations. -> Forwarding them to operation listeners.", batch.length);
+	  for ( TaggedUserOperation userOp : batch )
+	  {
+		_stompSync.onTaggedOperationReceived(headers, userOp, false);
+	  }
+	}
+	else if ( payload instanceof OperationAck ack )
+	{
+	  LOG.trace("Interpreted payload as acknowledgement. -> Forwarding to operation listeners.");
+	  _stompSync.onOperationAcknowledged(headers, ack);
+	}
 	else if ( payload instanceof UserCursors cursorsMessage )
 	{
 	  _stompSync.onCursorsMessageReceived(headers, cursorsMessage);
@@ -81,7 +95,9 @@ public abstract class AbstractRTSyncStompSessionHandler extends StompSessionHand
 
   protected boolean isWholeOperationState(StompHeaders headers)
   {
-	return !EndpointPaths.TOPIC_OPERATIONS.equals(headers.getDestination());
+	String destination = headers.getDestination();
+	return !EndpointPaths.TOPIC_OPERATIONS.equals(destination)
+		&& !EndpointPaths.USER_QUEUE_OPERATIONS.equals(destination);
   }
 
   /**
@@ -3,17 +3,17 @@ package de.dmos.rtsync.client;
 import java.awt.Color;
 import java.net.URI;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.messaging.MessageDeliveryException;
 import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession;
 import org.springframework.messaging.simp.stomp.StompSessionHandler;
 import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
@@ -24,33 +24,63 @@ import org.springframework.web.socket.messaging.WebSocketStompClient;
 import org.springframework.web.socket.sockjs.client.SockJsClient;
 import org.springframework.web.socket.sockjs.client.WebSocketTransport;
 
-import de.dmos.rtsync.client.internalinterfaces.OutgoingClientMessage;
+import de.dmos.rtsync.client.OutgoingMessageQueue.QueuedMessage;
 import de.dmos.rtsync.network.CommunicationConstants;
 import de.dmos.rtsync.network.EndpointPaths;
+import de.dmos.rtsync.serializers.BinaryMessageCodec;
+import de.dmos.rtsync.serializers.MapCompositeMessageConverter;
 import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.util.ExecutionModel;
 import jakarta.websocket.ContainerProvider;
 import jakarta.websocket.WebSocketContainer;
 
-public class ClientSynchronizingThread extends Thread
+/**
+ * Connects to the server and sends the queued messages until it is terminated. It runs on its own thread after
+ * {@link #start()} or on the thread of an executor to which it is submitted. Its own threads and the one which sends
+ * the STOMP heartbeats are platform or virtual threads depending on the {@link ExecutionModel}, so one JVM can host
+ * thousands of clients with virtual threads.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class ClientSynchronizingThread implements Runnable
 {
   private static final Logger                        LOG                      =
 	  LoggerFactory.getLogger(ClientSynchronizingThread.class);
 
+  /**
+   * The maximum number of messages which are taken from the queue at once.
+   */
+  private static final int                           MAX_BATCH_SIZE           = 64;
+
+  private final String								 _name;
+  private final ExecutionModel						 _executionModel;
+  /**
+   * The scheduler of the STOMP heartbeats if it was created by this and needs to be shut down when this ends.
+   */
+  private final ScheduledExecutorService			 _ownScheduler;
   private final URI                                  _uri;
-  private final BlockingQueue<OutgoingClientMessage> _messageQueue;
+  private final OutgoingMessageQueue                 _messageQueue;
   private final WebSocketStompClient                 _wsStompClient;
+  private final MessageConverter					 _messageConverter;
   protected final StompSessionHandler				 _stompSessionHandler;
   private final ClientConnectionHandler				 _connectionHandler;
   private final List<String>						 _initialSubscriptions;
+  private Function<String, StompHeaders>			 _initialSubscriptionHeaders;
+  private volatile boolean							 _binaryEncoding;
 
   protected StompSession							 _stompSession;
-  private boolean                                    _terminated              = false;
-  private boolean                                    _shouldReconnect;
+  /**
+   * The thread which currently runs this.
+   */
+  private volatile Thread							 _runner;
+  private volatile boolean							 _terminated			  = false;
+  private volatile boolean							 _shouldReconnect;
   private long                                       _connectionTimeoutMillis = 10000;
 
   public ClientSynchronizingThread(
 	URI uri,
-	BlockingQueue<OutgoingClientMessage> messageQueue,
+	OutgoingMessageQueue messageQueue,
 	ClientConnectionHandler                   connectionHandler,
 	StompSessionHandler stompSessionHandler,
 	MessageConverter messageConverter,
@@ -68,18 +98,46 @@ public class ClientSynchronizingThread extends Thread
 
   public ClientSynchronizingThread(
 	URI uri,
-	BlockingQueue<OutgoingClientMessage> messageQueue,
+	OutgoingMessageQueue messageQueue,
 	ClientConnectionHandler                   connectionHandler,
 	StompSessionHandler stompSessionHandler,
 	MessageConverter messageConverter,
 	List<String> initialSubscriptions,
 	ScheduledExecutorService scheduledExecutorService)
   {
-	super(
-	  (connectionHandler.getPreferredName() != null
-	  ? connectionHandler.getPreferredName() + "'s "
-		  : "")
-	  + "client synchronizing thread");
+	this(
+	  uri,
+	  messageQueue,
+	  connectionHandler,
+	  stompSessionHandler,
+	  messageConverter,
+	  initialSubscriptions,
+	  scheduledExecutorService,
+	  ExecutionModel.fromSystemProperty());
+  }
+
+  /**
+   * @param scheduledExecutorService The scheduler of the STOMP heartbeats. If it is null, a single threaded one of the
+   *          given execution model is created and shut down when this ends, since every connection attempt of a client
+   *          uses a new instance.
+   * @param executionModel The kind of threads on which this runs after {@link #start()} and on which the heartbeats
+   *          are sent if no scheduler is given.
+   */
+  public ClientSynchronizingThread(
+	URI uri,
+	OutgoingMessageQueue messageQueue,
+	ClientConnectionHandler connectionHandler,
+	StompSessionHandler stompSessionHandler,
+	MessageConverter messageConverter,
+	List<String> initialSubscriptions,
+	ScheduledExecutorService scheduledExecutorService,
+	ExecutionModel executionModel)
+  {
+	_name = (connectionHandler.getPreferredName() != null
+		? connectionHandler.getPreferredName() + "'s "
+			: "")
+		+ "client synchronizing thread";
+	_executionModel = executionModel;
 	_uri = uri;
 	_messageQueue = messageQueue;
 
@@ -93,9 +151,10 @@ public class ClientSynchronizingThread extends Thread
 	  wsClient = new SockJsClient(List.of(new WebSocketTransport(wsClient)));
 	}
 	_wsStompClient = new WebSocketStompClient(wsClient);
-	scheduledExecutorService =
-		scheduledExecutorService != null ? scheduledExecutorService : Executors.newSingleThreadScheduledExecutor();
+	_ownScheduler = scheduledExecutorService == null ? executionModel.newScheduledExecutor(_name + " heartbeats-") : null;
+	scheduledExecutorService = scheduledExecutorService != null ? scheduledExecutorService : _ownScheduler;
 	_wsStompClient.setTaskScheduler(new ConcurrentTaskScheduler(scheduledExecutorService));
+	_messageConverter = messageConverter;
 	_wsStompClient.setMessageConverter(messageConverter);
 	_wsStompClient.setDefaultHeartbeat(new long[] {10000, 10000});
 	_stompSessionHandler = stompSessionHandler;
@@ -103,6 +162,24 @@ public class ClientSynchronizingThread extends Thread
 	_initialSubscriptions = initialSubscriptions;
   }
 
+  public String getName()
+  {
+	return _name;
+  }
+
+  public ExecutionModel getExecutionModel()
+  {
+	return _executionModel;
+  }
+
+  /**
+   * Starts running this on a new thread of its {@link ExecutionModel}.
+   */
+  public void start()
+  {
+	_executionModel.newThread(_name, this).start();
+  }
+
   public boolean isConnected()
   {
 	return _stompSession != null && _stompSession.isConnected();
@@ -118,30 +195,89 @@ public class ClientSynchronizingThread extends Thread
 	_connectionTimeoutMillis = newTimeout;
   }
 
+  /**
+   * Sets the function which creates the headers of each initial subscription by its destination whenever the thread
+   * (re)connects, e.g. to tell the server from which version the client resumes. It may return null if no headers are
+   * needed.
+   */
+  public void setInitialSubscriptionHeaders(Function<String, StompHeaders> initialSubscriptionHeaders)
+  {
+	_initialSubscriptionHeaders = initialSubscriptionHeaders;
+  }
+
+  public boolean isBinaryEncoding()
+  {
+	return _binaryEncoding;
+  }
+
+  /**
+   * Sets whether this thread's connections exchange binary messages instead of JSON, see {@link BinaryMessageCodec}. If
+   * enabled, the client tells the server that it accepts binary messages when it (re)connects and encodes its own
+   * messages binary, too. This requires a {@link MapCompositeMessageConverter} and is disabled by default.
+   */
+  public void setBinaryEncoding(boolean binaryEncoding)
+  {
+	_binaryEncoding = binaryEncoding;
+  }
+
   public void terminate()
   {
 	_terminated = true;
-	interrupt();
+	interruptRunner();
   }
 
   public void reconnect()
   {
 	_shouldReconnect = true;
-	interrupt();
+	interruptRunner();
+  }
+
+  private void interruptRunner()
+  {
+	Thread runner = _runner;
+	if ( runner != null )
+	{
+	  runner.interrupt();
+	}
   }
 
   void changePreferredName(String preferredName)
   {
-	_messageQueue.add(new BasicMessage(EndpointPaths.APP_SET_OWN_NAME, preferredName));
+	_messageQueue
+	.add(
+	  new BasicMessage(EndpointPaths.APP_SET_OWN_NAME, preferredName),
+	  OutgoingMessageQueue.Priority.NORMAL,
+	  EndpointPaths.APP_SET_OWN_NAME);
   }
 
   void changePreferredColor(Color preferredColor)
   {
-	_messageQueue.add(new BasicMessage(EndpointPaths.APP_SET_OWN_COLOR, preferredColor));
+	_messageQueue
+	.add(
+	  new BasicMessage(EndpointPaths.APP_SET_OWN_COLOR, preferredColor),
+	  OutgoingMessageQueue.Priority.NORMAL,
+	  EndpointPaths.APP_SET_OWN_COLOR);
   }
 
   @Override
   public void run()
+  {
+	_runner = Thread.currentThread();
+	try
+	{
+	  synchronizeUntilTerminated();
+	}
+	finally
+	{
+	  _runner = null;
+	  if ( _ownScheduler != null )
+	  {
+		_ownScheduler.shutdown();
+	  }
+	}
+  }
+
+  private void synchronizeUntilTerminated()
   {
 	LOG.debug("Thread {} started", getName());
 	do
@@ -149,7 +285,7 @@ public class ClientSynchronizingThread extends Thread
 	  if ( _shouldReconnect )
 	  {
 		_shouldReconnect = false;
-		interrupted();
+		Thread.interrupted();
 		LOG.debug("Thread {} is trying to reconnect.", getName());
 	  }
 	  else
@@ -206,17 +342,27 @@ public class ClientSynchronizingThread extends Thread
 	  headers.set(CommunicationConstants.PREFERRED_COLOR_HEADER, colorString);
 	}
 
+	StompHeaders connectHeaders = new StompHeaders();
+	boolean binaryEncoding = _binaryEncoding && _messageConverter instanceof MapCompositeMessageConverter;
+	if ( binaryEncoding )
+	{
+	  connectHeaders.set(BinaryMessageCodec.ACCEPT_HEADER, BinaryMessageCodec.MIME_TYPE.toString());
+	}
+	_wsStompClient
+	.setMessageConverter(
+	  binaryEncoding ? ((MapCompositeMessageConverter) _messageConverter).withBinaryEncoding() : _messageConverter);
+
 	_stompSession = null;
 	try
 	{
 	  _stompSession = _wsStompClient
-		  .connectAsync(_uri.toString(), headers, _stompSessionHandler)
+		  .connectAsync(_uri.toString(), headers, connectHeaders, _stompSessionHandler)
 		  .get(_connectionTimeoutMillis, TimeUnit.MILLISECONDS);
 	  _connectionHandler.onConnectionStateChanged(ConnectionState.INITIAL_SUBSCRIBING, null);
 
 	  // The subscriptions are done here instead of the stompSessionHandler's afterConnect method because that may cause a MessageDeliveryException due to concurrent sending.
 	  // We prefer to do the concurrency handling here.
-	  _initialSubscriptions.forEach(s -> _stompSession.subscribe(s, _stompSessionHandler));
+	  _initialSubscriptions.forEach(s -> _stompSession.subscribe(createInitialSubscriptionHeaders(s), _stompSessionHandler));
 	}
 	catch (InterruptedException intEx)
 	{
@@ -229,44 +375,61 @@ public class ClientSynchronizingThread extends Thread
 	}
   }
 
+  private StompHeaders createInitialSubscriptionHeaders(String destination)
+  {
+	StompHeaders headers = _initialSubscriptionHeaders != null ? _initialSubscriptionHeaders.apply(destination) : null;
+	headers = headers != null ? headers : new StompHeaders();
+	headers.setDestination(destination);
+	return headers;
+  }
+
   // not used currently.
   //  public void queryLatest()
   //  {
   //    _messageQueue.add(new OutgoingClientMessage(EndpointPaths.APP_GET_LATEST_OPERATION, null));
   //  }
 
+  /**
+   * Sends all queued messages in batches, so messages which were queued while sending the previous ones are flushed
+   * together.
+   */
   private void keepSynchronizingWithServer()
   {
 	while (!_terminated && !_shouldReconnect)
 	{
-	  OutgoingClientMessage currentMessage = waitForNextOutgoingMessage();
-	  if ( currentMessage == null )
-	  {
-		continue;
-	  }
-
-	  try
-	  {
-		currentMessage.send(_stompSession, _stompSessionHandler);
-	  }
-	  catch (IllegalStateException | MessageDeliveryException ex)
+	  List<QueuedMessage> batch = waitForNextOutgoingMessages();
+	  for ( int i = 0; i < batch.size(); i++ )
 	  {
-		_connectionHandler.onException(ex);
+		if ( _terminated || _shouldReconnect )
+		{
+		  _messageQueue.requeue(batch.subList(i, batch.size()));
+		  break;
+		}
+		QueuedMessage queued = batch.get(i);
+		try
+		{
+		  queued.getMessage().send(_stompSession, _stompSessionHandler);
+		  _messageQueue.messageSent(queued);
+		}
+		catch (IllegalStateException | MessageDeliveryException ex)
+		{
+		  _connectionHandler.onException(ex);
+		}
 	  }
 	}
   }
 
   @SuppressWarnings("all")
-  private OutgoingClientMessage waitForNextOutgoingMessage()
+  private List<QueuedMessage> waitForNextOutgoingMessages()
   {
 	try
 	{
-	  return _messageQueue.take();
+	  return _messageQueue.takeBatch(MAX_BATCH_SIZE, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 	}
 	catch (InterruptedException e)
 	{
-	  interrupted();
+	  Thread.interrupted();
 	}
-	return null;
+	return List.of();
   }
-}
\ No newline at end of file
+}
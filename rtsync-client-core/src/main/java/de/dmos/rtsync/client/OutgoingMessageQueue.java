@@ -0,0 +1,324 @@
+package de.dmos.rtsync.client;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import de.dmos.rtsync.client.internalinterfaces.OutgoingClientMessage;
+
+/**
+ * The queue of the messages which a {@link ClientSynchronizingThread} sends to the server. Messages of
+ * {@link Priority#NORMAL} priority, like operations and subscriptions, are always sent before messages of
+ * {@link Priority#LOW} priority, like cursor updates, and each priority keeps the order in which its messages were
+ * added. A message which is added with a supersede key replaces a queued message with the same key, so for example only
+ * the latest of several queued name changes is sent. It keeps the position of the replaced message.
+ *
+ * Additionally, the queue keeps some metrics about its depth and the latency between adding and sending a message.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class OutgoingMessageQueue
+{
+  public enum Priority
+  {
+	NORMAL,
+	LOW
+  }
+
+  private final ReentrantLock				  _lock		   = new ReentrantLock();
+  private final Condition					  _notEmpty	   = _lock.newCondition();
+  private final List<ArrayDeque<QueuedMessage>> _tiers;
+  private final Map<Object, QueuedMessage>	  _superseding = new HashMap<>();
+
+  private int								  _size;
+  private int								  _maxSize;
+  private long								  _sentCount;
+  private long								  _supersededCount;
+  private long								  _totalLatencyNanos;
+  private long								  _maxLatencyNanos;
+
+  public OutgoingMessageQueue()
+  {
+	_tiers = new ArrayList<>();
+	for ( int i = 0; i < Priority.values().length; i++ )
+	{
+	  _tiers.add(new ArrayDeque<>());
+	}
+  }
+
+  /**
+   * Adds the given message with {@link Priority#NORMAL} priority.
+   */
+  public void add(OutgoingClientMessage message)
+  {
+	add(message, Priority.NORMAL, null);
+  }
+
+  /**
+   * Adds the given message with the given priority.
+   *
+   * @param supersedeKey If not null, the message replaces a queued message which was added with an equal key.
+   */
+  public void add(OutgoingClientMessage message, Priority priority, Object supersedeKey)
+  {
+	_lock.lock();
+	try
+	{
+	  if ( supersedeKey != null )
+	  {
+		QueuedMessage queued = _superseding.get(supersedeKey);
+		if ( queued != null && queued._priority == priority )
+		{
+		  queued._message = message;
+		  _supersededCount++;
+		  return;
+		}
+	  }
+	  QueuedMessage queued = new QueuedMessage(message, priority, supersedeKey, System.nanoTime());
+	  _tiers.get(priority.ordinal()).add(queued);
+	  if ( supersedeKey != null )
+	  {
+		_superseding.put(supersedeKey, queued);
+	  }
+	  _size++;
+	  _maxSize = Math.max(_maxSize, _size);
+	  _notEmpty.signal();
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  /**
+   * Waits until at least one message is queued and removes up to the given number of messages in the order in which
+   * they are supposed to be sent.
+   *
+   * @return The removed messages or an empty list if the timeout elapsed.
+   */
+  public List<QueuedMessage> takeBatch(int maxMessages, long timeout, TimeUnit unit) throws InterruptedException
+  {
+	long nanos = unit.toNanos(timeout);
+	_lock.lockInterruptibly();
+	try
+	{
+	  while (_size == 0)
+	  {
+		if ( nanos <= 0 )
+		{
+		  return List.of();
+		}
+		nanos = _notEmpty.awaitNanos(nanos);
+	  }
+	  List<QueuedMessage> batch = new ArrayList<>(Math.min(maxMessages, _size));
+	  for ( ArrayDeque<QueuedMessage> tier : _tiers )
+	  {
+		while (batch.size() < maxMessages && !tier.isEmpty())
+		{
+		  QueuedMessage queued = tier.poll();
+		  if ( queued._supersedeKey != null )
+		  {
+			_superseding.remove(queued._supersedeKey, queued);
+		  }
+		  batch.add(queued);
+		}
+	  }
+	  _size -= batch.size();
+	  return batch;
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  /**
+   * Puts the given messages, which were taken from this queue but not sent, back to the front of the queue.
+   */
+  public void requeue(List<QueuedMessage> unsent)
+  {
+	_lock.lock();
+	try
+	{
+	  for ( int i = unsent.size() - 1; i >= 0; i-- )
+	  {
+		QueuedMessage queued = unsent.get(i);
+		_tiers.get(queued._priority.ordinal()).addFirst(queued);
+		if ( queued._supersedeKey != null )
+		{
+		  _superseding.putIfAbsent(queued._supersedeKey, queued);
+		}
+	  }
+	  _size += unsent.size();
+	  if ( _size > 0 )
+	  {
+		_notEmpty.signal();
+	  }
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  /**
+   * Records the send latency of the given message which was taken from this queue and has been sent.
+   */
+  public void messageSent(QueuedMessage queued)
+  {
+	long latency = System.nanoTime() - queued._enqueuedNanos;
+	_lock.lock();
+	try
+	{
+	  _sentCount++;
+	  _totalLatencyNanos += latency;
+	  _maxLatencyNanos = Math.max(_maxLatencyNanos, latency);
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  public int size()
+  {
+	_lock.lock();
+	try
+	{
+	  return _size;
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  public boolean isEmpty()
+  {
+	return size() == 0;
+  }
+
+  /**
+   * Removes all queued messages which match the given filter.
+   *
+   * @return Whether any message was removed.
+   */
+  public boolean removeIf(Predicate<OutgoingClientMessage> filter)
+  {
+	_lock.lock();
+	try
+	{
+	  int removed = 0;
+	  for ( ArrayDeque<QueuedMessage> tier : _tiers )
+	  {
+		Iterator<QueuedMessage> it = tier.iterator();
+		while (it.hasNext())
+		{
+		  QueuedMessage queued = it.next();
+		  if ( filter.test(queued._message) )
+		  {
+			it.remove();
+			if ( queued._supersedeKey != null )
+			{
+			  _superseding.remove(queued._supersedeKey, queued);
+			}
+			removed++;
+		  }
+		}
+	  }
+	  _size -= removed;
+	  return removed > 0;
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  public void clear()
+  {
+	_lock.lock();
+	try
+	{
+	  _tiers.forEach(ArrayDeque::clear);
+	  _superseding.clear();
+	  _size = 0;
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  public Metrics getMetrics()
+  {
+	_lock.lock();
+	try
+	{
+	  return new Metrics(
+		_size,
+		_maxSize,
+		_sentCount,
+		_supersededCount,
+		Duration.ofNanos(_sentCount > 0 ? _totalLatencyNanos / _sentCount : 0),
+		Duration.ofNanos(_maxLatencyNanos));
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  /**
+   * @param queueDepth The number of currently queued messages.
+   * @param maxQueueDepth The highest number of messages which were queued at once.
+   * @param sentMessages The number of messages which have been sent.
+   * @param supersededMessages The number of messages which were replaced by newer ones and never sent.
+   * @param averageSendLatency The average time between adding and sending a message.
+   * @param maxSendLatency The longest time between adding and sending a message.
+   */
+  public record Metrics(
+	int queueDepth,
+	int maxQueueDepth,
+	long sentMessages,
+	long supersededMessages,
+	Duration averageSendLatency,
+	Duration maxSendLatency)
+  {
+  }
+
+  public static class QueuedMessage
+  {
+	private final Priority	  _priority;
+	private final Object	  _supersedeKey;
+	private final long		  _enqueuedNanos;
+	private OutgoingClientMessage _message;
+
+	private QueuedMessage(OutgoingClientMessage message, Priority priority, Object supersedeKey, long enqueuedNanos)
+	{
+	  _message = message;
+	  _priority = priority;
+	  _supersedeKey = supersedeKey;
+	  _enqueuedNanos = enqueuedNanos;
+	}
+
+	public OutgoingClientMessage getMessage()
+	{
+	  return _message;
+	}
+
+	public Priority getPriority()
+	{
+	  return _priority;
+	}
+  }
+}
@@ -2,6 +2,7 @@ package de.dmos.rtsync.client;
 
 import org.springframework.messaging.MessageDeliveryException;
 import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession;
 import org.springframework.messaging.simp.stomp.StompSession.Subscription;
 
@@ -15,20 +16,43 @@ import de.dmos.rtsync.client.internalinterfaces.ReceiptHandler;
  * @version $Rev$
  *
  */
-public record SubscribeMessage(String destination, ReceiptHandler<Subscription> subscriptionHandler)
-implements
-OutgoingClientMessage
+public record SubscribeMessage(
+  String destination,
+  StompHeaders headers,
+  ReceiptHandler<Subscription> subscriptionHandler) implements OutgoingClientMessage
 {
   public SubscribeMessage(String destination)
   {
-	this(destination, null);
+	this(destination, null, null);
+  }
+
+  public SubscribeMessage(String destination, ReceiptHandler<Subscription> subscriptionHandler)
+  {
+	this(destination, null, subscriptionHandler);
+  }
+
+  /**
+   * @param headers Further headers of the subscription. Its destination is set to the given one when it is sent.
+   */
+  public SubscribeMessage(String destination, StompHeaders headers)
+  {
+	this(destination, headers, null);
   }
 
   @Override
   public void send(StompSession stompSession, StompFrameHandler frameHandler)
 	  throws IllegalStateException, MessageDeliveryException
   {
-	Subscription subscription = stompSession.subscribe(destination, frameHandler);
+	Subscription subscription;
+	if ( headers != null )
+	{
+	  headers.setDestination(destination);
+	  subscription = stompSession.subscribe(headers, frameHandler);
+	}
+	else
+	{
+	  subscription = stompSession.subscribe(destination, frameHandler);
+	}
 	if ( subscriptionHandler != null )
 	{
 	  subscriptionHandler.receiptReceived(subscription);
@@ -1,8 +1,15 @@
 package de.dmos.rtsync.client.internalinterfaces;
 
+import java.time.Duration;
+
 import de.dmos.rtsync.message.CursorPosition;
 
 public interface CursorUpdater
 {
+  /**
+   * The default minimum interval between two cursor updates which a client sends for the same destination.
+   */
+  Duration DEFAULT_CURSOR_UPDATE_INTERVAL = Duration.ofMillis(50);
+
   void updateCursor(CursorPosition cursorPosition);
 }
\ No newline at end of file
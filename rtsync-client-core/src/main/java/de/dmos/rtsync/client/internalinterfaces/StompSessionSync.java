@@ -5,6 +5,7 @@ import java.util.List;
 import org.springframework.messaging.simp.stomp.StompHeaders;
 
 import de.dmos.rtsync.listeners.ExceptionListener;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.UserCursors;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
@@ -15,6 +16,14 @@ public interface StompSessionSync extends ExceptionListener
 
   void onTaggedOperationReceived(StompHeaders headers, TaggedUserOperation userOp, boolean isWholeState);
 
+  /**
+   * Called when the server acknowledges an operation which this client sent. This is only needed by syncs which
+   * subscribe to an acknowledgement queue like {@link de.dmos.rtsync.network.EndpointPaths#USER_QUEUE_ACKS}.
+   */
+  default void onOperationAcknowledged(StompHeaders headers, OperationAck ack)
+  {
+  }
+
   void onCursorsMessageReceived(StompHeaders headers, UserCursors cursorsMessage);
 
   void onServerMessageException(StompHeaders headers, String exceptionMessage);
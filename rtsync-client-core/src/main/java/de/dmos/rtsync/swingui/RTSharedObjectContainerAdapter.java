@@ -2,8 +2,10 @@ package de.dmos.rtsync.swingui;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -454,12 +456,15 @@ public class RTSharedObjectContainerAdapter implements SelfSubscriberListener, S
 	  void reset()
 	  {
 		List<?> newValues = _list.toList();
+		// The new values are matched by identity below, so their membership is checked by identity, too.
+		Set<Object> newValueSet = Collections.newSetFromMap(new IdentityHashMap<>());
+		newValueSet.addAll(newValues);
 
 		List<Object> matchingObjects = new LinkedList<>();
 		for ( Object oldValue : _values )
 		{
-		  int indexInNewValues = newValues.indexOf(oldValue);
-		  if (indexInNewValues < 0) {
+		  if ( !newValueSet.contains(oldValue) )
+		  {
 			delete(oldValue);
 		  } else {
 			matchingObjects.add(oldValue);
@@ -8,12 +8,15 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.SwingUtilities;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 
 import de.dmos.rtsync.client.CursorsHandler;
@@ -62,9 +65,15 @@ CaretListener
   private SortedSet<Insertion>		   _currentInsertions	  = new TreeSet<>();
   private final Map<String, Selection> _currentSelections = new HashMap<>();
   /**
-   * Keeps track of a text change which should only be handled once.
+   * Indicates that the shared string is being changed by the text component, so the change of the shared string needs
+   * to update the insertions and cursors even though the text component already shows its text.
    */
-  private String					   _locallyChangedText;
+  private boolean					   _locallyChanged;
+  /**
+   * The number of scheduled GUI updates which replace the text of the component. While there are any, the text
+   * component's document doesn't match the shared string, so document events can't be mapped to it directly.
+   */
+  private final AtomicInteger		   _pendingTextUpdates = new AtomicInteger();
   /**
    * Determines whether document updates should update the shared string.
    */
@@ -117,37 +126,91 @@ CaretListener
 	void setCursor(String user, Selection selection);
   }
 
+  /**
+   * Sets the shared string to the whole text of the text component, which diffs both texts. This is only the fallback
+   * for document changes which can't be mapped to the shared string directly.
+   */
   private void setSharedStringTextIfDifferent()
   {
-	if ( _settingText )
-	{
-	  return;
-	}
-	_inLocalDocumentChange = true;
 	String text = _textComponent.getText();
 	if ( !text.equals(_sharedString.get()) )
 	{
-	  _locallyChangedText = text;
-	  _sharedString.set(text);
+	  changeSharedStringLocally(() -> _sharedString.set(text));
 	}
   }
 
+  /**
+   * Returns whether the document of the text component matched the shared string before the current document event, as
+   * far as that can be checked without comparing the whole texts.
+   */
+  private boolean isDocumentInSync(int documentLengthBefore)
+  {
+	int sharedLength = _sharedString instanceof CustomSharedString css ? css.length() : _sharedString.get().length();
+	return _pendingTextUpdates.get() == 0 && documentLengthBefore == sharedLength;
+  }
+
   @Override
   public void changedUpdate(DocumentEvent e)
   {
-	setSharedStringTextIfDifferent();
+	// Only the attributes of the text changed, which aren't shared.
   }
 
   @Override
   public void insertUpdate(DocumentEvent e)
   {
-	setSharedStringTextIfDifferent();
+	if ( _settingText )
+	{
+	  return;
+	}
+	_inLocalDocumentChange = true;
+	Document document = e.getDocument();
+	if ( !isDocumentInSync(document.getLength() - e.getLength()) )
+	{
+	  setSharedStringTextIfDifferent();
+	  return;
+	}
+	try
+	{
+	  String inserted = document.getText(e.getOffset(), e.getLength());
+	  changeSharedStringLocally(() -> _sharedString.insert(e.getOffset(), inserted));
+	}
+	catch (BadLocationException ex)
+	{
+	  setSharedStringTextIfDifferent();
+	}
   }
 
   @Override
   public void removeUpdate(DocumentEvent e)
   {
-	setSharedStringTextIfDifferent();
+	if ( _settingText )
+	{
+	  return;
+	}
+	_inLocalDocumentChange = true;
+	if ( !isDocumentInSync(e.getDocument().getLength() + e.getLength()) )
+	{
+	  setSharedStringTextIfDifferent();
+	  return;
+	}
+	changeSharedStringLocally(() -> _sharedString.remove(e.getOffset(), e.getOffset() + e.getLength()));
+  }
+
+  /**
+   * Runs the given change of the shared string, which notifies this synchronously, while {@link #_locallyChanged} is
+   * set.
+   */
+  private void changeSharedStringLocally(Runnable change)
+  {
+	_locallyChanged = true;
+	try
+	{
+	  change.run();
+	}
+	finally
+	{
+	  _locallyChanged = false;
+	}
   }
 
   protected void updateSelectionColor(Selection sel)
@@ -157,30 +220,41 @@ CaretListener
 
   public void updateTextFromOp(Operation<StringHandler> op, String user)
   {
+	if ( _locallyChanged && op != null )
+	{
+	  // The text component already shows the change, so only the insertions and cursors need to be updated.
+	  updateGUI(op, user, true);
+	  return;
+	}
 	String oldText = _textComponent.getText();
 	String sharedText = _sharedString.get();
-	if ( oldText == null || !oldText.equals(sharedText) || oldText.equals(_locallyChangedText) )
+	if ( oldText == null || !oldText.equals(sharedText) || _locallyChanged )
 	{
-	  _locallyChangedText = null;
 	  if ( op == null )
 	  {
 		op = CustomSharedString.diffToOperation(oldText, sharedText);
 	  }
-	  updateGUI(op, user);
+	  updateGUI(op, user, false);
 	}
   }
 
   /**
    * Called when the text of the shared string or the user colors are updated to update the GUI from the new
    * information.
+   *
+   * @param textUpToDate Whether the text component is known to show the text of the shared string already.
    */
-  private void updateGUI(Operation<StringHandler> op, String user)
+  private void updateGUI(Operation<StringHandler> op, String user, boolean textUpToDate)
   {
-	String oldText = _textComponent.getText();
-	String sharedToUpdate = _sharedString.get();
-	if ( oldText != null && oldText.equals(_sharedString.get()) )
+	String sharedToUpdate = null;
+	if ( !textUpToDate )
 	{
-	  sharedToUpdate = null;
+	  String oldText = _textComponent.getText();
+	  sharedToUpdate = _sharedString.get();
+	  if ( oldText != null && oldText.equals(sharedToUpdate) )
+	  {
+		sharedToUpdate = null;
+	  }
 	}
 
 	if ( op == null )
@@ -224,11 +298,31 @@ CaretListener
 	Map<String, Selection> currentSelections,
 	Selection selection)
   {
+	if ( shared != null )
+	{
+	  _pendingTextUpdates.incrementAndGet();
+	}
 	SwingUtilities.invokeLater(() -> {
 	  _settingText = true;
-	  _attributedTextSetter
-	  .setAttributedTextAndCursors(shared, resolvedInsertions, currentSelections, selection);
-	  _settingText = false;
+	  try
+	  {
+		// The shared string may have changed since, e.g. by a document event which had to fall back to setting the
+		// whole text, so the latest text is shown instead of the one this update was scheduled with.
+		_attributedTextSetter
+		.setAttributedTextAndCursors(
+		  shared != null ? _sharedString.get() : null,
+		  resolvedInsertions,
+		  currentSelections,
+		  selection);
+	  }
+	  finally
+	  {
+		_settingText = false;
+		if ( shared != null )
+		{
+		  _pendingTextUpdates.decrementAndGet();
+		}
+	  }
 	});
   }
 
@@ -348,7 +442,7 @@ CaretListener
 	{
 	  updateSelectionAndInsertionColors();
 	}
-	updateGUI(null, null);
+	updateGUI(null, null, false);
   }
 
   @Override
@@ -0,0 +1,79 @@
+package de.dmos.rtsync.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompSession;
+
+import de.dmos.rtsync.client.OutgoingMessageQueue.Priority;
+import de.dmos.rtsync.client.OutgoingMessageQueue.QueuedMessage;
+import de.dmos.rtsync.client.internalinterfaces.OutgoingClientMessage;
+
+class OutgoingMessageQueueTest
+{
+  @Test
+  void testNormalMessagesAreTakenBeforeLowPriorityOnes() throws InterruptedException
+  {
+	OutgoingMessageQueue queue = new OutgoingMessageQueue();
+	queue.add(new NamedMessage("cursor"), Priority.LOW, null);
+	queue.add(new NamedMessage("op1"));
+	queue.add(new NamedMessage("op2"));
+
+	assertEquals(List.of("op1", "op2", "cursor"), names(queue.takeBatch(10, 0, TimeUnit.NANOSECONDS)));
+	assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  void testSupersedingMessagesReplaceQueuedOnesInPlace() throws InterruptedException
+  {
+	OutgoingMessageQueue queue = new OutgoingMessageQueue();
+	queue.add(new NamedMessage("name1"), Priority.NORMAL, "name");
+	queue.add(new NamedMessage("op"));
+	queue.add(new NamedMessage("name2"), Priority.NORMAL, "name");
+
+	List<QueuedMessage> batch = queue.takeBatch(10, 0, TimeUnit.NANOSECONDS);
+	assertEquals(List.of("name2", "op"), names(batch));
+	batch.forEach(queue::messageSent);
+
+	queue.add(new NamedMessage("name3"), Priority.NORMAL, "name");
+	assertEquals(1, queue.size());
+
+	OutgoingMessageQueue.Metrics metrics = queue.getMetrics();
+	assertEquals(1, metrics.supersededMessages());
+	assertEquals(2, metrics.sentMessages());
+	assertEquals(2, metrics.maxQueueDepth());
+  }
+
+  @Test
+  void testRequeuedMessagesAreTakenFirst() throws InterruptedException
+  {
+	OutgoingMessageQueue queue = new OutgoingMessageQueue();
+	queue.add(new NamedMessage("op1"));
+	queue.add(new NamedMessage("op2"));
+	queue.add(new NamedMessage("op3"));
+
+	List<QueuedMessage> batch = queue.takeBatch(2, 0, TimeUnit.NANOSECONDS);
+	queue.requeue(batch.subList(1, 2));
+	queue.removeIf(message -> ((NamedMessage) message).name().equals("op3"));
+
+	assertEquals(List.of("op2"), names(queue.takeBatch(10, 0, TimeUnit.NANOSECONDS)));
+  }
+
+  private static List<String> names(List<QueuedMessage> batch)
+  {
+	return batch.stream().map(queued -> ((NamedMessage) queued.getMessage()).name()).toList();
+  }
+
+  private record NamedMessage(String name) implements OutgoingClientMessage
+  {
+	@Override
+	public void send(StompSession stompSession, StompFrameHandler frameHandler)
+	{
+	}
+  }
+}
@@ -1,15 +1,22 @@
 package de.dmos.rtsync.swingui;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
 
+import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 
 import de.dmos.rtsync.customotter.CustomEditor;
 import de.dmos.rtsync.customotter.CustomModelBuilder;
 import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.swingui.RTSharedTextComponentAdapter.AttributedTextSetter;
 import de.dmos.rtsync.test.RTSyncTestHelper;
 import se.l4.otter.model.Model;
 import se.l4.otter.model.SharedString;
@@ -117,6 +124,103 @@ abstract class RTJTextComponentTest
 	assertEquals(expected, rtTextComponent1.getText());
   }
 
+  void typeInTheMiddleOfALargeDocument() throws InvocationTargetException, InterruptedException
+  {
+	Model model = RTSyncTestHelper.createLocalSyncedInMemoryModel();
+	SharedString sharedString = model.newString();
+	JTextComponent rtTextComponent = createRTJTextComponent(sharedString);
+	String largeText = "abcdefghij".repeat(10_000);
+	sharedString.set(largeText);
+	waitForGUIUpdate();
+
+	SwingUtilities.invokeAndWait(() -> {
+	  Document document = rtTextComponent.getDocument();
+	  insertString(document, 50_000, "typed");
+	  try
+	  {
+		document.remove(10, 5);
+	  }
+	  catch (BadLocationException e)
+	  {
+		throw new IllegalStateException(e);
+	  }
+	});
+	waitForGUIUpdate();
+
+	String expected = new StringBuilder(largeText).insert(50_000, "typed").delete(10, 15).toString();
+	assertEquals(expected, sharedString.get());
+	assertEquals(expected, rtTextComponent.getText());
+  }
+
+  /**
+   * Types into the text component before it shows a remote change. The document doesn't match the shared string then,
+   * so the event falls back to setting the whole text. Afterwards the text component and the shared string must agree.
+   */
+  void typeWhileRemoteUpdateIsPending() throws InvocationTargetException, InterruptedException
+  {
+	Model model = RTSyncTestHelper.createLocalSyncedInMemoryModel();
+	SharedString sharedString = model.newString();
+	JTextComponent rtTextComponent = createRTJTextComponent(sharedString);
+	sharedString.set(testText1);
+	waitForGUIUpdate();
+
+	SwingUtilities.invokeAndWait(() -> {
+	  // The GUI update of this change can only run after this task.
+	  sharedString.append(testText2);
+	  insertString(rtTextComponent.getDocument(), 0, "X");
+	});
+	waitForGUIUpdate();
+
+	assertTrue(sharedString.get().startsWith("X"));
+	assertEquals(sharedString.get(), rtTextComponent.getText());
+  }
+
+  /**
+   * Changes a document which doesn't match the shared string although no GUI update is pending, so the event can't be
+   * mapped to the shared string and falls back to setting the whole text.
+   */
+  void changeDocumentWithMismatchingLength() throws InvocationTargetException, InterruptedException
+  {
+	Model model = RTSyncTestHelper.createLocalSyncedInMemoryModel();
+	SharedString sharedString = model.newString();
+	sharedString.set(testText1);
+	JTextField textField = new JTextField(testText1 + testText2);
+	new RTSharedTextComponentAdapter(sharedString, null, null, null, textField, new AttributedTextSetter()
+	{
+	  @Override
+	  public void setAttributedTextAndCursors(
+		String text,
+		List<Insertion> insertions,
+		Map<String, Selection> currentSelections,
+		Selection selection)
+	  {
+		// The text field only shows plain text.
+	  }
+
+	  @Override
+	  public void setCursor(String user, Selection selection)
+	  {
+		// The text field has no other cursors.
+	  }
+	});
+
+	SwingUtilities.invokeAndWait(() -> insertString(textField.getDocument(), textField.getText().length(), "!"));
+
+	assertEquals(testText1 + testText2 + "!", sharedString.get());
+  }
+
+  private static void insertString(Document document, int offset, String text)
+  {
+	try
+	{
+	  document.insertString(offset, text, null);
+	}
+	catch (BadLocationException e)
+	{
+	  throw new IllegalStateException(e);
+	}
+  }
+
   void waitForGUIUpdate() throws InvocationTargetException, InterruptedException
   {
 	SwingUtilities.invokeAndWait(() -> {
@@ -39,4 +39,22 @@ class RTJTextPaneTest extends RTJTextComponentTest
   {
 	remoteChange();
   }
+
+  @Test
+  void typeInTheMiddleOfALargeTextPaneTest() throws InvocationTargetException, InterruptedException
+  {
+	typeInTheMiddleOfALargeDocument();
+  }
+
+  @Test
+  void typeWhileRemoteTextPaneUpdateIsPendingTest() throws InvocationTargetException, InterruptedException
+  {
+	typeWhileRemoteUpdateIsPending();
+  }
+
+  @Test
+  void changeDocumentWithMismatchingLengthTest() throws InvocationTargetException, InterruptedException
+  {
+	changeDocumentWithMismatchingLength();
+  }
 }
@@ -1,10 +1,14 @@
 package de.dmos.rtsync.client;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.stomp.StompSession.Subscription;
 
 import de.dmos.rtsync.client.internalinterfaces.CursorUpdater;
 import de.dmos.rtsync.listeners.IncompatibleModelResolution;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.project.RTProjectData;
 import se.l4.otter.engine.TaggedOperation;
@@ -20,8 +24,23 @@ public class ClientRTProjectData extends RTProjectData
 	  LoggerFactory.getLogger(ClientRTProjectData.class);
 
   private final ClientSubscriptionContainer	_subscriptionContainer;
+  /**
+   * The subscription to the project's user specific queues, which receive the operations of others and the
+   * acknowledgements of this client's operations.
+   */
+  private Subscription						_queueSubscription	= null;
 
   private boolean							_badSynchronization	= false;
+  /**
+   * Indicates whether the local state is known to match the server's state at the local latest version, so the project
+   * can resume from it instead of querying the whole state.
+   */
+  private boolean							_resumable			= false;
+  /**
+   * Indicates whether the editors resent their unconfirmed operations after resuming and no operation has been received
+   * since. If the server rejects them again, the whole state is queried instead of resuming.
+   */
+  private boolean							_resent				= false;
 
   public ClientRTProjectData(String project, RTProjectClientOperationSync projectSync, CursorUpdater cursorUpdater)
   {
@@ -38,12 +57,77 @@ public class ClientRTProjectData extends RTProjectData
   @Override
   public void send(TaggedOperation<Operation<CombinedHandler>> op)
   {
-	if ( !_badSynchronization )
+	if ( !_badSynchronization && !isResuming() )
 	{
 	  super.send(op);
 	}
   }
 
+  public Subscription getQueueSubscription()
+  {
+	return _queueSubscription;
+  }
+
+  void setQueueSubscription(Subscription queueSubscription)
+  {
+	_queueSubscription = queueSubscription;
+  }
+
+  public boolean isResumable()
+  {
+	return _resumable && !_resent;
+  }
+
+  /**
+   * Applies the operations which this project missed and lets the editors resend their unconfirmed operations. If that
+   * fails, the whole state is queried.
+   */
+  public void onResumed(List<TaggedUserOperation> missedOperations)
+  {
+	try
+	{
+	  _badSynchronization = false;
+	  _resent = true;
+	  onMissedOperationsReceived(missedOperations);
+	}
+	catch (ComposeException | TransformException ex)
+	{
+	  _resumable = false;
+	  stopResuming();
+	  ((RTProjectClientOperationSync) _projectSync).onSynchronizationProblem(this, true);
+	}
+  }
+
+  /**
+   * Confirms the acknowledged operation unless it is already contained in the local history, e.g. because it was
+   * received as a missed operation. If the editor which sent it has been reset since, the project misses the stored
+   * operation, so it queries the latest state.
+   */
+  public void onOperationAcknowledgedIfNewer(OperationAck ack)
+  {
+	if ( ack.historyId() <= getLatestVersion() )
+	{
+	  return;
+	}
+	try
+	{
+	  if ( onOperationAcknowledged(ack) == null )
+	  {
+		LOG.warn("Received {} for an unknown operation of project {}", ack, getProject());
+		((RTProjectClientOperationSync) _projectSync).onSynchronizationProblem(this, true);
+	  }
+	  else
+	  {
+		_resent = false;
+	  }
+	}
+	catch (ComposeException | TransformException ex)
+	{
+	  _resumable = false;
+	  ((RTProjectClientOperationSync) _projectSync).onSynchronizationProblem(this, true);
+	}
+  }
+
   @Override
   public void onTaggedOperationReceived(TaggedUserOperation userOp, boolean wholeState) throws TransformException
   {
@@ -59,9 +143,12 @@ public class ClientRTProjectData extends RTProjectData
 	  TaggedUserOperation storedOperation = storeTaggedOperation(userOp, wholeState);
 	  LOG.debug("TaggedOperation received: {} stored as {}", userOp, storedOperation);
 	  notifyListeners(storedOperation, wholeState);
+	  _resumable |= wholeState;
+	  _resent = false;
 	}
 	catch (ComposeException | TransformException ex)
 	{
+	  _resumable = false;
 	  ((RTProjectClientOperationSync) _projectSync).onSynchronizationProblem(this, !wholeState);
 	  if ( wholeState )
 	  {
@@ -71,6 +158,7 @@ public class ClientRTProjectData extends RTProjectData
 		  _badSynchronization = false;
 		  _control.setBaseOperation(userOp);
 		  notifyListeners(userOp, true);
+		  _resumable = true;
 		}
 		else if ( resolution == IncompatibleModelResolution.OVERWRITE_REMOTE_CHANGES )
 		{
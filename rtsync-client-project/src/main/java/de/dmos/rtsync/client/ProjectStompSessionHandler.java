@@ -10,6 +10,7 @@ import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession;
 
 import de.dmos.rtsync.client.internalinterfaces.ProjectStompSessionSync;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
@@ -40,6 +41,10 @@ public class ProjectStompSessionHandler extends AbstractRTSyncStompSessionHandle
 	{
 	  case EndpointPaths.OPERATIONS, EndpointPaths.LATEST_OPERATION, EndpointPaths.GET_LATEST_OPERATION:
 		return TaggedUserOperation.class;
+	  case EndpointPaths.OPERATION_BATCHES:
+		return TaggedUserOperation[].class;
+	  case EndpointPaths.ACKS:
+		return OperationAck.class;
 	  case EndpointPaths.SUBSCRIBERS:
 		return Subscriber[].class;
 	  case EndpointPaths.EXCEPTION:
@@ -50,7 +55,7 @@ public class ProjectStompSessionHandler extends AbstractRTSyncStompSessionHandle
 		return UserCursors.class;
 	  case EndpointPaths.PROJECTS:
 		return String[].class;
-	  case EndpointPaths.ALL_TOPICS:
+	  case EndpointPaths.ALL_TOPICS, EndpointPaths.RESUME:
 		return RTState.class;
 	  default:
 		LOG.warn("unexpected destination '{}'", destination);
@@ -2,13 +2,12 @@ package de.dmos.rtsync.client;
 
 import java.awt.Color;
 import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,19 +17,22 @@ import org.springframework.messaging.simp.stomp.StompSessionHandler;
 
 import de.dmos.rtsync.client.ProjectAvailability.ProjectAvailabilityState;
 import de.dmos.rtsync.client.internalinterfaces.ClientOperationSync;
-import de.dmos.rtsync.client.internalinterfaces.OutgoingClientMessage;
+import de.dmos.rtsync.client.internalinterfaces.CursorUpdater;
 import de.dmos.rtsync.client.internalinterfaces.ProjectStompSessionSync;
 import de.dmos.rtsync.listeners.LocalProjectListener;
 import de.dmos.rtsync.listeners.ProjectListListener;
 import de.dmos.rtsync.message.CursorPosition;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.message.UserCursors;
+import de.dmos.rtsync.network.CommunicationConstants;
 import de.dmos.rtsync.network.EndpointPaths;
 import de.dmos.rtsync.project.AbstractProjectOperationSync;
 import de.dmos.rtsync.project.RTProjectData;
 import de.dmos.rtsync.serializers.ProjectMessageSerialization;
+import de.dmos.rtsync.util.CoalescingThrottle;
 import de.dmos.rtsync.util.WeakLinkedList;
 import jakarta.annotation.PreDestroy;
 import se.l4.otter.engine.TaggedOperation;
@@ -53,8 +55,11 @@ LocalProjectListener<ClientRTProjectData>
 		EndpointPaths.APP_INIT_CLIENT);
   private static final String						   APP_PATH				 =
 	  EndpointPaths.APP + EndpointPaths.DELIMITER;
+  private static final String						   USER_QUEUE_PATH		 =
+	  EndpointPaths.USER + EndpointPaths.QUEUE + EndpointPaths.DELIMITER;
 
-  protected final BlockingQueue<OutgoingClientMessage> _messageQueue;
+  protected final OutgoingMessageQueue				   _messageQueue;
+  private final CoalescingThrottle<String, CursorPosition> _cursorThrottle;
   protected final StompSessionHandler				   _stompSessionHandler;
   private final ClientConnectionHandler				   _connectionHandler;
   private final WeakLinkedList<ProjectListListener>	   _projectsListeners;
@@ -67,7 +72,11 @@ LocalProjectListener<ClientRTProjectData>
   {
 	super();
 	_connectionHandler = new ClientConnectionHandler(this, preferredName, preferredColor);
-	_messageQueue = new LinkedBlockingQueue<>();
+	_messageQueue = new OutgoingMessageQueue();
+	_cursorThrottle = new CoalescingThrottle<>(
+		CursorUpdater.DEFAULT_CURSOR_UPDATE_INTERVAL,
+		(destination, position) -> _messageQueue
+		.add(new BasicMessage(destination, position), OutgoingMessageQueue.Priority.LOW, destination));
 	_stompSessionHandler = new ProjectStompSessionHandler(this);
 	_projectsListeners = new WeakLinkedList<>();
 	Runtime.getRuntime().addShutdownHook(new Thread(this::stopSynchronizingWithServer));
@@ -93,7 +102,7 @@ LocalProjectListener<ClientRTProjectData>
 
   private void updateProjectCursor(String project, CursorPosition position)
   {
-	_messageQueue.add(new BasicMessage(APP_PATH + project + EndpointPaths.PATH_UPDATE_OWN_CURSORS, position));
+	_cursorThrottle.offer(APP_PATH + project + EndpointPaths.PATH_UPDATE_OWN_CURSORS, position);
   }
 
   @Override
@@ -108,6 +117,28 @@ LocalProjectListener<ClientRTProjectData>
 	return _connectionThread != null && _connectionThread.isConnected();
   }
 
+  /**
+   * Returns the queue depth and send latency metrics of the messages which are sent to the server.
+   */
+  public OutgoingMessageQueue.Metrics getOutgoingMessageMetrics()
+  {
+	return _messageQueue.getMetrics();
+  }
+
+  public Duration getCursorUpdateInterval()
+  {
+	return _cursorThrottle.getMinInterval();
+  }
+
+  /**
+   * Sets the minimum interval between two cursor updates sent to the server. Cursor positions which change in between
+   * replace each other, so only the latest one is sent.
+   */
+  public void setCursorUpdateInterval(Duration cursorUpdateInterval)
+  {
+	_cursorThrottle.setMinInterval(cursorUpdateInterval);
+  }
+
   public void setExecutorService(ExecutorService executorService)
   {
 	_executorService = executorService;
@@ -117,6 +148,7 @@ LocalProjectListener<ClientRTProjectData>
   public void close()
   {
 	_messageQueue.clear();
+	_cursorThrottle.clear();
 	stopSynchronizingWithServer();
 	super.close();
   }
@@ -183,10 +215,36 @@ LocalProjectListener<ClientRTProjectData>
 	removeSendOperationsFromMessageQueue(clientRTProjectData.getProject());
 	if ( queryLatest )
 	{
-	  queryLatestProjectOperation(clientRTProjectData.getProject());
+	  if ( clientRTProjectData.isResumable() )
+	  {
+		if ( !clientRTProjectData.isResuming() )
+		{
+		  resumeProject(clientRTProjectData);
+		}
+	  }
+	  else
+	  {
+		queryLatestProjectOperation(clientRTProjectData.getProject());
+	  }
 	}
   }
 
+  /**
+   * Queries the operations which the project missed since its latest version. The server answers with the whole state
+   * if it doesn't retain them anymore.
+   */
+  private void resumeProject(ClientRTProjectData clientRTProjectData)
+  {
+	StompHeaders headers = new StompHeaders();
+	headers.set(CommunicationConstants.RESUME_FROM_HEADER, Long.toString(clientRTProjectData.startResuming()));
+	if ( clientRTProjectData.getHistoryEpoch() != null )
+	{
+	  headers.set(CommunicationConstants.RESUME_EPOCH_HEADER, clientRTProjectData.getHistoryEpoch());
+	}
+	_messageQueue
+	.add(new SubscribeMessage(APP_PATH + clientRTProjectData.getProject() + EndpointPaths.PATH_RESUME, headers));
+  }
+
   private void queryLatestProjectOperation(String project)
   {
 	_messageQueue.add(new SubscribeMessage(APP_PATH + project + EndpointPaths.PATH_GET_LATEST_OPERATION));
@@ -273,7 +331,16 @@ LocalProjectListener<ClientRTProjectData>
 	  return;
 	}
 
-	data.onTaggedOperationReceived(projectStateMessage.taggedOperation(), true);
+	data.setHistoryEpoch(projectStateMessage.historyEpoch());
+	if ( projectStateMessage.isResumed() )
+	{
+	  data.onResumed(projectStateMessage.missedOperations());
+	}
+	else
+	{
+	  data.onTaggedOperationReceived(projectStateMessage.taggedOperation(), true);
+	  data.stopResuming();
+	}
 	ClientSubscriptionContainer subContainer = data.getSubscriptionContainer();
 	if ( projectStateMessage.userCursors() != null )
 	{
@@ -285,9 +352,32 @@ LocalProjectListener<ClientRTProjectData>
   public void onTaggedOperationReceived(StompHeaders headers, TaggedUserOperation userOp, boolean isWholeState)
   {
 	ClientRTProjectData data = getOrCreateRTProjectData(getProjectFromHeaders(headers));
-	if ( data != null )
+	if ( data == null )
+	{
+	  return;
+	}
+	if ( isWholeState )
+	{
+	  data.onTaggedOperationReceived(userOp, true);
+	  data.stopResuming();
+	}
+	else if ( !data.holdWhileResuming(() -> data.onTaggedOperationReceivedIfNewer(userOp)) )
+	{
+	  data.onTaggedOperationReceived(userOp, false);
+	}
+  }
+
+  /**
+   * Confirms the acknowledged operation of the project. While it is resuming, acknowledgements are held back like
+   * received operations.
+   */
+  @Override
+  public void onOperationAcknowledged(StompHeaders headers, OperationAck ack)
+  {
+	ClientRTProjectData data = getProjectData(headers);
+	if ( data != null && !data.holdWhileResuming(() -> data.onOperationAcknowledgedIfNewer(ack)) )
 	{
-	  data.onTaggedOperationReceived(userOp, isWholeState);
+	  data.onOperationAcknowledgedIfNewer(ack);
 	}
   }
 
@@ -386,10 +476,19 @@ LocalProjectListener<ClientRTProjectData>
 	  _projectList.contains(project) ? ProjectAvailabilityState.LOCAL_AND_REMOTE : ProjectAvailabilityState.LOCAL);
   }
 
+  /**
+   * Subscribes to the project's user specific queues before the project itself, so no operation or acknowledgement
+   * which is sent after the project's state is missed.
+   */
   @Override
   public void localProjectCreated(ClientRTProjectData data)
   {
 	_messageQueue
+	.add(
+	  new SubscribeMessage(
+		USER_QUEUE_PATH + data.getProject() + EndpointPaths.PATH_ALL_TOPICS,
+		data::setQueueSubscription));
+	_messageQueue
 	.add(
 	  new SubscribeMessage(
 		APP_PATH + data.getProject() + EndpointPaths.PATH_ALL_TOPICS,
@@ -404,6 +503,11 @@ LocalProjectListener<ClientRTProjectData>
 	{
 	  _messageQueue.add(new UnsubscribeMessage(subscription));
 	}
+	Subscription queueSubscription = project.getQueueSubscription();
+	if ( queueSubscription != null )
+	{
+	  _messageQueue.add(new UnsubscribeMessage(queueSubscription));
+	}
   }
 
   /**
@@ -2,10 +2,9 @@ package de.dmos.rtsync.client;
 
 import java.awt.Color;
 import java.net.URI;
+import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,18 +13,21 @@ import org.springframework.messaging.simp.stomp.StompSessionHandler;
 
 import de.dmos.rtsync.client.internalinterfaces.ClientOperationSync;
 import de.dmos.rtsync.client.internalinterfaces.CursorUpdater;
-import de.dmos.rtsync.client.internalinterfaces.OutgoingClientMessage;
 import de.dmos.rtsync.client.internalinterfaces.SimpleStompSessionSync;
 import de.dmos.rtsync.customotter.AbstractOperationSync;
 import de.dmos.rtsync.customotter.CustomEditorControl;
 import de.dmos.rtsync.listeners.IncompatibleModelResolution;
 import de.dmos.rtsync.message.CursorPosition;
+import de.dmos.rtsync.message.OperationAck;
+import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.SimpleStateMessage;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.message.UserCursors;
+import de.dmos.rtsync.network.CommunicationConstants;
 import de.dmos.rtsync.network.EndpointPaths;
 import de.dmos.rtsync.serializers.SimpleMessageSerialization;
+import de.dmos.rtsync.util.CoalescingThrottle;
 import jakarta.annotation.PreDestroy;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.lock.CloseableLock;
@@ -48,10 +50,15 @@ CursorUpdater
 		EndpointPaths.USER_QUEUE_EXCEPTION,
 		EndpointPaths.TOPIC_SUBSCRIBERS,
 		EndpointPaths.TOPIC_OPERATIONS,
+		EndpointPaths.USER_QUEUE_OPERATIONS,
+		EndpointPaths.USER_QUEUE_ACKS,
+		EndpointPaths.TOPIC_OPERATION_BATCHES,
+		EndpointPaths.USER_QUEUE_OPERATION_BATCHES,
 		EndpointPaths.TOPIC_CURSORS,
 		EndpointPaths.APP_INIT_CLIENT);
 
-  protected final BlockingQueue<OutgoingClientMessage> _messageQueue;
+  protected final OutgoingMessageQueue				   _messageQueue;
+  private final CoalescingThrottle<String, CursorPosition> _cursorThrottle;
   protected final StompSessionHandler				 _stompSessionHandler;
   private final ClientConnectionHandler				   _connectionHandler;
   private final ClientSubscriptionContainer			   _subscriptionContainer;
@@ -67,6 +74,16 @@ CursorUpdater
    */
   private boolean                                    _badSynchronization = false;
   private boolean									   _subscribed;
+  /**
+   * Indicates whether the local state is known to match the server's state at the local latest version, so the client
+   * can resume from it instead of querying the whole state.
+   */
+  private boolean									   _resumable		   = false;
+  /**
+   * Indicates whether the editors resent their unconfirmed operations after resuming and none of them has been
+   * acknowledged since. If the server rejects them again, the client queries the whole state instead of resuming.
+   */
+  private boolean									   _resent			   = false;
 
   public RTSimpleClientOperationSync(
 	CustomEditorControl<Operation<CombinedHandler>> control,
@@ -76,20 +93,72 @@ CursorUpdater
 	super(control);
 	_connectionHandler = new ClientConnectionHandler(this, preferredName, preferredColor);
 	_subscriptionContainer = new ClientSubscriptionContainer(_connectionHandler, this);
-	_messageQueue = new LinkedBlockingQueue<>();
+	_messageQueue = new OutgoingMessageQueue();
+	_cursorThrottle = new CoalescingThrottle<>(
+		CursorUpdater.DEFAULT_CURSOR_UPDATE_INTERVAL,
+		(destination, position) -> _messageQueue
+		.add(new BasicMessage(destination, position), OutgoingMessageQueue.Priority.LOW, destination));
 	_stompSessionHandler = new SimpleStompSessionHandler(this);
 	Runtime.getRuntime().addShutdownHook(new Thread(this::stopSynchronizingWithServer));
   }
 
   protected ClientSynchronizingThread createSynchronizingThread(URI uri)
   {
-	return new ClientSynchronizingThread(
+	ClientSynchronizingThread thread = new ClientSynchronizingThread(
 	  uri,
 	  _messageQueue,
 	  _connectionHandler,
 	  _stompSessionHandler,
 	  SimpleMessageSerialization.getCombinedMessageConverter(),
 	  INITIAL_SUBSCRIPTIONS);
+	thread.setInitialSubscriptionHeaders(this::createInitialSubscriptionHeaders);
+	return thread;
+  }
+
+  /**
+   * Lets the client resume from its latest version when it reconnects, if it has been synchronized before.
+   */
+  private StompHeaders createInitialSubscriptionHeaders(String destination)
+  {
+	return EndpointPaths.APP_INIT_CLIENT.equals(destination) && _resumable ? createResumeHeaders() : null;
+  }
+
+  /**
+   * Starts resuming and creates the headers to tell the server the version from which the client resumes. Queued
+   * operations are dropped since the editors resend all their unconfirmed operations after resuming.
+   */
+  private StompHeaders createResumeHeaders()
+  {
+	StompHeaders headers = new StompHeaders();
+	headers.set(CommunicationConstants.RESUME_FROM_HEADER, Long.toString(startResuming()));
+	if ( getHistoryEpoch() != null )
+	{
+	  headers.set(CommunicationConstants.RESUME_EPOCH_HEADER, getHistoryEpoch());
+	}
+	removeSendOperationsFromMessageQueue();
+	return headers;
+  }
+
+  /**
+   * Returns the queue depth and send latency metrics of the messages which are sent to the server.
+   */
+  public OutgoingMessageQueue.Metrics getOutgoingMessageMetrics()
+  {
+	return _messageQueue.getMetrics();
+  }
+
+  public Duration getCursorUpdateInterval()
+  {
+	return _cursorThrottle.getMinInterval();
+  }
+
+  /**
+   * Sets the minimum interval between two cursor updates sent to the server. Cursor positions which change in between
+   * replace each other, so only the latest one is sent.
+   */
+  public void setCursorUpdateInterval(Duration cursorUpdateInterval)
+  {
+	_cursorThrottle.setMinInterval(cursorUpdateInterval);
   }
 
   public void setExecutorService(ExecutorService executorService)
@@ -105,7 +174,7 @@ CursorUpdater
   @Override
   public void send(TaggedOperation<Operation<CombinedHandler>> op)
   {
-	if ( _badSynchronization )
+	if ( _badSynchronization || isResuming() )
 	{
 	  return;
 	}
@@ -116,6 +185,7 @@ CursorUpdater
   public void close()
   {
 	_messageQueue.clear();
+	_cursorThrottle.clear();
 	stopSynchronizingWithServer();
   }
 
@@ -180,7 +250,17 @@ CursorUpdater
 	}
 	if ( queryLatest )
 	{
-	  _messageQueue.add(new SubscribeMessage(EndpointPaths.APP_GET_LATEST_OPERATION));
+	  if ( _resumable && !_resent )
+	  {
+		if ( !isResuming() )
+		{
+		  _messageQueue.add(new SubscribeMessage(EndpointPaths.APP_RESUME, createResumeHeaders()));
+		}
+	  }
+	  else
+	  {
+		_messageQueue.add(new SubscribeMessage(EndpointPaths.APP_GET_LATEST_OPERATION));
+	  }
 	}
   }
 
@@ -207,7 +287,7 @@ CursorUpdater
   @Override
   public void updateCursor(CursorPosition position)
   {
-	_messageQueue.add(new BasicMessage(EndpointPaths.APP_UPDATE_OWN_CURSORS, position));
+	_cursorThrottle.offer(EndpointPaths.APP_UPDATE_OWN_CURSORS, position);
   }
 
   @Override
@@ -215,17 +295,62 @@ CursorUpdater
   {
 	_connectionHandler.onOwnNameOrColorChanged(stateMessage.selfSubscriber());
 	_connectionHandler.onConnectionStateChanged(ConnectionState.CONNECTED, null);
-	onTaggedOperationReceived(stateMessage.rtState().taggedOperation(), true);
-	if ( stateMessage.rtState().userCursors() != null )
+	onResumeStateReceived(headers, stateMessage.rtState());
+  }
+
+  /**
+   * Applies the operations which the client missed if the server could resume from the client's version. Otherwise the
+   * state contains the whole document, which resets the editors like before.
+   */
+  @Override
+  public void onResumeStateReceived(StompHeaders headers, RTState state)
+  {
+	setHistoryEpoch(state.historyEpoch());
+	if ( state.isResumed() )
+	{
+	  onResumed(state.missedOperations());
+	}
+	else
 	{
-	  stateMessage.rtState().userCursors().forEach(_subscriptionContainer::onUserCursorsReceived);
+	  onTaggedOperationReceived(state.taggedOperation(), true);
+	  stopResuming();
+	}
+	if ( state.userCursors() != null )
+	{
+	  state.userCursors().forEach(_subscriptionContainer::onUserCursorsReceived);
+	}
+  }
+
+  private void onResumed(List<TaggedUserOperation> missedOperations)
+  {
+	try
+	{
+	  _badSynchronization = false;
+	  _subscribed = true;
+	  _resent = true;
+	  onMissedOperationsReceived(missedOperations);
+	  _connectionHandler.onConnectionStateChanged(ConnectionState.CONNECTED, null);
+	}
+	catch (ComposeException | TransformException ex)
+	{
+	  _resumable = false;
+	  stopResuming();
+	  onSynchronizationProblem(ex, true);
 	}
   }
 
   @Override
   public void onTaggedOperationReceived(StompHeaders headers, TaggedUserOperation userOp, boolean isWholeState)
   {
-	onTaggedOperationReceived(userOp, isWholeState);
+	if ( isWholeState )
+	{
+	  onTaggedOperationReceived(userOp, true);
+	  stopResuming();
+	}
+	else if ( !holdWhileResuming(() -> onTaggedOperationReceivedIfNewer(userOp)) )
+	{
+	  onTaggedOperationReceived(userOp, false);
+	}
   }
 
   @Override
@@ -242,9 +367,15 @@ CursorUpdater
 	  TaggedUserOperation storedOperation = storeTaggedOperation(userOp, wholeState);
 	  LOG.debug("TaggedOperation received: {} stored as {}", userOp, storedOperation);
 	  notifyListeners(storedOperation, wholeState);
+	  if ( wholeState )
+	  {
+		_resumable = true;
+		_resent = false;
+	  }
 	}
 	catch (ComposeException | TransformException ex)
 	{
+	  _resumable = false;
 	  onSynchronizationProblem(ex, !wholeState);
 	  if ( wholeState )
 	  {
@@ -254,6 +385,8 @@ CursorUpdater
 		  _badSynchronization = false;
 		  _control.setBaseOperation(userOp);
 		  notifyListeners(userOp, true);
+		  _resumable = true;
+		  _resent = false;
 		  //          _editor.resetToOperation(receivedOperation);
 		}
 		else if ( resolution == IncompatibleModelResolution.OVERWRITE_REMOTE_CHANGES )
@@ -265,6 +398,43 @@ CursorUpdater
 	}
   }
 
+  /**
+   * Confirms the acknowledged operation. If the editor which sent it has been reset since, the client misses the stored
+   * operation, so it queries the latest state. While resuming, acknowledgements are held back like received operations.
+   */
+  @Override
+  public void onOperationAcknowledged(StompHeaders headers, OperationAck ack)
+  {
+	if ( !holdWhileResuming(() -> onOperationAcknowledgedIfNewer(ack)) )
+	{
+	  onOperationAcknowledgedIfNewer(ack);
+	}
+  }
+
+  private void onOperationAcknowledgedIfNewer(OperationAck ack)
+  {
+	if ( ack.historyId() <= getLatestVersion() )
+	{
+	  return;
+	}
+	try
+	{
+	  if ( onOperationAcknowledged(ack) == null )
+	  {
+		onSynchronizationProblem(new IllegalStateException("Received " + ack + " for an unknown operation"), true);
+	  }
+	  else
+	  {
+		_resent = false;
+	  }
+	}
+	catch (ComposeException | TransformException ex)
+	{
+	  _resumable = false;
+	  onSynchronizationProblem(ex, true);
+	}
+  }
+
   public ClientSubscriptionContainer getSubscriptionContainer()
   {
 	return _subscriptionContainer;
@@ -10,6 +10,8 @@ import org.springframework.messaging.simp.stomp.StompSession;
 
 import de.dmos.rtsync.client.internalinterfaces.SimpleStompSessionSync;
 import de.dmos.rtsync.message.UserCursors;
+import de.dmos.rtsync.message.OperationAck;
+import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.SimpleStateMessage;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
@@ -29,14 +31,20 @@ public class SimpleStompSessionHandler extends AbstractRTSyncStompSessionHandler
   {
 	switch (destination)
 	{
-	  case EndpointPaths.TOPIC_OPERATIONS, EndpointPaths.USER_QUEUE_LATEST_OPERATION, EndpointPaths.APP_GET_LATEST_OPERATION:
+	  case EndpointPaths.TOPIC_OPERATIONS, EndpointPaths.USER_QUEUE_OPERATIONS, EndpointPaths.USER_QUEUE_LATEST_OPERATION, EndpointPaths.APP_GET_LATEST_OPERATION:
 		return TaggedUserOperation.class;
+	  case EndpointPaths.USER_QUEUE_ACKS:
+		return OperationAck.class;
+	  case EndpointPaths.TOPIC_OPERATION_BATCHES, EndpointPaths.USER_QUEUE_OPERATION_BATCHES:
+		return TaggedUserOperation[].class;
 	  case EndpointPaths.TOPIC_SUBSCRIBERS:
 		return Subscriber[].class;
 	  case EndpointPaths.USER_QUEUE_EXCEPTION:
 		return String.class;
 	  case EndpointPaths.APP_INIT_CLIENT:
 		return SimpleStateMessage.class;
+	  case EndpointPaths.APP_RESUME:
+		return RTState.class;
 	  case EndpointPaths.TOPIC_CURSORS:
 		return UserCursors.class;
 	  default:
@@ -53,6 +61,11 @@ public class SimpleStompSessionHandler extends AbstractRTSyncStompSessionHandler
 	  LOG.trace("Interpreted payload as state message.");
 	  ((SimpleStompSessionSync) _stompSync).onStateMessageReceived(headers, stateMessage);
 	}
+	else if ( payload instanceof RTState state )
+	{
+	  LOG.trace("Interpreted payload as resume state.");
+	  ((SimpleStompSessionSync) _stompSync).onResumeStateReceived(headers, state);
+	}
 	else
 	{
 	  super.handleSpecialFrame(headers, payload);
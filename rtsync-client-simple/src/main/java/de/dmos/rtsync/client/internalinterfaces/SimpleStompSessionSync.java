@@ -3,9 +3,16 @@ package de.dmos.rtsync.client.internalinterfaces;
 import org.springframework.messaging.simp.stomp.StompHeaders;
 
 import de.dmos.rtsync.client.internalinterfaces.StompSessionSync;
+import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.SimpleStateMessage;
 
 public interface SimpleStompSessionSync extends StompSessionSync
 {
   void onStateMessageReceived(StompHeaders headers, SimpleStateMessage simpleStateMessage);
+
+  /**
+   * Called when the server answers a subscription to {@link de.dmos.rtsync.network.EndpointPaths#APP_RESUME} with either
+   * the operations the client missed or the whole state.
+   */
+  void onResumeStateReceived(StompHeaders headers, RTState state);
 }
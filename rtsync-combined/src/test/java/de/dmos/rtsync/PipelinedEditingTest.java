@@ -0,0 +1,271 @@
+package de.dmos.rtsync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dmos.rtsync.customotter.CustomEditor;
+import de.dmos.rtsync.customotter.CustomEditorControl;
+import de.dmos.rtsync.customotter.CustomModel;
+import de.dmos.rtsync.customotter.CustomModelBuilder;
+import de.dmos.rtsync.customotter.CustomSharedString;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.engine.OperationSync;
+import se.l4.otter.engine.TaggedOperation;
+import se.l4.otter.operations.OTType;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+/**
+ * Simulates clients which are connected to a server by links with a fixed latency and checks that editors with several
+ * operations in flight converge and propagate edits faster than editors which wait for each confirmation. Unlike
+ * {@link MockingNetworkTest}, every message is delayed independently, so several messages can be on their way at once.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+class PipelinedEditingTest
+{
+  private static final Logger								   LOG				  =
+	  LoggerFactory.getLogger(PipelinedEditingTest.class);
+
+  /**
+   * Half of a round trip time of 150 ms.
+   */
+  static final long											   ONE_WAY_DELAY_MS	  = 75;
+  static final long											   KEYSTROKE_INTERVAL_MS = 20;
+  static final int											   PIPELINE_LENGTH	  = 8;
+  static final Duration										   MAX_DURATION		  = Duration.ofSeconds(20);
+  static final String										   TEXT_ID			  = "text";
+
+  private final ScheduledExecutorService					   _network			  =
+	  Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService								   _serverThread	  = Executors.newSingleThreadExecutor();
+  private final CustomEditorControl<Operation<CombinedHandler>> _server			  =
+	  new CustomEditorControl<>(RTSyncTestHelper.createCustomHistory());
+  private final List<MockedClient>							   _clients			  = new CopyOnWriteArrayList<>();
+  private final AtomicInteger								   _messagesInTransit = new AtomicInteger();
+
+  PipelinedEditingTest()
+  {
+	_server.setMaxPipelinedSessions(CustomEditorControl.DEFAULT_MAX_PIPELINED_SESSIONS);
+  }
+
+  @AfterEach
+  void shutDown()
+  {
+	_network.shutdownNow();
+	_serverThread.shutdownNow();
+	_clients.forEach(c -> c._thread.shutdownNow());
+  }
+
+  @Test
+  void testConcurrentPipelinedEditsConverge()
+  {
+	int keystrokesPerClient = 40;
+	MockedClient agate = new MockedClient("Agate", TEXT_ID, PIPELINE_LENGTH);
+	MockedClient bruno = new MockedClient("Bruno", TEXT_ID, PIPELINE_LENGTH);
+	Random random = new Random(42);
+	for ( int i = 0; i < keystrokesPerClient; i++ )
+	{
+	  for ( MockedClient client : List.of(agate, bruno) )
+	  {
+		int position = random.nextInt(1000);
+		String letter = client == agate ? "a" : "b";
+		client
+		.typeLater(i * KEYSTROKE_INTERVAL_MS, text -> text.insert(position % (text.get().length() + 1), letter));
+	  }
+	}
+
+	awaitIdle(agate, bruno);
+	assertEquals(2 * keystrokesPerClient, agate._text.get().length());
+	assertEquals(agate._text.get(), bruno._text.get());
+  }
+
+  @Test
+  void testPipeliningReducesPropagationLatency()
+  {
+	double waitingLatency = measureMeanLatency(1);
+	double pipelinedLatency = measureMeanLatency(PIPELINE_LENGTH);
+	LOG
+	.info(
+	  "Mean propagation latency with a round trip time of {} ms: {} ms waiting for confirmations, {} ms with {} operations in flight",
+	  2 * ONE_WAY_DELAY_MS,
+	  Math.round(waitingLatency),
+	  Math.round(pipelinedLatency),
+	  PIPELINE_LENGTH);
+	assertTrue(
+	  pipelinedLatency < waitingLatency,
+	  "Pipelined edits took " + pipelinedLatency + " ms but waiting ones only " + waitingLatency + " ms");
+  }
+
+  /**
+   * Lets one client append characters and returns the mean time in milliseconds until they are visible to another one.
+   */
+  private double measureMeanLatency(int maxInFlight)
+  {
+	int keystrokes = 30;
+	// Every measurement uses its own text, so the texts of earlier measurements don't count.
+	String textId = TEXT_ID + maxInFlight;
+	MockedClient writer = new MockedClient("Writer" + maxInFlight, textId, maxInFlight);
+	MockedClient reader = new MockedClient("Reader" + maxInFlight, textId, 1);
+	long[] typedAt = new long[keystrokes];
+	for ( int i = 0; i < keystrokes; i++ )
+	{
+	  int index = i;
+	  writer.typeLater(i * KEYSTROKE_INTERVAL_MS, text -> {
+		typedAt[index] = System.nanoTime();
+		text.append("x");
+	  });
+	}
+
+	awaitIdle(writer, reader);
+	assertEquals(keystrokes, reader._seenAt.size());
+	long totalNanos = 0;
+	for ( int i = 0; i < keystrokes; i++ )
+	{
+	  totalNanos += reader._seenAt.get(i) - typedAt[i];
+	}
+	return totalNanos / 1_000_000.0 / keystrokes;
+  }
+
+  private void awaitIdle(MockedClient... clients)
+  {
+	Awaitility
+	.await()
+	.atMost(MAX_DURATION)
+	.pollInterval(Duration.ofMillis(20))
+	.until(() -> {
+	  for ( MockedClient client : clients )
+	  {
+		if ( client._pendingKeystrokes.get() > 0 || client._editor.getInFlightOperationCount() > 0 )
+		{
+		  return false;
+		}
+	  }
+	  return _messagesInTransit.get() == 0;
+	});
+  }
+
+  /**
+   * Delivers the given message after the link's delay on the given thread.
+   */
+  private void transmit(ExecutorService receiver, Runnable message)
+  {
+	_messagesInTransit.incrementAndGet();
+	_network.schedule(() -> receiver.execute(() -> {
+	  try
+	  {
+		message.run();
+	  }
+	  finally
+	  {
+		_messagesInTransit.decrementAndGet();
+	  }
+	}), ONE_WAY_DELAY_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private void receiveOnServer(TaggedUserOperation userOp, String session)
+  {
+	TaggedUserOperation stored = _server.store(userOp, session, false);
+	_clients.forEach(c -> transmit(c._thread, () -> c._listener.accept(stored)));
+  }
+
+  /**
+   * A client whose editor and model are only used by its own thread, like the event dispatch thread of a UI.
+   */
+  private class MockedClient implements OperationSync<Operation<CombinedHandler>>
+  {
+	private final String												_name;
+	private final ExecutorService										_thread;
+	private final CustomEditor<Operation<CombinedHandler>>				_editor;
+	private final CustomSharedString									_text;
+	private final AtomicInteger											_pendingKeystrokes = new AtomicInteger();
+	/**
+	 * The times at which the characters of the text became visible to this client by their index.
+	 */
+	private final List<Long>											_seenAt			   = new ArrayList<>();
+	private Consumer<TaggedOperation<Operation<CombinedHandler>>>		_listener;
+
+	MockedClient(String name, String textId, int maxInFlight)
+	{
+	  _name = name;
+	  _thread = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+	  _editor = new CustomEditor<>(this);
+	  _editor.setMaxInFlightOperations(maxInFlight);
+	  CustomModel model = new CustomModelBuilder(_editor).build();
+	  _text = (CustomSharedString) model.getObject(textId, "string");
+	  _editor.addListener(event -> {
+		if ( event.isRemote() )
+		{
+		  long now = System.nanoTime();
+		  while (_seenAt.size() < _text.get().length())
+		  {
+			_seenAt.add(now);
+		  }
+		}
+	  });
+	}
+
+	void typeLater(long delayMs, Consumer<CustomSharedString> keystroke)
+	{
+	  _pendingKeystrokes.incrementAndGet();
+	  _network.schedule(() -> _thread.execute(() -> {
+		try
+		{
+		  keystroke.accept(_text);
+		}
+		finally
+		{
+		  _pendingKeystrokes.decrementAndGet();
+		}
+	  }), delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public OTType<Operation<CombinedHandler>> getType()
+	{
+	  return _server.getType();
+	}
+
+	@Override
+	public TaggedOperation<Operation<CombinedHandler>> connect(
+	  Consumer<TaggedOperation<Operation<CombinedHandler>>> listener)
+	{
+	  _listener = listener;
+	  _clients.add(this);
+	  return _server.getLatest();
+	}
+
+	@Override
+	public void send(TaggedOperation<Operation<CombinedHandler>> op)
+	{
+	  TaggedUserOperation userOp = TaggedUserOperation.toTaggedUserOperation(op);
+	  transmit(_serverThread, () -> receiveOnServer(userOp, _name));
+	}
+
+	@Override
+	public void close()
+	{
+	  _clients.remove(this);
+	}
+  }
+}
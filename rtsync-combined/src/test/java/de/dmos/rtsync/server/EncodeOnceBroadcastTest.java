@@ -0,0 +1,296 @@
+package de.dmos.rtsync.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpSubscriptionMatcher;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+
+import de.dmos.rtsync.message.OperationAck;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.network.EndpointPaths;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.serializers.SimpleMessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+
+/**
+ * Checks that {@link AbstractRTSyncServerController#broadcastToOthers} serializes its payload only once, no matter how
+ * many users receive it, and that the sessions which sent operations only get acknowledgements.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+class EncodeOnceBroadcastTest
+{
+  private static final List<String>	USERS		   = List.of("sender", "user1", "user2", "user/3");
+
+  private final List<Message<?>>		_sentMessages  = new CopyOnWriteArrayList<>();
+  private final AtomicInteger			_conversions   = new AtomicInteger();
+
+  @Test
+  void testBroadcastToOthersSharesTheEncodedPayload()
+  {
+	SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> _sentMessages.add(message));
+	MessageConverter userOpConverter = MessageSerialization
+		.createSimpleMessageConverter(MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER, TaggedUserOperation.class);
+	template.setMessageConverter(new MessageConverter()
+	{
+	  @Override
+	  public Object fromMessage(Message<?> message, Class<?> targetClass)
+	  {
+		return userOpConverter.fromMessage(message, targetClass);
+	  }
+
+	  @Override
+	  public Message<?> toMessage(Object payload, MessageHeaders headers)
+	  {
+		_conversions.incrementAndGet();
+		return userOpConverter.toMessage(payload, headers);
+	  }
+	});
+	AbstractRTSyncServerController controller = new AbstractRTSyncServerController(new StaticUserRegistry(), template);
+
+	TaggedUserOperation userOp = RTSyncTestHelper.getStringAsTaggedUserInsertOperation("Hello!", "sender");
+	Principal sender = () -> "sender";
+	controller.broadcastToOthers("/queue/operations", userOp, sender);
+
+	assertEquals(1, _conversions.get());
+	assertEquals(USERS.size() - 1, _sentMessages.size());
+	Set<String> destinations = _sentMessages
+		.stream()
+		.map(message -> SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+		.collect(Collectors.toSet());
+	assertEquals(
+	  Set.of("/user/user1/queue/operations", "/user/user2/queue/operations", "/user/user%2F3/queue/operations"),
+	  destinations);
+	Object payload = _sentMessages.get(0).getPayload();
+	_sentMessages.forEach(message -> assertSame(payload, message.getPayload()));
+  }
+
+  @Test
+  void testSendingSessionOnlyGetsAnAcknowledgement()
+  {
+	SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> _sentMessages.add(message));
+	template.setMessageConverter(SimpleMessageSerialization.getCombinedMessageConverter());
+	AbstractRTSyncServerController controller = new AbstractRTSyncServerController(new StaticUserRegistry(), template);
+
+	TaggedUserOperation userOp = RTSyncTestHelper.getStringAsTaggedUserInsertOperation("Hello!", "sender");
+	controller
+	.broadcastAndAcknowledge(
+	  EndpointPaths.TOPIC_OPERATIONS,
+	  EndpointPaths.QUEUE_OPERATIONS,
+	  EndpointPaths.QUEUE_ACKS,
+	  userOp,
+	  "sender-1");
+
+	// The other users, the sender's second session and the acknowledgement.
+	assertEquals(USERS.size() + 1, _sentMessages.size());
+	Message<?> ackMessage = _sentMessages
+		.stream()
+		.filter(m -> "/user/sender/queue/acks".equals(SimpMessageHeaderAccessor.getDestination(m.getHeaders())))
+		.findAny()
+		.orElseThrow();
+	assertEquals("sender-1", SimpMessageHeaderAccessor.getSessionId(ackMessage.getHeaders()));
+	assertEquals(
+	  new OperationAck(userOp.getToken(), userOp.getHistoryId()),
+	  template.getMessageConverter().fromMessage(ackMessage, OperationAck.class));
+	assertEquals(
+	  USERS.size(),
+	  _sentMessages
+	  .stream()
+	  .filter(m -> SimpMessageHeaderAccessor.getDestination(m.getHeaders()).endsWith(EndpointPaths.QUEUE_OPERATIONS))
+	  .count());
+	Message<?> toOtherSenderSession = _sentMessages
+		.stream()
+		.filter(m -> "/user/sender/queue/operations".equals(SimpMessageHeaderAccessor.getDestination(m.getHeaders())))
+		.findAny()
+		.orElseThrow();
+	assertEquals("sender-2", SimpMessageHeaderAccessor.getSessionId(toOtherSenderSession.getHeaders()));
+  }
+
+  @Test
+  void testOperationOfUnknownSenderIsSentWhole()
+  {
+	SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> _sentMessages.add(message));
+	template.setMessageConverter(SimpleMessageSerialization.getCombinedMessageConverter());
+	AbstractRTSyncServerController controller = new AbstractRTSyncServerController(new StaticUserRegistry(), template);
+
+	controller
+	.broadcastAndAcknowledge(
+	  EndpointPaths.TOPIC_OPERATIONS,
+	  EndpointPaths.QUEUE_OPERATIONS,
+	  EndpointPaths.QUEUE_ACKS,
+	  RTSyncTestHelper.getStringAsTaggedUserInsertOperation("Hello!", "unknown"),
+	  "unknown-1");
+
+	assertEquals(1, _sentMessages.size());
+	assertEquals(
+	  EndpointPaths.TOPIC_OPERATIONS,
+	  SimpMessageHeaderAccessor.getDestination(_sentMessages.get(0).getHeaders()));
+  }
+
+  @Test
+  void testSendingSessionsOnlyGetAcknowledgementsAndTheOtherOperationsOfABatch()
+  {
+	SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> _sentMessages.add(message));
+	MessageConverter converter = SimpleMessageSerialization.getCombinedMessageConverter();
+	template.setMessageConverter(converter);
+	AbstractRTSyncServerController controller = new AbstractRTSyncServerController(new StaticUserRegistry(), template);
+
+	controller
+	.broadcastBatchAndAcknowledge(
+	  EndpointPaths.TOPIC_OPERATION_BATCHES,
+	  EndpointPaths.QUEUE_OPERATION_BATCHES,
+	  EndpointPaths.QUEUE_ACKS,
+	  List
+	  .of(
+		createStoredOperation(1, "sender", "sender-1"),
+		createStoredOperation(2, "user1", "user1-1"),
+		createStoredOperation(3, "sender", "sender-1")));
+
+	assertEquals(List.of("ack 1", "batch 2", "ack 3"), describeMessagesTo(converter, "sender", "sender-1"));
+	assertEquals(List.of("batch 1", "ack 2", "batch 3"), describeMessagesTo(converter, "user1", "user1-1"));
+	assertEquals(List.of("batch 1, 2, 3"), describeMessagesTo(converter, "sender", "sender-2"));
+	assertEquals(List.of("batch 1, 2, 3"), describeMessagesTo(converter, "user2", null));
+	assertEquals(List.of("batch 1, 2, 3"), describeMessagesTo(converter, "user%2F3", null));
+	assertEquals(9, _sentMessages.size());
+  }
+
+  private static SessionUserOperation createStoredOperation(long historyId, String user, String session)
+  {
+	TaggedUserOperation userOp = RTSyncTestHelper.getStringAsTaggedUserInsertOperation("Hello!", user);
+	return new SessionUserOperation(
+	  new TaggedUserOperation(historyId, "token-" + historyId, userOp.getOperation(), user),
+	  session);
+  }
+
+  private List<String> describeMessagesTo(MessageConverter converter, String user, String session)
+  {
+	return _sentMessages
+		.stream()
+		.filter(m -> SimpMessageHeaderAccessor.getDestination(m.getHeaders()).startsWith("/user/" + user + "/"))
+		.filter(m -> Objects.equals(session, SimpMessageHeaderAccessor.getSessionId(m.getHeaders())))
+		.map(m -> describeMessage(converter, m))
+		.toList();
+  }
+
+  private static String describeMessage(MessageConverter converter, Message<?> message)
+  {
+	if ( SimpMessageHeaderAccessor.getDestination(message.getHeaders()).endsWith(EndpointPaths.QUEUE_ACKS) )
+	{
+	  return "ack " + ((OperationAck) converter.fromMessage(message, OperationAck.class)).historyId();
+	}
+	TaggedUserOperation[] batch = (TaggedUserOperation[]) converter.fromMessage(message, TaggedUserOperation[].class);
+	return Arrays
+		.stream(batch)
+		.map(op -> Long.toString(op.getHistoryId()))
+		.collect(Collectors.joining(", ", "batch ", ""));
+  }
+
+  private static class StaticUserRegistry implements SimpUserRegistry
+  {
+	@Override
+	public SimpUser getUser(String userName)
+	{
+	  return getUsers().stream().filter(u -> u.getName().equals(userName)).findAny().orElse(null);
+	}
+
+	@Override
+	public Set<SimpUser> getUsers()
+	{
+	  return USERS.stream().<SimpUser> map(StaticUser::new).collect(Collectors.toSet());
+	}
+
+	@Override
+	public int getUserCount()
+	{
+	  return USERS.size();
+	}
+
+	@Override
+	public Set<SimpSubscription> findSubscriptions(SimpSubscriptionMatcher matcher)
+	{
+	  return Set.of();
+	}
+  }
+
+  private record StaticUser(String name) implements SimpUser
+  {
+	@Override
+	public String getName()
+	{
+	  return name;
+	}
+
+	@Override
+	public Principal getPrincipal()
+	{
+	  return () -> name;
+	}
+
+	@Override
+	public boolean hasSessions()
+	{
+	  return true;
+	}
+
+	@Override
+	public SimpSession getSession(String sessionId)
+	{
+	  return getSessions().stream().filter(s -> s.getId().equals(sessionId)).findAny().orElse(null);
+	}
+
+	/**
+	 * The sender is connected twice under the same name.
+	 */
+	@Override
+	public Set<SimpSession> getSessions()
+	{
+	  int sessionCount = "sender".equals(name) ? 2 : 1;
+	  return IntStream
+		  .rangeClosed(1, sessionCount)
+		  .<SimpSession> mapToObj(i -> new StaticSession(name + "-" + i, this))
+		  .collect(Collectors.toSet());
+	}
+  }
+
+  private record StaticSession(String id, SimpUser user) implements SimpSession
+  {
+	@Override
+	public String getId()
+	{
+	  return id;
+	}
+
+	@Override
+	public SimpUser getUser()
+	{
+	  return user;
+	}
+
+	@Override
+	public Set<SimpSubscription> getSubscriptions()
+	{
+	  return Set.of();
+	}
+  }
+}
@@ -0,0 +1,92 @@
+package de.dmos.rtsync.server;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import de.dmos.rtsync.customotter.CustomEditorControl;
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.customotter.HistoryCompactionPolicy;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+/**
+ * Checks that a connected client which never sends an operation doesn't make the server's histories keep every delta
+ * since it connected.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+class HistoryRetentionTest
+{
+  private static final String	STRING_ID			  = "s1";
+  private static final int		COMPACTION_INTERVAL	  = 10;
+  private static final int		MAX_RETAINED_VERSIONS = 20;
+  private static final int		OPERATION_COUNT		  = 100;
+
+  @Test
+  void testPassiveClientDoesNotPinTheHistory()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	long viewerVersion = storeWithPassiveViewer(control, MAX_RETAINED_VERSIONS);
+
+	long latest = history.getLatest();
+	assertTrue(history.getOldestTransformableVersion() > viewerVersion);
+	assertTrue(
+	  latest - history.getOldestTransformableVersion() <= MAX_RETAINED_VERSIONS + COMPACTION_INTERVAL,
+	  () -> "Retained the deltas after " + history.getOldestTransformableVersion() + " up to " + latest);
+	// The viewer receives the whole state when it resumes or sends an operation based on its version.
+	assertNull(control.getUserOperationsAfter(viewerVersion));
+  }
+
+  @Test
+  void testPassiveClientPinsTheHistoryWithoutLimit()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	long viewerVersion = storeWithPassiveViewer(control, 0);
+
+	assertTrue(history.getOldestTransformableVersion() <= viewerVersion);
+	assertNotNull(control.getUserOperationsAfter(viewerVersion));
+  }
+
+  /**
+   * Stores operations of an editor which always sends them based on the latest version, while a viewer, which received
+   * the initial state, is connected but never sends anything.
+   *
+   * @return The viewer's tracked version.
+   */
+  private static long storeWithPassiveViewer(
+	CustomEditorControl<Operation<CombinedHandler>> control,
+	long maxRetainedVersions)
+  {
+	AbstractRTSyncServerController controller =
+		new AbstractRTSyncServerController(null, new SimpMessagingTemplate((message, timeout) -> true));
+	controller.setHistoryCompactionPolicy(HistoryCompactionPolicy.everyOperations(COMPACTION_INTERVAL));
+	controller.setMaxRetainedVersions(maxRetainedVersions);
+	ClientVersionTracker versionTracker = new ClientVersionTracker();
+	controller.configureHistoryCompaction(control, versionTracker);
+
+	long viewerVersion = control.getLatestVersion();
+	versionTracker.update("viewer", viewerVersion);
+	for ( int i = 0; i < OPERATION_COUNT; i++ )
+	{
+	  versionTracker.update("editor", control.getLatestVersion());
+	  control
+	  .store(
+		new TaggedUserOperation(
+		  control.getLatestVersion(),
+		  "token-" + i,
+		  RTSyncTestHelper.getStringAppendOperation(STRING_ID, i, "x"),
+		  "editor"),
+		false);
+	}
+	return viewerVersion;
+  }
+}
@@ -0,0 +1,314 @@
+package de.dmos.rtsync.server.project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dmos.rtsync.customotter.CustomModel;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.project.RTProjectData;
+import de.dmos.rtsync.server.OperationBatching;
+import de.dmos.rtsync.server.SessionUserOperation;
+import de.dmos.rtsync.util.ExecutionModel;
+import se.l4.otter.engine.TaggedOperation;
+import se.l4.otter.lock.CloseableLock;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.map.MapDelta;
+
+/**
+ * Checks that {@link RTProjectServerOperationSync} applies the operations of every project in order while several
+ * writers send to several projects at once, and logs the resulting throughput.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+class RTProjectServerOperationSyncTest
+{
+  private static final Logger			LOG					= LoggerFactory.getLogger(RTProjectServerOperationSyncTest.class);
+
+  private static final int				PROJECT_COUNT		= 16;
+  private static final int				WRITER_COUNT		= 8;
+  private static final int				OPERATIONS_PER_WRITER = 500;
+  private static final Duration			MAX_DURATION		= Duration.ofSeconds(30);
+
+  private final Map<String, List<Long>>	_broadcastIds		= new ConcurrentHashMap<>();
+  private final List<Throwable>			_exceptions			= new CopyOnWriteArrayList<>();
+  private final AtomicInteger			_broadcastCount		= new AtomicInteger();
+  private final AtomicInteger			_batchCount			= new AtomicInteger();
+
+  private RTProjectServerOperationSync	_sync;
+
+  private final ProjectServerNetworkHandler _networkHandler = new ProjectServerNetworkHandler()
+  {
+	@Override
+	public void brodcastTaggedOperation(String project, SessionUserOperation storedOp)
+	{
+	  _broadcastIds
+	  .computeIfAbsent(project, p -> new CopyOnWriteArrayList<>())
+	  .add(storedOp.userOp().getHistoryId());
+	  _broadcastCount.incrementAndGet();
+	}
+
+	@Override
+	public void brodcastTaggedOperations(String project, List<SessionUserOperation> storedOps)
+	{
+	  _batchCount.incrementAndGet();
+	  storedOps.forEach(op -> brodcastTaggedOperation(project, op));
+	}
+
+	@Override
+	public void handleException(Throwable throwable, String project, String sender)
+	{
+	  _exceptions.add(throwable);
+	}
+  };
+
+  @AfterEach
+  void closeSync()
+  {
+	if ( _sync != null )
+	{
+	  _sync.close();
+	}
+  }
+
+  @Test
+  void testOperationsAreAppliedInOrderPerProject() throws InterruptedException
+  {
+	assertOperationsAreAppliedInOrderPerProject(ExecutionModel.PLATFORM);
+  }
+
+  @Test
+  void testOperationsAreAppliedInOrderPerProjectOnVirtualThreads() throws InterruptedException
+  {
+	assertOperationsAreAppliedInOrderPerProject(ExecutionModel.VIRTUAL);
+  }
+
+  private void assertOperationsAreAppliedInOrderPerProject(ExecutionModel executionModel) throws InterruptedException
+  {
+	_sync = new RTProjectServerOperationSync(_networkHandler, 4, WRITER_COUNT * OPERATIONS_PER_WRITER, executionModel);
+	int totalOperations = WRITER_COUNT * OPERATIONS_PER_WRITER;
+
+	long start = System.nanoTime();
+	List<Thread> writers = new ArrayList<>();
+	for ( int w = 0; w < WRITER_COUNT; w++ )
+	{
+	  int writer = w;
+	  Thread thread = executionModel.newThread("writer-" + w, () -> write(writer));
+	  thread.start();
+	  writers.add(thread);
+	}
+	for ( Thread writer : writers )
+	{
+	  writer.join();
+	}
+	Awaitility
+	.await()
+	.atMost(MAX_DURATION)
+	.until(() -> _broadcastCount.get() + _exceptions.size() >= totalOperations);
+	long durationNanos = System.nanoTime() - start;
+
+	assertTrue(_exceptions.isEmpty(), () -> "Unexpected exceptions: " + _exceptions);
+	assertEquals(totalOperations, _broadcastCount.get());
+	for ( int p = 0; p < PROJECT_COUNT; p++ )
+	{
+	  String project = project(p);
+	  List<Long> ids = _broadcastIds.get(project);
+	  for ( int i = 1; i < ids.size(); i++ )
+	  {
+		assertEquals(ids.get(i - 1) + 1, ids.get(i), "History ids of " + project + " are not in order");
+	  }
+	  assertEquals(ids.size(), _sync.getProjectData(project).getModel().getRoot().toMap().size());
+	  Awaitility.await().atMost(MAX_DURATION).until(() -> _sync.getQueuedOperationCount(project) == 0);
+	}
+	LOG
+	.info(
+	  "Applied {} operations of {} writers to {} projects with {} {} workers in {} ms ({} operations/s)",
+	  totalOperations,
+	  WRITER_COUNT,
+	  PROJECT_COUNT,
+	  _sync.getWorkerCount(),
+	  executionModel,
+	  durationNanos / 1_000_000,
+	  totalOperations * 1_000_000_000L / durationNanos);
+  }
+
+  @Test
+  void testBatchedOperationsAreBroadcastTogether()
+  {
+	_sync = new RTProjectServerOperationSync(_networkHandler, 1, 100);
+	_sync.setOperationBatching(new OperationBatching(10, Duration.ofMillis(50)));
+	RTProjectData data = _sync.getOrCreateRTProjectData(project(0));
+	try (CloseableLock lock = data.getControl().lock())
+	{
+	  for ( int i = 0; i < 20; i++ )
+	  {
+		_sync.send(data, createPut(data, "batched", i));
+	  }
+	}
+	Awaitility.await().atMost(MAX_DURATION).until(() -> _broadcastCount.get() == 20);
+
+	assertTrue(_exceptions.isEmpty(), () -> "Unexpected exceptions: " + _exceptions);
+	assertTrue(_batchCount.get() < 20, "Expected fewer batches than operations but got " + _batchCount.get());
+	List<Long> ids = _broadcastIds.get(project(0));
+	for ( int i = 1; i < ids.size(); i++ )
+	{
+	  assertEquals(ids.get(i - 1) + 1, ids.get(i));
+	}
+	assertEquals(20, data.getModel().getRoot().toMap().size());
+  }
+
+  @Test
+  void testQueuedOperationsPerProjectAreCapped()
+  {
+	_sync = new RTProjectServerOperationSync(_networkHandler, 1, 1);
+	RTProjectData blocked = _sync.getOrCreateRTProjectData(project(0));
+	try (CloseableLock lock = blocked.getControl().lock())
+	{
+	  // The worker takes the first operation and waits for the lock, so it is still counted as queued.
+	  _sync.send(blocked, createPut(blocked, "first", 0));
+	  _sync.send(blocked, createPut(blocked, "second", 0));
+	  _sync.send(blocked, createPut(blocked, "third", 0));
+	  assertEquals(2, _exceptions.size());
+	}
+	Awaitility.await().atMost(MAX_DURATION).until(() -> _broadcastCount.get() == 1);
+	Awaitility.await().atMost(MAX_DURATION).until(() -> _sync.getQueuedOperationCount(project(0)) == 0);
+  }
+
+  @Test
+  void testReleasedProjectIsHibernatedAndRestored(@TempDir Path directory) throws IOException
+  {
+	_sync = new RTProjectServerOperationSync(_networkHandler, 1, 100);
+	_sync.setHibernation(new ProjectHibernation(directory, 0));
+	RTProjectData data = _sync.getOrCreateRTProjectData(project(0));
+	for ( int i = 0; i < 5; i++ )
+	{
+	  _sync.send(data, createPut(data, "hibernated", i));
+	  int expected = i + 1;
+	  Awaitility.await().atMost(MAX_DURATION).until(() -> _broadcastCount.get() == expected);
+	}
+	long latestVersion = data.getLatestVersion();
+
+	_sync.releaseProject(project(0));
+	assertFalse(_sync.containsProject(project(0)));
+	assertEquals(1, _sync.getHibernation().getMetrics().hibernations());
+
+	RTProjectData restored = _sync.getOrCreateRTProjectData(project(0));
+	assertTrue(_exceptions.isEmpty(), () -> "Unexpected exceptions: " + _exceptions);
+	assertEquals(5, restored.getModel().getRoot().toMap().size());
+	assertEquals(latestVersion, restored.getLatestVersion());
+	assertEquals(1, _sync.getHibernation().getMetrics().restores());
+	assertFalse(_sync.getHibernation().isHibernated(project(0)));
+	// The snapshot is kept until the next hibernation replaces it.
+	assertNotNull(_sync.getHibernation().readSnapshot(project(0)));
+  }
+
+  @Test
+  void testLeastRecentlyReleasedProjectsAreHibernatedFirst(@TempDir Path directory) throws IOException
+  {
+	_sync = new RTProjectServerOperationSync(_networkHandler, 1, 100);
+	_sync.setHibernation(new ProjectHibernation(directory, Long.MAX_VALUE));
+	for ( int p = 0; p < 3; p++ )
+	{
+	  RTProjectData data = _sync.getOrCreateRTProjectData(project(p));
+	  // The projects have equal states, so their estimated sizes are equal, too.
+	  _sync.send(data, createPut(data, "released", 0));
+	}
+	Awaitility.await().atMost(MAX_DURATION).until(() -> _broadcastCount.get() == 3);
+
+	ProjectHibernation hibernation = _sync.getHibernation();
+	_sync.releaseProject(project(0));
+	long projectSize = hibernation.getMetrics().idleBytes();
+	assertTrue(projectSize > 0);
+	hibernation.setIdleMemoryBudget(2 * projectSize);
+	_sync.releaseProject(project(1));
+	// Reopening and releasing project 0 again makes project 1 the least recently released one.
+	_sync.getOrCreateRTProjectData(project(0));
+	_sync.releaseProject(project(0));
+	assertEquals(0, hibernation.getMetrics().hibernations());
+
+	_sync.releaseProject(project(2));
+	assertEquals(1, hibernation.getMetrics().hibernations());
+	assertEquals(2, hibernation.getMetrics().idleProjects());
+	assertFalse(_sync.containsProject(project(1)));
+	assertTrue(hibernation.isHibernated(project(1)));
+	assertTrue(_sync.containsProject(project(0)));
+	assertTrue(_sync.containsProject(project(2)));
+  }
+
+  @Test
+  void testOpenProjectsAreRestoredFromTheirLatestSnapshots(@TempDir Path directory) throws IOException
+  {
+	_sync = new RTProjectServerOperationSync(_networkHandler, 1, 100);
+	_sync.setHibernation(new ProjectHibernation(directory, 0));
+	RTProjectData restored = _sync.getOrCreateRTProjectData(project(0));
+	_sync.send(restored, createPut(restored, "hibernated", 0));
+	Awaitility.await().atMost(MAX_DURATION).until(() -> _broadcastCount.get() == 1);
+	_sync.releaseProject(project(0));
+
+	// The restored project is changed after its snapshot was written and another project stays idle in memory.
+	_sync.getHibernation().setIdleMemoryBudget(Long.MAX_VALUE);
+	restored = _sync.getOrCreateRTProjectData(project(0));
+	_sync.send(restored, createPut(restored, "restored", 1));
+	RTProjectData idle = _sync.getOrCreateRTProjectData(project(1));
+	_sync.send(idle, createPut(idle, "idle", 0));
+	Awaitility.await().atMost(MAX_DURATION).until(() -> _broadcastCount.get() == 3);
+	_sync.releaseProject(project(1));
+	assertTrue(_sync.containsProject(project(1)));
+
+	_sync.writeSnapshots();
+	_sync.close();
+	_sync = new RTProjectServerOperationSync(_networkHandler, 1, 100);
+	_sync.setHibernation(new ProjectHibernation(directory, 0));
+
+	assertTrue(_exceptions.isEmpty(), () -> "Unexpected exceptions: " + _exceptions);
+	assertEquals(2, _sync.getOrCreateRTProjectData(project(0)).getModel().getRoot().toMap().size());
+	assertEquals(1, _sync.getOrCreateRTProjectData(project(1)).getModel().getRoot().toMap().size());
+	assertEquals(2, _sync.getHibernation().getMetrics().restores());
+  }
+
+  private void write(int writer)
+  {
+	for ( int i = 0; i < OPERATIONS_PER_WRITER; i++ )
+	{
+	  RTProjectData data = _sync.getOrCreateRTProjectData(project(i % PROJECT_COUNT));
+	  _sync.send(data, createPut(data, "writer-" + writer, i));
+	}
+  }
+
+  private static String project(int index)
+  {
+	return "project" + index;
+  }
+
+  private static TaggedOperation<Operation<CombinedHandler>> createPut(RTProjectData data, String writer, int index)
+  {
+	String key = writer + "-" + index;
+	Operation<CombinedHandler> op = CombinedDelta
+		.builder()
+		.update(CustomModel.ROOT, "map", MapDelta.builder().set(key, DataValues.toData(null), DataValues.toData(index)).done())
+		.done();
+	return new TaggedUserOperation(data.getLatestVersion(), key, op, writer);
+  }
+}
@@ -11,6 +11,7 @@ OperationHandler<T>,
 ChangeSupplier<T>
 {
   private final WeakLinkedList<ChangeListener<T>> _changeListeners = new WeakLinkedList<>();
+  private SharedObjectContainer<?>				  _container;
 
   protected AbstractCustomSharedObject(CustomSharedObjectEditor<T> editor)
   {
@@ -22,6 +23,29 @@ ChangeSupplier<T>
 	return editor.getCurrent();
   }
 
+  /**
+   * Returns the container which this object was last added to or null if it isn't contained in any, like the root.
+   * Together with {@link SharedObjectContainer#getPathPartOf(Object)} this finds the path of an object without searching
+   * the model.
+   */
+  public SharedObjectContainer<?> getContainer()
+  {
+	return _container;
+  }
+
+  void setContainer(SharedObjectContainer<?> container)
+  {
+	_container = container;
+  }
+
+  void removeContainer(SharedObjectContainer<?> container)
+  {
+	if ( _container == container )
+	{
+	  _container = null;
+	}
+  }
+
   abstract void onReset();
 
   abstract void apply(T operation, boolean local);
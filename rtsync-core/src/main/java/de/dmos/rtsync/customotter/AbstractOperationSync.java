@@ -2,6 +2,7 @@ package de.dmos.rtsync.customotter;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -9,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import de.dmos.rtsync.internalinterfaces.TaggedUserOperationListener;
 import de.dmos.rtsync.internalinterfaces.UserOperationSync;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.lock.CloseableLock;
@@ -25,6 +27,16 @@ public abstract class AbstractOperationSync implements UserOperationSync
 
   protected final CustomEditorControl<Operation<CombinedHandler>> _control;
   protected final Collection<TaggedUserOperationListener> _listeners;
+  /**
+   * The handlings of operations and acknowledgements which were received while resuming and are held back until the
+   * missed operations are applied, or null if this sync isn't resuming.
+   */
+  private List<Runnable>										  _heldWhileResuming;
+  /**
+   * The history epoch of the latest state which this sync received from its server or null. The server only resumes
+   * this sync from its latest version if the epoch is still the same.
+   */
+  private volatile String										  _historyEpoch;
 
   protected AbstractOperationSync(CustomEditorControl<Operation<CombinedHandler>> control)
   {
@@ -67,6 +79,15 @@ public abstract class AbstractOperationSync implements UserOperationSync
 	return _control;
   }
 
+  /**
+   * Waits until the stored operations survive a crash as far as the history guarantees it. Servers call this before
+   * they send stored operations to the network, see {@link TaggedUserOperationHistory#awaitDurable()}.
+   */
+  public void awaitDurable()
+  {
+	_control.getHistory().awaitDurable();
+  }
+
   /**
    * Stores the given {@link TaggedUserOperation} and returns the store result.
    *
@@ -82,6 +103,19 @@ public abstract class AbstractOperationSync implements UserOperationSync
 	return _control.store(userOp, wholeState);
   }
 
+  /**
+   * Stores the given {@link TaggedUserOperation} which the given session sent and returns the store result, see
+   * {@link CustomEditorControl#store(TaggedUserOperation, String, boolean)}.
+   *
+   * @implSpec The caller of this method must have acquired the _control's lock in order to prevent incoherent states
+   *           with race conditions.
+   */
+  public TaggedUserOperation storeTaggedOperation(TaggedUserOperation userOp, String session, boolean wholeState)
+	  throws TransformException
+  {
+	return _control.store(userOp, session, wholeState);
+  }
+
   /**
    * Called when a new {@link TaggedUserOperation} is received.
    */
@@ -108,6 +142,152 @@ public abstract class AbstractOperationSync implements UserOperationSync
 	}
   }
 
+  /**
+   * Called when the server acknowledges an operation which was sent by one of the local listeners instead of echoing
+   * it. That listener reconstructs the operation as the server stored it. It is stored like a received operation and
+   * the other listeners are notified of it.
+   *
+   * @return The stored operation or null if none of the listeners sent the acknowledged operation, e.g. because it has
+   *         been reset since.
+   */
+  public TaggedUserOperation onOperationAcknowledged(OperationAck ack) throws TransformException
+  {
+	try (CloseableLock lock = _control.lock())
+	{
+	  for ( TaggedUserOperationListener sender : _listeners )
+	  {
+		TaggedUserOperation acknowledgedOperation = sender.onOperationAcknowledged(ack);
+		if ( acknowledgedOperation != null )
+		{
+		  TaggedUserOperation storedOperation = storeTaggedOperation(acknowledgedOperation, false);
+		  LOG.debug("{} acknowledged, stored as {}", ack, storedOperation);
+		  _listeners
+		  .stream()
+		  .filter(l -> l != sender)
+		  .forEach(l -> l.onTaggedUserOperationReceived(storedOperation, false));
+		  return storedOperation;
+		}
+	  }
+	  LOG.warn("{} received but no listener sent the acknowledged operation", ack);
+	  return null;
+	}
+  }
+
+  /**
+   * Starts resuming from the latest version: Received operations and acknowledgements are held back by
+   * {@link #holdWhileResuming(Runnable)} until the missed operations are applied by
+   * {@link #onMissedOperationsReceived(List)} or a whole state is received, since they may follow operations which this
+   * sync hasn't received yet.
+   *
+   * @return The version from which this sync resumes.
+   */
+  public long startResuming()
+  {
+	try (CloseableLock lock = _control.lock())
+	{
+	  if ( _heldWhileResuming == null )
+	  {
+		_heldWhileResuming = new ArrayList<>();
+	  }
+	  return _control.getLatestVersion();
+	}
+  }
+
+  public String getHistoryEpoch()
+  {
+	return _historyEpoch;
+  }
+
+  /**
+   * Remembers the history epoch of a received state, if it contains one. An epoch stays valid for later states without
+   * one, since a state of a new epoch can't make the server accept the old epoch again.
+   */
+  public void setHistoryEpoch(String historyEpoch)
+  {
+	if ( historyEpoch != null )
+	{
+	  _historyEpoch = historyEpoch;
+	}
+  }
+
+  public boolean isResuming()
+  {
+	return _heldWhileResuming != null;
+  }
+
+  /**
+   * Holds back the given handling of a received operation or acknowledgement if this sync is resuming. Held handlings
+   * run when resuming stops, so they should ignore operations which aren't newer than the latest version by then.
+   *
+   * @return true if the handling was held back and false if it should run now.
+   */
+  public boolean holdWhileResuming(Runnable handling)
+  {
+	try (CloseableLock lock = _control.lock())
+	{
+	  if ( _heldWhileResuming == null )
+	  {
+		return false;
+	  }
+	  _heldWhileResuming.add(handling);
+	  return true;
+	}
+  }
+
+  /**
+   * Stops resuming, e.g. because a whole state was received instead of the missed operations, and runs the held back
+   * handlings.
+   */
+  public void stopResuming()
+  {
+	List<Runnable> held;
+	try (CloseableLock lock = _control.lock())
+	{
+	  held = _heldWhileResuming;
+	  _heldWhileResuming = null;
+	}
+	if ( held != null )
+	{
+	  held.forEach(Runnable::run);
+	}
+  }
+
+  /**
+   * Applies the operations which this sync missed while it was disconnected or out of sync as far as they are newer than
+   * its latest version. Afterwards the held back operations are handled and the listeners are asked to resend their
+   * unconfirmed operations, which are transformed over the missed ones by then. Operations which the server stored
+   * before the sync lost track of them are among the missed ones, so they are confirmed instead of being resent.
+   */
+  public void onMissedOperationsReceived(List<TaggedUserOperation> missedOperations)
+	  throws ComposeException, TransformException
+  {
+	try (CloseableLock lock = _control.lock())
+	{
+	  LOG.debug("Resuming from {} with {} missed operations", _control.getLatestVersion(), missedOperations.size());
+	  for ( TaggedUserOperation userOp : missedOperations )
+	  {
+		if ( userOp.getHistoryId() > _control.getLatestVersion() )
+		{
+		  notifyListeners(storeTaggedOperation(userOp, false), false);
+		}
+	  }
+	}
+	stopResuming();
+	_listeners.forEach(TaggedUserOperationListener::onResumed);
+  }
+
+  /**
+   * Handles a received operation like {@link #onTaggedOperationReceived(TaggedUserOperation, boolean)} if it is newer
+   * than the latest version, e.g. because it was held back while resuming.
+   */
+  public void onTaggedOperationReceivedIfNewer(TaggedUserOperation userOp) throws TransformException
+  {
+	if ( userOp.getHistoryId() > getLatestVersion() )
+	{
+	  onTaggedOperationReceived(userOp, false);
+	}
+  }
+
   @Override
   public void close()
   {
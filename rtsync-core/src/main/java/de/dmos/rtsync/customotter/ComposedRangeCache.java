@@ -0,0 +1,229 @@
+package de.dmos.rtsync.customotter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+import se.l4.otter.engine.CloseableIterator;
+import se.l4.otter.engine.OperationHistory;
+import se.l4.otter.operations.Composer;
+import se.l4.otter.operations.OTType;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+/**
+ * Caches the compositions of aligned blocks of historyIds, so a range of a history can be composed from a logarithmic
+ * number of cached blocks instead of all operations within it. A block of level j contains the historyIds from i * 2^j
+ * to (i + 1) * 2^j - 1 and is composed from the two blocks of level j - 1 which it contains. Blocks up to
+ * {@link #MIN_CACHED_BLOCK_SIZE} operations are composed directly from the history.
+ *
+ * The least recently used blocks are dropped if more than the maximum number of blocks are cached or if the estimated
+ * size of the cached blocks exceeds the maximum number of bytes, see {@link OperationSizeEstimator}. This class is not
+ * thread-safe and is meant to be used while holding the lock of the {@link CustomEditorControl}.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class ComposedRangeCache<T extends Operation<CombinedHandler>>
+{
+  public static final int	  DEFAULT_MAX_CACHED_BLOCKS	= 1024;
+  public static final long	  DEFAULT_MAX_CACHED_BYTES	= 16l << 20;
+  public static final int	  MIN_CACHED_BLOCK_SIZE		= 8;
+
+  private static final int	  MIN_CACHED_LEVEL			= Integer.numberOfTrailingZeros(MIN_CACHED_BLOCK_SIZE);
+  private static final int	  LEVEL_SHIFT				= 58;
+
+  private final OTType<T>	  _type;
+  private final BinaryOperator<T> _compose;
+  private final Map<Long, CachedBlock<T>> _blocks;
+  private final int			  _maxCachedBlocks;
+  private final long		  _maxCachedBytes;
+  private long				  _cachedBytes;
+  /**
+   * Blocks which contain historyIds from this one on are not cached.
+   */
+  private long				  _highestCachedId			= 0;
+
+  public ComposedRangeCache(OTType<T> type)
+  {
+	this(type, DEFAULT_MAX_CACHED_BLOCKS, DEFAULT_MAX_CACHED_BYTES);
+  }
+
+  public ComposedRangeCache(OTType<T> type, int maxCachedBlocks, long maxCachedBytes)
+  {
+	this(type, maxCachedBlocks, maxCachedBytes, type::compose);
+  }
+
+  /**
+   * @param maxCachedBytes The maximum estimated size of all cached blocks. Blocks which are larger on their own are not
+   *          cached.
+   * @param compose Composes two blocks, e.g. {@link PartitionedTransformer#compose(Operation, Operation)} for blocks
+   *          which change many objects.
+   */
+  public ComposedRangeCache(OTType<T> type, int maxCachedBlocks, long maxCachedBytes, BinaryOperator<T> compose)
+  {
+	_type = type;
+	_compose = compose;
+	_maxCachedBlocks = maxCachedBlocks;
+	_maxCachedBytes = maxCachedBytes;
+	_blocks = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the composition of the operations of the given history from start (inclusive) to end (exclusive) or null
+   * if there are none.
+   */
+  public T compose(OperationHistory<T> history, long start, long end)
+  {
+	T composed = null;
+	long from = Math.max(start, 0);
+	while (from < end)
+	{
+	  int level = Math.min(Long.numberOfTrailingZeros(from), 63 - Long.numberOfLeadingZeros(end - from));
+	  long blockEnd = from + (1l << level);
+	  T block = level >= MIN_CACHED_LEVEL
+		  ? getBlock(history, level, from >> level)
+			  : composeDirectly(history, from, blockEnd);
+	  composed = compose(composed, block);
+	  from = blockEnd;
+	}
+	return composed;
+  }
+
+  /**
+   * Drops all cached blocks which contain the given historyId or later ones. This needs to be called if an operation
+   * with that historyId changed or was stored after later ones.
+   */
+  public void invalidateFrom(long historyId)
+  {
+	if ( historyId > _highestCachedId )
+	{
+	  return;
+	}
+	Iterator<Map.Entry<Long, CachedBlock<T>>> it = _blocks.entrySet().iterator();
+	while (it.hasNext())
+	{
+	  Map.Entry<Long, CachedBlock<T>> entry = it.next();
+	  if ( getBlockEnd(entry.getKey()) > historyId )
+	  {
+		_cachedBytes -= entry.getValue().size();
+		it.remove();
+	  }
+	}
+	_highestCachedId = historyId - 1;
+  }
+
+  /**
+   * Returns the highest historyId which is part of a cached block.
+   */
+  public long getHighestCachedId()
+  {
+	return _highestCachedId;
+  }
+
+  public int getCachedBlockCount()
+  {
+	return _blocks.size();
+  }
+
+  /**
+   * Returns the estimated size of all cached blocks.
+   */
+  public long getCachedBytes()
+  {
+	return _cachedBytes;
+  }
+
+  public void clear()
+  {
+	_blocks.clear();
+	_cachedBytes = 0;
+	_highestCachedId = 0;
+  }
+
+  private T getBlock(OperationHistory<T> history, int level, long index)
+  {
+	long key = ((long) level << LEVEL_SHIFT) | index;
+	CachedBlock<T> cached = _blocks.get(key);
+	if ( cached != null )
+	{
+	  return cached.operation();
+	}
+	T block;
+	long blockStart = index << level;
+	if ( level == MIN_CACHED_LEVEL )
+	{
+	  block = composeDirectly(history, blockStart, blockStart + (1l << level));
+	}
+	else
+	{
+	  block = compose(getBlock(history, level - 1, index << 1), getBlock(history, level - 1, (index << 1) + 1));
+	}
+	long size = block != null ? OperationSizeEstimator.estimateSize(block) : 0;
+	if ( size <= _maxCachedBytes )
+	{
+	  _blocks.put(key, new CachedBlock<>(block, size));
+	  _cachedBytes += size;
+	  _highestCachedId = Math.max(_highestCachedId, getBlockEnd(key) - 1);
+	  evictLeastRecentlyUsedBlocks();
+	}
+	return block;
+  }
+
+  private void evictLeastRecentlyUsedBlocks()
+  {
+	Iterator<CachedBlock<T>> it = _blocks.values().iterator();
+	while (_blocks.size() > _maxCachedBlocks || _cachedBytes > _maxCachedBytes)
+	{
+	  _cachedBytes -= it.next().size();
+	  it.remove();
+	}
+  }
+
+  private static long getBlockEnd(long key)
+  {
+	int level = (int) (key >>> LEVEL_SHIFT);
+	long index = key & ((1l << LEVEL_SHIFT) - 1);
+	return (index + 1) << level;
+  }
+
+  private T compose(T first, T second)
+  {
+	if ( first == null )
+	{
+	  return second;
+	}
+	if ( second == null )
+	{
+	  return first;
+	}
+	return _compose.apply(first, second);
+  }
+
+  private T composeDirectly(OperationHistory<T> history, long start, long end)
+  {
+	try (CloseableIterator<T> it = history.between(start, end))
+	{
+	  return composeAll(it);
+	}
+  }
+
+  private T composeAll(Iterator<T> it)
+  {
+	if ( !it.hasNext() )
+	{
+	  return null;
+	}
+	Composer<T> composer = _type.newComposer();
+	while (it.hasNext())
+	{
+	  composer.add(it.next());
+	}
+	return composer.done();
+  }
+
+  private record CachedBlock<T>(T operation, long size)
+  {
+  }
+}
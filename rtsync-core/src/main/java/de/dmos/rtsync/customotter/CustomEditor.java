@@ -1,6 +1,8 @@
 package de.dmos.rtsync.customotter;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +12,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import de.dmos.rtsync.internalinterfaces.TaggedUserOperationListener;
 import de.dmos.rtsync.internalinterfaces.UserOperationSync;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import se.l4.otter.engine.DefaultEditor;
 import se.l4.otter.engine.Editor;
@@ -28,6 +31,12 @@ import se.l4.otter.operations.internal.DefaultComposer;
 /**
  * A copy of {@link DefaultEditor} which allows a reset of the internal state.
  *
+ * Like the {@link DefaultEditor}, it sends one operation at a time by default and buffers further edits until it is
+ * confirmed. With {@link #setMaxInFlightOperations(int)}, up to that many operations are sent without waiting for their
+ * confirmations, so edits reach other users without waiting a round trip for each. Each of them is tagged with its own
+ * token and the latest historyId known when it was sent. The server must transform them accordingly, see
+ * {@link CustomEditorControl#setMaxPipelinedSessions(int)}.
+ *
  * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
  * @version $Rev$
  *
@@ -41,8 +50,11 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
 	AWAITING_CONFIRM_WITH_BUFFER
   }
 
+  public static final int                              DEFAULT_MAX_IN_FLIGHT_OPERATIONS = 1;
+
   protected final String                               _id;
   protected final OTType<T>                            _type;
+  protected final PartitionedTransformer<T>            _transformer;
   protected final OperationSync<T>                     _sync;
   protected final Lock                                 _lock;
 
@@ -54,10 +66,19 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
   protected long                                       _parentHistoryId;
   protected int                                        _lastId;
 
-  protected TaggedOperation<T>                         _lastSent;
+  /**
+   * The sent operations which haven't been confirmed yet, oldest first. They are transformed over received operations
+   * so each of them applies after its predecessors.
+   */
+  protected final Deque<TaggedOperation<T>>            _inFlight;
   protected TaggedOperation<T>                         _buffer;
+  protected int                                        _maxInFlight;
 
-  protected T                                          _current;
+  /**
+   * The current document. Applied operations are composed with it only when it is requested, so the cost of an edit
+   * doesn't depend on the size of the document.
+   */
+  protected LazyComposition<T>                         _current;
 
   protected Composer<T>                                _composer;
   protected int                                        _lockDepth;
@@ -66,10 +87,14 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
   {
 	_sync = sync;
 	_type = sync.getType();
+	_transformer = new PartitionedTransformer<>(_type);
 	_lock = new ReentrantLock();
 
 	_listeners = new ArrayList<>();
 	_futures = new HashMap<>();
+	_inFlight = new ArrayDeque<>();
+	_maxInFlight = DEFAULT_MAX_IN_FLIGHT_OPERATIONS;
+	_current = new LazyComposition<>(_type::compose, null);
 
 	_lock.lock();
 	try
@@ -104,8 +129,10 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
   private void reset(TaggedOperation<T> taggedOp)
   {
 	_state = State.SYNCHRONIZED;
+	_inFlight.clear();
+	_buffer = null;
 	_parentHistoryId = taggedOp.getHistoryId();
-	_current = taggedOp.getOperation();
+	_current.set(taggedOp.getOperation());
 	_futures.clear();
   }
 
@@ -144,10 +171,54 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
 	return _type;
   }
 
+  /**
+   * Sets the number of operations which may be sent before the first of them is confirmed. The default is
+   * {@link #DEFAULT_MAX_IN_FLIGHT_OPERATIONS}. Values greater than 1 need a server which transforms pipelined
+   * operations.
+   */
+  public void setMaxInFlightOperations(int maxInFlight)
+  {
+	if ( maxInFlight < 1 )
+	{
+	  throw new IllegalArgumentException("maxInFlight must be positive but was " + maxInFlight);
+	}
+	_lock.lock();
+	try
+	{
+	  _maxInFlight = maxInFlight;
+	  sendBufferIfPossible();
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  public int getMaxInFlightOperations()
+  {
+	return _maxInFlight;
+  }
+
+  /**
+   * Returns the number of sent operations which haven't been confirmed yet.
+   */
+  public int getInFlightOperationCount()
+  {
+	_lock.lock();
+	try
+	{
+	  return _inFlight.size();
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
   @Override
   public T getCurrent()
   {
-	return _current;
+	return _current.get();
   }
 
   /**
@@ -194,126 +265,48 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
 	_lock.lock();
 	try
 	{
-	  switch(_state)
+	  _parentHistoryId = op.getHistoryId();
+	  TaggedOperation<T> oldestSent = _inFlight.peekFirst();
+	  if ( oldestSent != null && oldestSent.getToken().equals(op.getToken()) )
+	  {
+		/*
+		 * This is the oldest operation we sent, we have already
+		 * applied this locally.
+		 */
+		confirmOldestSent();
+	  }
+	  else
 	  {
-		case SYNCHRONIZED:
+		/*
+		 * Someone else has edited the document before our sent
+		 * operations were applied. Transform the incoming operation
+		 * over each of them and replace them with the transformed
+		 * ones, so any other edits can be safely applied.
+		 */
+		T remote = op.getOperation();
+		int count = _inFlight.size();
+		for ( int i = 0; i < count; i++ )
+		{
+		  TaggedOperation<T> sent = _inFlight.removeFirst();
+		  OperationPair<T> transformed = _transformer.transform(remote, sent.getOperation());
+		  _inFlight.addLast(new TaggedOperation<>(op.getHistoryId(), sent.getToken(), transformed.getRight()));
+		  remote = transformed.getLeft();
+		}
+
+		if ( _buffer != null )
+		{
 		  /*
-		   * No local changes, simply send operation to listeners.
+		   * Transform the already transformed remote operation
+		   * over our buffer.
 		   */
-		  _parentHistoryId = op.getHistoryId();
-		  composeAndTriggerListeners(op.getOperation(), user);
-		  break;
-		case AWAITING_CONFIRM:
-		  if(_lastSent.getToken().equals(op.getToken()))
-		  {
-			/*
-			 * This is the operation we previously sent, we have
-			 * already applied this locally so we can safely switch
-			 * to synchronized state.
-			 */
-			_parentHistoryId = op.getHistoryId();
-			this._state = State.SYNCHRONIZED;
-
-			// Trigger the future for the operation
-			CompletableFuture<Void> future = _futures.get(op.getToken());
-			if(future != null)
-			{
-			  _futures.remove(op.getToken());
-			  future.complete(null);
-			}
-		  }
-		  else
-		  {
-			/*
-			 * Someone else has edited the document before our own
-			 * operation was applied. Transform the incoming operation
-			 * over our sent operation.
-			 */
-			OperationPair<T> transformed = _type
-				.transform(
-				  op.getOperation(),
-				  _lastSent.getOperation()
-					);
-
-			/*
-			 * We stay in our current state but replace lastSent
-			 * with the transformed operation so any other edits
-			 * can be safely applied.
-			 */
-			_lastSent = new TaggedOperation<>(
-				op.getHistoryId(),
-				_lastSent.getToken(),
-				transformed.getRight()
-				);
-
-			_parentHistoryId = op.getHistoryId();
-			composeAndTriggerListeners(transformed.getLeft(), user);
-		  }
-		  break;
-		case AWAITING_CONFIRM_WITH_BUFFER:
-		  if(_lastSent.getToken().equals(op.getToken()))
-		  {
-			/*
-			 * This is the operation we previously sent, so request
-			 * that we send our buffer and switch to awaiting
-			 * confirm.
-			 */
-			_parentHistoryId = op.getHistoryId();
-			_state = State.AWAITING_CONFIRM;
-
-			_buffer = new TaggedOperation<>(
-				op.getHistoryId(),
-				_buffer.getToken(),
-				_buffer.getOperation()
-				);
-			_lastSent = _buffer;
-
-			_sync.send(_buffer);
-		  }
-		  else
-		  {
-			/*
-			 * Someone else has edited the document, rewrite
-			 * both the incoming and our buffered operation.
-			 */
-			OperationPair<T> transformed = _type
-				.transform(
-				  op.getOperation(),
-				  _lastSent.getOperation()
-					);
-
-			/*
-			 * As for awaiting confirm, we replace lastSent with
-			 * a transformed operation.
-			 */
-			_lastSent = new TaggedOperation<>(
-				op.getHistoryId(),
-				_lastSent.getToken(),
-				transformed.getRight()
-				);
-
-			/*
-			 * Transform the already transformed remote operation
-			 * over our buffer.
-			 */
-			transformed = _type.transform(
-			  _buffer.getOperation(),
-			  transformed.getLeft()
-				);
-
-			_buffer = new TaggedOperation<>(
-				op.getHistoryId(),
-				_buffer.getToken(),
-				transformed.getLeft()
-				);
-
-			_parentHistoryId = op.getHistoryId();
-			composeAndTriggerListeners(transformed.getRight(), user);
-		  }
-		  break;
-		default:
-		  throw new AssertionError("Unknown state: " + _state);
+		  OperationPair<T> transformed = _transformer.transform(_buffer.getOperation(), remote);
+		  _buffer = new TaggedOperation<>(op.getHistoryId(), _buffer.getToken(), transformed.getLeft());
+		  remote = transformed.getRight();
+		}
+
+		composeAndTriggerListeners(remote, user);
 	  }
+	  updateState();
 	}
 	finally
 	{
@@ -321,6 +314,99 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
 	}
   }
 
+  /**
+   * Confirms the oldest sent operation like receiving it would, if the acknowledgement is meant for it. At that point it
+   * has been transformed over all operations which the server stored before it, so it is the operation as the server
+   * stored it.
+   *
+   * @return The confirmed operation as the server stored it or null if this editor didn't send the acknowledged
+   *         operation or has been reset since.
+   */
+  @Override
+  public TaggedUserOperation onOperationAcknowledged(OperationAck ack)
+  {
+	_lock.lock();
+	try
+	{
+	  TaggedOperation<T> oldestSent = _inFlight.peekFirst();
+	  if ( oldestSent == null || !oldestSent.getToken().equals(ack.token()) )
+	  {
+		return null;
+	  }
+	  _parentHistoryId = ack.historyId();
+	  confirmOldestSent();
+	  return new TaggedUserOperation(ack.historyId(), ack.token(), oldestSent.getOperation(), null);
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  /**
+   * Sends the operations which are still in flight again with their tokens. They have been transformed over all
+   * operations received so far, so they apply on the server like pipelined operations.
+   */
+  @Override
+  public void onResumed()
+  {
+	_lock.lock();
+	try
+	{
+	  _inFlight.forEach(_sync::send);
+	}
+	finally
+	{
+	  _lock.unlock();
+	}
+  }
+
+  /**
+   * Removes the oldest sent operation, triggers its future and sends the buffer if it can be sent now.
+   */
+  private void confirmOldestSent()
+  {
+	TaggedOperation<T> confirmed = _inFlight.removeFirst();
+	CompletableFuture<Void> future = _futures.remove(confirmed.getToken());
+	if ( future != null )
+	{
+	  future.complete(null);
+	}
+	sendBufferIfPossible();
+  }
+
+  /**
+   * Sends the buffer based on the latest known historyId if fewer than the maximum number of operations are in flight.
+   */
+  private void sendBufferIfPossible()
+  {
+	if ( _buffer != null && _inFlight.size() < _maxInFlight )
+	{
+	  TaggedOperation<T> toSend = new TaggedOperation<>(_parentHistoryId, _buffer.getToken(), _buffer.getOperation());
+	  _buffer = null;
+	  send(toSend);
+	}
+	updateState();
+  }
+
+  private void send(TaggedOperation<T> tagged)
+  {
+	_inFlight.addLast(tagged);
+	_sync.send(tagged);
+  }
+
+  private void updateState()
+  {
+	if ( _inFlight.isEmpty() )
+	{
+	  _state = State.SYNCHRONIZED;
+	}
+	else
+	{
+	  _state = _buffer == null ? State.AWAITING_CONFIRM : State.AWAITING_CONFIRM_WITH_BUFFER;
+	}
+  }
+
   private CompletableFuture<Void> future(String token)
   {
 	return _futures.computeIfAbsent(token, k -> new CompletableFuture<>());
@@ -341,68 +427,45 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
 		return future(nextToken);
 	  }
 
-	  // Compose together with the current operation
-	  _current = _type.compose(_current, op);
+	  // Compose together with the current operation once it is needed
+	  _current.append(op);
 
 	  CompletableFuture<Void> future;
-	  switch(_state)
+	  if ( _buffer == null )
 	  {
-		case SYNCHRONIZED:
+		/*
+		 * Create a tagged version with a unique token and
+		 * start tracking when it is applied. Send it if fewer
+		 * than the maximum number of operations are in flight
+		 * and buffer it otherwise.
+		 */
+		String token = _id + "-" + (_lastId++);
+		TaggedOperation<T> tagged = new TaggedOperation<>(_parentHistoryId, token, op);
+		future = future(token);
+		if ( _inFlight.size() < _maxInFlight )
 		{
-		  /*
-		   * Create a tagged version with a unique token and
-		   * start tracking when it is applied.
-		   */
-		  String token = _id + "-" + (_lastId++);
-		  TaggedOperation<T> tagged = new TaggedOperation<>(
-			  _parentHistoryId,
-			  token,
-			  op
-			  );
-
-		  future = future(token);
-		  _state = State.AWAITING_CONFIRM;
-		  _lastSent = tagged;
-		  _sync.send(tagged);
-
-		  break;
+		  send(tagged);
 		}
-		case AWAITING_CONFIRM:
+		else
 		{
-		  /*
-		   * We are already waiting for another operation to be applied,
-		   * buffer this one.
-		   */
-		  String token = _id + "-" + (_lastId++);
-		  TaggedOperation<T> tagged = new TaggedOperation<>(
-			  _parentHistoryId,
-			  token,
-			  op
-			  );
-
-		  future = future(token);
 		  _buffer = tagged;
-		  _state = State.AWAITING_CONFIRM_WITH_BUFFER;
-		  break;
 		}
-		case AWAITING_CONFIRM_WITH_BUFFER:
-		{
-		  /*
-		   * We have something buffered, compose the buffer together
-		   * with this edit.
-		   */
-		  _buffer = new TaggedOperation<>(
-			  _buffer.getHistoryId(),
-			  _buffer.getToken(),
-			  _type.compose(_buffer.getOperation(), op)
-			  );
-
-		  future = future(_buffer.getToken());
-		  break;
-		}
-		default:
-		  throw new AssertionError("Unknown state: " + _state);
 	  }
+	  else
+	  {
+		/*
+		 * We have something buffered, compose the buffer together
+		 * with this edit.
+		 */
+		_buffer = new TaggedOperation<>(
+			_buffer.getHistoryId(),
+			_buffer.getToken(),
+			_type.compose(_buffer.getOperation(), op)
+			);
+
+		future = future(_buffer.getToken());
+	  }
+	  updateState();
 
 	  ChangeEvent<T> event = new UserChangeEvent<>(op, true, null);
 	  _listeners.forEach(l -> l.editorChanged(event));
@@ -417,7 +480,7 @@ public class CustomEditor<T extends Operation<CombinedHandler>> implements Edito
 
   private void composeAndTriggerListeners(T op, String user)
   {
-	_current = _type.compose(_current, op);
+	_current.append(op);
 
 	ChangeEvent<T> event = new UserChangeEvent<>(op, false, user);
 	_listeners.forEach(l -> l.editorChanged(event));
@@ -1,5 +1,11 @@
 package de.dmos.rtsync.customotter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -21,16 +27,70 @@ import se.l4.ylem.ids.SimpleLongIdGenerator;
 /**
  * A copy of {@link DefaultEditorControl} which stores {@link TaggedUserOperation}s and can reset the history.
  *
+ * If pipelining is enabled by {@link #setMaxPipelinedSessions(int)}, then editor sessions may send several operations
+ * before the first of them is confirmed, as {@link CustomEditor#setMaxInFlightOperations(int)} allows. Such an
+ * operation is based on its historyId and on all operations which the session sent before but hadn't seen confirmed
+ * yet. To transform it, the control keeps the sent operations of every session and replays the history after their
+ * base onto them the same way the session's editor does. The session which sent an operation must be passed to
+ * {@link #store(TaggedUserOperation, String, boolean)} explicitly, e.g. as the id of the client's connection.
+ *
  * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
  * @version $Rev$
  */
 public class CustomEditorControl<T extends Operation<CombinedHandler>> implements EditorControl<T>, WholeStateStore
 {
+  public static final int		  DEFAULT_MAX_PIPELINED_SESSIONS = 1024;
+
   protected final TaggedUserOperationHistory<T> _history;
   protected final Lock             _lock;
   protected final LongIdGenerator  _idGenerator;
   protected final CloseableLock    _closeableLock;
 
+  /**
+   * The composed state of the history at the version of the latest operation which is also part of it. It is used to
+   * answer {@link #getLatestUserOperation()} without taking the lock if nothing was stored since it was composed and
+   * to compose only the newer operations otherwise.
+   */
+  private volatile ComposedState<T> _composedState;
+
+  /**
+   * Caches compositions of ranges of the history for {@link #composeAndTransform(long, Operation)}.
+   */
+  private final ComposedRangeCache<T> _composedRanges;
+
+  /**
+   * Composes and transforms operations which change many objects partitioned by object.
+   */
+  private final PartitionedTransformer<T> _transformer;
+
+  /**
+   * The operations which sessions have sent and may not have seen confirmed yet, by session. The least recently used
+   * sessions are dropped if there are too many. This is null if pipelining is disabled.
+   */
+  private Map<String, SessionPipeline<T>>		_pipelines;
+  /**
+   * The historyId of the latest pending operation of each session whose pipeline was dropped, by session. Operations
+   * of these sessions which are based on older historyIds are rejected, since they may be based on the dropped
+   * operations.
+   */
+  private Map<String, Long>						_evictedSessions;
+
+  /**
+   * The historyId of the latest stored operation which changed each object, by the object's id. Objects which haven't
+   * been changed since {@link #_objectVersionsSince} are missing.
+   */
+  private final Map<String, Long>				_objectVersions;
+  /**
+   * The historyId since which {@link #_objectVersions} tracks all changes, i.e. the latest stored whole state or the
+   * latest version when this control was created. Operations based on older historyIds may conflict with any object.
+   */
+  private long									_objectVersionsSince;
+  /**
+   * Identifies the history whose historyIds this control hands out. It changes whenever the historyIds may start to
+   * identify other operations, so clients only resume from a historyId of the same epoch.
+   */
+  private volatile String						_historyEpoch;
+
   public CustomEditorControl(TaggedUserOperationHistory<T> history)
   {
 	this(history, new ReentrantLock());
@@ -50,11 +110,97 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 	_idGenerator = idGenerator;
 	_closeableLock = lock::unlock;
 	_history = history;
+	_transformer = new PartitionedTransformer<>(history.getType());
+	_composedRanges = new ComposedRangeCache<>(
+	  history.getType(),
+	  ComposedRangeCache.DEFAULT_MAX_CACHED_BLOCKS,
+	  ComposedRangeCache.DEFAULT_MAX_CACHED_BYTES,
+	  _transformer::compose);
+	_objectVersions = new HashMap<>();
+	_objectVersionsSince = history.getLatest();
+	_historyEpoch = UUID.randomUUID().toString();
+  }
+
+  public TaggedUserOperationHistory<T> getHistory()
+  {
+	return _history;
   }
 
   public void setBaseOperation(TaggedUserOperation baseOperation)
   {
-	_history.resetOperationsTo(baseOperation);
+	try (CloseableLock lock = lock())
+	{
+	  _composedState = null;
+	  _composedRanges.clear();
+	  if ( _pipelines != null )
+	  {
+		_pipelines.clear();
+		_evictedSessions.clear();
+	  }
+	  _history.resetOperationsTo(baseOperation);
+	  _objectVersions.clear();
+	  _objectVersionsSince = baseOperation.getHistoryId();
+	  _historyEpoch = UUID.randomUUID().toString();
+	}
+  }
+
+  /**
+   * Returns the epoch of this control's history. A client may only resume from a historyId which it received within
+   * the same epoch, since a new epoch starts whenever the history is reset or created anew, e.g. after a restart.
+   */
+  public String getHistoryEpoch()
+  {
+	return _historyEpoch;
+  }
+
+  /**
+   * Enables the transformation of pipelined operations for at most the given number of sessions or disables it if it is
+   * 0 (default). Servers should enable it, while clients, which only store operations ordered by their server, don't
+   * need it. If more sessions pipeline their operations at once, then the pipelines of the least recently active ones
+   * are dropped. Their next operations are rejected by a {@link PipelineEvictedException} until they are based on a
+   * version which includes all their dropped operations, so the sessions resynchronize instead of having their
+   * operations transformed wrongly.
+   */
+  public void setMaxPipelinedSessions(int maxSessions)
+  {
+	try (CloseableLock lock = lock())
+	{
+	  if ( maxSessions <= 0 )
+	  {
+		_pipelines = null;
+		_evictedSessions = null;
+		return;
+	  }
+	  _evictedSessions = new LinkedHashMap<>(16, 0.75f, true)
+	  {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+		{
+		  return size() > maxSessions;
+		}
+	  };
+	  _pipelines = new LinkedHashMap<>(16, 0.75f, true)
+	  {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SessionPipeline<T>> eldest)
+		{
+		  if ( size() <= maxSessions )
+		  {
+			return false;
+		  }
+		  List<PipelinedOperation<T>> pending = eldest.getValue().pending();
+		  if ( !pending.isEmpty() )
+		  {
+			_evictedSessions.put(eldest.getKey(), pending.get(pending.size() - 1).storedId());
+		  }
+		  return true;
+		}
+	  };
+	}
   }
 
   @Override
@@ -80,25 +226,79 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
   @Override
   public TaggedUserOperation getLatestUserOperation()
   {
-	try (CloseableLock lock = lock()) {
-	  TaggedUserOperation latestUserOp = _history.getLatestUserOperation();
-	  long id = latestUserOp.getHistoryId();
-	  long wholeStateId = _history.getLatestWholeStateVersion();
-	  try (CloseableIterator<T> it = _history.between(wholeStateId, id + 1))
+	ComposedState<T> composedState = _composedState;
+	if ( !isUpToDate(composedState) )
+	{
+	  try (CloseableLock lock = lock())
 	  {
-		Composer<T> composer = _history.getType().newComposer();
-		while (it.hasNext())
-		{
-		  T op = it.next();
-		  composer.add(op);
-		}
-		Operation<CombinedHandler> composed = composer.done();
-		long sessionId = _idGenerator.next();
+		composedState = updateComposedState();
+	  }
+	}
+	TaggedUserOperation latestUserOp = composedState.latestUserOp();
+	long sessionId = _idGenerator.next();
+	return new TaggedUserOperation(
+	  latestUserOp.getHistoryId(),
+	  toString(sessionId),
+	  composedState.operation(),
+	  latestUserOp.getUser());
+  }
+
+  /**
+   * Composes the operations which were stored after {@link #_composedState} onto it or composes the whole history from
+   * its latest whole state if there is no valid composed state. Must be called while holding the lock.
+   */
+  private ComposedState<T> updateComposedState()
+  {
+	ComposedState<T> composedState = _composedState;
+	if ( isUpToDate(composedState) )
+	{
+	  return composedState;
+	}
 
-		// This could also be put as whole state operation into the _history if it is needed often.
-		return new TaggedUserOperation(id, toString(sessionId), composed, latestUserOp.getUser());
+	TaggedUserOperation latestUserOp = _history.getLatestUserOperation();
+	long id = latestUserOp.getHistoryId();
+	long wholeStateId = _history.getLatestWholeStateVersion();
+	Composer<T> composer = _history.getType().newComposer();
+	long firstDeltaId;
+	// A whole state at the composed state's version is preferred because compactions may drop unreachable objects.
+	if ( composedState != null && composedState.version() > wholeStateId && composedState.version() < id )
+	{
+	  composer.add(composedState.operation());
+	  firstDeltaId = composedState.version() + 1;
+	}
+	else
+	{
+	  composer.add(getCastedOperation(_history.getWholeState(wholeStateId)));
+	  firstDeltaId = wholeStateId + 1;
+	}
+	try (CloseableIterator<T> it = _history.between(firstDeltaId, id + 1))
+	{
+	  while (it.hasNext())
+	  {
+		T op = it.next();
+		composer.add(op);
 	  }
 	}
+	composedState = new ComposedState<>(latestUserOp, wholeStateId, composer.done());
+	_composedState = composedState;
+	return composedState;
+  }
+
+  /**
+   * Returns whether the given composed state contains the latest operation and is based on the latest whole state, which
+   * may have been changed by a compaction in the meantime.
+   */
+  private boolean isUpToDate(ComposedState<T> composedState)
+  {
+	return composedState != null
+	  && composedState.latestUserOp() == _history.getLatestUserOperation()
+	  && composedState.wholeStateVersion() == _history.getLatestWholeStateVersion();
+  }
+
+  @SuppressWarnings("unchecked")
+  private T getCastedOperation(TaggedUserOperation taggedUserOperation)
+  {
+	return (T) taggedUserOperation.getOperation();
   }
 
   @Override
@@ -107,6 +307,34 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 	return _history.getLatest();
   }
 
+  /**
+   * Returns the operations which were stored after the given historyId, so a client which is synchronized up to it can
+   * catch up without receiving the whole state. Returns null if they aren't retained anymore, if one of them is a whole
+   * state or if the historyId is unknown.
+   */
+  public List<TaggedUserOperation> getUserOperationsAfter(long historyId)
+  {
+	try (CloseableLock lock = lock())
+	{
+	  long latest = _history.getLatest();
+	  if ( historyId > latest || historyId < _history.getOldestTransformableVersion() )
+	  {
+		return null;
+	  }
+	  List<TaggedUserOperation> userOps = new ArrayList<>((int) (latest - historyId));
+	  for ( long id = historyId + 1; id <= latest; id++ )
+	  {
+		TaggedUserOperation userOp = _history.getUserOperation(id);
+		if ( userOp == null || userOp == _history.getWholeState(id) )
+		{
+		  return null;
+		}
+		userOps.add(userOp);
+	  }
+	  return userOps;
+	}
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public TaggedOperation<T> store(TaggedOperation<T> operation)
@@ -116,23 +344,48 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 
   @Override
   public TaggedUserOperation store(TaggedUserOperation userOp, boolean wholeState)
+  {
+	return store(userOp, null, wholeState);
+  }
+
+  /**
+   * Stores the given operation like {@link #store(TaggedUserOperation, boolean)}.
+   *
+   * @param session Identifies the session which sent the operation, so it can be transformed over the operations which
+   *          the session sent before if pipelining is enabled. Operations without a session are transformed as if they
+   *          weren't pipelined.
+   * @throws PipelineEvictedException If the session's pipeline was dropped and the operation may be based on one of
+   *           the dropped operations.
+   */
+  public TaggedUserOperation store(TaggedUserOperation userOp, String session, boolean wholeState)
   {
 	_lock.lock();
 	try
 	{
 	  TaggedUserOperation toStore;
+	  SessionPipeline<T> pipeline = null;
 	  if ( !wholeState )
 	  {
-		@SuppressWarnings("unchecked")
-		OperationPair<T> pair = composeAndTransform(userOp.getHistoryId(), (T) userOp.getOperation());
-		T transformed = pair.getRight();
+		T op = getCastedOperation(userOp);
+		pipeline = getPipeline(session, userOp.getHistoryId());
+		T transformed = pipeline != null
+			? transformPipelined(pipeline, userOp.getHistoryId(), op)
+				: composeAndTransform(userOp.getHistoryId(), op).getRight();
 		toStore = new TaggedUserOperation(userOp.getHistoryId(), userOp.getToken(), transformed, userOp.getUser());
 	  }
 	  else
 	  {
 		toStore = userOp;
+		_composedState = null;
+	  }
+	  TaggedUserOperation storedOp = _history.store(toStore, wholeState);
+	  _composedRanges.invalidateFrom(storedOp.getHistoryId());
+	  updateObjectVersions(storedOp.getHistoryId(), getCastedOperation(storedOp), wholeState);
+	  if ( pipeline != null )
+	  {
+		pipeline.pending().add(new PipelinedOperation<>(userOp.getToken(), getCastedOperation(userOp), storedOp.getHistoryId()));
 	  }
-	  return _history.store(toStore, wholeState);
+	  return storedOp;
 	}
 	finally
 	{
@@ -148,6 +401,8 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 	{
 	  OperationPair<T> pair = composeAndTransform(historyBase, operation);
 	  long latest = _history.store(pair.getRight());
+	  _composedRanges.invalidateFrom(latest);
+	  updateObjectVersions(latest, pair.getRight(), false);
 	  return new TaggedOperation<>(latest, token, pair.getRight());
 	}
 	finally
@@ -156,21 +411,65 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 	}
   }
 
-  private OperationPair<T> composeAndTransform(long historyId, T operation)
+  /**
+   * Returns whether one of the objects which the given operation changes has been changed by an operation which was
+   * stored after the given historyId. Otherwise the operation doesn't conflict with anything it hasn't seen, so it can be
+   * stored as it is.
+   */
+  public boolean changesObjectsChangedSince(long historyId, T operation)
   {
-	// Get all of the operations that have occurred after our history
-	T composed;
-	try (CloseableIterator<T> it = _history.from(historyId + 1))
+	try (CloseableLock lock = lock())
 	{
-	  Composer<T> composer = _history.getType().newComposer();
+	  return isConflicting(historyId, operation);
+	}
+  }
 
-	  while (it.hasNext())
-	  {
-		composer.add(it.next());
-	  }
+  private boolean isConflicting(long historyId, T operation)
+  {
+	if ( historyId >= _history.getLatest() )
+	{
+	  return false;
+	}
+	if ( historyId < _objectVersionsSince )
+	{
+	  return true;
+	}
+	boolean[] conflicting = {false};
+	operation.apply((id, type, change) -> conflicting[0] |= _objectVersions.getOrDefault(id, 0l) > historyId);
+	return conflicting[0];
+  }
 
-	  composed = composer.done();
+  private void updateObjectVersions(long historyId, T storedOperation, boolean wholeState)
+  {
+	if ( wholeState )
+	{
+	  _objectVersions.clear();
+	  _objectVersionsSince = historyId;
 	}
+	else
+	{
+	  storedOperation.apply((id, type, change) -> _objectVersions.put(id, historyId));
+	}
+  }
+
+  /**
+   * Transforms the given operation over all operations stored after the given historyId. If none of them changed an
+   * object which the operation changes, it is returned as it is without composing them, even if they were compacted.
+   */
+  private OperationPair<T> composeAndTransform(long historyId, T operation)
+  {
+	if ( !isConflicting(historyId, operation) )
+	{
+	  return new OperationPair<>(null, operation);
+	}
+	long oldestTransformableVersion = _history.getOldestTransformableVersion();
+	if ( historyId < oldestTransformableVersion )
+	{
+	  throw new HistoryCompactedException(historyId, oldestTransformableVersion);
+	}
+
+	// Get the composition of all of the operations that have occurred after our history
+	T composed = _composedRanges.compose(_history, historyId + 1, _history.getLatest() + 1);
 
 	// Transform the new operation on top of the composed operation
 	if ( composed == null )
@@ -179,10 +478,123 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 	}
 	else
 	{
-	  return _history.getType().transform(composed, operation);
+	  return _transformer.transform(composed, operation);
 	}
   }
 
+  /**
+   * Returns the pipeline of the given session or null if pipelining is disabled or there is no session. A session whose
+   * pipeline was dropped gets a new one once it sends an operation based on a version which includes all its dropped
+   * operations.
+   *
+   * @throws PipelineEvictedException If the session's pipeline was dropped and an operation based on the given
+   *           historyId may be based on one of its dropped operations.
+   */
+  private SessionPipeline<T> getPipeline(String session, long historyId)
+  {
+	if ( _pipelines == null || session == null )
+	{
+	  return null;
+	}
+	SessionPipeline<T> pipeline = _pipelines.get(session);
+	if ( pipeline == null )
+	{
+	  Long lastDroppedId = _evictedSessions.get(session);
+	  if ( lastDroppedId != null && historyId < lastDroppedId )
+	  {
+		throw new PipelineEvictedException(session, historyId, lastDroppedId);
+	  }
+	  _evictedSessions.remove(session);
+	  pipeline = new SessionPipeline<>(historyId);
+	  _pipelines.put(session, pipeline);
+	}
+	return pipeline;
+  }
+
+  /**
+   * Transforms the given operation of a session, which is based on the given historyId and all operations which the
+   * session sent before but hadn't seen confirmed then, so it can be stored as the latest operation.
+   */
+  private T transformPipelined(SessionPipeline<T> pipeline, long historyId, T operation)
+  {
+	long oldestTransformableVersion = _history.getOldestTransformableVersion();
+	if ( historyId < oldestTransformableVersion )
+	{
+	  throw new HistoryCompactedException(historyId, oldestTransformableVersion);
+	}
+	advancePipeline(pipeline, historyId);
+	if ( pipeline.pending().isEmpty() )
+	{
+	  return composeAndTransform(historyId, operation).getRight();
+	}
+
+	// Replay the history on a copy, since the session hasn't seen these operations yet.
+	List<PipelinedOperation<T>> pending = new ArrayList<>(pipeline.pending());
+	T transformed = operation;
+	long latest = _history.getLatest();
+	for ( long id = historyId + 1; id <= latest; id++ )
+	{
+	  T remote = passStoredOperation(pending, _history.getUserOperation(id));
+	  if ( remote != null )
+	  {
+		transformed = _transformer.transform(remote, transformed).getRight();
+	  }
+	}
+	return transformed;
+  }
+
+  /**
+   * Moves the base of the given pipeline to the given historyId which the session has seen, transforming its pending
+   * operations the same way as its editor did.
+   */
+  private void advancePipeline(SessionPipeline<T> pipeline, long historyId)
+  {
+	List<PipelinedOperation<T>> pending = pipeline.pending();
+	if ( historyId < pipeline.base() || pending.isEmpty() || pending.get(pending.size() - 1).storedId() <= historyId )
+	{
+	  // The session has seen all its pending operations confirmed or it has been reset.
+	  pending.clear();
+	}
+	else if ( pipeline.base() < _history.getOldestTransformableVersion() )
+	{
+	  // The history needed to replay the pending operations has been dropped, so the session has to resynchronize.
+	  throw new HistoryCompactedException(pipeline.base(), _history.getOldestTransformableVersion());
+	}
+	else
+	{
+	  for ( long id = pipeline.base() + 1; id <= historyId; id++ )
+	  {
+		passStoredOperation(pending, _history.getUserOperation(id));
+	  }
+	}
+	pipeline.setBase(historyId);
+  }
+
+  /**
+   * Lets the given pending operations of a session pass a stored operation like {@link CustomEditor} does when it
+   * receives it: If it is the first pending operation, it is confirmed and removed. Otherwise the pending operations are
+   * transformed over it.
+   *
+   * @return The stored operation transformed over the pending operations or null if it was a pending one.
+   */
+  private T passStoredOperation(List<PipelinedOperation<T>> pending, TaggedUserOperation stored)
+  {
+	if ( !pending.isEmpty() && pending.get(0).token().equals(stored.getToken()) )
+	{
+	  pending.remove(0);
+	  return null;
+	}
+	T remote = getCastedOperation(stored);
+	for ( int i = 0; i < pending.size(); i++ )
+	{
+	  PipelinedOperation<T> pendingOp = pending.get(i);
+	  OperationPair<T> pair = _history.getType().transform(remote, pendingOp.operation());
+	  pending.set(i, new PipelinedOperation<>(pendingOp.token(), pair.getRight(), pendingOp.storedId()));
+	  remote = pair.getLeft();
+	}
+	return remote;
+  }
+
   private static final char[] DIGITS = {
 	'0',
 	'1',
@@ -265,4 +677,54 @@ public class CustomEditorControl<T extends Operation<CombinedHandler>> implement
 
 	return new String(buf, charPos, (11 - charPos));
   }
+
+  /**
+   * An operation which a session has sent, as the session sees it, together with the historyId under which it was
+   * stored.
+   */
+  private record PipelinedOperation<T>(String token, T operation, long storedId)
+  {
+  }
+
+  /**
+   * The operations which a session has sent but may not have seen confirmed yet. They are based on the given historyId
+   * and each of them is also based on its predecessors.
+   */
+  private static class SessionPipeline<T>
+  {
+	private final List<PipelinedOperation<T>> _pending = new ArrayList<>();
+	private long							  _base;
+
+	SessionPipeline(long base)
+	{
+	  _base = base;
+	}
+
+	long base()
+	{
+	  return _base;
+	}
+
+	void setBase(long base)
+	{
+	  _base = base;
+	}
+
+	List<PipelinedOperation<T>> pending()
+	{
+	  return _pending;
+	}
+  }
+
+  /**
+   * The composed state of all operations up to and including the given latestUserOp, which was composed when the given
+   * whole state was the latest one.
+   */
+  private record ComposedState<T>(TaggedUserOperation latestUserOp, long wholeStateVersion, T operation)
+  {
+	long version()
+	{
+	  return latestUserOp.getHistoryId();
+	}
+  }
 }
@@ -1,16 +1,21 @@
 package de.dmos.rtsync.customotter;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import de.dmos.rtsync.message.TaggedUserOperation;
 import se.l4.otter.engine.CloseableIterator;
 import se.l4.otter.engine.InMemoryOperationHistory;
 import se.l4.otter.engine.OperationHistory;
 import se.l4.otter.engine.TaggedOperation;
+import se.l4.otter.operations.Composer;
 import se.l4.otter.operations.OTType;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
@@ -19,6 +24,10 @@ import se.l4.otter.operations.combined.CombinedHandler;
  * A {@link OperationHistory} which works similarly to the {@link InMemoryOperationHistory} but also allows stored
  * operations to change and stores {@link TaggedUserOperation}s.
  *
+ * If a {@link HistoryCompactionPolicy} is set, then the history regularly composes its operations into a new whole
+ * state and drops the deltas which are older than the oldest historyId that is still needed. The oldest needed
+ * historyId is given by {@link #setOldestNeededVersionSupplier(LongSupplier)}.
+ *
  * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
  * @version $Rev$
  *
@@ -26,11 +35,31 @@ import se.l4.otter.operations.combined.CombinedHandler;
  */
 public class CustomHistory<T extends Operation<CombinedHandler>> implements TaggedUserOperationHistory<T>
 {
+  private static final Logger                          LOG = LoggerFactory.getLogger(CustomHistory.class);
+
   protected final OTType<T>          _type;
   protected final SortedMap<Long, TaggedUserOperation> _operations;
-  protected final SortedSet<Long>                      _wholeStateOperationIds;
+  /**
+   * The whole states by their historyIds. Whole states which are stored or used as base are also part of
+   * {@link #_operations} while whole states which are composed by {@link #compact()} are only stored here.
+   */
+  protected final SortedMap<Long, TaggedUserOperation> _wholeStates;
   protected final boolean                              _taggedOperationStoreIncreasesHistoryIds;
 
+  private HistoryCompactionPolicy                      _compactionPolicy;
+  private LongSupplier                                 _oldestNeededVersionSupplier;
+  private boolean                                      _dropUnreachableObjects;
+  /**
+   * The ids of the objects which were unreachable but kept by the latest compaction.
+   */
+  private Set<String>                                  _unreachableAtLastCompaction = Set.of();
+  /**
+   * All deltas up to this historyId (inclusive) have been dropped.
+   */
+  private long                                         _compactedUntil;
+  private int                                          _operationsSinceWholeState;
+  private long                                         _bytesSinceWholeState;
+
   /**
    * @param taggedOperationStoreIncreasesHistoryIds If true (default), then {@link #store(TaggedOperation)} and
    *          {@link #store(TaggedUserOperation)} increase the historyId. Otherwise the {@link TaggedOperation}s
@@ -42,6 +71,9 @@ public class CustomHistory<T extends Operation<CombinedHandler>> implements Tagg
   }
 
   /**
+   * @param initial The whole state with which the history starts. If its historyId is greater than 1, e.g. because it
+   *          is a snapshot of an earlier history, the history continues with its historyId and operations based on
+   *          older historyIds are rejected.
    * @param taggedOperationStoreIncreasesHistoryIds If true (default), then {@link #store(TaggedOperation)} and
    *          {@link #store(TaggedUserOperation)} increase the historyId. Otherwise the {@link TaggedOperation}s
    *          historyId is used or reused. Servers should use true and their clients should use false.
@@ -51,8 +83,55 @@ public class CustomHistory<T extends Operation<CombinedHandler>> implements Tagg
 	_type = type;
 	_taggedOperationStoreIncreasesHistoryIds = taggedOperationStoreIncreasesHistoryIds;
 	_operations = new ConcurrentSkipListMap<>();
-	_wholeStateOperationIds = new ConcurrentSkipListSet<>();
-	putOperation(1l, initial, true);
+	_wholeStates = new ConcurrentSkipListMap<>();
+	_oldestNeededVersionSupplier = () -> 0;
+	long initialId = Math.max(1l, initial.getHistoryId());
+	putOperation(initialId, initial, true);
+	if ( initialId > 1 )
+	{
+	  _compactedUntil = initialId;
+	}
+  }
+
+  /**
+   * Sets the policy which determines when this history is compacted. If it is null (default), then this history is only
+   * compacted by explicit calls of {@link #compact()}.
+   */
+  public void setCompactionPolicy(HistoryCompactionPolicy compactionPolicy)
+  {
+	_compactionPolicy = compactionPolicy;
+  }
+
+  public HistoryCompactionPolicy getCompactionPolicy()
+  {
+	return _compactionPolicy;
+  }
+
+  /**
+   * Determines whether {@link #compact()} drops the updates of the model objects which can't be reached from the root
+   * from the composed whole state, see {@link ObjectReachability}. Objects are only dropped if they were unreachable
+   * during two consecutive compactions, so objects which a client removed and is about to insert again, e.g. to move
+   * them, are kept. This is disabled by default because histories may contain objects which aren't part of a
+   * {@link CustomModel}.
+   */
+  public void setDropUnreachableObjects(boolean dropUnreachableObjects)
+  {
+	_dropUnreachableObjects = dropUnreachableObjects;
+  }
+
+  public boolean isDropUnreachableObjects()
+  {
+	return _dropUnreachableObjects;
+  }
+
+  /**
+   * Sets the supplier of the oldest historyId on which operations that are yet to be stored may be based, i.e. usually
+   * the oldest historyId any connected client still needs. Deltas after that historyId are never dropped. The default
+   * supplier returns 0, so no deltas are dropped.
+   */
+  public void setOldestNeededVersionSupplier(LongSupplier oldestNeededVersionSupplier)
+  {
+	_oldestNeededVersionSupplier = oldestNeededVersionSupplier;
   }
 
   @Override
@@ -62,6 +141,7 @@ public class CustomHistory<T extends Operation<CombinedHandler>> implements Tagg
 	synchronized (this)
 	{
 	  _operations.tailMap(id + 1).sequencedKeySet().forEach(_operations::remove);
+	  _wholeStates.tailMap(id + 1).sequencedKeySet().forEach(_wholeStates::remove);
 	  putOperation(id, taggedBaseOperation, true);
 	}
   }
@@ -69,7 +149,34 @@ public class CustomHistory<T extends Operation<CombinedHandler>> implements Tagg
   @Override
   public long getLatestWholeStateVersion()
   {
-	return _wholeStateOperationIds.getLast();
+	return _wholeStates.lastKey();
+  }
+
+  @Override
+  public TaggedUserOperation getWholeState(long historyId)
+  {
+	return _wholeStates.get(historyId);
+  }
+
+  @Override
+  public TaggedUserOperation getUserOperation(long historyId)
+  {
+	return _operations.get(historyId);
+  }
+
+  @Override
+  public long getOldestTransformableVersion()
+  {
+	return _compactedUntil;
+  }
+
+  /**
+   * Marks the deltas up to the given historyId (inclusive) as dropped, so operations based on older historyIds are
+   * rejected. This is needed if a history is restored from a whole state without the deltas preceding it.
+   */
+  protected void setCompactedUntil(long historyId)
+  {
+	_compactedUntil = Math.max(_compactedUntil, historyId);
   }
 
   private void putOperation(long id, TaggedUserOperation userOp, boolean wholeState)
@@ -77,8 +184,135 @@ public class CustomHistory<T extends Operation<CombinedHandler>> implements Tagg
 	_operations.put(id, userOp);
 	if ( wholeState )
 	{
-	  _wholeStateOperationIds.add(id);
+	  _wholeStates.put(id, userOp);
+	  _operationsSinceWholeState = 0;
+	  _bytesSinceWholeState = 0;
+	}
+	else if ( _compactionPolicy != null )
+	{
+	  _operationsSinceWholeState++;
+	  if ( _compactionPolicy.maxBytes() > 0 )
+	  {
+		_bytesSinceWholeState += _compactionPolicy.sizeEstimator().applyAsLong(userOp);
+	  }
+	  if ( _compactionPolicy.isCompactionDue(_operationsSinceWholeState, _bytesSinceWholeState) )
+	  {
+		compact();
+	  }
+	}
+  }
+
+  /**
+   * Composes all operations into a new whole state at the latest historyId and drops the deltas which are not needed
+   * anymore as well as outdated whole states. Deltas after the historyId returned by the supplier set via
+   * {@link #setOldestNeededVersionSupplier(LongSupplier)} are kept, so operations based on such ids can still be
+   * transformed. The latest delta is always kept.
+   */
+  public HistoryCompactionResult compact()
+  {
+	synchronized (this)
+	{
+	  long latest = getLatest();
+	  long wholeStateId = getLatestWholeStateVersion();
+	  if ( wholeStateId < latest )
+	  {
+		TaggedUserOperation latestUserOp = getLatestUserOperation();
+		T composed = composeFrom(_wholeStates.get(wholeStateId), wholeStateId + 1);
+		if ( _dropUnreachableObjects )
+		{
+		  composed = withoutLongUnreachableObjects(composed);
+		}
+		_wholeStates.put(latest, new TaggedUserOperation(latest, "", composed, latestUserOp.getUser()));
+	  }
+	  _operationsSinceWholeState = 0;
+	  _bytesSinceWholeState = 0;
+
+	  int removedOperations = 0;
+	  long reclaimedBytes = 0;
+	  long dropUntil = Math.min(_oldestNeededVersionSupplier.getAsLong(), latest - 1);
+	  if ( dropUntil > _compactedUntil )
+	  {
+		SortedMap<Long, TaggedUserOperation> dropped = _operations.headMap(dropUntil + 1);
+		removedOperations += dropped.size();
+		reclaimedBytes += removeAndEstimateSize(dropped);
+		_compactedUntil = dropUntil;
+	  }
+	  SortedMap<Long, TaggedUserOperation> outdatedWholeStates = _wholeStates.headMap(latest);
+	  removedOperations += outdatedWholeStates.size();
+	  reclaimedBytes += removeAndEstimateSize(outdatedWholeStates);
+
+	  HistoryCompactionResult result = new HistoryCompactionResult(latest, removedOperations, reclaimedBytes);
+	  LOG.debug("Compacted history: {}", result);
+	  return result;
+	}
+  }
+
+  /**
+   * Drops the objects which were already unreachable during the previous compaction and remembers the other unreachable
+   * ones for the next compaction.
+   */
+  private T withoutLongUnreachableObjects(T composed)
+  {
+	Set<String> unreachableIds = ObjectReachability.findUnreachableIds(composed);
+	Set<String> droppedIds = new HashSet<>(unreachableIds);
+	droppedIds.retainAll(_unreachableAtLastCompaction);
+	unreachableIds.removeAll(droppedIds);
+	_unreachableAtLastCompaction = unreachableIds;
+	return droppedIds.isEmpty() ? composed : ObjectReachability.withoutObjects(composed, droppedIds);
+  }
+
+  /**
+   * Estimates the size of the retained deltas and whole states by the {@link OperationSizeEstimator}, so it is cheap
+   * even for large histories since nothing is composed or serialized.
+   */
+  public long estimateSize()
+  {
+	synchronized (this)
+	{
+	  long size = 0;
+	  for ( TaggedUserOperation userOp : _operations.values() )
+	  {
+		size += OperationSizeEstimator.estimateSize(userOp);
+	  }
+	  for ( TaggedUserOperation wholeState : _wholeStates.values() )
+	  {
+		// Stored whole states are also deltas.
+		if ( _operations.get(wholeState.getHistoryId()) != wholeState )
+		{
+		  size += OperationSizeEstimator.estimateSize(wholeState);
+		}
+	  }
+	  return size;
+	}
+  }
+
+  /**
+   * Removes the given operations and returns their size as estimated by {@link OperationSizeEstimator}, which walks the
+   * operations instead of serializing them like the estimator of a policy may do.
+   */
+  private static long removeAndEstimateSize(SortedMap<Long, TaggedUserOperation> toRemove)
+  {
+	long size = 0;
+	for ( TaggedUserOperation userOp : toRemove.values() )
+	{
+	  size += OperationSizeEstimator.estimateSize(userOp);
+	}
+	toRemove.clear();
+	return size;
+  }
+
+  private T composeFrom(TaggedUserOperation wholeState, long firstDeltaId)
+  {
+	Composer<T> composer = _type.newComposer();
+	composer.add(getCastedOperation(wholeState));
+	try (CloseableIterator<T> it = from(firstDeltaId))
+	{
+	  while (it.hasNext())
+	  {
+		composer.add(it.next());
+	  }
 	}
+	return composer.done();
   }
 
   @Override
@@ -106,13 +340,13 @@ public class CustomHistory<T extends Operation<CombinedHandler>> implements Tagg
 		long id = _operations.lastKey() + 1;
 		TaggedUserOperation storedOp =
 			new TaggedUserOperation(id, userOp.getToken(), userOp.getOperation(), userOp.getUser());
-		_operations.put(id, storedOp);
+		putOperation(id, storedOp, wholeState);
 		return storedOp;
 	  }
 	  else
 	  {
 		long id = userOp.getHistoryId();
-		_operations.put(id, userOp);
+		putOperation(id, userOp, wholeState);
 		return userOp;
 	  }
 	}
@@ -1,6 +1,8 @@
 package de.dmos.rtsync.customotter;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -30,7 +32,14 @@ import se.l4.otter.operations.combined.CombinedType;
 
 public class CustomModel implements Model, CustomEditorListener<Operation<CombinedHandler>>
 {
-  private static final String							 ROOT = "root";
+  /**
+   * The id of the root map. All objects which can't be reached from it are garbage.
+   */
+  public static final String							 ROOT = "root";
+  /**
+   * The default number of objects which are created between two automatic garbage collections.
+   */
+  public static final int								 DEFAULT_GARBAGE_COLLECTION_INTERVAL = 1000;
 
   private static final Logger							 LOG = LoggerFactory.getLogger(CustomModel.class);
 
@@ -48,6 +57,16 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
   private int											 _lockDepth;
   private CloseableLock									 _lock;
   private String										 _currentOperationsUser;
+  private final int										 _garbageCollectionInterval;
+  private int											 _createdSinceCollection;
+  /**
+   * The ids of the objects which were unreachable but kept by the latest garbage collection.
+   */
+  private Set<String>									 _unreachableAtLastCollection = Set.of();
+  /**
+   * The ids of the objects which have been dropped by a garbage collection and not been restored since.
+   */
+  private final Set<String>								 _collectedIds = ConcurrentHashMap.newKeySet();
 
   /**
    * Create a new model over the given editor.
@@ -56,8 +75,24 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	CustomEditor<Operation<CombinedHandler>> editor,
 	Map<String, SharedObjectFactory<?, ?>> types,
 	boolean resetOnOperationException)
+  {
+	this(editor, types, resetOnOperationException, DEFAULT_GARBAGE_COLLECTION_INTERVAL);
+  }
+
+  /**
+   * Create a new model over the given editor.
+   *
+   * @param garbageCollectionInterval The number of objects which are created between two automatic calls of
+   *          {@link #collectGarbage()}. Values below 1 disable the automatic garbage collection.
+   */
+  public CustomModel(
+	CustomEditor<Operation<CombinedHandler>> editor,
+	Map<String, SharedObjectFactory<?, ?>> types,
+	boolean resetOnOperationException,
+	int garbageCollectionInterval)
   {
 	_editor = editor;
+	_garbageCollectionInterval = garbageCollectionInterval;
 	_types = types;
 	_otType = (CombinedType) editor.getType();
 	_queuedEvents = new ArrayList<>();
@@ -124,15 +159,15 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
   private void removeOtherModelData(Set<String> keysToKeep)
   {
 	keysToKeep.add(ROOT);
-	Map<String, Operation<?>> toRemove = _modelDataMap
+	Map<String, ModelObjectData<?>> toRemove = _modelDataMap
 		.entrySet()
 		.stream()
 		.filter(e -> !keysToKeep.contains(e.getKey()))
-		.collect(Collectors.toMap(Entry::getKey, e -> e.getValue().get()));
+		.collect(Collectors.toMap(Entry::getKey, Entry::getValue));
 	LOG.debug("Model reset - Removing {} entries:", toRemove.size());
-	toRemove.forEach((key, operation) -> {
+	toRemove.forEach((key, data) -> {
 	  _modelDataMap.remove(key);
-	  LOG.debug("  {}: {}", key, operation);
+	  LOG.debug("  {}: {}", key, data);
 	});
   }
 
@@ -153,9 +188,104 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	return _resetOnOperationException;
   }
 
+  /**
+   * Returns the data of the given object or creates it with the given value. Objects which have been dropped by
+   * {@link #collectGarbage()} are restored with their value in the editor's current state instead, since the given
+   * value may only be their latest change.
+   */
   private ModelObjectData<?> getOrCreateModelData(String id, String type, Operation<?> op)
   {
-	return _modelDataMap.computeIfAbsent(id, i -> new ModelObjectData<>(op, id, type, this));
+	return _modelDataMap.computeIfAbsent(id, i -> {
+	  _createdSinceCollection++;
+	  Operation<?> value = _collectedIds.remove(id) ? getCurrentValue(id, op) : op;
+	  return new ModelObjectData<>(value, id, type, this);
+	});
+  }
+
+  /**
+   * Returns the value of the given object in the editor's current state or the given default value if the state doesn't
+   * contain the object.
+   */
+  private Operation<?> getCurrentValue(String id, Operation<?> defaultValue)
+  {
+	Operation<?>[] value = {defaultValue};
+	Operation<CombinedHandler> current = _editor.getCurrent();
+	if ( current != null )
+	{
+	  current.apply((objectId, type, change) -> {
+		if ( objectId.equals(id) )
+		{
+		  value[0] = change;
+		}
+	  });
+	}
+	return value[0];
+  }
+
+  /**
+   * Drops the data of all model objects which can't be reached from the root through
+   * {@link SharedObjectContainer#getContents()}, so their editors, values and listeners can be garbage collected.
+   * Objects are only dropped if they were already unreachable during the previous collection, so objects which were
+   * just created or removed can still be inserted into the model, e.g. to move them. Dropped objects which are changed
+   * or inserted again later, e.g. by other users, are restored from the editor's current state, so they don't diverge
+   * from the other models. This is called automatically after every {@link #DEFAULT_GARBAGE_COLLECTION_INTERVAL}
+   * created objects unless the interval was changed.
+   *
+   * @return The number of dropped objects.
+   */
+  public int collectGarbage()
+  {
+	try (CloseableLock lock = lock())
+	{
+	  _createdSinceCollection = 0;
+	  Set<String> reachableIds = findReachableIds();
+	  List<String> garbageIds = new ArrayList<>();
+	  Set<String> unreachableIds = new HashSet<>();
+	  for ( String id : _modelDataMap.keySet() )
+	  {
+		if ( reachableIds.contains(id) )
+		{
+		  continue;
+		}
+		if ( _unreachableAtLastCollection.contains(id) )
+		{
+		  garbageIds.add(id);
+		}
+		else
+		{
+		  unreachableIds.add(id);
+		}
+	  }
+	  garbageIds.forEach(_modelDataMap::remove);
+	  _collectedIds.addAll(garbageIds);
+	  _unreachableAtLastCollection = unreachableIds;
+	  LOG.debug("Collected {} unreachable model objects. {} remain.", garbageIds.size(), _modelDataMap.size());
+	  return garbageIds.size();
+	}
+  }
+
+  /**
+   * Marks the ids of all objects which can be reached from the root.
+   */
+  private Set<String> findReachableIds()
+  {
+	Set<String> reachableIds = new HashSet<>();
+	Deque<SharedObject> toVisit = new ArrayDeque<>();
+	reachableIds.add(ROOT);
+	toVisit.push(_root);
+	while (!toVisit.isEmpty())
+	{
+	  if ( toVisit.pop() instanceof SharedObjectContainer<?> container )
+	  {
+		container.getContents().forEach(c -> {
+		  if ( c instanceof SharedObject child && reachableIds.add(child.getObjectId()) )
+		  {
+			toVisit.push(child);
+		  }
+		});
+	  }
+	}
+	return reachableIds;
   }
 
   private class ModelResetHandler implements CombinedHandler
@@ -172,7 +302,7 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	{
 	  _updatedKeys.add(id);
 	  ModelObjectData<?> data = getOrCreateModelData(id, type, change);
-	  if ( data.get() == change )
+	  if ( data.isValue(change) )
 	  {
 		return;
 	  }
@@ -188,13 +318,15 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
   protected CombinedHandler createHandler()
   {
 	return (id, type, change) -> {
+	  // The value of a restored object is taken from the editor's current state which already contains the change.
+	  boolean restored = _collectedIds.contains(id);
 	  ModelObjectData<?> data = getOrCreateModelData(id, type, change);
 	  LOG.debug("Updating {}, {}, {}.", id, type, change);
-	  if ( data.get() == change )
+	  if ( restored || data.isValue(change) )
 	  {
 		return;
 	  }
-	  data.setValue(_otType.compose(type, data.get(), change));
+	  data.appendOperation(change);
 	  data.getEditor().operationApplied(change, false, _currentOperationsUser);
 	};
   }
@@ -334,6 +466,10 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 		{
 		  _lock.close();
 		}
+		if ( _garbageCollectionInterval > 0 && _createdSinceCollection >= _garbageCollectionInterval )
+		{
+		  collectGarbage();
+		}
 	  }
 	}
   }
@@ -352,21 +488,21 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	private final String					  _type;
 	private final CustomSharedObjectEditor<T> _sharedObjectEditor;
 	private final SharedObject				  _object;
-	private T								  _value;
+	private final LazyComposition<T>		  _value;
 
 	@SuppressWarnings({"rawtypes", "unchecked"})
 	ModelObjectData(T value, String id, String type, CustomModel model)
 	{
-	  _value = value;
 	  _id = id;
 	  _type = type;
+	  _value = new LazyComposition<>((a, b) -> (T) _otType.compose(_type, a, b), value);
 
 	  SharedObjectFactory<?, ?> factory = _types.get(_type);
 	  if ( factory == null )
 	  {
 		throw new OperationException("Unknown type: " + _type);
 	  }
-	  LOG.debug("Creating {} {}: {}", _type, _id, _value);
+	  LOG.debug("Creating {} {}: {}", _type, _id, value);
 	  CustomSharedObjectEditor editor = new CustomSharedObjectEditor<>(model, _id, _type, this, _queuedEvents::add);
 	  _sharedObjectEditor = editor;
 	  _object = factory.create(editor);
@@ -375,7 +511,25 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	@SuppressWarnings("unchecked")
 	public void setValue(Operation<?> operation)
 	{
-	  _value = (T) operation;
+	  _value.set((T) operation);
+	}
+
+	/**
+	 * Appends an operation which is composed with the value once it is needed.
+	 */
+	@SuppressWarnings("unchecked")
+	public void appendOperation(Operation<?> operation)
+	{
+	  _value.append((T) operation);
+	}
+
+	/**
+	 * Returns whether the given operation is the current value without composing pending operations.
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean isValue(Operation<?> operation)
+	{
+	  return _value.isValue((T) operation);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -389,10 +543,16 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	  return _object;
 	}
 
+	@Override
+	public String toString()
+	{
+	  return _value.toString();
+	}
+
 	@Override
 	public T get()
 	{
-	  return _value;
+	  return _value.get();
 	}
 
 	/**
@@ -404,9 +564,7 @@ public class CustomModel implements Model, CustomEditorListener<Operation<Combin
 	public void accept(T op)
 	{
 	  LOG.debug("Applying {}, {}. Currently: {}", _id, op, _value);
-	  @SuppressWarnings("unchecked")
-	  T composed = (T) _otType.compose(_type, _value, op);
-	  setValue(composed);
+	  _value.append(op);
 
 	  Operation<CombinedHandler> combinedOp = CombinedDelta.builder().update(_id, _type, op).done();
 	  _editor.apply(combinedOp);
@@ -20,6 +20,8 @@ public class CustomModelBuilder implements ModelBuilder
   protected final CustomEditor<Operation<CombinedHandler>> _editor;
   protected final Map<String, SharedObjectFactory<?, ?>> _types;
   protected boolean										 _resetOnOperationException	= true;
+  protected int											 _garbageCollectionInterval	=
+	  CustomModel.DEFAULT_GARBAGE_COLLECTION_INTERVAL;
 
   @SuppressWarnings({"rawtypes", "unchecked"})
   public CustomModelBuilder(CustomEditor<? extends Operation<CombinedHandler>> editor)
@@ -46,9 +48,19 @@ public class CustomModelBuilder implements ModelBuilder
 	return this;
   }
 
+  /**
+   * Sets the number of objects which are created between two automatic garbage collections of the model. Values below 1
+   * disable the automatic garbage collection.
+   */
+  public CustomModelBuilder setGarbageCollectionInterval(int createdObjects)
+  {
+	_garbageCollectionInterval = createdObjects;
+	return this;
+  }
+
   @Override
   public CustomModel build()
   {
-	return new CustomModel(_editor, _types, _resetOnOperationException);
+	return new CustomModel(_editor, _types, _resetOnOperationException, _garbageCollectionInterval);
   }
 }
\ No newline at end of file
@@ -1,10 +1,11 @@
 package de.dmos.rtsync.customotter;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
 
+import de.dmos.rtsync.util.IndexedTreeList;
 import se.l4.otter.lock.CloseableLock;
 import se.l4.otter.model.SharedList;
 import se.l4.otter.model.spi.DataValues;
@@ -15,8 +16,13 @@ import se.l4.otter.operations.list.ListHandler;
 
 public class CustomSharedList<T> extends SharedObjectContainer<Operation<ListHandler>> implements SharedList<T>
 {
-  private final ListHandler _resetHandler = new ResetHandler();
-  private List<T>           _values;
+  private final ListHandler		   _resetHandler = new ResetHandler();
+  /**
+   * The values, indexed by value so {@link #contains(Object)} and {@link #removeObject(Object)} don't need to compare
+   * all of them.
+   */
+  private final IndexedTreeList<T> _values		 = new IndexedTreeList<>(true);
+  private final List<T>			   _view		 = Collections.unmodifiableList(_values);
 
   public CustomSharedList(CustomSharedObjectEditor<Operation<ListHandler>> editor)
   {
@@ -31,13 +37,13 @@ public class CustomSharedList<T> extends SharedObjectContainer<Operation<ListHan
 	return List.copyOf(_values);
   }
 
-  //  private void setContainerIfPossible(Object obj)
-  //  {
-  //	if ( obj instanceof AbstractCustomSharedObject<?> sharedObject )
-  //	{
-  //	  sharedObject.setContainer(this);
-  //	}
-  //  }
+  /**
+   * Returns a read-only view of the values which doesn't copy them and reflects all later changes of this list.
+   */
+  public List<T> asList()
+  {
+	return _view;
+  }
 
   private class ResetHandler implements ListHandler
   {
@@ -53,7 +59,7 @@ public class CustomSharedList<T> extends SharedObjectContainer<Operation<ListHan
 	{
 	  T value = (T) DataValues.fromData(editor, item);
 	  _values.add(value);
-	  //	  setContainerIfPossible(value);
+	  adoptIfSharedObject(value);
 	}
 
 	@Override
@@ -80,20 +86,25 @@ public class CustomSharedList<T> extends SharedObjectContainer<Operation<ListHan
 	  T value = (T) DataValues.fromData(editor, item);
 	  _values.add(index, value);
 	  index += 1;
-	  //	  setContainerIfPossible(value);
+	  adoptIfSharedObject(value);
 	}
 
 	@Override
 	public void delete(Object item)
 	{
-	  _values.remove(index);
+	  T value = _values.remove(index);
+	  if ( !_values.contains(value) )
+	  {
+		releaseIfSharedObject(value);
+	  }
 	}
   }
 
   @Override
   public void onReset()
   {
-	_values = new ArrayList<>();
+	_values.forEach(this::releaseIfSharedObject);
+	_values.clear();
 	editor.getCurrent().apply(_resetHandler);
   }
 
@@ -228,6 +239,13 @@ public class CustomSharedList<T> extends SharedObjectContainer<Operation<ListHan
 	return true;
   }
 
+  @Override
+  public String getPathPartOf(Object obj)
+  {
+	int index = _values.indexOf(obj);
+	return index >= 0 ? Integer.toString(index) : null;
+  }
+
   private Operation<ListHandler> applyRemoveToEditor(int index)
   {
 	Operation<ListHandler> listOp;
@@ -1,6 +1,9 @@
 package de.dmos.rtsync.customotter;
 
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
@@ -30,6 +33,10 @@ import se.l4.otter.operations.map.MapHandler;
 public class CustomSharedMap extends SharedObjectContainer<Operation<MapHandler>> implements SharedMap
 {
   private final SortedMap<String, Object> _values;
+  /**
+   * The keys of the shared objects in this map by identity, so they can be found without comparing all values.
+   */
+  private final Map<Object, String>		  _keysByChild = new IdentityHashMap<>();
   private final MapHandler            _handler;
   private final EventHelper<Listener> _mapChangeListeners;
 
@@ -51,7 +58,7 @@ public class CustomSharedMap extends SharedObjectContainer<Operation<MapHandler>
 	  @Override
 	  public void remove(String key, Object oldValue)
 	  {
-		Object old = _values.remove(key);
+		Object old = removeValue(key);
 		editor.queueEvent(() -> _mapChangeListeners.trigger(l -> l.valueRemoved(key, old)));
 	  }
 
@@ -59,12 +66,53 @@ public class CustomSharedMap extends SharedObjectContainer<Operation<MapHandler>
 	  public void put(String key, Object oldValue, Object newValue)
 	  {
 		Object value = DataValues.fromData(editor, newValue);
-		Object old = _values.put(key, value);
+		Object old = putValue(key, value);
 		editor.queueEvent(() -> _mapChangeListeners.trigger(l -> l.valueChanged(key, old, value)));
 	  }
 	};
   }
 
+  private Object putValue(String key, Object value)
+  {
+	Object old = _values.put(key, value);
+	forgetChild(key, old);
+	if ( value instanceof AbstractCustomSharedObject<?> )
+	{
+	  _keysByChild.put(value, key);
+	  adoptIfSharedObject(value);
+	}
+	return old;
+  }
+
+  private Object removeValue(String key)
+  {
+	Object old = _values.remove(key);
+	forgetChild(key, old);
+	return old;
+  }
+
+  private void forgetChild(String key, Object value)
+  {
+	if ( value instanceof AbstractCustomSharedObject<?> && _keysByChild.remove(value, key) )
+	{
+	  releaseIfSharedObject(value);
+	}
+  }
+
+  /**
+   * Returns the key of the given object. Shared objects are looked up by identity in O(1) while other values are
+   * compared with all values.
+   */
+  private String getKeyOf(Object obj)
+  {
+	if ( obj instanceof AbstractCustomSharedObject<?> )
+	{
+	  return _keysByChild.get(obj);
+	}
+	Optional<Entry<String, Object>> entry = _values.entrySet().stream().filter(e -> e.getValue() == obj).findAny();
+	return entry.map(Entry::getKey).orElse(null);
+  }
+
   public SequencedSet<String> sequencedKeySet()
   {
 	return _values.sequencedKeySet();
@@ -109,15 +157,22 @@ public class CustomSharedMap extends SharedObjectContainer<Operation<MapHandler>
   {
 	try (CloseableLock lock = editor.lock())
 	{
-	  Optional<Entry<String, Object>> entry = _values.entrySet().stream().filter(e -> e.getValue() == obj).findAny();
-	  if (entry.isEmpty()) {
+	  String key = getKeyOf(obj);
+	  if ( key == null )
+	  {
 		return false;
 	  }
-	  applyRemoveToEditor(entry.get().getKey());
+	  applyRemoveToEditor(key);
 	}
 	return true;
   }
 
+  @Override
+  public String getPathPartOf(Object obj)
+  {
+	return getKeyOf(obj);
+  }
+
   private Operation<MapHandler> applyRemoveToEditor(String key)
   {
 	Operation<MapHandler> mapOp;
@@ -190,8 +245,7 @@ public class CustomSharedMap extends SharedObjectContainer<Operation<MapHandler>
 	{
 	  _updatedKeys.add(key);
 	  Object value = DataValues.fromData(editor, newValue);
-	  Object old = _values.put(key, value);
-	  //	  setContainerIfPossible(value);
+	  Object old = putValue(key, value);
 	  if ( !Objects.equals(old, value) )
 	  {
 		editor.queueEvent(() -> _mapChangeListeners.trigger(l -> l.valueChanged(key, old, value)));
@@ -207,11 +261,14 @@ public class CustomSharedMap extends SharedObjectContainer<Operation<MapHandler>
 	  MapResetHandler resetHandler = new MapResetHandler();
 	  editor.getCurrent().apply(resetHandler);
 	  Set<String> updatedKeys = resetHandler.getUpdatedKeys();
-	  _values
-	  .entrySet()
-	  .stream()
-	  .filter(e -> !updatedKeys.contains(e.getKey()))
-	  .forEach(e -> _handler.remove(e.getKey(), e.getValue()));
+	  // The entries are copied because removing entries from a TreeMap may change the remaining ones.
+	  List<Entry<String, Object>> removedEntries = _values
+		  .entrySet()
+		  .stream()
+		  .filter(e -> !updatedKeys.contains(e.getKey()))
+		  .map(e -> Map.entry(e.getKey(), e.getValue()))
+		  .toList();
+	  removedEntries.forEach(e -> _handler.remove(e.getKey(), e.getValue()));
 	}
   }
 
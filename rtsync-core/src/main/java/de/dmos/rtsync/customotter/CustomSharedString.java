@@ -5,6 +5,7 @@ import java.util.LinkedList;
 import com.sksamuel.diffpatch.DiffMatchPatch;
 import com.sksamuel.diffpatch.DiffMatchPatch.Diff;
 
+import de.dmos.rtsync.util.TextRope;
 import se.l4.otter.lock.CloseableLock;
 import se.l4.otter.model.SharedString;
 import se.l4.otter.model.internal.SharedStringImpl;
@@ -18,6 +19,8 @@ import se.l4.otter.operations.string.StringHandler;
  * A copy of {@link SharedStringImpl} which checks, whether delete and retain operations make sense and resets it if
  * case they don't. The SharedStringTest doesn't test this case.
  *
+ * The value is kept in a {@link TextRope}, so inserts and deletes in large texts don't move the whole text.
+ *
  * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
  * @version $Rev$
  *
@@ -26,8 +29,22 @@ public class CustomSharedString extends AbstractCustomSharedObject<Operation<Str
 implements
 SharedString
 {
+  /**
+   * The maximum time in seconds which {@link #diffToOperation(String, String)} spends on finding a minimal diff. When it
+   * runs out, the diff is still correct but may replace more text than necessary.
+   */
+  public static final float			  DIFF_TIMEOUT_SECONDS = 0.1f;
   private static final DiffMatchPatch DIFF          = new DiffMatchPatch();
 
+  static
+  {
+	DIFF.Diff_Timeout = DIFF_TIMEOUT_SECONDS;
+  }
+
+  /**
+   * Returns the operation which turns the first string into the second one. This diffs the whole texts, so callers
+   * which know which part of the text changed should create the operation directly.
+   */
   public static Operation<StringHandler> diffToOperation(String from, String newValue)
   {
 	Operation<StringHandler> stringOp;
@@ -59,12 +76,12 @@ SharedString
   }
 
   private final ResetHandler          _resetHandler = new ResetHandler();
-  private StringBuilder               _value;
+  private TextRope					  _value;
 
   public CustomSharedString(CustomSharedObjectEditor<Operation<StringHandler>> editor)
   {
 	super(editor);
-	_value = new StringBuilder();
+	_value = new TextRope();
 	editor.getCurrent().apply(_resetHandler);
 	editor.setOperationHandler(this);
   }
@@ -74,7 +91,7 @@ SharedString
   {
 	try (CloseableLock lock = editor.lock())
 	{
-	  _value = new StringBuilder();
+	  _value = new TextRope();
 	  editor.getCurrent().apply(_resetHandler);
 	}
   }
@@ -126,7 +143,7 @@ SharedString
 	@Override
 	public void delete(String s)
 	{
-	  if ( !s.equals(_value.substring(_index, _index + s.length())) )
+	  if ( !_value.regionMatches(_index, s) )
 	  {
 		throw new OperationException(
 		  String
@@ -158,6 +175,14 @@ SharedString
 	return _value.toString();
   }
 
+  /**
+   * Returns the length of the value without creating it.
+   */
+  public int length()
+  {
+	return _value.length();
+  }
+
   @Override
   public void set(String newValue)
   {
@@ -204,7 +229,7 @@ SharedString
 	try (CloseableLock lock = editor.lock())
 	{
 	  int length = this._value.length();
-	  String deleted = this._value.substring(fromIndex, toIndex);
+	  String deleted = this._value.subSequence(fromIndex, toIndex).toString();
 	  stringOp = StringDelta.builder().retain(fromIndex).delete(deleted).retain(length - toIndex).done();
 	  editor.apply(stringOp);
 	}
@@ -0,0 +1,508 @@
+package de.dmos.rtsync.customotter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.operations.OTType;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.internal.combined.DefaultCombinedDelta;
+
+/**
+ * A {@link CustomHistory} which additionally appends every stored operation to a segmented log in a directory, so a
+ * server can restore its history after a restart. It always increases the historyIds of stored operations and is
+ * therefore only suitable for servers.
+ *
+ * Every record of the log consists of its length, a CRC32C checksum and the historyId and serialized form of an
+ * operation. Whole states, i.e. stored whole states, resets and the results of {@link #compact()}, are written as
+ * checkpoints at the start of a new segment, after which the older segments are deleted. On construction, the history
+ * is restored from the last checkpoint and the deltas following it. The segments are read via memory mapping. A torn or
+ * corrupt record ends the log: the segment is truncated before it and later segments are deleted.
+ *
+ * When appended operations are forced onto the storage device is determined by the {@link LogDurability}. With
+ * {@link LogDurability#GROUP_COMMIT}, stores only append their operations and {@link #awaitDurable()} forces all of
+ * them at once, so a batch of stored operations shares one fsync.
+ *
+ * The log is only read while the history is restored. Afterwards, all reads including the operations which clients
+ * catch up on are served from the in-memory maps of the {@link CustomHistory}, which hold the same operations.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ *
+ * @param <T>
+ */
+public class FileOperationHistory<T extends Operation<CombinedHandler>> extends CustomHistory<T> implements AutoCloseable
+{
+  private static final Logger			 LOG						   = LoggerFactory.getLogger(FileOperationHistory.class);
+
+  public static final long				 DEFAULT_SEGMENT_SIZE		   = 64L << 20;
+
+  private static final String			 SEGMENT_PREFIX				   = "segment-";
+  private static final String			 SEGMENT_SUFFIX				   = ".log";
+  /**
+   * The length and the checksum of a record.
+   */
+  private static final int				 HEADER_SIZE				   = 8;
+  /**
+   * The type and the historyId of a record.
+   */
+  private static final int				 BODY_HEADER_SIZE			   = 9;
+  private static final byte				 RECORD_DELTA				   = 1;
+  private static final byte				 RECORD_WHOLE_STATE			   = 2;
+
+  private final Path					 _directory;
+  private final LogDurability			 _durability;
+
+  private long							 _segmentSize				   = DEFAULT_SEGMENT_SIZE;
+  private long							 _segmentIndex;
+  private volatile FileChannel			 _segment;
+  /**
+   * The number of records which have been appended to the log since it was opened.
+   */
+  private long							 _appendedRecords;
+  /**
+   * The number of appended records which are known to have been forced onto the storage device.
+   */
+  private long							 _forcedRecords;
+  private boolean						 _recovering;
+  private boolean						 _closed;
+
+  /**
+   * Restores the history from the log in the given directory or starts a new log with the given initial operation if
+   * the directory contains none.
+   */
+  public FileOperationHistory(OTType<T> type, T initial, Path directory, LogDurability durability) throws IOException
+  {
+	super(type, initial, true);
+	_directory = directory;
+	_durability = durability;
+	Files.createDirectories(directory);
+
+	List<Path> segments = listSegments();
+	_recovering = true;
+	try
+	{
+	  recover(segments);
+	}
+	finally
+	{
+	  _recovering = false;
+	}
+	if ( segments.isEmpty() )
+	{
+	  appendCheckpoint(getLatestUserOperation());
+	}
+	else
+	{
+	  Path lastSegment = segments.get(segments.size() - 1);
+	  _segmentIndex = getSegmentIndex(lastSegment);
+	  _segment = FileChannel.open(lastSegment, StandardOpenOption.WRITE);
+	  _segment.position(_segment.size());
+	}
+  }
+
+  /**
+   * Opens a history of combined operations like the ones of the servers. A new history starts with an empty combined
+   * delta.
+   */
+  public static FileOperationHistory<Operation<CombinedHandler>> openCombined(Path directory, LogDurability durability)
+	  throws IOException
+  {
+	return new FileOperationHistory<>(
+		MessageSerialization.COMBINED_TYPE,
+		new DefaultCombinedDelta<>(o -> o).done(),
+		directory,
+		durability);
+  }
+
+  public Path getDirectory()
+  {
+	return _directory;
+  }
+
+  public LogDurability getDurability()
+  {
+	return _durability;
+  }
+
+  public long getSegmentSize()
+  {
+	return _segmentSize;
+  }
+
+  /**
+   * Sets the size after which a new segment is started. Segments are read via memory mapping and thus must not exceed
+   * {@link Integer#MAX_VALUE} bytes.
+   */
+  public void setSegmentSize(long segmentSize)
+  {
+	if ( segmentSize < 1 || segmentSize > Integer.MAX_VALUE )
+	{
+	  throw new IllegalArgumentException("segmentSize must be between 1 and %d but was %d"
+		  .formatted(Integer.MAX_VALUE, segmentSize));
+	}
+	_segmentSize = segmentSize;
+  }
+
+  @Override
+  public TaggedUserOperation store(TaggedUserOperation userOp, boolean wholeState)
+  {
+	synchronized (this)
+	{
+	  if ( _recovering )
+	  {
+		return super.store(userOp, wholeState);
+	  }
+	  // The operation is logged before it is stored, so no operation is visible which wouldn't survive a restart.
+	  TaggedUserOperation toStore =
+		  new TaggedUserOperation(getLatest() + 1, userOp.getToken(), userOp.getOperation(), userOp.getUser());
+	  if ( wholeState )
+	  {
+		appendCheckpoint(toStore);
+	  }
+	  else
+	  {
+		append(RECORD_DELTA, toStore);
+	  }
+	  return super.store(toStore, wholeState);
+	}
+  }
+
+  @Override
+  public void resetOperationsTo(TaggedUserOperation taggedBaseOperation)
+  {
+	synchronized (this)
+	{
+	  if ( !_recovering )
+	  {
+		appendCheckpoint(taggedBaseOperation);
+	  }
+	  super.resetOperationsTo(taggedBaseOperation);
+	}
+  }
+
+  @Override
+  public HistoryCompactionResult compact()
+  {
+	synchronized (this)
+	{
+	  HistoryCompactionResult result = super.compact();
+	  if ( !_recovering )
+	  {
+		appendCheckpoint(getWholeState(result.wholeStateVersion()));
+	  }
+	  return result;
+	}
+  }
+
+  /**
+   * Forces all appended operations onto the storage device, regardless of the {@link LogDurability}.
+   */
+  public void force() throws IOException
+  {
+	synchronized (this)
+	{
+	  _segment.force(false);
+	  _forcedRecords = _appendedRecords;
+	}
+  }
+
+  /**
+   * Forces the log if operations have been appended since it was last forced and the durability is
+   * {@link LogDurability#GROUP_COMMIT}.
+   *
+   * @throws UncheckedIOException If the log couldn't be forced.
+   */
+  @Override
+  public void awaitDurable()
+  {
+	synchronized (this)
+	{
+	  if ( _durability != LogDurability.GROUP_COMMIT || _closed || _forcedRecords == _appendedRecords )
+	  {
+		return;
+	  }
+	  try
+	  {
+		force();
+	  }
+	  catch (IOException e)
+	  {
+		throw new UncheckedIOException("Could not force the operation log in " + _directory, e);
+	  }
+	}
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+	synchronized (this)
+	{
+	  if ( _closed )
+	  {
+		return;
+	  }
+	  _closed = true;
+	  _segment.force(false);
+	  _forcedRecords = _appendedRecords;
+	  _segment.close();
+	}
+  }
+
+  /**
+   * Starts a new segment with the given whole state, forces it and deletes the older segments which aren't needed
+   * anymore to restore the history.
+   */
+  private void appendCheckpoint(TaggedUserOperation wholeState)
+  {
+	try
+	{
+	  startNewSegment();
+	  append(RECORD_WHOLE_STATE, wholeState);
+	  force();
+	  deleteSegmentsBefore(_segmentIndex);
+	}
+	catch (IOException e)
+	{
+	  throw new UncheckedIOException("Could not write a checkpoint to the operation log in " + _directory, e);
+	}
+  }
+
+  private void append(byte type, TaggedUserOperation userOp)
+  {
+	if ( _closed )
+	{
+	  throw new IllegalStateException("The operation log in " + _directory + " has been closed.");
+	}
+	try
+	{
+	  byte[] payload = MessageSerialization.toStorageByteArray(userOp);
+	  int length = BODY_HEADER_SIZE + payload.length;
+	  ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+	  buffer.position(HEADER_SIZE);
+	  buffer.put(type).putLong(userOp.getHistoryId()).put(payload);
+	  CRC32C crc = new CRC32C();
+	  crc.update(buffer.array(), HEADER_SIZE, length);
+	  buffer.putInt(0, length).putInt(4, (int) crc.getValue());
+	  buffer.flip();
+
+	  if ( _segment.position() > 0 && _segment.position() + buffer.remaining() > _segmentSize )
+	  {
+		startNewSegment();
+	  }
+	  while (buffer.hasRemaining())
+	  {
+		_segment.write(buffer);
+	  }
+	  _appendedRecords++;
+	  if ( _durability == LogDurability.SYNC )
+	  {
+		_segment.force(false);
+		_forcedRecords = _appendedRecords;
+	  }
+	}
+	catch (IOException e)
+	{
+	  throw new UncheckedIOException(
+		"Could not append operation " + userOp.getHistoryId() + " to the operation log in " + _directory,
+		e);
+	}
+  }
+
+  private void startNewSegment() throws IOException
+  {
+	FileChannel previous = _segment;
+	if ( previous != null )
+	{
+	  previous.force(false);
+	  previous.close();
+	}
+	_segmentIndex++;
+	_segment = FileChannel
+		.open(getSegmentPath(_segmentIndex), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  private void deleteSegmentsBefore(long segmentIndex) throws IOException
+  {
+	for ( Path segment : listSegments() )
+	{
+	  if ( getSegmentIndex(segment) < segmentIndex )
+	  {
+		Files.delete(segment);
+	  }
+	}
+  }
+
+  private Path getSegmentPath(long segmentIndex)
+  {
+	return _directory.resolve(SEGMENT_PREFIX + "%020d".formatted(segmentIndex) + SEGMENT_SUFFIX);
+  }
+
+  private static long getSegmentIndex(Path segment)
+  {
+	String name = segment.getFileName().toString();
+	return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private List<Path> listSegments() throws IOException
+  {
+	try (Stream<Path> files = Files.list(_directory))
+	{
+	  return new ArrayList<>(files
+		  .filter(p -> p.getFileName().toString().matches(SEGMENT_PREFIX + "\\d{20}" + SEGMENT_SUFFIX))
+		  .sorted()
+		  .toList());
+	}
+  }
+
+  /**
+   * Restores the history from the last checkpoint and the deltas following it. The given segments are reduced to the
+   * ones which remain after a torn or corrupt record has been cut off.
+   */
+  private void recover(List<Path> segments) throws IOException
+  {
+	int checkpointSegment = -1;
+	long checkpointOffset = 0;
+	for ( int i = 0; i < segments.size(); i++ )
+	{
+	  Path segment = segments.get(i);
+	  long[] lastCheckpoint = {-1};
+	  long validLength = readSegment(segment, (type, historyId, payload, offset) -> {
+		if ( type == RECORD_WHOLE_STATE )
+		{
+		  lastCheckpoint[0] = offset;
+		}
+	  });
+	  if ( lastCheckpoint[0] >= 0 )
+	  {
+		checkpointSegment = i;
+		checkpointOffset = lastCheckpoint[0];
+	  }
+	  if ( validLength < Files.size(segment) )
+	  {
+		LOG
+		.warn(
+		  "The operation log {} ends with a torn or corrupt record at offset {}. Discarding everything after it.",
+		  segment,
+		  validLength);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE))
+		{
+		  channel.truncate(validLength);
+		}
+		List<Path> discarded = segments.subList(i + 1, segments.size());
+		for ( Path laterSegment : discarded )
+		{
+		  Files.delete(laterSegment);
+		}
+		discarded.clear();
+		break;
+	  }
+	}
+
+	int firstSegment = Math.max(checkpointSegment, 0);
+	for ( int i = firstSegment; i < segments.size(); i++ )
+	{
+	  long skipUntil = i == checkpointSegment ? checkpointOffset : 0;
+	  readSegment(segments.get(i), (type, historyId, payload, offset) -> {
+		if ( offset >= skipUntil )
+		{
+		  replay(type, historyId, payload);
+		}
+	  });
+	}
+	if ( !segments.isEmpty() )
+	{
+	  LOG.info("Restored the history from {} up to historyId {}", _directory, getLatest());
+	}
+  }
+
+  private void replay(byte type, long historyId, ByteBuffer payload) throws IOException
+  {
+	if ( type == RECORD_WHOLE_STATE )
+	{
+	  TaggedUserOperation wholeState = decode(payload);
+	  resetOperationsTo(wholeState);
+	  setCompactedUntil(historyId);
+	}
+	else if ( historyId == getLatest() + 1 )
+	{
+	  store(decode(payload), false);
+	}
+	else if ( historyId > getLatest() )
+	{
+	  throw new IOException(
+		"The operation log in %s misses the operations between %d and %d."
+		.formatted(_directory, getLatest(), historyId));
+	}
+	// Older deltas are already included in the checkpoint.
+  }
+
+  /**
+   * Passes the valid records of the given segment to the given visitor.
+   *
+   * @return The length of the valid part of the segment.
+   */
+  private static long readSegment(Path segment, RecordVisitor visitor) throws IOException
+  {
+	try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ))
+	{
+	  long size = channel.size();
+	  if ( size == 0 )
+	  {
+		return 0;
+	  }
+	  MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+	  CRC32C crc = new CRC32C();
+	  while (buffer.remaining() >= HEADER_SIZE)
+	  {
+		int offset = buffer.position();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if ( length < BODY_HEADER_SIZE || length > buffer.remaining() )
+		{
+		  return offset;
+		}
+		crc.reset();
+		crc.update(buffer.slice(buffer.position(), length));
+		if ( (int) crc.getValue() != checksum )
+		{
+		  return offset;
+		}
+		byte type = buffer.get();
+		long historyId = buffer.getLong();
+		visitor.visit(type, historyId, buffer.slice(buffer.position(), length - BODY_HEADER_SIZE), offset);
+		buffer.position(offset + HEADER_SIZE + length);
+	  }
+	  return buffer.position();
+	}
+  }
+
+  private static TaggedUserOperation decode(ByteBuffer payload) throws IOException
+  {
+	byte[] data = new byte[payload.remaining()];
+	payload.get(data);
+	return MessageSerialization.readStoredTaggedUserOperation(data);
+  }
+
+  @FunctionalInterface
+  private interface RecordVisitor
+  {
+	void visit(byte type, long historyId, ByteBuffer payload, long offset) throws IOException;
+  }
+}
@@ -0,0 +1,22 @@
+package de.dmos.rtsync.customotter;
+
+import se.l4.otter.operations.OperationException;
+
+/**
+ * Thrown when an operation is based on a historyId whose following operations have already been dropped by a
+ * compaction of the history. The sender needs to fetch the latest whole state before sending again.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class HistoryCompactedException extends OperationException
+{
+  private static final long serialVersionUID = 1L;
+
+  public HistoryCompactedException(long historyId, long oldestTransformableVersion)
+  {
+	super(
+	  "The operations following historyId %d are no longer available. The oldest supported historyId is %d."
+	  .formatted(historyId, oldestTransformableVersion));
+  }
+}
@@ -0,0 +1,53 @@
+package de.dmos.rtsync.customotter;
+
+import java.util.function.ToLongFunction;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+
+/**
+ * Determines when a {@link CustomHistory} composes its operations into a new whole state and drops the deltas which are
+ * not needed anymore.
+ *
+ * @param maxOperations The number of operations after which a new whole state is composed. Values below 1 disable this
+ *          limit.
+ * @param maxBytes The estimated number of bytes of operations after which a new whole state is composed. Values below 1
+ *          disable this limit.
+ * @param sizeEstimator Estimates the size of an operation for {@link #maxBytes}.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public record HistoryCompactionPolicy(
+  int maxOperations,
+  long maxBytes,
+  ToLongFunction<TaggedUserOperation> sizeEstimator)
+{
+  /**
+   * Estimates the size of an operation by the length of its serialized form.
+   */
+  public static final ToLongFunction<TaggedUserOperation> SERIALIZED_SIZE = op -> {
+	byte[] bytes = MessageSerialization.tryToGetByteArray(op);
+	return bytes != null ? bytes.length : 0;
+  };
+
+  /**
+   * Estimates the size of an operation without serializing it, see {@link OperationSizeEstimator}.
+   */
+  public static final ToLongFunction<TaggedUserOperation> ESTIMATED_SIZE = OperationSizeEstimator::estimateSize;
+
+  public static HistoryCompactionPolicy everyOperations(int maxOperations)
+  {
+	return new HistoryCompactionPolicy(maxOperations, 0, ESTIMATED_SIZE);
+  }
+
+  public static HistoryCompactionPolicy everyOperationsOrBytes(int maxOperations, long maxBytes)
+  {
+	return new HistoryCompactionPolicy(maxOperations, maxBytes, ESTIMATED_SIZE);
+  }
+
+  boolean isCompactionDue(int operationCount, long byteCount)
+  {
+	return maxOperations > 0 && operationCount >= maxOperations || maxBytes > 0 && byteCount >= maxBytes;
+  }
+}
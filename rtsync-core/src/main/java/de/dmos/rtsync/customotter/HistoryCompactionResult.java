@@ -0,0 +1,15 @@
+package de.dmos.rtsync.customotter;
+
+/**
+ * Describes the outcome of {@link CustomHistory#compact()}.
+ *
+ * @param wholeStateVersion The historyId of the latest whole state after the compaction.
+ * @param removedOperations The number of deltas and outdated whole states which were dropped.
+ * @param reclaimedBytes The estimated size of the dropped operations.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public record HistoryCompactionResult(long wholeStateVersion, int removedOperations, long reclaimedBytes)
+{
+}
@@ -0,0 +1,136 @@
+package de.dmos.rtsync.customotter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * A value which is composed with operations lazily. Appended operations are only collected and the value is composed
+ * with them when it is requested by {@link #get()}. Composing a whole document with a small operation usually costs
+ * time proportional to the size of the document, while composing small operations with each other only depends on
+ * their own sizes. So appending stays cheap however large the value gets.
+ *
+ * The pending operations are kept as blocks like the digits of a binary counter: A block of level j is the composition
+ * of 2^j consecutive operations and two blocks of the same level are composed into one of the next level. So every
+ * operation is composed at most a logarithmic number of times and only a logarithmic number of blocks are pending,
+ * however long the value isn't requested.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ *
+ * @param <T> The type of the value and the operations.
+ */
+public class LazyComposition<T> implements Supplier<T>
+{
+  private final BinaryOperator<T> _compose;
+  /**
+   * The pending blocks, oldest first. Their levels decrease strictly.
+   */
+  private final List<T>			  _pendingBlocks;
+  private final List<Integer>	  _pendingLevels;
+  private T						  _value;
+
+  /**
+   * @param compose Composes two operations. It must be associative, as composing OT operations is.
+   */
+  public LazyComposition(BinaryOperator<T> compose, T value)
+  {
+	_compose = compose;
+	_pendingBlocks = new ArrayList<>();
+	_pendingLevels = new ArrayList<>();
+	_value = value;
+  }
+
+  /**
+   * Returns the value composed with all pending operations.
+   */
+  @Override
+  public synchronized T get()
+  {
+	if ( !_pendingBlocks.isEmpty() )
+	{
+	  T composed = _value;
+	  for ( T block : _pendingBlocks )
+	  {
+		composed = _compose.apply(composed, block);
+	  }
+	  _value = composed;
+	  clearPending();
+	}
+	return _value;
+  }
+
+  /**
+   * Replaces the value and drops all pending operations.
+   */
+  public synchronized void set(T value)
+  {
+	_value = value;
+	clearPending();
+  }
+
+  /**
+   * Appends an operation which is composed with the value when it is requested next.
+   */
+  public synchronized void append(T op)
+  {
+	T block = op;
+	int level = 0;
+	int last = _pendingBlocks.size() - 1;
+	while (last >= 0 && _pendingLevels.get(last) == level)
+	{
+	  block = _compose.apply(_pendingBlocks.remove(last), block);
+	  _pendingLevels.remove(last);
+	  level++;
+	  last--;
+	}
+	_pendingBlocks.add(block);
+	_pendingLevels.add(level);
+  }
+
+  /**
+   * Returns whether the given value is the current value and no operations are pending, without composing anything.
+   */
+  public synchronized boolean isValue(T value)
+  {
+	return _pendingBlocks.isEmpty() && _value == value;
+  }
+
+  /**
+   * Returns the number of pending blocks, which is at most the binary logarithm of the number of pending operations
+   * plus one.
+   */
+  public synchronized int getPendingBlockCount()
+  {
+	return _pendingBlocks.size();
+  }
+
+  /**
+   * Returns the number of pending operations, which are composed into the pending blocks.
+   */
+  public synchronized long getPendingOperationCount()
+  {
+	long count = 0;
+	for ( int level : _pendingLevels )
+	{
+	  count += 1L << level;
+	}
+	return count;
+  }
+
+  private void clearPending()
+  {
+	_pendingBlocks.clear();
+	_pendingLevels.clear();
+  }
+
+  /**
+   * Describes the value without the pending operations, so logging this doesn't compose anything.
+   */
+  @Override
+  public synchronized String toString()
+  {
+	return getClass().getSimpleName() + "[value=" + _value + ", pendingOperations=" + getPendingOperationCount() + "]";
+  }
+}
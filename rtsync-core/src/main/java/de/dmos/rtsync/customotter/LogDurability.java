@@ -0,0 +1,27 @@
+package de.dmos.rtsync.customotter;
+
+/**
+ * Determines when a {@link FileOperationHistory} forces the operations which it appended to its log onto the storage
+ * device.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public enum LogDurability
+{
+  /**
+   * The log is never forced explicitly, so the operating system decides when appended operations are written. Appended
+   * operations survive a crash of the server process but not necessarily of the machine.
+   */
+  NONE,
+  /**
+   * The log is forced once for a batch of stored operations by {@link FileOperationHistory#awaitDurable()}, which the
+   * servers call before they acknowledge the batch, so its operations share one fsync. Operations may get lost only if
+   * they haven't been acknowledged yet.
+   */
+  GROUP_COMMIT,
+  /**
+   * The log is forced after every appended operation before the store returns.
+   */
+  SYNC
+}
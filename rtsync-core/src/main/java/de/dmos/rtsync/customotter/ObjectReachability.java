@@ -0,0 +1,182 @@
+package de.dmos.rtsync.customotter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.list.ListHandler;
+import se.l4.otter.operations.map.MapHandler;
+
+/**
+ * Finds the objects of a whole model state which can be reached from the {@link CustomModel#ROOT} through the
+ * references in maps and lists, so the updates of unreachable objects can be dropped from the state. This is the
+ * counterpart of {@link CustomModel#collectGarbage()} for servers, which only know the operations of a model.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class ObjectReachability
+{
+  private static final String REFERENCE = "ref";
+
+  private ObjectReachability()
+  {
+  }
+
+  /**
+   * Returns the given whole state without the updates of the objects with the given ids. The state is returned
+   * unchanged if it contains none of them.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Operation<CombinedHandler>> T withoutObjects(T wholeState, Set<String> droppedIds)
+  {
+	List<ObjectUpdate> updates = getUpdates(wholeState);
+	List<ObjectUpdate> keptUpdates = updates.stream().filter(u -> !droppedIds.contains(u.id())).toList();
+	if ( keptUpdates.size() == updates.size() )
+	{
+	  return wholeState;
+	}
+
+	var builder = CombinedDelta.builder();
+	keptUpdates.forEach(u -> builder.update(u.id(), u.type(), u.change()));
+	return (T) builder.done();
+  }
+
+  /**
+   * Returns the ids of the objects of the given whole state which can't be reached from the root. States without a
+   * root aren't model states, so none of their objects are considered unreachable.
+   */
+  public static Set<String> findUnreachableIds(Operation<CombinedHandler> wholeState)
+  {
+	List<ObjectUpdate> updates = getUpdates(wholeState);
+	Set<String> reachableIds = findReachableIds(updates);
+	Set<String> unreachableIds = new HashSet<>();
+	if ( !reachableIds.isEmpty() )
+	{
+	  updates.stream().map(ObjectUpdate::id).filter(id -> !reachableIds.contains(id)).forEach(unreachableIds::add);
+	}
+	return unreachableIds;
+  }
+
+  /**
+   * Returns the ids of the objects of the given whole state which can be reached from the root or an empty set if the
+   * state has no root.
+   */
+  public static Set<String> findReachableIds(Operation<CombinedHandler> wholeState)
+  {
+	return findReachableIds(getUpdates(wholeState));
+  }
+
+  private static List<ObjectUpdate> getUpdates(Operation<CombinedHandler> wholeState)
+  {
+	List<ObjectUpdate> updates = new ArrayList<>();
+	wholeState.apply((id, type, change) -> updates.add(new ObjectUpdate(id, type, change)));
+	return updates;
+  }
+
+  private static Set<String> findReachableIds(List<ObjectUpdate> updates)
+  {
+	Map<String, ObjectUpdate> updatesById = new HashMap<>();
+	updates.forEach(u -> updatesById.put(u.id(), u));
+	Set<String> reachableIds = new HashSet<>();
+	if ( !updatesById.containsKey(CustomModel.ROOT) )
+	{
+	  return reachableIds;
+	}
+
+	Deque<String> toVisit = new ArrayDeque<>();
+	reachableIds.add(CustomModel.ROOT);
+	toVisit.push(CustomModel.ROOT);
+	while (!toVisit.isEmpty())
+	{
+	  ObjectUpdate update = updatesById.get(toVisit.pop());
+	  if ( update == null )
+	  {
+		continue;
+	  }
+	  for ( String referencedId : getReferencedIds(update) )
+	  {
+		if ( reachableIds.add(referencedId) )
+		{
+		  toVisit.push(referencedId);
+		}
+	  }
+	}
+	return reachableIds;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<String> getReferencedIds(ObjectUpdate update)
+  {
+	List<String> referencedIds = new ArrayList<>();
+	switch (update.type())
+	{
+	  case "map" -> ((Operation<MapHandler>) update.change()).apply(new MapHandler()
+	  {
+		@Override
+		public void put(String key, Object oldValue, Object newValue)
+		{
+		  addIfReference(newValue, referencedIds);
+		}
+
+		@Override
+		public void remove(String key, Object oldValue)
+		{
+		  // Whole states only contain puts.
+		}
+	  });
+	  case "list" -> ((Operation<ListHandler>) update.change()).apply(new ListHandler()
+	  {
+		@Override
+		public void retain(int length)
+		{
+		  // Whole states only contain inserts.
+		}
+
+		@Override
+		public void insert(Object item)
+		{
+		  addIfReference(item, referencedIds);
+		}
+
+		@Override
+		public void delete(Object item)
+		{
+		  // Whole states only contain inserts.
+		}
+	  });
+	  default ->
+	  {
+		// Other objects can't contain references.
+	  }
+	}
+	return referencedIds;
+  }
+
+  /**
+   * Adds the id of the referenced object if the given data value is a reference, i.e. a list of "ref", the id and the
+   * type of the object.
+   */
+  private static void addIfReference(Object data, List<String> referencedIds)
+  {
+	if ( data instanceof List<?> list
+	  && list.size() == 3
+	  && REFERENCE.equals(list.get(0))
+	  && list.get(1) instanceof String id )
+	{
+	  referencedIds.add(id);
+	}
+  }
+
+  private record ObjectUpdate(String id, String type, Operation<?> change)
+  {
+  }
+}
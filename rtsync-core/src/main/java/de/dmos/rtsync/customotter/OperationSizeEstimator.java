@@ -0,0 +1,144 @@
+package de.dmos.rtsync.customotter;
+
+import java.util.Collection;
+import java.util.Map;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.list.ListHandler;
+import se.l4.otter.operations.map.MapHandler;
+import se.l4.otter.operations.string.AnnotationChange;
+import se.l4.otter.operations.string.StringHandler;
+
+/**
+ * Estimates the size of the serialized form of operations by walking them with their handlers instead of serializing
+ * them, so estimating the size of large whole states is cheap. The estimate counts the characters of texts, ids and
+ * keys plus a few bytes for the structure of each component.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public final class OperationSizeEstimator
+{
+  private static final int COMPONENT_OVERHEAD = 8;
+  private static final int UPDATE_OVERHEAD	  = 24;
+
+  private OperationSizeEstimator()
+  {
+  }
+
+  public static long estimateSize(TaggedUserOperation userOp)
+  {
+	long size = UPDATE_OVERHEAD + length(userOp.getToken()) + length(userOp.getUser());
+	if ( userOp.getOperation() != null )
+	{
+	  size += estimateSize(userOp.getOperation());
+	}
+	return size;
+  }
+
+  public static long estimateSize(Operation<CombinedHandler> op)
+  {
+	long[] size = {0};
+	op.apply((id, type, change) -> {
+	  size[0] += UPDATE_OVERHEAD + id.length() + type.length() + estimateChangeSize(type, change);
+	});
+	return size[0];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static long estimateChangeSize(String type, Operation<?> change)
+  {
+	long[] size = {0};
+	switch (type)
+	{
+	  case "string" -> ((Operation<StringHandler>) change).apply(new StringHandler()
+	  {
+		@Override
+		public void retain(int count)
+		{
+		  size[0] += COMPONENT_OVERHEAD;
+		}
+
+		@Override
+		public void insert(String s)
+		{
+		  size[0] += COMPONENT_OVERHEAD + s.length();
+		}
+
+		@Override
+		public void delete(String s)
+		{
+		  size[0] += COMPONENT_OVERHEAD + s.length();
+		}
+
+		@Override
+		public void annotationUpdate(AnnotationChange change)
+		{
+		  size[0] += COMPONENT_OVERHEAD * 4;
+		}
+	  });
+	  case "map" -> ((Operation<MapHandler>) change).apply(new MapHandler()
+	  {
+		@Override
+		public void put(String key, Object oldValue, Object newValue)
+		{
+		  size[0] += COMPONENT_OVERHEAD + key.length() + estimateValueSize(oldValue) + estimateValueSize(newValue);
+		}
+
+		@Override
+		public void remove(String key, Object oldValue)
+		{
+		  size[0] += COMPONENT_OVERHEAD + key.length() + estimateValueSize(oldValue);
+		}
+	  });
+	  case "list" -> ((Operation<ListHandler>) change).apply(new ListHandler()
+	  {
+		@Override
+		public void retain(int length)
+		{
+		  size[0] += COMPONENT_OVERHEAD;
+		}
+
+		@Override
+		public void insert(Object item)
+		{
+		  size[0] += COMPONENT_OVERHEAD + estimateValueSize(item);
+		}
+
+		@Override
+		public void delete(Object item)
+		{
+		  size[0] += COMPONENT_OVERHEAD + estimateValueSize(item);
+		}
+	  });
+	  default -> size[0] += COMPONENT_OVERHEAD * 4;
+	}
+	return size[0];
+  }
+
+  private static long estimateValueSize(Object value)
+  {
+	return switch (value)
+	{
+	  case null -> 4;
+	  case String s -> s.length() + 2;
+	  case Collection<?> collection -> 2
+		+ collection.stream().mapToLong(OperationSizeEstimator::estimateValueSize).sum()
+		+ collection.size();
+	  case Map<?, ?> map -> 2
+		+ map
+		.entrySet()
+		.stream()
+		.mapToLong(e -> String.valueOf(e.getKey()).length() + 4 + estimateValueSize(e.getValue()))
+		.sum();
+	  default -> COMPONENT_OVERHEAD;
+	};
+  }
+
+  private static int length(String s)
+  {
+	return s != null ? s.length() : 0;
+  }
+}
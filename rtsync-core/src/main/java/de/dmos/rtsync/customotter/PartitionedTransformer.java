@@ -0,0 +1,193 @@
+package de.dmos.rtsync.customotter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import se.l4.otter.operations.OTType;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.OperationPair;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+/**
+ * Composes and transforms combined operations partitioned by the ids of the objects they change. Updates of different
+ * objects are independent of each other, so the partitions of each object are composed or transformed on their own,
+ * in parallel on a {@link ForkJoinPool}, and the results are combined again. Operations which change fewer objects than
+ * the minimum number of partitions are composed or transformed as a whole, since splitting them wouldn't pay off.
+ * <p>
+ * The callers usually hold the lock of a {@link CustomEditorControl} while they wait for the partitions, so they use a
+ * pool of their own by default instead of the common pool, whose threads may be busy with unrelated tasks.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ *
+ * @param <T> The type of the combined operations.
+ */
+public class PartitionedTransformer<T extends Operation<CombinedHandler>>
+{
+  public static final int			DEFAULT_MIN_PARTITIONS = 64;
+
+  private static final ForkJoinPool DEFAULT_POOL		  =
+	  new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  private final OTType<T>	 _type;
+  private final ForkJoinPool _pool;
+  private final int			 _minPartitions;
+
+  public PartitionedTransformer(OTType<T> type)
+  {
+	this(type, DEFAULT_POOL, DEFAULT_MIN_PARTITIONS);
+  }
+
+  /**
+   * @param minPartitions The minimum number of objects which two operations must change together to be split.
+   */
+  public PartitionedTransformer(OTType<T> type, ForkJoinPool pool, int minPartitions)
+  {
+	_type = type;
+	_pool = pool;
+	_minPartitions = minPartitions;
+  }
+
+  public OTType<T> getType()
+  {
+	return _type;
+  }
+
+  /**
+   * Composes the given operations like {@link OTType#compose(Object, Object)}.
+   */
+  public T compose(T first, T second)
+  {
+	if ( countUpdates(first) + countUpdates(second) < _minPartitions )
+	{
+	  return _type.compose(first, second);
+	}
+	Map<String, List<Update>> firstPartitions = partition(first);
+	Map<String, List<Update>> secondPartitions = partition(second);
+	List<String> ids = getIds(firstPartitions, secondPartitions);
+	if ( ids.size() < _minPartitions )
+	{
+	  return _type.compose(first, second);
+	}
+
+	List<T> composed = _pool.submit(() -> ids.parallelStream().map(id -> {
+	  List<Update> firstUpdates = firstPartitions.get(id);
+	  List<Update> secondUpdates = secondPartitions.get(id);
+	  if ( firstUpdates == null || secondUpdates == null )
+	  {
+		return toOperation(firstUpdates != null ? firstUpdates : secondUpdates);
+	  }
+	  return _type.compose(toOperation(firstUpdates), toOperation(secondUpdates));
+	}).toList()).join();
+	return combine(composed);
+  }
+
+  /**
+   * Transforms the given operations like {@link OTType#transform(Object, Object)}.
+   */
+  public OperationPair<T> transform(T left, T right)
+  {
+	if ( countUpdates(left) + countUpdates(right) < _minPartitions )
+	{
+	  return _type.transform(left, right);
+	}
+	Map<String, List<Update>> leftPartitions = partition(left);
+	Map<String, List<Update>> rightPartitions = partition(right);
+	List<String> ids = getIds(leftPartitions, rightPartitions);
+	if ( ids.size() < _minPartitions )
+	{
+	  return _type.transform(left, right);
+	}
+
+	List<OperationPair<T>> transformed = _pool.submit(() -> ids.parallelStream().map(id -> {
+	  List<Update> leftUpdates = leftPartitions.get(id);
+	  List<Update> rightUpdates = rightPartitions.get(id);
+	  if ( leftUpdates == null || rightUpdates == null )
+	  {
+		// Only one of the operations changes this object, so the other one doesn't affect it.
+		return new OperationPair<>(toOperation(leftUpdates), toOperation(rightUpdates));
+	  }
+	  return _type.transform(toOperation(leftUpdates), toOperation(rightUpdates));
+	}).toList()).join();
+	return new OperationPair<>(
+	  combine(transformed.stream().map(OperationPair::getLeft).toList()),
+	  combine(transformed.stream().map(OperationPair::getRight).toList()));
+  }
+
+  /**
+   * Returns the number of updates of the given operation, which is at least the number of objects it changes. Counting
+   * them is cheaper than partitioning them, so operations which are too small to be split are recognized early.
+   */
+  private static int countUpdates(Operation<CombinedHandler> op)
+  {
+	int[] count = {0};
+	if ( op != null )
+	{
+	  op.apply((id, type, change) -> count[0]++);
+	}
+	return count[0];
+  }
+
+  /**
+   * Returns the updates of the given operation by the ids of the objects they change, in the order of their first
+   * updates.
+   */
+  private static Map<String, List<Update>> partition(Operation<CombinedHandler> op)
+  {
+	Map<String, List<Update>> partitions = new LinkedHashMap<>();
+	if ( op != null )
+	{
+	  op.apply((id, type, change) -> partitions
+		.computeIfAbsent(id, i -> new ArrayList<>(1))
+		.add(new Update(id, type, change)));
+	}
+	return partitions;
+  }
+
+  private static List<String> getIds(Map<String, List<Update>> first, Map<String, List<Update>> second)
+  {
+	Set<String> ids = new LinkedHashSet<>(first.keySet());
+	ids.addAll(second.keySet());
+	return new ArrayList<>(ids);
+  }
+
+  private T toOperation(List<Update> updates)
+  {
+	if ( updates == null )
+	{
+	  return null;
+	}
+	var builder = CombinedDelta.builder();
+	updates.forEach(u -> builder.update(u.id(), u.type(), u.change()));
+	return castOperation(builder.done());
+  }
+
+  private T combine(List<T> partitions)
+  {
+	var builder = CombinedDelta.builder();
+	for ( T partition : partitions )
+	{
+	  if ( partition != null )
+	  {
+		partition.apply((id, type, change) -> builder.update(id, type, change));
+	  }
+	}
+	return castOperation(builder.done());
+  }
+
+  @SuppressWarnings("unchecked")
+  private T castOperation(Operation<CombinedHandler> op)
+  {
+	return (T) op;
+  }
+
+  private record Update(String id, String type, Operation<?> change)
+  {
+  }
+}
@@ -0,0 +1,23 @@
+package de.dmos.rtsync.customotter;
+
+import se.l4.otter.operations.OperationException;
+
+/**
+ * Thrown when a session sends an operation which may be based on operations it pipelined before, but the
+ * {@link CustomEditorControl} has dropped them because too many sessions pipelined their operations at once. The
+ * sender needs to fetch the latest state before sending again.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class PipelineEvictedException extends OperationException
+{
+  private static final long serialVersionUID = 1L;
+
+  public PipelineEvictedException(String session, long historyId, long lastDroppedId)
+  {
+	super(
+	  "The pipelined operations of session %s up to historyId %d have been dropped, so an operation based on historyId %d can't be transformed."
+	  .formatted(session, lastDroppedId, historyId));
+  }
+}
@@ -19,5 +19,26 @@ public abstract class SharedObjectContainer<T extends Operation<?>> extends Abst
 
   public abstract boolean removeObject(Object obj);
 
+  /**
+   * Returns the path part at which the given object is contained in this or null if it isn't.
+   */
+  public abstract String getPathPartOf(Object obj);
+
   public abstract Stream<Object> getContents();
+
+  protected void adoptIfSharedObject(Object value)
+  {
+	if ( value instanceof AbstractCustomSharedObject<?> child )
+	{
+	  child.setContainer(this);
+	}
+  }
+
+  protected void releaseIfSharedObject(Object value)
+  {
+	if ( value instanceof AbstractCustomSharedObject<?> child )
+	{
+	  child.removeContainer(this);
+	}
+  }
 }
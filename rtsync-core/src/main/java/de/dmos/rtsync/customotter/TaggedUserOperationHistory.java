@@ -20,4 +20,30 @@ WholeStateStore
   void resetOperationsTo(TaggedUserOperation taggedBaseOperation);
 
   long getLatestWholeStateVersion();
+
+  /**
+   * Returns the whole state with the given historyId or null if there is none. Note that the whole state of
+   * {@link #getLatestWholeStateVersion()} is always available.
+   */
+  TaggedUserOperation getWholeState(long historyId);
+
+  /**
+   * Returns the stored operation with the given historyId or null if there is none, e.g. because it has been dropped.
+   */
+  TaggedUserOperation getUserOperation(long historyId);
+
+  /**
+   * Returns the oldest historyId on which stored operations may be based. Operations with older historyIds can't be
+   * transformed anymore because the operations following them have been dropped.
+   */
+  long getOldestTransformableVersion();
+
+  /**
+   * Waits until all operations which have been stored so far survive a crash as far as this history guarantees it.
+   * Stores may return before that, so callers should await this once for a batch of stored operations before they
+   * acknowledge them. Histories which don't persist their operations return immediately.
+   */
+  default void awaitDurable()
+  {
+  }
 }
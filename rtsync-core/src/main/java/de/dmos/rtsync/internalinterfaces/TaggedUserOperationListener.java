@@ -1,8 +1,26 @@
 package de.dmos.rtsync.internalinterfaces;
 
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.TaggedUserOperation;
 
 public interface TaggedUserOperationListener
 {
   void onTaggedUserOperationReceived(TaggedUserOperation userOp, boolean reset);
+
+  /**
+   * Called when the server acknowledges an operation instead of echoing it. The listener which sent the acknowledged
+   * operation confirms it and returns it as the server stored it. Other listeners return null (default).
+   */
+  default TaggedUserOperation onOperationAcknowledged(OperationAck ack)
+  {
+	return null;
+  }
+
+  /**
+   * Called after the sync resumed from its last version and applied the operations it missed. Listeners which sent
+   * operations that haven't been confirmed yet send them again, since the server may not have received them.
+   */
+  default void onResumed()
+  {
+  }
 }
@@ -0,0 +1,14 @@
+package de.dmos.rtsync.message;
+
+import java.io.Serializable;
+
+/**
+ * Acknowledges to the sender of an operation that the server stored it under the given historyId. The server sends it
+ * instead of echoing the whole operation, since the sender can reconstruct the stored operation from the one it sent.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public record OperationAck(String token, long historyId) implements Serializable
+{
+}
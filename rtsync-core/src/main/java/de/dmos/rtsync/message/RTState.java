@@ -3,8 +3,28 @@ package de.dmos.rtsync.message;
 import java.io.Serializable;
 import java.util.List;
 
-public record RTState(List<UserCursors> userCursors, TaggedUserOperation taggedOperation)
-implements
-Serializable
+/**
+ * The state which a client receives when it subscribes to a document. Usually it contains the whole document as
+ * taggedOperation. If the client resumes from a version whose following operations are still retained by the server,
+ * then it contains these missed operations instead and the taggedOperation is null. The historyEpoch identifies the
+ * server's history which the historyIds belong to, so the client can tell it when resuming.
+ */
+public record RTState(
+  List<UserCursors> userCursors,
+  TaggedUserOperation taggedOperation,
+  List<TaggedUserOperation> missedOperations,
+  String historyEpoch) implements Serializable
 {
+  public RTState(List<UserCursors> userCursors, TaggedUserOperation taggedOperation)
+  {
+	this(userCursors, taggedOperation, null, null);
+  }
+
+  /**
+   * Returns true if this state only contains the operations which the client missed instead of the whole document.
+   */
+  public boolean isResumed()
+  {
+	return missedOperations != null;
+  }
 }
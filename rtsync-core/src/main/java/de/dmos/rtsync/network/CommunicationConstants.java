@@ -15,6 +15,16 @@ public class CommunicationConstants
 
   public static final String                     PREFERRED_NAME_HEADER    = "preferredName";
   public static final String                     PREFERRED_COLOR_HEADER   = "preferredColor";
+  /**
+   * The header of a subscription to a client's initial or latest state which contains the historyId up to which the
+   * client is synchronized. If the server still retains the operations after it, then it only answers with them.
+   */
+  public static final String                     RESUME_FROM_HEADER       = "resumeFrom";
+  /**
+   * The header which accompanies {@link #RESUME_FROM_HEADER} with the history epoch of the state which the client
+   * received last. The server only resumes clients whose epoch equals the one of its current history.
+   */
+  public static final String                     RESUME_EPOCH_HEADER      = "resumeEpoch";
 
   public static final boolean USE_SOCK_JS = false;
 }
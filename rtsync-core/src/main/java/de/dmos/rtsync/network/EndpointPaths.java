@@ -17,12 +17,14 @@ public class EndpointPaths
 
   // Subscribable topics
   public static final String OPERATIONS					 = "operations";
+  public static final String OPERATION_BATCHES			 = "operationBatches";
   public static final String SUBSCRIBERS				 = "subscribers";
   public static final String CURSORS					 = "cursors";
   public static final String PROJECTS					 = "projects";
   public static final String ALL_TOPICS					 = "*";
 
   public static final String PATH_OPERATIONS			 = DELIMITER + OPERATIONS;
+  public static final String PATH_OPERATION_BATCHES		 = DELIMITER + OPERATION_BATCHES;
   public static final String PATH_SUBSCRIBERS			 = DELIMITER + SUBSCRIBERS;
   public static final String PATH_CURSORS				 = DELIMITER + CURSORS;
   public static final String PATH_PROJECTS				 = DELIMITER + PROJECTS;
@@ -31,12 +33,15 @@ public class EndpointPaths
   // User specific response topics
   public static final String LATEST_OPERATION			 = "latestOperation";
   public static final String EXCEPTION					 = "error";
+  public static final String ACKS						 = "acks";
 
   public static final String PATH_LATEST_OPERATION		 = DELIMITER + LATEST_OPERATION;
   public static final String PATH_EXCEPTION				 = DELIMITER + EXCEPTION;
+  public static final String PATH_ACKS					 = DELIMITER + ACKS;
 
   // Client update paths. Note that the prefix "/topic" is automatically removed from the destinations in the controller's mappings.
   public static final String TOPIC_OPERATIONS            = TOPIC + PATH_OPERATIONS;
+  public static final String TOPIC_OPERATION_BATCHES	 = TOPIC + PATH_OPERATION_BATCHES;
   public static final String TOPIC_SUBSCRIBERS           = TOPIC + PATH_SUBSCRIBERS;
   public static final String TOPIC_CURSORS				 = TOPIC + PATH_CURSORS;
   public static final String TOPIC_PROJECTS				 = TOPIC + PATH_PROJECTS;
@@ -45,11 +50,15 @@ public class EndpointPaths
   public static final String QUEUE_LATEST_OPERATION		 = QUEUE + PATH_LATEST_OPERATION;
   public static final String QUEUE_EXCEPTION			 = QUEUE + PATH_EXCEPTION;
   public static final String QUEUE_OPERATIONS            = QUEUE + PATH_OPERATIONS;
+  public static final String QUEUE_OPERATION_BATCHES	 = QUEUE + PATH_OPERATION_BATCHES;
+  public static final String QUEUE_ACKS					 = QUEUE + PATH_ACKS;
 
   // The client subscriptions for the server's client specific messages.
   public static final String USER_QUEUE_LATEST_OPERATION = USER + QUEUE_LATEST_OPERATION;
   public static final String USER_QUEUE_EXCEPTION        = USER + QUEUE_EXCEPTION;
   public static final String USER_QUEUE_OPERATIONS       = USER + QUEUE_OPERATIONS;
+  public static final String USER_QUEUE_OPERATION_BATCHES = USER + QUEUE_OPERATION_BATCHES;
+  public static final String USER_QUEUE_ACKS			 = USER + QUEUE_ACKS;
 
   // App functions registered by the server.
   public static final String SEND_OPERATION				 = "sendOperation";
@@ -67,10 +76,12 @@ public class EndpointPaths
   // App functions registered by the server which are intended to be subscribed to for a one time response.
   public static final String GET_LATEST_OPERATION		 = "getLatestOperation";
   public static final String INIT_CLIENT				 = "initClient";
+  public static final String RESUME					 = "resume";
   // projects can also be queried but they are listed as topic.
 
   public static final String PATH_GET_LATEST_OPERATION	 = DELIMITER + GET_LATEST_OPERATION;
   public static final String PATH_INIT_CLIENT			 = DELIMITER + INIT_CLIENT;
+  public static final String PATH_RESUME				 = DELIMITER + RESUME;
 
   // Endpoints for app functions to be used by the clients. The server can find the corresponding app functions without the prefix "/app".
   public static final String APP_SEND_OPERATION          = APP + PATH_SEND_OPERATION;
@@ -80,6 +91,7 @@ public class EndpointPaths
 
   // Intended for subscribe messages to get a one time response
   public static final String APP_GET_LATEST_OPERATION    = APP + PATH_GET_LATEST_OPERATION;
+  public static final String APP_RESUME				     = APP + PATH_RESUME;
   public static final String APP_UPDATE_OWN_CURSORS		 = APP + PATH_UPDATE_OWN_CURSORS;
   public static final String APP_QUERY_PROJECTS			 = APP + PATH_PROJECTS;
 }
@@ -1,13 +1,24 @@
 package de.dmos.rtsync.serializers;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
 
 import se.l4.exobytes.Serializer;
+import se.l4.exobytes.streaming.StreamingInput;
+import se.l4.exobytes.streaming.Token;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
 
+/**
+ * A {@link GenericMapSerializer} for {@link TaggedOperation}s. Since tagged operations are by far the most frequently
+ * read messages, {@link #read(StreamingInput)} binds their fields directly to a {@link TaggedOperationFields} instead
+ * of collecting them in a map.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
 public abstract class AbstractTaggedOperationSerializer<T extends TaggedOperation<Operation<CombinedHandler>>>
 extends GenericMapSerializer<T>
 {
@@ -15,9 +26,13 @@ extends GenericMapSerializer<T>
   private static final String FIELD_TOKEN      = "token";
   private static final String FIELD_OPERATIONS = "operations";
 
+  private final Serializer<Operation<CombinedHandler>> _operationSerializer;
+
+  @SuppressWarnings("unchecked")
   protected AbstractTaggedOperationSerializer(Map<String, Serializer<?>> fieldSerializers)
   {
     super(fieldSerializers);
+    _operationSerializer = (Serializer<Operation<CombinedHandler>>) fieldSerializers.get(FIELD_OPERATIONS);
   }
 
   protected static Map<String, Serializer<?>> createSerializerMap(
@@ -30,6 +45,68 @@ extends GenericMapSerializer<T>
     return serializers;
   }
 
+  @Override
+  public T read(StreamingInput in) throws IOException
+  {
+    TaggedOperationFields fields = new TaggedOperationFields();
+
+    in.next(Token.OBJECT_START);
+
+    while (in.peek() != Token.OBJECT_END)
+    {
+      in.next(Token.VALUE);
+      String key = in.readString();
+      if ( !readField(key, in, fields) )
+      {
+        Serializer<?> serializer = getFieldSerializer(key);
+        if ( serializer == null )
+        {
+          in.readDynamic();
+        }
+        else
+        {
+          serializer.read(in);
+        }
+      }
+    }
+
+    in.next(Token.OBJECT_END);
+
+    return createFromFields(fields);
+  }
+
+  /**
+   * Reads the value of the field with the given key into the given fields if it is known.
+   *
+   * @return Whether the field was read.
+   */
+  protected boolean readField(String key, StreamingInput in, TaggedOperationFields fields) throws IOException
+  {
+    switch (key)
+    {
+      case FIELD_HISTORY_ID:
+        in.next(Token.VALUE);
+        fields.historyId = in.readLong();
+        return true;
+      case FIELD_TOKEN:
+        fields.token = MessageSerialization.STRING_SERIALIZER.read(in);
+        return true;
+      case FIELD_OPERATIONS:
+        fields.operation = _operationSerializer.read(in);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  protected abstract T createFromFields(TaggedOperationFields fields);
+
+  protected TaggedOperation<Operation<CombinedHandler>> createBaseTaggedOperation(TaggedOperationFields fields)
+  {
+    return new TaggedOperation<>(fields.historyId, fields.token, fields.operation);
+  }
+
+  @SuppressWarnings("unchecked")
   protected TaggedOperation<Operation<CombinedHandler>> createBaseTaggedOperationFromMap(Map<String, Object> map)
   {
     return new TaggedOperation<>(
@@ -46,4 +123,16 @@ extends GenericMapSerializer<T>
     fieldMap.put(FIELD_OPERATIONS, obj.getOperation());
     return fieldMap;
   }
+
+  /**
+   * The fields of all known kinds of tagged operations.
+   */
+  protected static class TaggedOperationFields
+  {
+    long                      historyId;
+    String                    token;
+    Operation<CombinedHandler> operation;
+    String                    user;
+    String[]                  mergedIds;
+  }
 }
@@ -0,0 +1,60 @@
+package de.dmos.rtsync.serializers;
+
+/**
+ * The payload of a JSON message which may also be sent binary. It is encoded by the {@link BinaryMessageCodec} on the
+ * first call of {@link #getEncoded()} only, so a message which is broadcast to many sessions is encoded binary at most
+ * once and not at all if no session accepts binary messages.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public final class BinaryAlternative
+{
+  /**
+   * The message header which holds the binary alternative of a JSON message. It is not sent to the peer.
+   */
+  public static final String	HEADER		= "rtsyncBinaryAlternative";
+
+  private static final byte[]	UNSUPPORTED = new byte[0];
+
+  private final Object			_payload;
+  private volatile byte[]		_encoded;
+
+  public BinaryAlternative(Object payload)
+  {
+	_payload = payload;
+  }
+
+  /**
+   * Returns the binary encoded payload or null if it can't be encoded, e.g. because it contains string annotations.
+   */
+  public byte[] getEncoded()
+  {
+	byte[] encoded = _encoded;
+	if ( encoded == null )
+	{
+	  synchronized (this)
+	  {
+		encoded = _encoded;
+		if ( encoded == null )
+		{
+		  encoded = encode();
+		  _encoded = encoded;
+		}
+	  }
+	}
+	return encoded != UNSUPPORTED ? encoded : null;
+  }
+
+  private byte[] encode()
+  {
+	try
+	{
+	  return BinaryMessageCodec.encode(_payload);
+	}
+	catch (UnsupportedOperationException uoe)
+	{
+	  return UNSUPPORTED;
+	}
+  }
+}
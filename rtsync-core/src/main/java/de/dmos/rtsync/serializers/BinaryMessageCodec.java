@@ -0,0 +1,701 @@
+package de.dmos.rtsync.serializers;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import de.dmos.rtsync.message.CursorPosition;
+import de.dmos.rtsync.message.RTState;
+import de.dmos.rtsync.message.Subscriber;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.message.UserCursors;
+import de.dmos.rtsync.streaming.BinaryInput;
+import de.dmos.rtsync.streaming.BinaryOutput;
+import se.l4.otter.engine.TaggedOperation;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.list.ListDelta;
+import se.l4.otter.operations.list.ListHandler;
+import se.l4.otter.operations.map.MapDelta;
+import se.l4.otter.operations.map.MapHandler;
+import se.l4.otter.operations.string.AnnotationChange;
+import se.l4.otter.operations.string.StringDelta;
+import se.l4.otter.operations.string.StringHandler;
+
+/**
+ * A compact binary alternative to the JSON format of {@link MessageSerialization} for the messages which are sent most
+ * often. Integers are written as variable length quantities and ids, types, users and tokens are written only once per
+ * message thanks to the string table of {@link BinaryOutput}.
+ *
+ * The operations of the types "string", "map" and "list" are written by walking them with their handlers. Messages
+ * with other operation types or with string annotations can't be encoded and cause an
+ * {@link UnsupportedOperationException}, so the caller can fall back to JSON.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public final class BinaryMessageCodec
+{
+  /**
+   * The content type of binary messages. It is a kind of application/octet-stream, so Spring's STOMP handlers send the
+   * messages in binary WebSocket frames instead of text frames, which would break the bytes that aren't valid UTF-8.
+   */
+  public static final MimeType MIME_TYPE				  =
+	  new MimeType("application", "octet-stream", Map.of("format", "rtsync"));
+  /**
+   * The header of a STOMP CONNECT frame by which a client tells the server that it accepts binary messages on that
+   * connection. Its value is {@link #MIME_TYPE}.
+   */
+  public static final String   ACCEPT_HEADER			  = "rtsync-accept";
+
+  private static final int	   MAGIC					  = 0xB7;
+  private static final int	   VERSION					  = 1;
+
+  private static final int	   KIND_TAGGED_OPERATION	  = 1;
+  private static final int	   KIND_TAGGED_USER_OPERATION = 2;
+  private static final int	   KIND_TAGGED_USER_OPERATIONS = 3;
+  private static final int	   KIND_RT_STATE			  = 4;
+  private static final int	   KIND_USER_CURSORS		  = 5;
+  private static final int	   KIND_USER_CURSORS_ARRAY	  = 6;
+  private static final int	   KIND_SUBSCRIBER			  = 7;
+  private static final int	   KIND_SUBSCRIBERS			  = 8;
+
+  private static final String  TYPE_STRING				  = "string";
+  private static final String  TYPE_MAP					  = "map";
+  private static final String  TYPE_LIST				  = "list";
+
+  private static final int	   COMPONENT_END			  = 0;
+  private static final int	   COMPONENT_RETAIN			  = 1;
+  private static final int	   COMPONENT_INSERT			  = 2;
+  private static final int	   COMPONENT_DELETE			  = 3;
+  private static final int	   COMPONENT_PUT			  = 4;
+  private static final int	   COMPONENT_REMOVE			  = 5;
+
+  private static final int	   VALUE_NULL				  = 0;
+  private static final int	   VALUE_FALSE				  = 1;
+  private static final int	   VALUE_TRUE				  = 2;
+  private static final int	   VALUE_LONG				  = 3;
+  private static final int	   VALUE_DOUBLE				  = 4;
+  private static final int	   VALUE_STRING				  = 5;
+  private static final int	   VALUE_LIST				  = 6;
+  private static final int	   VALUE_MAP				  = 7;
+
+  private BinaryMessageCodec()
+  {
+  }
+
+  /**
+   * Returns whether messages of the given class can be encoded, though single messages may still contain operations
+   * which can't be encoded.
+   */
+  public static boolean supports(Class<?> clazz)
+  {
+	return TaggedOperation.class.isAssignableFrom(clazz)
+		|| clazz == TaggedUserOperation[].class
+		|| clazz == RTState.class
+		|| clazz == UserCursors.class
+		|| clazz == UserCursors[].class
+		|| clazz == Subscriber.class
+		|| clazz == Subscriber[].class;
+  }
+
+  /**
+   * Returns whether the given content type, a {@link MimeType} or its string form, is {@link #MIME_TYPE}.
+   */
+  public static boolean isMimeType(Object contentType)
+  {
+	MimeType mimeType = null;
+	if ( contentType instanceof MimeType type )
+	{
+	  mimeType = type;
+	}
+	else if ( contentType instanceof String string )
+	{
+	  try
+	  {
+		mimeType = MimeTypeUtils.parseMimeType(string);
+	  }
+	  catch (InvalidMimeTypeException imte)
+	  {
+		return false;
+	  }
+	}
+	return mimeType != null
+		&& MIME_TYPE.equalsTypeAndSubtype(mimeType)
+		&& MIME_TYPE.getParameter("format").equals(mimeType.getParameter("format"));
+  }
+
+  /**
+   * Returns whether the given data starts like an encoded message of this codec. JSON messages never do.
+   */
+  public static boolean isEncoded(byte[] data)
+  {
+	return data.length > 1 && (data[0] & 0xFF) == MAGIC;
+  }
+
+  /**
+   * @throws UnsupportedOperationException If the message or one of its operations can't be encoded.
+   */
+  public static byte[] encode(Object message)
+  {
+	BinaryOutput out = new BinaryOutput();
+	out.writeByte(MAGIC);
+	out.writeByte(VERSION);
+	switch (message)
+	{
+	  case TaggedUserOperation userOp -> {
+		out.writeByte(KIND_TAGGED_USER_OPERATION);
+		writeTaggedUserOperation(out, userOp);
+	  }
+	  case TaggedOperation<?> taggedOp -> {
+		out.writeByte(KIND_TAGGED_OPERATION);
+		writeTaggedOperation(out, taggedOp);
+	  }
+	  case TaggedUserOperation[] userOps -> {
+		out.writeByte(KIND_TAGGED_USER_OPERATIONS);
+		out.writeVarInt(userOps.length);
+		for ( TaggedUserOperation userOp : userOps )
+		{
+		  writeTaggedUserOperation(out, userOp);
+		}
+	  }
+	  case RTState state -> {
+		out.writeByte(KIND_RT_STATE);
+		writeRTState(out, state);
+	  }
+	  case UserCursors cursors -> {
+		out.writeByte(KIND_USER_CURSORS);
+		writeUserCursors(out, cursors);
+	  }
+	  case UserCursors[] cursorsArray -> {
+		out.writeByte(KIND_USER_CURSORS_ARRAY);
+		out.writeVarInt(cursorsArray.length);
+		for ( UserCursors cursors : cursorsArray )
+		{
+		  writeUserCursors(out, cursors);
+		}
+	  }
+	  case Subscriber subscriber -> {
+		out.writeByte(KIND_SUBSCRIBER);
+		writeSubscriber(out, subscriber);
+	  }
+	  case Subscriber[] subscribers -> {
+		out.writeByte(KIND_SUBSCRIBERS);
+		out.writeVarInt(subscribers.length);
+		for ( Subscriber subscriber : subscribers )
+		{
+		  writeSubscriber(out, subscriber);
+		}
+	  }
+	  default -> throw new UnsupportedOperationException("Can't encode " + message.getClass() + " binary");
+	}
+	return out.toByteArray();
+  }
+
+  public static Object decode(byte[] data) throws IOException
+  {
+	BinaryInput in = new BinaryInput(data);
+	if ( in.readByte() != MAGIC )
+	{
+	  throw new IOException("The data is not binary encoded");
+	}
+	int version = in.readByte();
+	if ( version != VERSION )
+	{
+	  throw new IOException("Unsupported binary version " + version);
+	}
+	int kind = in.readByte();
+	return switch (kind)
+	{
+	  case KIND_TAGGED_OPERATION -> readTaggedOperation(in);
+	  case KIND_TAGGED_USER_OPERATION -> readTaggedUserOperation(in);
+	  case KIND_TAGGED_USER_OPERATIONS -> {
+		TaggedUserOperation[] userOps = new TaggedUserOperation[in.readLength()];
+		for ( int i = 0; i < userOps.length; i++ )
+		{
+		  userOps[i] = readTaggedUserOperation(in);
+		}
+		yield userOps;
+	  }
+	  case KIND_RT_STATE -> readRTState(in);
+	  case KIND_USER_CURSORS -> readUserCursors(in);
+	  case KIND_USER_CURSORS_ARRAY -> {
+		UserCursors[] cursorsArray = new UserCursors[in.readLength()];
+		for ( int i = 0; i < cursorsArray.length; i++ )
+		{
+		  cursorsArray[i] = readUserCursors(in);
+		}
+		yield cursorsArray;
+	  }
+	  case KIND_SUBSCRIBER -> readSubscriber(in);
+	  case KIND_SUBSCRIBERS -> {
+		Subscriber[] subscribers = new Subscriber[in.readLength()];
+		for ( int i = 0; i < subscribers.length; i++ )
+		{
+		  subscribers[i] = readSubscriber(in);
+		}
+		yield subscribers;
+	  }
+	  default -> throw new IOException("Unknown binary message kind " + kind);
+	};
+  }
+
+  public static <T> T decode(byte[] data, Class<T> targetClass) throws IOException
+  {
+	Object decoded = decode(data);
+	if ( decoded instanceof TaggedOperation<?> taggedOp && targetClass == TaggedUserOperation.class )
+	{
+	  decoded = TaggedUserOperation.toTaggedUserOperation(taggedOp);
+	}
+	if ( !targetClass.isInstance(decoded) )
+	{
+	  throw new IOException("Expected " + targetClass + " but decoded " + decoded.getClass());
+	}
+	return targetClass.cast(decoded);
+  }
+
+  private static void writeTaggedOperation(BinaryOutput out, TaggedOperation<?> taggedOp)
+  {
+	out.writeVarLong(taggedOp.getHistoryId());
+	out.writeString(taggedOp.getToken());
+	@SuppressWarnings("unchecked")
+	Operation<CombinedHandler> op = (Operation<CombinedHandler>) taggedOp.getOperation();
+	writeCombinedOperation(out, op);
+  }
+
+  private static TaggedOperation<Operation<CombinedHandler>> readTaggedOperation(BinaryInput in) throws IOException
+  {
+	long historyId = in.readVarLong();
+	String token = in.readString();
+	return new TaggedOperation<>(historyId, token, readCombinedOperation(in));
+  }
+
+  private static void writeTaggedUserOperation(BinaryOutput out, TaggedUserOperation userOp)
+  {
+	writeTaggedOperation(out, userOp);
+	out.writeString(userOp.getUser());
+	String[] mergedIds = userOp.getMergedIds();
+	if ( mergedIds == null )
+	{
+	  out.writeVarInt(0);
+	  return;
+	}
+	out.writeVarInt(mergedIds.length + 1);
+	for ( String mergedId : mergedIds )
+	{
+	  out.writeString(mergedId);
+	}
+  }
+
+  private static TaggedUserOperation readTaggedUserOperation(BinaryInput in) throws IOException
+  {
+	TaggedOperation<Operation<CombinedHandler>> taggedOp = readTaggedOperation(in);
+	String user = in.readString();
+	int mergedIdsLength = in.readNullableLength();
+	String[] mergedIds = null;
+	if ( mergedIdsLength >= 0 )
+	{
+	  mergedIds = new String[mergedIdsLength];
+	  for ( int i = 0; i < mergedIdsLength; i++ )
+	  {
+		mergedIds[i] = in.readString();
+	  }
+	}
+	return new TaggedUserOperation(taggedOp, user, mergedIds);
+  }
+
+  private static void writeRTState(BinaryOutput out, RTState state)
+  {
+	List<UserCursors> userCursors = state.userCursors();
+	out.writeVarInt(userCursors != null ? userCursors.size() + 1 : 0);
+	if ( userCursors != null )
+	{
+	  userCursors.forEach(c -> writeUserCursors(out, c));
+	}
+	out.writeBoolean(state.taggedOperation() != null);
+	if ( state.taggedOperation() != null )
+	{
+	  writeTaggedUserOperation(out, state.taggedOperation());
+	}
+	List<TaggedUserOperation> missedOperations = state.missedOperations();
+	out.writeVarInt(missedOperations != null ? missedOperations.size() + 1 : 0);
+	if ( missedOperations != null )
+	{
+	  missedOperations.forEach(op -> writeTaggedUserOperation(out, op));
+	}
+	out.writeString(state.historyEpoch());
+  }
+
+  private static RTState readRTState(BinaryInput in) throws IOException
+  {
+	int userCursorsSize = in.readNullableLength();
+	List<UserCursors> userCursors = null;
+	if ( userCursorsSize >= 0 )
+	{
+	  userCursors = new ArrayList<>(userCursorsSize);
+	  for ( int i = 0; i < userCursorsSize; i++ )
+	  {
+		userCursors.add(readUserCursors(in));
+	  }
+	}
+	TaggedUserOperation userOp = in.readBoolean() ? readTaggedUserOperation(in) : null;
+	int missedOperationsSize = in.readNullableLength();
+	List<TaggedUserOperation> missedOperations = null;
+	if ( missedOperationsSize >= 0 )
+	{
+	  missedOperations = new ArrayList<>(missedOperationsSize);
+	  for ( int i = 0; i < missedOperationsSize; i++ )
+	  {
+		missedOperations.add(readTaggedUserOperation(in));
+	  }
+	}
+	return new RTState(userCursors, userOp, missedOperations, in.readString());
+  }
+
+  private static void writeUserCursors(BinaryOutput out, UserCursors userCursors)
+  {
+	out.writeBoolean(userCursors.userId() != null);
+	if ( userCursors.userId() != null )
+	{
+	  out.writeVarLong(userCursors.userId());
+	}
+	List<CursorPosition> cursors = userCursors.cursors();
+	out.writeVarInt(cursors != null ? cursors.size() + 1 : 0);
+	if ( cursors != null )
+	{
+	  for ( CursorPosition cursor : cursors )
+	  {
+		out.writeString(cursor.id());
+		out.writeVarInt(cursor.startIndex() != null ? cursor.startIndex() + 1 : 0);
+		out.writeVarInt(cursor.endIndex());
+	  }
+	}
+  }
+
+  private static UserCursors readUserCursors(BinaryInput in) throws IOException
+  {
+	Long userId = in.readBoolean() ? in.readVarLong() : null;
+	int cursorsSize = in.readNullableLength();
+	List<CursorPosition> cursors = null;
+	if ( cursorsSize >= 0 )
+	{
+	  cursors = new ArrayList<>(cursorsSize);
+	  for ( int i = 0; i < cursorsSize; i++ )
+	  {
+		String id = in.readString();
+		int startIndex = in.readVarInt() - 1;
+		int endIndex = in.readVarInt();
+		cursors.add(new CursorPosition(id, startIndex >= 0 ? startIndex : null, endIndex));
+	  }
+	}
+	return new UserCursors(userId, cursors);
+  }
+
+  private static void writeSubscriber(BinaryOutput out, Subscriber subscriber)
+  {
+	out.writeVarLong(subscriber.getId());
+	out.writeString(subscriber.getName());
+	Color color = subscriber.getColor();
+	out.writeBoolean(color != null);
+	if ( color != null )
+	{
+	  out.writeVarInt(color.getRGB());
+	}
+	Set<String> projects = subscriber.getProjects();
+	out.writeVarInt(projects.size());
+	projects.forEach(out::writeString);
+  }
+
+  private static Subscriber readSubscriber(BinaryInput in) throws IOException
+  {
+	long id = in.readVarLong();
+	String name = in.readString();
+	Color color = in.readBoolean() ? new Color(in.readVarInt(), true) : null;
+	int projectCount = in.readLength();
+	Set<String> projects = new HashSet<>();
+	for ( int i = 0; i < projectCount; i++ )
+	{
+	  projects.add(in.readString());
+	}
+	return new Subscriber(id, name, color, projects);
+  }
+
+  private static void writeCombinedOperation(BinaryOutput out, Operation<CombinedHandler> op)
+  {
+	if ( op == null )
+	{
+	  out.writeBoolean(false);
+	  return;
+	}
+	out.writeBoolean(true);
+	op.apply(new CombinedHandler()
+	{
+	  @Override
+	  public void update(String id, String type, Operation<?> change)
+	  {
+		out.writeString(type);
+		out.writeString(id);
+		writeChange(out, type, change);
+	  }
+	});
+	out.writeString(null);
+  }
+
+  private static Operation<CombinedHandler> readCombinedOperation(BinaryInput in) throws IOException
+  {
+	if ( !in.readBoolean() )
+	{
+	  return null;
+	}
+	var builder = CombinedDelta.builder();
+	String type;
+	while ((type = in.readString()) != null)
+	{
+	  String id = in.readString();
+	  builder.update(id, type, readChange(in, type));
+	}
+	return builder.done();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeChange(BinaryOutput out, String type, Operation<?> change)
+  {
+	switch (type)
+	{
+	  case TYPE_STRING -> ((Operation<StringHandler>) change).apply(new StringHandler()
+	  {
+		@Override
+		public void retain(int count)
+		{
+		  out.writeByte(COMPONENT_RETAIN);
+		  out.writeVarInt(count);
+		}
+
+		@Override
+		public void insert(String s)
+		{
+		  out.writeByte(COMPONENT_INSERT);
+		  out.writeText(s);
+		}
+
+		@Override
+		public void delete(String s)
+		{
+		  out.writeByte(COMPONENT_DELETE);
+		  out.writeText(s);
+		}
+
+		@Override
+		public void annotationUpdate(AnnotationChange change)
+		{
+		  throw new UnsupportedOperationException("String annotations can't be encoded binary");
+		}
+	  });
+	  case TYPE_MAP -> ((Operation<MapHandler>) change).apply(new MapHandler()
+	  {
+		@Override
+		public void put(String key, Object oldValue, Object newValue)
+		{
+		  out.writeByte(COMPONENT_PUT);
+		  out.writeString(key);
+		  writeValue(out, oldValue);
+		  writeValue(out, newValue);
+		}
+
+		@Override
+		public void remove(String key, Object oldValue)
+		{
+		  out.writeByte(COMPONENT_REMOVE);
+		  out.writeString(key);
+		  writeValue(out, oldValue);
+		}
+	  });
+	  case TYPE_LIST -> ((Operation<ListHandler>) change).apply(new ListHandler()
+	  {
+		@Override
+		public void retain(int length)
+		{
+		  out.writeByte(COMPONENT_RETAIN);
+		  out.writeVarInt(length);
+		}
+
+		@Override
+		public void insert(Object item)
+		{
+		  out.writeByte(COMPONENT_INSERT);
+		  writeValue(out, item);
+		}
+
+		@Override
+		public void delete(Object item)
+		{
+		  out.writeByte(COMPONENT_DELETE);
+		  writeValue(out, item);
+		}
+	  });
+	  default -> throw new UnsupportedOperationException("Operations of type " + type + " can't be encoded binary");
+	}
+	out.writeByte(COMPONENT_END);
+  }
+
+  private static Operation<?> readChange(BinaryInput in, String type) throws IOException
+  {
+	switch (type)
+	{
+	  case TYPE_STRING:
+	  {
+		var delta = StringDelta.builder();
+		for ( int component = in.readByte(); component != COMPONENT_END; component = in.readByte() )
+		{
+		  switch (component)
+		  {
+			case COMPONENT_RETAIN -> delta.retain(in.readCount());
+			case COMPONENT_INSERT -> delta.insert(in.readText());
+			case COMPONENT_DELETE -> delta.delete(in.readText());
+			default -> throw new IOException("Unknown string component " + component);
+		  }
+		}
+		return delta.done();
+	  }
+	  case TYPE_MAP:
+	  {
+		var delta = MapDelta.builder();
+		for ( int component = in.readByte(); component != COMPONENT_END; component = in.readByte() )
+		{
+		  switch (component)
+		  {
+			case COMPONENT_PUT -> delta.set(in.readString(), readValue(in), readValue(in));
+			case COMPONENT_REMOVE -> delta.remove(in.readString(), readValue(in));
+			default -> throw new IOException("Unknown map component " + component);
+		  }
+		}
+		return delta.done();
+	  }
+	  case TYPE_LIST:
+	  {
+		var delta = ListDelta.builder();
+		for ( int component = in.readByte(); component != COMPONENT_END; component = in.readByte() )
+		{
+		  switch (component)
+		  {
+			case COMPONENT_RETAIN -> delta.retain(in.readCount());
+			case COMPONENT_INSERT -> delta.insert(readValue(in));
+			case COMPONENT_DELETE -> delta.delete(readValue(in));
+			default -> throw new IOException("Unknown list component " + component);
+		  }
+		}
+		return delta.done();
+	  }
+	  default:
+		throw new IOException("Unknown operation type " + type);
+	}
+  }
+
+  /**
+   * Writes the given dynamic value. Like the JSON format, all integral numbers are read as {@link Long}s and all
+   * floating point numbers as {@link Double}s.
+   */
+  private static void writeValue(BinaryOutput out, Object value)
+  {
+	switch (value)
+	{
+	  case null -> out.writeByte(VALUE_NULL);
+	  case Boolean b -> out.writeByte(b ? VALUE_TRUE : VALUE_FALSE);
+	  case Long l -> {
+		out.writeByte(VALUE_LONG);
+		out.writeSignedVarLong(l);
+	  }
+	  case Integer i -> {
+		out.writeByte(VALUE_LONG);
+		out.writeSignedVarLong(i);
+	  }
+	  case Short s -> {
+		out.writeByte(VALUE_LONG);
+		out.writeSignedVarLong(s);
+	  }
+	  case Byte b -> {
+		out.writeByte(VALUE_LONG);
+		out.writeSignedVarLong(b);
+	  }
+	  case Double d -> {
+		out.writeByte(VALUE_DOUBLE);
+		out.writeDouble(d);
+	  }
+	  case Float f -> {
+		out.writeByte(VALUE_DOUBLE);
+		out.writeDouble(f);
+	  }
+	  case String s -> {
+		out.writeByte(VALUE_STRING);
+		out.writeString(s);
+	  }
+	  case List<?> list -> {
+		out.writeByte(VALUE_LIST);
+		out.writeVarInt(list.size());
+		list.forEach(item -> writeValue(out, item));
+	  }
+	  case Map<?, ?> map -> {
+		out.writeByte(VALUE_MAP);
+		out.writeVarInt(map.size());
+		map.forEach((k, v) -> {
+		  out.writeString(String.valueOf(k));
+		  writeValue(out, v);
+		});
+	  }
+	  default -> throw new UnsupportedOperationException("Values of " + value.getClass() + " can't be encoded binary");
+	}
+  }
+
+  private static Object readValue(BinaryInput in) throws IOException
+  {
+	int valueType = in.readByte();
+	switch (valueType)
+	{
+	  case VALUE_NULL:
+		return null;
+	  case VALUE_FALSE:
+		return false;
+	  case VALUE_TRUE:
+		return true;
+	  case VALUE_LONG:
+		return in.readSignedVarLong();
+	  case VALUE_DOUBLE:
+		return in.readDouble();
+	  case VALUE_STRING:
+		return in.readString();
+	  case VALUE_LIST:
+	  {
+		int size = in.readLength();
+		List<Object> list = new ArrayList<>(size);
+		for ( int i = 0; i < size; i++ )
+		{
+		  list.add(readValue(in));
+		}
+		return list;
+	  }
+	  case VALUE_MAP:
+	  {
+		int size = in.readLength();
+		Map<String, Object> map = new LinkedHashMap<>();
+		for ( int i = 0; i < size; i++ )
+		{
+		  String key = in.readString();
+		  map.put(key, readValue(in));
+		}
+		return map;
+	  }
+	  default:
+		throw new IOException("Unknown value type " + valueType);
+	}
+  }
+}
@@ -83,6 +83,11 @@ public abstract class GenericMapSerializer<T> implements Serializer<T>
     out.writeObjectEnd();
   }
 
+  protected Serializer<?> getFieldSerializer(String key)
+  {
+    return _fieldSerializers.get(key);
+  }
+
   protected abstract T createFromMap(Map<String, Object> map);
 
   protected abstract Map<String, Object> objectToMap(T obj);
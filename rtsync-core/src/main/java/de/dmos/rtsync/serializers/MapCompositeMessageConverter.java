@@ -1,32 +1,66 @@
 package de.dmos.rtsync.serializers;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.converter.CompositeMessageConverter;
 import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
 
 /**
  * A {@link MessageConverter} that works similarly to a {@link CompositeMessageConverter} but chooses the appropriate
  * MessageConverter by looking up the class in a map instead of trying all succession.
  *
+ * Messages with the content type {@link BinaryMessageCodec#MIME_TYPE} are always decoded by the
+ * {@link BinaryMessageCodec}. Outgoing messages are encoded as JSON unless the converter was created by
+ * {@link #withBinaryEncoding()} for a connection whose peer accepts binary messages. JSON messages whose payload could
+ * be encoded binary carry a {@link BinaryAlternative} in the header {@link BinaryAlternative#HEADER}, so the server can
+ * send them binary to the sessions which accept that, see {@link BinaryMessageCodec#ACCEPT_HEADER}.
+ *
  * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
  * @version $Rev$
  */
 
 public class MapCompositeMessageConverter implements MessageConverter
 {
+  private static final Logger					LOG = LoggerFactory.getLogger(MapCompositeMessageConverter.class);
+
   private final Map<Class<?>, MessageConverter> _converterMap;
+  private final boolean							_binaryEncoding;
 
   public MapCompositeMessageConverter(Map<Class<?>, MessageConverter> converterMap)
+  {
+	this(converterMap, false);
+  }
+
+  private MapCompositeMessageConverter(Map<Class<?>, MessageConverter> converterMap, boolean binaryEncoding)
   {
 	_converterMap = converterMap;
+	_binaryEncoding = binaryEncoding;
   }
 
   @Override
   public Object fromMessage(Message<?> message, Class<?> targetClass)
   {
+	if ( message.getPayload() instanceof byte[] bytes && isBinary(message.getHeaders()) )
+	{
+	  try
+	  {
+		return BinaryMessageCodec.decode(bytes, targetClass);
+	  }
+	  catch (IOException | RuntimeException e)
+	  {
+		LOG.error("Could not decode binary message to " + targetClass, e);
+		return null;
+	  }
+	}
 	MessageConverter targetConverter = _converterMap.get(targetClass);
 	return targetConverter != null ? targetConverter.fromMessage(message, targetClass) : null;
   }
@@ -34,12 +68,89 @@ public class MapCompositeMessageConverter implements MessageConverter
   @Override
   public Message<?> toMessage(Object payload, MessageHeaders headers)
   {
+	boolean binarySupported = BinaryMessageCodec.supports(payload.getClass());
+	MessageHeaders jsonHeaders = headers;
+	if ( binarySupported && _binaryEncoding )
+	{
+	  try
+	  {
+		return createBinaryMessage(BinaryMessageCodec.encode(payload), headers);
+	  }
+	  catch (UnsupportedOperationException uoe)
+	  {
+		LOG.debug("Falling back to JSON: {}", uoe.getMessage());
+		jsonHeaders = withJsonContentType(headers);
+	  }
+	}
+	else if ( binarySupported )
+	{
+	  jsonHeaders = withHeader(headers, BinaryAlternative.HEADER, new BinaryAlternative(payload));
+	}
 	MessageConverter targetConverter = _converterMap.get(payload.getClass());
-	return targetConverter != null ? targetConverter.toMessage(payload, headers) : null;
+	return targetConverter != null ? targetConverter.toMessage(payload, jsonHeaders) : null;
   }
 
   public void registerMessageConverter(Class<?> clazz, MessageConverter converter)
   {
 	_converterMap.put(clazz, converter);
   }
+
+  /**
+   * Returns a converter with the same converters which encodes outgoing messages by the {@link BinaryMessageCodec} if
+   * possible. It is meant for a single connection whose peer accepts binary messages, while this converter may be
+   * shared by any number of connections.
+   */
+  public MapCompositeMessageConverter withBinaryEncoding()
+  {
+	return _binaryEncoding ? this : new MapCompositeMessageConverter(_converterMap, true);
+  }
+
+  public boolean isBinaryEncoding()
+  {
+	return _binaryEncoding;
+  }
+
+  private static boolean isBinary(MessageHeaders headers)
+  {
+	return headers != null && BinaryMessageCodec.isMimeType(headers.get(MessageHeaders.CONTENT_TYPE));
+  }
+
+  /**
+   * Overrides a binary content type which the sender may have requested, so the message isn't decoded binary.
+   */
+  private static MessageHeaders withJsonContentType(MessageHeaders headers)
+  {
+	return isBinary(headers) ? withHeader(headers, MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON) : headers;
+  }
+
+  private static MessageHeaders withHeader(MessageHeaders headers, String name, Object value)
+  {
+	MessageHeaderAccessor accessor =
+		headers != null ? MessageHeaderAccessor.getAccessor(headers, MessageHeaderAccessor.class) : null;
+	if ( accessor != null && accessor.isMutable() )
+	{
+	  accessor.setHeader(name, value);
+	  return accessor.getMessageHeaders();
+	}
+	Map<String, Object> copy = headers != null ? new HashMap<>(headers) : new HashMap<>();
+	copy.put(name, value);
+	return new MessageHeaders(copy);
+  }
+
+  private static Message<byte[]> createBinaryMessage(byte[] bytes, MessageHeaders headers)
+  {
+	MessageHeaderAccessor accessor =
+		headers != null ? MessageHeaderAccessor.getAccessor(headers, MessageHeaderAccessor.class) : null;
+	if ( accessor != null && accessor.isMutable() )
+	{
+	  accessor.setContentType(BinaryMessageCodec.MIME_TYPE);
+	  return MessageBuilder.createMessage(bytes, accessor.getMessageHeaders());
+	}
+	MessageBuilder<byte[]> builder = MessageBuilder.withPayload(bytes);
+	if ( headers != null )
+	{
+	  builder.copyHeaders(headers);
+	}
+	return builder.setHeader(MessageHeaders.CONTENT_TYPE, BinaryMessageCodec.MIME_TYPE).build();
+  }
 }
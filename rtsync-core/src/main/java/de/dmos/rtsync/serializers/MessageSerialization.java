@@ -1,7 +1,6 @@
 package de.dmos.rtsync.serializers;
 
 import java.awt.Color;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
@@ -16,10 +15,11 @@ import org.springframework.messaging.converter.StringMessageConverter;
 import org.springframework.messaging.support.MessageBuilder;
 
 import de.dmos.rtsync.message.CursorPosition;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.Subscriber;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.message.UserCursors;
-import de.dmos.rtsync.streaming.CustomJsonInput;
+import de.dmos.rtsync.streaming.ByteArrayJsonInput;
 import se.l4.exobytes.Serializer;
 import se.l4.exobytes.array.ArraySerializer;
 import se.l4.exobytes.internal.streaming.JsonOutput;
@@ -53,6 +53,8 @@ public abstract class MessageSerialization
 	  new SimpleTaggedOperationSerializer(MessageSerialization.COMBINED_TYPE.getSerializer());
   public static final TaggedUserOperationSerializer	  TAGGED_USER_OPERATION_SERIALIZER =
 	  new TaggedUserOperationSerializer(MessageSerialization.COMBINED_TYPE.getSerializer());
+  public static final ArraySerializer				  TAGGED_USER_OPERATION_ARRAY_SERIALIZER =
+	  new ArraySerializer(TaggedUserOperation.class, TAGGED_USER_OPERATION_SERIALIZER);
   public static final CursorPositionSerializer		  CURSOR_POSITION_SERIALIZER	   =
 	  new CursorPositionSerializer();
   public static final ArraySerializer				  CURSOR_POSITON_ARRAY_SERIALIZER  =
@@ -62,6 +64,8 @@ public abstract class MessageSerialization
   public static final ArraySerializer				  USER_CURSORS_LIST_SERIALIZER	   =
 	  new ArraySerializer(UserCursors.class, MessageSerialization.USER_CURSORS_SERIALIZER);
   public static final RTStateSerializer				  RT_STATE_SERIALIZER			   = new RTStateSerializer();
+  public static final OperationAckSerializer		  OPERATION_ACK_SERIALIZER		   =
+	  new OperationAckSerializer();
 
   @SuppressWarnings("unchecked")
   public static <T> byte[] toByteArray(Serializer<? extends T> serializer, T object) throws IOException
@@ -76,7 +80,7 @@ public abstract class MessageSerialization
 
   public static <T> T read(Serializer<T> serializer, /*Class<?> targetClass,*/ byte[] data) throws IOException
   {
-	try (StreamingInput in = new CustomJsonInput(new ByteArrayInputStream(data)))
+	try (StreamingInput in = new ByteArrayJsonInput(data))
 	{
 	  return in.readObject(serializer);
 	}
@@ -142,6 +146,32 @@ public abstract class MessageSerialization
 	return tryRead(TAGGED_USER_OPERATION_SERIALIZER, data);
   }
 
+  /**
+   * Serializes the given operation for storage. The compact {@link BinaryMessageCodec} is used if it supports all parts
+   * of the operation and JSON otherwise.
+   */
+  public static byte[] toStorageByteArray(TaggedUserOperation userOp) throws IOException
+  {
+	try
+	{
+	  return BinaryMessageCodec.encode(userOp);
+	}
+	catch (UnsupportedOperationException e)
+	{
+	  return toByteArray(userOp);
+	}
+  }
+
+  /**
+   * Reads an operation which was serialized by {@link #toStorageByteArray(TaggedUserOperation)}.
+   */
+  public static TaggedUserOperation readStoredTaggedUserOperation(byte[] data) throws IOException
+  {
+	return BinaryMessageCodec.isEncoded(data)
+		? BinaryMessageCodec.decode(data, TaggedUserOperation.class)
+			: readTaggedUserOperation(data);
+  }
+
   public static <T> MessageConverter createSimpleMessageConverter(Serializer<T> serializer, Class<?> clazz)
   {
 	return new MessageConverter() {
@@ -194,6 +224,12 @@ public abstract class MessageSerialization
 		.createSimpleMessageConverter(MessageSerialization.USER_CURSORS_LIST_SERIALIZER, UserCursors[].class);
 	MessageConverter cursorPositionConverter = MessageSerialization
 		.createSimpleMessageConverter(MessageSerialization.CURSOR_POSITION_SERIALIZER, CursorPosition.class);
+	MessageConverter userOpArrayConverter = MessageSerialization
+		.createSimpleMessageConverter(
+		  MessageSerialization.TAGGED_USER_OPERATION_ARRAY_SERIALIZER,
+		  TaggedUserOperation[].class);
+	MessageConverter operationAckConverter = MessageSerialization
+		.createSimpleMessageConverter(MessageSerialization.OPERATION_ACK_SERIALIZER, OperationAck.class);
 
 	converterMap
 	.putAll(
@@ -209,12 +245,15 @@ public abstract class MessageSerialization
 		userOpConverter,
 		TaggedUserOperation.class,
 		userOpConverter,
+		TaggedUserOperation[].class,
+		userOpArrayConverter,
 		UserCursors.class,
 		cursorsMessageConverter,
 		UserCursors[].class,
 		cursorsListMessageConverter,
 		CursorPosition.class,
 		cursorPositionConverter));
+	converterMap.put(OperationAck.class, operationAckConverter);
   }
 
   protected MapCompositeMessageConverter createCombinedMessageConverter()
@@ -0,0 +1,38 @@
+package de.dmos.rtsync.serializers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.dmos.rtsync.message.OperationAck;
+
+public class OperationAckSerializer extends GenericMapSerializer<OperationAck>
+{
+  private static final String FIELD_TOKEN	   = "token";
+  private static final String FIELD_HISTORY_ID = "historyId";
+
+  protected OperationAckSerializer()
+  {
+	super(
+	  Map
+	  .of(
+		FIELD_TOKEN,
+		MessageSerialization.STRING_SERIALIZER,
+		FIELD_HISTORY_ID,
+		MessageSerialization.LONG_SERIALIZER));
+  }
+
+  @Override
+  protected OperationAck createFromMap(Map<String, Object> map)
+  {
+	return new OperationAck((String) map.get(FIELD_TOKEN), (long) map.get(FIELD_HISTORY_ID));
+  }
+
+  @Override
+  protected Map<String, Object> objectToMap(OperationAck obj)
+  {
+	Map<String, Object> map = new HashMap<>();
+	map.put(FIELD_TOKEN, obj.token());
+	map.put(FIELD_HISTORY_ID, obj.historyId());
+	return map;
+  }
+}
@@ -12,6 +12,8 @@ public class RTStateSerializer extends GenericMapSerializer<RTState>
 {
   private static final String FIELD_SUBSCRIBER_CURSORS	= "subscribers";
   private static final String FIELD_OPERATION      = "operation";
+  private static final String FIELD_MISSED_OPERATIONS  = "missedOperations";
+  private static final String FIELD_HISTORY_EPOCH  = "historyEpoch";
 
   public RTStateSerializer()
   {
@@ -21,16 +23,23 @@ public class RTStateSerializer extends GenericMapSerializer<RTState>
 		FIELD_SUBSCRIBER_CURSORS,
 		MessageSerialization.USER_CURSORS_LIST_SERIALIZER,
 		FIELD_OPERATION,
-		MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER));
+		MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER,
+		FIELD_MISSED_OPERATIONS,
+		MessageSerialization.TAGGED_USER_OPERATION_ARRAY_SERIALIZER,
+		FIELD_HISTORY_EPOCH,
+		MessageSerialization.STRING_SERIALIZER));
   }
 
   @Override
   protected RTState createFromMap(Map<String, Object> map)
   {
 	UserCursors[] cursors = (UserCursors[]) map.get(FIELD_SUBSCRIBER_CURSORS);
+	TaggedUserOperation[] missedOperations = (TaggedUserOperation[]) map.get(FIELD_MISSED_OPERATIONS);
 	return new RTState(
 	  cursors != null ? Arrays.asList(cursors) : null,
-		  (TaggedUserOperation) map.get(FIELD_OPERATION));
+		  (TaggedUserOperation) map.get(FIELD_OPERATION),
+		  missedOperations != null ? Arrays.asList(missedOperations) : null,
+			  (String) map.get(FIELD_HISTORY_EPOCH));
   }
 
   @Override
@@ -42,6 +51,14 @@ public class RTStateSerializer extends GenericMapSerializer<RTState>
 	{
 	  map.put(FIELD_SUBSCRIBER_CURSORS, obj.userCursors().toArray(UserCursors[]::new));
 	}
+	if ( obj.missedOperations() != null )
+	{
+	  map.put(FIELD_MISSED_OPERATIONS, obj.missedOperations().toArray(TaggedUserOperation[]::new));
+	}
+	if ( obj.historyEpoch() != null )
+	{
+	  map.put(FIELD_HISTORY_EPOCH, obj.historyEpoch());
+	}
 	return map;
   }
 }
@@ -20,6 +20,12 @@ extends AbstractTaggedOperationSerializer<TaggedOperation<Operation<CombinedHand
     super(fieldSerializers);
   }
 
+  @Override
+  protected TaggedOperation<Operation<CombinedHandler>> createFromFields(TaggedOperationFields fields)
+  {
+    return createBaseTaggedOperation(fields);
+  }
+
   @Override
   protected TaggedOperation<Operation<CombinedHandler>> createFromMap(Map<String, Object> map)
   {
@@ -1,10 +1,12 @@
 package de.dmos.rtsync.serializers;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import de.dmos.rtsync.message.TaggedUserOperation;
 import se.l4.exobytes.Serializer;
+import se.l4.exobytes.streaming.StreamingInput;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
@@ -38,6 +40,28 @@ public class TaggedUserOperationSerializer extends AbstractTaggedOperationSerial
 	return serializers;
   }
 
+  @Override
+  protected boolean readField(String key, StreamingInput in, TaggedOperationFields fields) throws IOException
+  {
+	switch (key)
+	{
+	  case FIELD_USER:
+		fields.user = MessageSerialization.STRING_SERIALIZER.read(in);
+		return true;
+	  case FIELD_MERGED_IDS:
+		fields.mergedIds = (String[]) MessageSerialization.STRING_ARRAY_SERIALIZER.read(in);
+		return true;
+	  default:
+		return super.readField(key, in, fields);
+	}
+  }
+
+  @Override
+  protected TaggedUserOperation createFromFields(TaggedOperationFields fields)
+  {
+	return new TaggedUserOperation(createBaseTaggedOperation(fields), fields.user, fields.mergedIds);
+  }
+
   @Override
   protected TaggedUserOperation createFromMap(Map<String, Object> map)
   {
@@ -0,0 +1,172 @@
+package de.dmos.rtsync.streaming;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the values written by a {@link BinaryOutput} from a byte array.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class BinaryInput
+{
+  private final byte[]		 _data;
+  private final int			 _limit;
+  private final List<String> _stringTable = new ArrayList<>();
+  private int				 _position;
+
+  public BinaryInput(byte[] data)
+  {
+	this(data, 0, data.length);
+  }
+
+  public BinaryInput(byte[] data, int offset, int length)
+  {
+	_data = data;
+	_position = offset;
+	_limit = offset + length;
+  }
+
+  public int readByte() throws IOException
+  {
+	if ( _position >= _limit )
+	{
+	  throw new EOFException("Unexpected end of binary data at " + _position);
+	}
+	return _data[_position++] & 0xFF;
+  }
+
+  public boolean readBoolean() throws IOException
+  {
+	return readByte() != 0;
+  }
+
+  public long readVarLong() throws IOException
+  {
+	long value = 0;
+	for ( int shift = 0; shift < 64; shift += 7 )
+	{
+	  int b = readByte();
+	  value |= (long) (b & 0x7F) << shift;
+	  if ( (b & 0x80) == 0 )
+	  {
+		return value;
+	  }
+	}
+	throw new IOException("Malformed variable length quantity at " + _position);
+  }
+
+  /**
+   * Reads an int written by {@link BinaryOutput#writeVarInt(int)}.
+   */
+  public int readVarInt() throws IOException
+  {
+	long value = readVarLong();
+	if ( (value >>> 32) != 0 )
+	{
+	  throw new IOException("Variable length int " + value + " exceeds 32 bits at " + _position);
+	}
+	return (int) value;
+  }
+
+  /**
+   * Reads a non-negative int, e.g. the length of a retain.
+   */
+  public int readCount() throws IOException
+  {
+	int count = readVarInt();
+	if ( count < 0 )
+	{
+	  throw new IOException("Negative count " + count + " at " + _position);
+	}
+	return count;
+  }
+
+  /**
+   * Reads the number of the following elements, which take at least one byte each, so lengths which exceed the
+   * remaining data are rejected before anything is allocated for them.
+   */
+  public int readLength() throws IOException
+  {
+	int length = readCount();
+	if ( length > _limit - _position )
+	{
+	  throw new IOException("Length " + length + " exceeds the binary data at " + _position);
+	}
+	return length;
+  }
+
+  /**
+   * Reads a length which was written increased by one, so 0 stands for null and is returned as -1.
+   */
+  public int readNullableLength() throws IOException
+  {
+	int length = readCount() - 1;
+	if ( length > _limit - _position )
+	{
+	  throw new IOException("Length " + length + " exceeds the binary data at " + _position);
+	}
+	return length;
+  }
+
+  public long readSignedVarLong() throws IOException
+  {
+	long value = readVarLong();
+	return (value >>> 1) ^ -(value & 1);
+  }
+
+  public double readDouble() throws IOException
+  {
+	long bits = 0;
+	for ( int i = 0; i < 8; i++ )
+	{
+	  bits |= (long) readByte() << (i * 8);
+	}
+	return Double.longBitsToDouble(bits);
+  }
+
+  public String readString() throws IOException
+  {
+	int reference = readVarInt();
+	if ( reference == BinaryOutput.STRING_NULL )
+	{
+	  return null;
+	}
+	if ( reference == BinaryOutput.STRING_NEW )
+	{
+	  String value = readText();
+	  if ( value.length() <= BinaryOutput.MAX_TABLE_STRING_LENGTH )
+	  {
+		_stringTable.add(value);
+	  }
+	  return value;
+	}
+	int index = reference - BinaryOutput.STRING_REFERENCE_OFFSET;
+	if ( index < 0 || index >= _stringTable.size() )
+	{
+	  throw new IOException("Unknown string reference " + index);
+	}
+	return _stringTable.get(index);
+  }
+
+  public String readText() throws IOException
+  {
+	int length = readCount();
+	if ( length > _limit - _position )
+	{
+	  throw new EOFException("Text of length " + length + " exceeds the binary data at " + _position);
+	}
+	String value = new String(_data, _position, length, StandardCharsets.UTF_8);
+	_position += length;
+	return value;
+  }
+
+  public boolean hasRemaining()
+  {
+	return _position < _limit;
+  }
+}
@@ -0,0 +1,143 @@
+package de.dmos.rtsync.streaming;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes primitive values into a growing byte array. Integers are written as variable length quantities and short
+ * strings are written only once per output. Every further occurrence of such a string is written as reference into
+ * the string table which {@link BinaryInput} builds up while reading.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class BinaryOutput
+{
+  /**
+   * Strings up to this length are put into the string table.
+   */
+  public static final int			 MAX_TABLE_STRING_LENGTH = 64;
+
+  static final int					 STRING_NULL			 = 0;
+  static final int					 STRING_NEW				 = 1;
+  static final int					 STRING_REFERENCE_OFFSET = 2;
+
+  private final Map<String, Integer> _stringTable			 = new HashMap<>();
+  private byte[]					 _buffer;
+  private int						 _position;
+
+  public BinaryOutput()
+  {
+	this(256);
+  }
+
+  public BinaryOutput(int initialCapacity)
+  {
+	_buffer = new byte[initialCapacity];
+  }
+
+  public void writeByte(int value)
+  {
+	ensureCapacity(1);
+	_buffer[_position++] = (byte) value;
+  }
+
+  public void writeBoolean(boolean value)
+  {
+	writeByte(value ? 1 : 0);
+  }
+
+  /**
+   * Writes the given value as unsigned variable length quantity with 7 bits per byte.
+   */
+  public void writeVarLong(long value)
+  {
+	ensureCapacity(10);
+	while ((value & ~0x7FL) != 0)
+	{
+	  _buffer[_position++] = (byte) ((value & 0x7F) | 0x80);
+	  value >>>= 7;
+	}
+	_buffer[_position++] = (byte) value;
+  }
+
+  public void writeVarInt(int value)
+  {
+	writeVarLong(value & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Writes the given value zigzag encoded, so small negative values are written as short as small positive ones.
+   */
+  public void writeSignedVarLong(long value)
+  {
+	writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  public void writeDouble(double value)
+  {
+	long bits = Double.doubleToRawLongBits(value);
+	ensureCapacity(8);
+	for ( int i = 0; i < 8; i++ )
+	{
+	  _buffer[_position++] = (byte) (bits >>> (i * 8));
+	}
+  }
+
+  /**
+   * Writes the given string or a reference to it if it was already written. Null is allowed.
+   */
+  public void writeString(String value)
+  {
+	if ( value == null )
+	{
+	  writeVarInt(STRING_NULL);
+	  return;
+	}
+	Integer index = _stringTable.get(value);
+	if ( index != null )
+	{
+	  writeVarInt(index + STRING_REFERENCE_OFFSET);
+	  return;
+	}
+	writeVarInt(STRING_NEW);
+	writeText(value);
+	if ( value.length() <= MAX_TABLE_STRING_LENGTH )
+	{
+	  _stringTable.put(value, _stringTable.size());
+	}
+  }
+
+  /**
+   * Writes the given string without using the string table. This is meant for text content which is unlikely to be
+   * repeated.
+   */
+  public void writeText(String value)
+  {
+	byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+	writeVarInt(bytes.length);
+	ensureCapacity(bytes.length);
+	System.arraycopy(bytes, 0, _buffer, _position, bytes.length);
+	_position += bytes.length;
+  }
+
+  public int size()
+  {
+	return _position;
+  }
+
+  public byte[] toByteArray()
+  {
+	return Arrays.copyOf(_buffer, _position);
+  }
+
+  private void ensureCapacity(int additionalBytes)
+  {
+	if ( _position + additionalBytes > _buffer.length )
+	{
+	  _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _position + additionalBytes));
+	}
+  }
+}
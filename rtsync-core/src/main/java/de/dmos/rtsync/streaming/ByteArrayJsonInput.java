@@ -0,0 +1,608 @@
+package de.dmos.rtsync.streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.OptionalInt;
+
+import se.l4.exobytes.streaming.AbstractStreamingInput;
+import se.l4.exobytes.streaming.Token;
+import se.l4.exobytes.streaming.ValueConversion;
+
+/**
+ * A {@link CustomJsonInput} which reads directly from a UTF-8 encoded byte array instead of decoding it through a
+ * {@link java.io.Reader} into a char buffer. All structural characters of JSON are ASCII, so tokens, numbers and
+ * literals are parsed from the bytes without creating intermediate Strings. Strings are only decoded when they are
+ * returned and short ASCII strings like field names and operation types are shared via a small global cache.
+ *
+ * Like {@link CustomJsonInput}, dynamic values with a fraction or exponent are returned as doubles.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class ByteArrayJsonInput extends AbstractStreamingInput
+{
+  private static final int		MAX_CACHED_STRING_LENGTH = 32;
+  private static final int		STRING_CACHE_SIZE		 = 1024;
+  /**
+   * Maximum number of digits which are parsed without risking an overflow of a long.
+   */
+  private static final int		MAX_SIMPLE_DIGITS		 = 18;
+  private static final byte[]		NULL_LITERAL			 = {'n', 'u', 'l', 'l'};
+  private static final byte[]		TRUE_LITERAL			 = {'t', 'r', 'u', 'e'};
+  private static final byte[]		FALSE_LITERAL			 = {'f', 'a', 'l', 's', 'e'};
+
+  /**
+   * Racy, but safe since Strings are immutable. A lost update only means that a String is created once more.
+   */
+  private static final String[]	STRING_CACHE			 = new String[STRING_CACHE_SIZE];
+
+  private final byte[]			_data;
+  private final int				_limit;
+  private int						_position;
+
+  public ByteArrayJsonInput(byte[] data)
+  {
+	this(data, 0, data.length);
+  }
+
+  public ByteArrayJsonInput(byte[] data, int offset, int length)
+  {
+	_data = data;
+	_position = offset;
+	_limit = offset + length;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+	// Nothing to close.
+  }
+
+  @Override
+  protected IOException raiseException(String message)
+  {
+	return new IOException(message);
+  }
+
+  @Override
+  protected Token peek0() throws IOException
+  {
+	int b = peekByte();
+	return b < 0 ? Token.END_OF_STREAM : toToken(b);
+  }
+
+  @Override
+  public Token next0() throws IOException
+  {
+	Token token = peek();
+	switch (token)
+	{
+	  case OBJECT_END:
+	  case LIST_END:
+		_position++;
+		// Also skips a trailing comma.
+		skipWhitespace();
+		return token;
+	  case OBJECT_START:
+	  case LIST_START:
+		_position++;
+		return token;
+	  case NULL:
+		int start = skipNonString();
+		if ( !matches(start, _position, NULL_LITERAL) )
+		{
+		  throw raiseException("Expected null, but encountered malformed null-value: " + ascii(start, _position));
+		}
+		markValueRead();
+		return token;
+	  default:
+		return token;
+	}
+  }
+
+  @Override
+  public OptionalInt getLength()
+  {
+	return OptionalInt.empty();
+  }
+
+  @Override
+  protected void skipValue() throws IOException
+  {
+	if ( peekByte() == '"' )
+	{
+	  skipString();
+	  if ( peekByte() == ':' )
+	  {
+		_position++;
+	  }
+	}
+	else
+	{
+	  skipNonString();
+	}
+	markValueRead();
+  }
+
+  @Override
+  protected Object readDynamic0() throws IOException
+  {
+	if ( current() == Token.NULL )
+	{
+	  return null;
+	}
+	if ( peekByte() == '"' )
+	{
+	  return readString();
+	}
+
+	int start = skipNonString();
+	int end = _position;
+	markValueRead();
+	if ( matches(start, end, NULL_LITERAL) )
+	{
+	  return null;
+	}
+	if ( matches(start, end, FALSE_LITERAL) )
+	{
+	  return false;
+	}
+	if ( matches(start, end, TRUE_LITERAL) )
+	{
+	  return true;
+	}
+	if ( isSimpleInteger(start, end) )
+	{
+	  return parseSimpleInteger(start, end);
+	}
+	String v = ascii(start, end);
+	try
+	{
+	  return Long.parseLong(v);
+	}
+	catch (NumberFormatException e)
+	{
+	  try
+	  {
+		return Double.parseDouble(v);
+	  }
+	  catch (NumberFormatException e2)
+	  {
+		throw raiseException("Unable to read dynamic value, was: " + v);
+	  }
+	}
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException
+  {
+	int start = skipNonString();
+	int end = _position;
+	if ( matches(start, end, TRUE_LITERAL) )
+	{
+	  markValueRead();
+	  return true;
+	}
+	if ( matches(start, end, FALSE_LITERAL) )
+	{
+	  markValueRead();
+	  return false;
+	}
+	throw raiseException("Expected boolean but found " + ascii(start, end));
+  }
+
+  @Override
+  public byte readByte() throws IOException
+  {
+	return ValueConversion.toByte(readInt());
+  }
+
+  @Override
+  public char readChar() throws IOException
+  {
+	if ( peekByte() == '"' )
+	{
+	  String s = readString();
+	  if ( s.length() != 1 )
+	  {
+		throw raiseException("Expected single character but string value was not a single character");
+	  }
+	  return s.charAt(0);
+	}
+	return ValueConversion.toChar(readInt());
+  }
+
+  @Override
+  public short readShort() throws IOException
+  {
+	return ValueConversion.toShort(readInt());
+  }
+
+  @Override
+  public int readInt() throws IOException
+  {
+	return ValueConversion.toInt(readLong());
+  }
+
+  @Override
+  public long readLong() throws IOException
+  {
+	int start = skipNonString();
+	int end = _position;
+	markValueRead();
+	if ( isSimpleInteger(start, end) )
+	{
+	  return parseSimpleInteger(start, end);
+	}
+	String v = ascii(start, end);
+	try
+	{
+	  return Long.parseLong(v);
+	}
+	catch (NumberFormatException e)
+	{
+	  try
+	  {
+		return (long) Double.parseDouble(v);
+	  }
+	  catch (NumberFormatException e2)
+	  {
+		throw raiseException("Unable to read number: " + v);
+	  }
+	}
+  }
+
+  @Override
+  public float readFloat() throws IOException
+  {
+	return (float) readDouble();
+  }
+
+  @Override
+  public double readDouble() throws IOException
+  {
+	int start = skipNonString();
+	int end = _position;
+	markValueRead();
+	if ( isSimpleInteger(start, end) )
+	{
+	  return parseSimpleInteger(start, end);
+	}
+	String v = ascii(start, end);
+	try
+	{
+	  return Double.parseDouble(v);
+	}
+	catch (NumberFormatException e)
+	{
+	  throw raiseException("Unable to read number: " + v);
+	}
+  }
+
+  @Override
+  public String readString() throws IOException
+  {
+	String s = readStringContent();
+	if ( peekByte() == ':' )
+	{
+	  _position++;
+	}
+	markValueRead();
+	return s;
+  }
+
+  @Override
+  public byte[] readByteArray() throws IOException
+  {
+	return Base64.getDecoder().decode(readString());
+  }
+
+  @Override
+  public InputStream readByteStream() throws IOException
+  {
+	return new ByteArrayInputStream(readByteArray());
+  }
+
+  @Override
+  protected void markValueRead() throws IOException
+  {
+	super.markValueRead();
+	// Skipping the whitespace also skips trailing commas.
+	skipWhitespace();
+  }
+
+  /**
+   * Reads the string starting at the current position without the quotes.
+   */
+  private String readStringContent() throws IOException
+  {
+	if ( peekByte() != '"' )
+	{
+	  throw raiseException("Expected \", but got " + describe(peekByte()));
+	}
+	int start = _position + 1;
+	boolean ascii = true;
+	for ( int i = start; i < _limit; i++ )
+	{
+	  byte b = _data[i];
+	  if ( b == '"' )
+	  {
+		_position = i + 1;
+		return ascii ? asciiString(start, i) : new String(_data, start, i - start, StandardCharsets.UTF_8);
+	  }
+	  if ( b == '\\' )
+	  {
+		return readEscapedString(start, i);
+	  }
+	  if ( b < 0 )
+	  {
+		ascii = false;
+	  }
+	}
+	throw new EOFException();
+  }
+
+  /**
+   * Reads a string containing escape sequences. This is rare for our messages, so this path doesn't try to avoid
+   * allocations.
+   *
+   * @param start The index of the first byte of the string.
+   * @param escape The index of the first backslash within the string.
+   */
+  private String readEscapedString(int start, int escape) throws IOException
+  {
+	StringBuilder result = new StringBuilder(escape - start + 16);
+	result.append(new String(_data, start, escape - start, StandardCharsets.UTF_8));
+	int i = escape;
+	while (true)
+	{
+	  if ( i >= _limit )
+	  {
+		throw new EOFException();
+	  }
+	  byte b = _data[i];
+	  if ( b == '"' )
+	  {
+		_position = i + 1;
+		return result.toString();
+	  }
+	  if ( b == '\\' )
+	  {
+		i = readEscaped(i + 1, result);
+		continue;
+	  }
+	  int runStart = i;
+	  while (i < _limit && _data[i] != '"' && _data[i] != '\\')
+	  {
+		i++;
+	  }
+	  result.append(new String(_data, runStart, i - runStart, StandardCharsets.UTF_8));
+	}
+  }
+
+  /**
+   * Appends the character escaped at the given index and returns the index after the escape sequence.
+   */
+  private int readEscaped(int index, StringBuilder result) throws IOException
+  {
+	if ( index >= _limit )
+	{
+	  throw new EOFException();
+	}
+	byte c = _data[index];
+	switch (c)
+	{
+	  case 'r' -> result.append('\r');
+	  case 'n' -> result.append('\n');
+	  case 't' -> result.append('\t');
+	  case 'b' -> result.append('\b');
+	  case 'f' -> result.append('\f');
+	  case 'u' ->
+	  {
+		if ( index + 4 >= _limit )
+		{
+		  throw new EOFException();
+		}
+		int value = 0;
+		for ( int i = 1; i <= 4; i++ )
+		{
+		  int digit = Character.digit(_data[index + i], 16);
+		  if ( digit < 0 )
+		  {
+			throw raiseException("Invalid unicode escape sequence: " + ascii(index - 1, index + 5));
+		  }
+		  value = (value << 4) | digit;
+		}
+		result.append((char) value);
+		return index + 5;
+	  }
+	  // Covers \', \", \\ and \/
+	  default -> result.append((char) c);
+	}
+	return index + 1;
+  }
+
+  private void skipString() throws IOException
+  {
+	for ( int i = _position + 1; i < _limit; i++ )
+	{
+	  byte b = _data[i];
+	  if ( b == '\\' )
+	  {
+		i++;
+	  }
+	  else if ( b == '"' )
+	  {
+		_position = i + 1;
+		return;
+	  }
+	}
+	throw new EOFException();
+  }
+
+  /**
+   * Skips a value which is not a string and returns its start index. The current position is its end afterwards.
+   */
+  private int skipNonString()
+  {
+	skipWhitespace();
+	int start = _position;
+	while (_position < _limit && !isDelimiter(_data[_position]))
+	{
+	  _position++;
+	}
+	return start;
+  }
+
+  /**
+   * Skips whitespace and commas.
+   */
+  private void skipWhitespace()
+  {
+	while (_position < _limit)
+	{
+	  byte b = _data[_position];
+	  if ( b != ',' && !isWhitespace(b) )
+	  {
+		return;
+	  }
+	  _position++;
+	}
+  }
+
+  /**
+   * Returns the next byte after skipping whitespace or -1 if the end is reached.
+   */
+  private int peekByte()
+  {
+	skipWhitespace();
+	return _position < _limit ? _data[_position] & 0xFF : -1;
+  }
+
+  private static boolean isWhitespace(byte b)
+  {
+	return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  private static boolean isDelimiter(byte b)
+  {
+	return b == '}' || b == ']' || b == ',' || b == ':' || isWhitespace(b);
+  }
+
+  private boolean matches(int start, int end, byte[] literal)
+  {
+	return end - start == literal.length && Arrays.equals(_data, start, end, literal, 0, literal.length);
+  }
+
+  private boolean isSimpleInteger(int start, int end)
+  {
+	int digitStart = start < end && (_data[start] == '-' || _data[start] == '+') ? start + 1 : start;
+	int digits = end - digitStart;
+	if ( digits < 1 || digits > MAX_SIMPLE_DIGITS )
+	{
+	  return false;
+	}
+	for ( int i = digitStart; i < end; i++ )
+	{
+	  if ( _data[i] < '0' || _data[i] > '9' )
+	  {
+		return false;
+	  }
+	}
+	return true;
+  }
+
+  private long parseSimpleInteger(int start, int end)
+  {
+	boolean negative = _data[start] == '-';
+	int i = negative || _data[start] == '+' ? start + 1 : start;
+	long value = 0;
+	for ( ; i < end; i++ )
+	{
+	  value = value * 10 + (_data[i] - '0');
+	}
+	return negative ? -value : value;
+  }
+
+  private String ascii(int start, int end)
+  {
+	return new String(_data, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the ASCII string between the given indices, using the cache for short strings.
+   */
+  private String asciiString(int start, int end)
+  {
+	int length = end - start;
+	if ( length > MAX_CACHED_STRING_LENGTH )
+	{
+	  return ascii(start, end);
+	}
+	int hash = 0;
+	for ( int i = start; i < end; i++ )
+	{
+	  hash = 31 * hash + _data[i];
+	}
+	int slot = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+	String cached = STRING_CACHE[slot];
+	if ( cached != null && cached.length() == length && cached.hashCode() == hash && equalsAscii(cached, start) )
+	{
+	  return cached;
+	}
+	String s = ascii(start, end);
+	STRING_CACHE[slot] = s;
+	return s;
+  }
+
+  private boolean equalsAscii(String s, int start)
+  {
+	for ( int i = 0; i < s.length(); i++ )
+	{
+	  if ( s.charAt(i) != _data[start + i] )
+	  {
+		return false;
+	  }
+	}
+	return true;
+  }
+
+  private Token toToken(int b) throws IOException
+  {
+	switch (b)
+	{
+	  case '{':
+		return Token.OBJECT_START;
+	  case '}':
+		return Token.OBJECT_END;
+	  case '[':
+		return Token.LIST_START;
+	  case ']':
+		return Token.LIST_END;
+	  case 'n':
+		return Token.NULL;
+	  case '"':
+	  case 'f':
+	  case 't':
+	  case '+':
+	  case '-':
+		return Token.VALUE;
+	  default:
+		if ( b >= '0' && b <= '9' )
+		{
+		  return Token.VALUE;
+		}
+	}
+	throw raiseException("Unexpected JSON input, next character is: " + describe(b));
+  }
+
+  private static String describe(int b)
+  {
+	return b < 0 ? "end of input" : String.valueOf((char) b);
+  }
+}
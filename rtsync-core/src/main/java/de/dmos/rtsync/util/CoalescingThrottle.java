@@ -0,0 +1,108 @@
+package de.dmos.rtsync.util;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Forwards values per key to a consumer at most once per minimum interval. Values which are offered while a key waits
+ * for its next slot replace each other, so only the latest one is forwarded (last write wins). The first value after a
+ * quiet period is forwarded immediately on the offering thread, delayed ones on the common
+ * {@link java.util.concurrent.ForkJoinPool}.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class CoalescingThrottle<K, V>
+{
+  private final Map<K, Slot<V>>	_slots = new ConcurrentHashMap<>();
+  private final BiConsumer<K, V>	_consumer;
+  private volatile long			_minIntervalNanos;
+
+  public CoalescingThrottle(Duration minInterval, BiConsumer<K, V> consumer)
+  {
+	_consumer = consumer;
+	setMinInterval(minInterval);
+  }
+
+  public Duration getMinInterval()
+  {
+	return Duration.ofNanos(_minIntervalNanos);
+  }
+
+  /**
+   * Sets the minimum interval between two forwarded values of the same key. {@link Duration#ZERO} forwards every value
+   * immediately.
+   */
+  public void setMinInterval(Duration minInterval)
+  {
+	_minIntervalNanos = Math.max(0, minInterval.toNanos());
+  }
+
+  public void offer(K key, V value)
+  {
+	Slot<V> slot = _slots.computeIfAbsent(key, k -> new Slot<>());
+	long delayNanos;
+	synchronized (slot)
+	{
+	  slot._latest = value;
+	  if ( slot._scheduled )
+	  {
+		return;
+	  }
+	  slot._scheduled = true;
+	  delayNanos = slot._forwarded ? slot._lastForwardedNanos + _minIntervalNanos - System.nanoTime() : 0;
+	}
+	if ( delayNanos <= 0 )
+	{
+	  forward(key, slot);
+	}
+	else
+	{
+	  CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> forward(key, slot));
+	}
+  }
+
+  /**
+   * Drops the pending values and the interval state of all keys which match the given predicate.
+   */
+  public void removeIf(Predicate<K> predicate)
+  {
+	_slots.keySet().removeIf(predicate);
+  }
+
+  public void clear()
+  {
+	_slots.clear();
+  }
+
+  private void forward(K key, Slot<V> slot)
+  {
+	V value;
+	synchronized (slot)
+	{
+	  if ( !slot._scheduled || _slots.get(key) != slot )
+	  {
+		return;
+	  }
+	  value = slot._latest;
+	  slot._latest = null;
+	  slot._scheduled = false;
+	  slot._lastForwardedNanos = System.nanoTime();
+	  slot._forwarded = true;
+	}
+	_consumer.accept(key, value);
+  }
+
+  private static class Slot<V>
+  {
+	private V		_latest;
+	private boolean	_scheduled;
+	private boolean	_forwarded;
+	private long	_lastForwardedNanos;
+  }
+}
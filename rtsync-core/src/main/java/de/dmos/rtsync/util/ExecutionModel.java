@@ -0,0 +1,83 @@
+package de.dmos.rtsync.util;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Determines which kind of threads run the synchronization loops of servers and clients. Platform threads are the
+ * default. Virtual threads are cheap enough to let one JVM host thousands of clients, e.g. for load tests, since they
+ * only occupy a carrier thread while they aren't blocked.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public enum ExecutionModel
+{
+  /**
+   * Every loop runs on its own daemon platform thread.
+   */
+  PLATFORM,
+  /**
+   * Every loop runs on its own virtual thread.
+   */
+  VIRTUAL;
+
+  /**
+   * The property which sets the execution model, either as a Spring property of the servers or as a system property of
+   * the clients. Its value is the name of one of the constants.
+   */
+  public static final String PROPERTY = "rtsync.threads";
+
+  /**
+   * Returns the execution model which is set by the system property {@link #PROPERTY} or {@link #PLATFORM} if it isn't
+   * set.
+   */
+  public static ExecutionModel fromSystemProperty()
+  {
+	String value = System.getProperty(PROPERTY);
+	return value != null && !value.isBlank() ? valueOf(value.trim().toUpperCase(Locale.ROOT)) : PLATFORM;
+  }
+
+  /**
+   * Returns an unstarted thread with the given name which runs the given task.
+   */
+  public Thread newThread(String name, Runnable task)
+  {
+	return switch (this)
+	{
+	  case PLATFORM -> Thread.ofPlatform().name(name).daemon(true).unstarted(task);
+	  case VIRTUAL -> Thread.ofVirtual().name(name).unstarted(task);
+	};
+  }
+
+  /**
+   * Returns a factory of threads whose names consist of the given prefix and a counter.
+   */
+  public ThreadFactory newThreadFactory(String namePrefix)
+  {
+	return switch (this)
+	{
+	  case PLATFORM -> Thread.ofPlatform().name(namePrefix, 0).daemon(true).factory();
+	  case VIRTUAL -> Thread.ofVirtual().name(namePrefix, 0).factory();
+	};
+  }
+
+  /**
+   * Returns an executor which runs the submitted tasks one after another in the order in which they were submitted.
+   */
+  public ExecutorService newSerialExecutor(String namePrefix)
+  {
+	return Executors.newSingleThreadExecutor(newThreadFactory(namePrefix));
+  }
+
+  /**
+   * Returns a single threaded executor for delayed and periodic tasks like heartbeats.
+   */
+  public ScheduledExecutorService newScheduledExecutor(String namePrefix)
+  {
+	return Executors.newSingleThreadScheduledExecutor(newThreadFactory(namePrefix));
+  }
+}
@@ -0,0 +1,405 @@
+package de.dmos.rtsync.util;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A list whose elements are the nodes of a treap which is ordered by their indices and balanced by random priorities,
+ * so getting, inserting and removing elements at an index costs O(log n) in the expected case instead of moving all
+ * following elements like an {@link java.util.ArrayList} does. Iterating over all elements costs O(n).
+ * <p>
+ * Optionally, the list maintains an index from its values to their nodes, so {@link #contains(Object)} costs O(1) and
+ * {@link #indexOf(Object)} costs O(log n) per occurrence of the value instead of comparing all elements. The values
+ * need to keep their hash codes while they are in such a list.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class IndexedTreeList<E> extends AbstractList<E>
+{
+  private final Map<Object, Set<Node<E>>> _valueIndex;
+  private Node<E>						  _root;
+
+  public IndexedTreeList()
+  {
+	this(false);
+  }
+
+  /**
+   * @param indexValues Whether the list should maintain an index from its values to their positions.
+   */
+  public IndexedTreeList(boolean indexValues)
+  {
+	_valueIndex = indexValues ? new HashMap<>() : null;
+  }
+
+  public IndexedTreeList(Collection<? extends E> values, boolean indexValues)
+  {
+	this(indexValues);
+	addAll(values);
+  }
+
+  public boolean isIndexingValues()
+  {
+	return _valueIndex != null;
+  }
+
+  @Override
+  public int size()
+  {
+	return size(_root);
+  }
+
+  @Override
+  public E get(int index)
+  {
+	checkIndex(index, size() - 1);
+	return nodeAt(index)._value;
+  }
+
+  @Override
+  public E set(int index, E value)
+  {
+	checkIndex(index, size() - 1);
+	Node<E> node = nodeAt(index);
+	E oldValue = node._value;
+	removeFromValueIndex(node);
+	node._value = value;
+	addToValueIndex(node);
+	return oldValue;
+  }
+
+  @Override
+  public void add(int index, E value)
+  {
+	checkIndex(index, size());
+	Node<E> node = new Node<>(value);
+	Node<E>[] parts = split(_root, index);
+	setRoot(merge(merge(parts[0], node), parts[1]));
+	addToValueIndex(node);
+	modCount++;
+  }
+
+  @Override
+  public E remove(int index)
+  {
+	checkIndex(index, size() - 1);
+	Node<E>[] head = split(_root, index);
+	Node<E>[] tail = split(head[1], 1);
+	setRoot(merge(head[0], tail[1]));
+	Node<E> removed = tail[0];
+	removed._parent = null;
+	removeFromValueIndex(removed);
+	modCount++;
+	return removed._value;
+  }
+
+  @Override
+  public void clear()
+  {
+	_root = null;
+	if ( _valueIndex != null )
+	{
+	  _valueIndex.clear();
+	}
+	modCount++;
+  }
+
+  @Override
+  public boolean contains(Object value)
+  {
+	return _valueIndex != null ? _valueIndex.containsKey(value) : indexOf(value) >= 0;
+  }
+
+  @Override
+  public int indexOf(Object value)
+  {
+	if ( _valueIndex == null )
+	{
+	  int index = 0;
+	  for ( E element : this )
+	  {
+		if ( Objects.equals(value, element) )
+		{
+		  return index;
+		}
+		index++;
+	  }
+	  return -1;
+	}
+	Set<Node<E>> nodes = _valueIndex.get(value);
+	return nodes != null ? nodes.stream().mapToInt(IndexedTreeList::indexOf).min().getAsInt() : -1;
+  }
+
+  @Override
+  public int lastIndexOf(Object value)
+  {
+	if ( _valueIndex == null )
+	{
+	  return super.lastIndexOf(value);
+	}
+	Set<Node<E>> nodes = _valueIndex.get(value);
+	return nodes != null ? nodes.stream().mapToInt(IndexedTreeList::indexOf).max().getAsInt() : -1;
+  }
+
+  @Override
+  public Iterator<E> iterator()
+  {
+	return new NodeIterator();
+  }
+
+  private void setRoot(Node<E> root)
+  {
+	_root = root;
+	if ( root != null )
+	{
+	  root._parent = null;
+	}
+  }
+
+  private Node<E> nodeAt(int index)
+  {
+	Node<E> node = _root;
+	int position = index;
+	while (true)
+	{
+	  int leftSize = size(node._left);
+	  if ( position < leftSize )
+	  {
+		node = node._left;
+	  }
+	  else if ( position == leftSize )
+	  {
+		return node;
+	  }
+	  else
+	  {
+		position -= leftSize + 1;
+		node = node._right;
+	  }
+	}
+  }
+
+  private void addToValueIndex(Node<E> node)
+  {
+	if ( _valueIndex != null )
+	{
+	  _valueIndex.computeIfAbsent(node._value, v -> new HashSet<>()).add(node);
+	}
+  }
+
+  private void removeFromValueIndex(Node<E> node)
+  {
+	if ( _valueIndex == null )
+	{
+	  return;
+	}
+	Set<Node<E>> nodes = _valueIndex.get(node._value);
+	if ( nodes != null && nodes.remove(node) && nodes.isEmpty() )
+	{
+	  _valueIndex.remove(node._value);
+	}
+  }
+
+  /**
+   * Returns the index of the given node by walking up to the root.
+   */
+  private static int indexOf(Node<?> node)
+  {
+	int index = size(node._left);
+	for ( Node<?> child = node, parent = node._parent; parent != null; child = parent, parent = parent._parent )
+	{
+	  if ( child == parent._right )
+	  {
+		index += size(parent._left) + 1;
+	  }
+	}
+	return index;
+  }
+
+  /**
+   * Splits the given treap into the one with the first index elements and the one with the rest.
+   */
+  @SuppressWarnings("unchecked")
+  private static <E> Node<E>[] split(Node<E> node, int index)
+  {
+	if ( node == null )
+	{
+	  return new Node[2];
+	}
+	int leftSize = size(node._left);
+	if ( index <= leftSize )
+	{
+	  Node<E>[] parts = split(node._left, index);
+	  node._left = parts[1];
+	  node.update();
+	  parts[1] = node;
+	  return parts;
+	}
+	Node<E>[] parts = split(node._right, index - leftSize - 1);
+	node._right = parts[0];
+	node.update();
+	parts[0] = node;
+	return parts;
+  }
+
+  /**
+   * Merges the given treaps, whose elements follow each other.
+   */
+  private static <E> Node<E> merge(Node<E> left, Node<E> right)
+  {
+	if ( left == null )
+	{
+	  return right;
+	}
+	if ( right == null )
+	{
+	  return left;
+	}
+	if ( left._priority > right._priority )
+	{
+	  left._right = merge(left._right, right);
+	  left.update();
+	  return left;
+	}
+	right._left = merge(left, right._left);
+	right.update();
+	return right;
+  }
+
+  private static int size(Node<?> node)
+  {
+	return node != null ? node._size : 0;
+  }
+
+  private static void checkIndex(int index, int maxIndex)
+  {
+	if ( index < 0 || index > maxIndex )
+	{
+	  throw new IndexOutOfBoundsException("Index " + index + " is out of bounds [0, " + maxIndex + "]");
+	}
+  }
+
+  /**
+   * Iterates over the nodes in order by following their parents, so every node is visited at most three times.
+   */
+  private class NodeIterator implements Iterator<E>
+  {
+	private Node<E> _next;
+	private Node<E> _lastReturned;
+	private int		_expectedModCount = modCount;
+
+	NodeIterator()
+	{
+	  _next = _root != null ? leftmost(_root) : null;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+	  return _next != null;
+	}
+
+	@Override
+	public E next()
+	{
+	  checkForComodification();
+	  if ( _next == null )
+	  {
+		throw new NoSuchElementException();
+	  }
+	  _lastReturned = _next;
+	  _next = successor(_next);
+	  return _lastReturned._value;
+	}
+
+	@Override
+	public void remove()
+	{
+	  if ( _lastReturned == null )
+	  {
+		throw new IllegalStateException();
+	  }
+	  checkForComodification();
+	  IndexedTreeList.this.remove(indexOf(_lastReturned));
+	  _lastReturned = null;
+	  _expectedModCount = modCount;
+	}
+
+	private void checkForComodification()
+	{
+	  if ( modCount != _expectedModCount )
+	  {
+		throw new ConcurrentModificationException();
+	  }
+	}
+
+	private static <E> Node<E> leftmost(Node<E> node)
+	{
+	  while (node._left != null)
+	  {
+		node = node._left;
+	  }
+	  return node;
+	}
+
+	private static <E> Node<E> successor(Node<E> node)
+	{
+	  if ( node._right != null )
+	  {
+		return leftmost(node._right);
+	  }
+	  Node<E> child = node;
+	  Node<E> parent = node._parent;
+	  while (parent != null && child == parent._right)
+	  {
+		child = parent;
+		parent = parent._parent;
+	  }
+	  return parent;
+	}
+  }
+
+  private static class Node<E>
+  {
+	private final int _priority = ThreadLocalRandom.current().nextInt();
+	private E		  _value;
+	private Node<E>	  _parent;
+	private Node<E>	  _left;
+	private Node<E>	  _right;
+	/**
+	 * The number of elements in this node's subtree.
+	 */
+	private int		  _size	  = 1;
+
+	Node(E value)
+	{
+	  _value = value;
+	}
+
+	/**
+	 * Updates the size of this node and makes it the parent of its children.
+	 */
+	void update()
+	{
+	  _size = size(_left) + 1 + size(_right);
+	  if ( _left != null )
+	  {
+		_left._parent = this;
+	  }
+	  if ( _right != null )
+	  {
+		_right._parent = this;
+	  }
+	}
+  }
+}
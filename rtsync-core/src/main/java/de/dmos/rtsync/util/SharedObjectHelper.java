@@ -9,9 +9,11 @@ import java.util.Set;
 
 import org.eclipse.collections.impl.factory.Sets;
 
+import de.dmos.rtsync.customotter.AbstractCustomSharedObject;
 import de.dmos.rtsync.customotter.CustomModel;
 import de.dmos.rtsync.customotter.CustomSharedList;
 import de.dmos.rtsync.customotter.CustomSharedMap;
+import de.dmos.rtsync.customotter.SharedObjectContainer;
 import se.l4.otter.model.SharedList;
 import se.l4.otter.model.SharedMap;
 import se.l4.otter.model.SharedObject;
@@ -264,6 +266,10 @@ public class SharedObjectHelper
 
   public static Object getObjectAtPath(Object obj, String pathPart)
   {
+	if ( obj instanceof CustomSharedMap customSharedMap )
+	{
+	  return customSharedMap.get(pathPart);
+	}
 	if ( isMapLike(obj) )
 	{
 	  Map<String, ?> map = toMap(obj);
@@ -280,9 +286,32 @@ public class SharedObjectHelper
 	  {
 		return null;
 	  }
-	  List<?> list = toList(obj);
-	  return list == null || list.size() <= listIndex ? null : list.get(listIndex);
+	  List<?> list = obj instanceof CustomSharedList<?> customList ? customList.asList() : toList(obj);
+	  return list == null || listIndex < 0 || list.size() <= listIndex ? null : list.get(listIndex);
 	}
 	return null;
   }
+
+  /**
+   * Returns the path parts of the given object in the given model by following its containers up to the root, or null
+   * if it isn't contained in the model.
+   */
+  public static String[] getPathOf(CustomModel model, AbstractCustomSharedObject<?> obj)
+  {
+	List<String> pathParts = new ArrayList<>();
+	AbstractCustomSharedObject<?> current = obj;
+	while (current != model.getRoot())
+	{
+	  SharedObjectContainer<?> container = current.getContainer();
+	  String pathPart = container != null ? container.getPathPartOf(current) : null;
+	  if ( pathPart == null )
+	  {
+		return null;
+	  }
+	  pathParts.add(pathPart);
+	  current = container;
+	}
+	Collections.reverse(pathParts);
+	return pathParts.toArray(String[]::new);
+  }
 }
@@ -0,0 +1,399 @@
+package de.dmos.rtsync.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A mutable text which is stored in chunks of at most {@link #MAX_CHUNK_LENGTH} characters. The chunks are the nodes
+ * of a treap which is ordered by the position of the chunks in the text and balanced by random priorities, so
+ * inserting and deleting costs O(log n) in the expected case instead of moving the whole text like a
+ * {@link StringBuilder} does. {@link #toString()} is cached until the text changes.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class TextRope implements CharSequence
+{
+  /**
+   * The maximum length of a chunk. Insertions into a chunk which stays shorter than this only change that chunk.
+   */
+  public static final int MAX_CHUNK_LENGTH = 1024;
+
+  private Node			  _root;
+  private String		  _cachedString;
+
+  public TextRope()
+  {
+  }
+
+  public TextRope(CharSequence text)
+  {
+	append(text);
+  }
+
+  @Override
+  public int length()
+  {
+	return length(_root);
+  }
+
+  @Override
+  public char charAt(int index)
+  {
+	checkIndex(index, length() - 1);
+	Node node = _root;
+	int position = index;
+	while (true)
+	{
+	  int leftLength = length(node._left);
+	  if ( position < leftLength )
+	  {
+		node = node._left;
+		continue;
+	  }
+	  position -= leftLength;
+	  if ( position < node._chunk.length() )
+	  {
+		return node._chunk.charAt(position);
+	  }
+	  position -= node._chunk.length();
+	  node = node._right;
+	}
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end)
+  {
+	checkRange(start, end);
+	StringBuilder builder = new StringBuilder(end - start);
+	appendRange(_root, start, end, builder);
+	return builder.toString();
+  }
+
+  public void append(CharSequence text)
+  {
+	insert(length(), text);
+  }
+
+  public void insert(int index, CharSequence text)
+  {
+	checkIndex(index, length());
+	if ( text.isEmpty() )
+	{
+	  return;
+	}
+	_cachedString = null;
+	if ( insertIntoChunk(index, text) )
+	{
+	  return;
+	}
+	Node[] parts = split(_root, index);
+	_root = merge(merge(parts[0], createNodes(text)), parts[1]);
+  }
+
+  /**
+   * Deletes the characters from the start index (inclusive) to the end index (exclusive).
+   */
+  public void delete(int start, int end)
+  {
+	checkRange(start, end);
+	if ( start == end )
+	{
+	  return;
+	}
+	_cachedString = null;
+	if ( deleteFromChunk(start, end) )
+	{
+	  return;
+	}
+	Node[] head = split(_root, start);
+	Node[] tail = split(head[1], end - start);
+	_root = merge(head[0], tail[1]);
+  }
+
+  /**
+   * Returns whether the given text occurs at the given index without copying any part of this.
+   */
+  public boolean regionMatches(int index, CharSequence text)
+  {
+	if ( index < 0 || index + text.length() > length() )
+	{
+	  return false;
+	}
+	return matches(_root, index, index + text.length(), text, 0);
+  }
+
+  @Override
+  public String toString()
+  {
+	if ( _cachedString == null )
+	{
+	  StringBuilder builder = new StringBuilder(length());
+	  appendRange(_root, 0, length(), builder);
+	  _cachedString = builder.toString();
+	}
+	return _cachedString;
+  }
+
+  /**
+   * Inserts the given text into the chunk which contains the index or ends at it, if the chunk doesn't get too long.
+   */
+  private boolean insertIntoChunk(int index, CharSequence text)
+  {
+	Node node = findChunk(index, true);
+	if ( node == null || node._chunk.length() + text.length() > MAX_CHUNK_LENGTH )
+	{
+	  return false;
+	}
+	int offset = updateLengthsOnPath(index, text.length(), true);
+	node._chunk.insert(offset, text);
+	return true;
+  }
+
+  /**
+   * Deletes the given range from the chunk which contains it, if it contains the whole range and doesn't become empty.
+   */
+  private boolean deleteFromChunk(int start, int end)
+  {
+	Node node = findChunk(start, false);
+	int offset = offsetInChunk(start, false);
+	int chunkLength = node._chunk.length();
+	if ( offset + end - start > chunkLength || end - start == chunkLength )
+	{
+	  return false;
+	}
+	updateLengthsOnPath(start, start - end, false);
+	node._chunk.delete(offset, offset + end - start);
+	return true;
+  }
+
+  private Node findChunk(int index, boolean includeEnd)
+  {
+	Node node = _root;
+	int position = index;
+	while (node != null)
+	{
+	  int leftLength = length(node._left);
+	  int chunkLength = node._chunk.length();
+	  if ( position < leftLength || position == leftLength && leftLength > 0 && includeEnd )
+	  {
+		node = node._left;
+	  }
+	  else if ( position < leftLength + chunkLength || position == leftLength + chunkLength && includeEnd )
+	  {
+		return node;
+	  }
+	  else
+	  {
+		position -= leftLength + chunkLength;
+		node = node._right;
+	  }
+	}
+	return null;
+  }
+
+  private int offsetInChunk(int index, boolean includeEnd)
+  {
+	return updateLengthsOnPath(index, 0, includeEnd);
+  }
+
+  /**
+   * Adds the given difference to the lengths of the nodes on the path to the chunk which {@link #findChunk} finds and
+   * returns the offset of the index within that chunk.
+   */
+  private int updateLengthsOnPath(int index, int difference, boolean includeEnd)
+  {
+	Node node = _root;
+	int position = index;
+	while (node != null)
+	{
+	  node._length += difference;
+	  int leftLength = length(node._left);
+	  int chunkLength = node._chunk.length();
+	  if ( position < leftLength || position == leftLength && leftLength > 0 && includeEnd )
+	  {
+		node = node._left;
+	  }
+	  else if ( position < leftLength + chunkLength || position == leftLength + chunkLength && includeEnd )
+	  {
+		return position - leftLength;
+	  }
+	  else
+	  {
+		position -= leftLength + chunkLength;
+		node = node._right;
+	  }
+	}
+	return -1;
+  }
+
+  private static Node createNodes(CharSequence text)
+  {
+	Node nodes = null;
+	for ( int start = 0; start < text.length(); start += MAX_CHUNK_LENGTH )
+	{
+	  int end = Math.min(text.length(), start + MAX_CHUNK_LENGTH);
+	  nodes = merge(nodes, new Node(new StringBuilder(MAX_CHUNK_LENGTH).append(text, start, end)));
+	}
+	return nodes;
+  }
+
+  /**
+   * Splits the given treap into the one with the first index characters and the one with the rest. A chunk which
+   * contains the index is split into two.
+   */
+  private static Node[] split(Node node, int index)
+  {
+	if ( node == null )
+	{
+	  return new Node[2];
+	}
+	int leftLength = length(node._left);
+	int chunkEnd = leftLength + node._chunk.length();
+	if ( index <= leftLength )
+	{
+	  Node[] parts = split(node._left, index);
+	  node._left = parts[1];
+	  node.update();
+	  parts[1] = node;
+	  return parts;
+	}
+	if ( index >= chunkEnd )
+	{
+	  Node[] parts = split(node._right, index - chunkEnd);
+	  node._right = parts[0];
+	  node.update();
+	  parts[0] = node;
+	  return parts;
+	}
+	int offset = index - leftLength;
+	Node suffix = new Node(new StringBuilder(MAX_CHUNK_LENGTH).append(node._chunk, offset, node._chunk.length()));
+	node._chunk.setLength(offset);
+	Node right = node._right;
+	node._right = null;
+	node.update();
+	return new Node[] {node, merge(suffix, right)};
+  }
+
+  /**
+   * Merges the given treaps, whose texts follow each other.
+   */
+  private static Node merge(Node left, Node right)
+  {
+	if ( left == null )
+	{
+	  return right;
+	}
+	if ( right == null )
+	{
+	  return left;
+	}
+	if ( left._priority > right._priority )
+	{
+	  left._right = merge(left._right, right);
+	  left.update();
+	  return left;
+	}
+	right._left = merge(left, right._left);
+	right.update();
+	return right;
+  }
+
+  /**
+   * Checks whether the characters of the given treap from the start to the end index equal the characters of the
+   * given text from its start index on.
+   */
+  private static boolean matches(Node node, int start, int end, CharSequence text, int textStart)
+  {
+	if ( node == null || start >= end )
+	{
+	  return true;
+	}
+	int leftLength = length(node._left);
+	int chunkEnd = leftLength + node._chunk.length();
+	if ( start < leftLength && !matches(node._left, start, Math.min(end, leftLength), text, textStart) )
+	{
+	  return false;
+	}
+	for ( int i = Math.max(start, leftLength); i < Math.min(end, chunkEnd); i++ )
+	{
+	  if ( node._chunk.charAt(i - leftLength) != text.charAt(textStart + i - start) )
+	  {
+		return false;
+	  }
+	}
+	if ( end > chunkEnd )
+	{
+	  int rightStart = Math.max(start, chunkEnd);
+	  return matches(node._right, rightStart - chunkEnd, end - chunkEnd, text, textStart + rightStart - start);
+	}
+	return true;
+  }
+
+  private static void appendRange(Node node, int start, int end, StringBuilder builder)
+  {
+	if ( node == null || start >= end )
+	{
+	  return;
+	}
+	int leftLength = length(node._left);
+	int chunkEnd = leftLength + node._chunk.length();
+	if ( start < leftLength )
+	{
+	  appendRange(node._left, start, Math.min(end, leftLength), builder);
+	}
+	int chunkStart = Math.max(start, leftLength);
+	if ( chunkStart < Math.min(end, chunkEnd) )
+	{
+	  builder.append(node._chunk, chunkStart - leftLength, Math.min(end, chunkEnd) - leftLength);
+	}
+	if ( end > chunkEnd )
+	{
+	  appendRange(node._right, Math.max(start, chunkEnd) - chunkEnd, end - chunkEnd, builder);
+	}
+  }
+
+  private static int length(Node node)
+  {
+	return node != null ? node._length : 0;
+  }
+
+  private static void checkIndex(int index, int maxIndex)
+  {
+	if ( index < 0 || index > maxIndex )
+	{
+	  throw new IndexOutOfBoundsException("Index " + index + " is out of bounds [0, " + maxIndex + "]");
+	}
+  }
+
+  private void checkRange(int start, int end)
+  {
+	if ( start < 0 || end < start || end > length() )
+	{
+	  throw new IndexOutOfBoundsException(
+		"Range [" + start + ", " + end + ") is out of bounds for length " + length());
+	}
+  }
+
+  private static class Node
+  {
+	private final StringBuilder _chunk;
+	private final int			_priority = ThreadLocalRandom.current().nextInt();
+	private Node				_left;
+	private Node				_right;
+	/**
+	 * The length of the text of this node's subtree.
+	 */
+	private int					_length;
+
+	Node(StringBuilder chunk)
+	{
+	  _chunk = chunk;
+	  _length = chunk.length();
+	}
+
+	void update()
+	{
+	  _length = length(_left) + _chunk.length() + length(_right);
+	}
+  }
+}
@@ -0,0 +1,101 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.dmos.rtsync.message.OperationAck;
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.engine.TaggedOperation;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+/**
+ * Checks that a client which lost its connection with operations in flight resumes from the operations it missed,
+ * confirms the ones which the server had stored already and resends the others rebased on the missed ones.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+class AbstractOperationSyncTest
+{
+  private static final String TEXT_ID = "text";
+
+  @Test
+  void testResumingConfirmsStoredAndResendsRebasedOperations() throws Exception
+  {
+	CustomEditorControl<Operation<CombinedHandler>> server =
+		new CustomEditorControl<>(RTSyncTestHelper.createCustomHistory());
+	server.setMaxPipelinedSessions(CustomEditorControl.DEFAULT_MAX_PIPELINED_SESSIONS);
+	RecordingSync client = new RecordingSync();
+	CustomEditor<Operation<CombinedHandler>> editor = new CustomEditor<>(client);
+	editor.setMaxInFlightOperations(2);
+	CustomSharedString text =
+		(CustomSharedString) new CustomModelBuilder(editor).build().getObject(TEXT_ID, "string");
+	long base = client.getLatestVersion();
+
+	text.append("a");
+	text.append("b");
+	assertEquals(2, client._sent.size());
+
+	// The server only received the first operation before the connection was lost and stored another client's one.
+	server.store(client._sent.get(0), "lost", false);
+	server
+	.store(
+	  new TaggedUserOperation(base, "foreign", RTSyncTestHelper.getStringAppendOperation(TEXT_ID, 0, "x"), null),
+	  "other",
+	  false);
+
+	long resumeFrom = client.startResuming();
+	assertTrue(client.isResuming());
+	client.onMissedOperationsReceived(server.getUserOperationsAfter(resumeFrom));
+
+	assertFalse(client.isResuming());
+	assertEquals(3, client._sent.size());
+	TaggedUserOperation resent = client._sent.get(2);
+	assertEquals(client._sent.get(1).getToken(), resent.getToken());
+	assertEquals(server.getLatestVersion(), resent.getHistoryId());
+	assertEquals(1, editor.getInFlightOperationCount());
+
+	TaggedUserOperation stored = server.store(resent, "resumed", false);
+	client.onOperationAcknowledged(new OperationAck(stored.getToken(), stored.getHistoryId()));
+
+	assertEquals(0, editor.getInFlightOperationCount());
+	assertEquals(3, text.get().length());
+	assertTrue(text.get().indexOf('a') < text.get().indexOf('b'));
+	assertArrayEquals(toBytes(server.getLatestUserOperation()), toBytes(client.getLatestUserOperation()));
+  }
+
+  private static byte[] toBytes(TaggedUserOperation userOp)
+  {
+	return MessageSerialization
+		.tryToGetByteArray(new TaggedUserOperation(userOp.getHistoryId(), "", userOp.getOperation(), null));
+  }
+
+  /**
+   * A client's sync which only records the operations it sends.
+   */
+  private static class RecordingSync extends AbstractOperationSync
+  {
+	private final List<TaggedUserOperation> _sent = new ArrayList<>();
+
+	RecordingSync()
+	{
+	  super(new CustomEditorControl<>(RTSyncTestHelper.createCustomHistory()));
+	}
+
+	@Override
+	public void send(TaggedOperation<Operation<CombinedHandler>> op)
+	{
+	  _sent.add(TaggedUserOperation.toTaggedUserOperation(op));
+	}
+  }
+}
@@ -0,0 +1,109 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.engine.CloseableIterator;
+import se.l4.otter.operations.Composer;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+class ComposedRangeCacheTest
+{
+  private static final int		OPERATION_COUNT	= 300;
+  private static final String	STRING_ID		= "s1";
+
+  @Test
+  void testCachedCompositionEqualsDirectComposition()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = createHistory(OPERATION_COUNT);
+	ComposedRangeCache<Operation<CombinedHandler>> cache = new ComposedRangeCache<>(history.getType());
+	long end = history.getLatest() + 1;
+	for ( long start = 2; start < end; start += 7 )
+	{
+	  assertArrayEquals(toBytes(composeDirectly(history, start, end)), toBytes(cache.compose(history, start, end)));
+	}
+	assertTrue(cache.getCachedBlockCount() > 0);
+  }
+
+  @Test
+  void testInvalidatedBlocksAreComposedAgain()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = createHistory(OPERATION_COUNT);
+	ComposedRangeCache<Operation<CombinedHandler>> cache = new ComposedRangeCache<>(history.getType());
+	cache.compose(history, 2, history.getLatest() + 1);
+	long highestCachedId = cache.getHighestCachedId();
+
+	cache.invalidateFrom(highestCachedId - 20);
+	assertEquals(highestCachedId - 21, cache.getHighestCachedId());
+	assertArrayEquals(
+		toBytes(composeDirectly(history, 2, history.getLatest() + 1)),
+		toBytes(cache.compose(history, 2, history.getLatest() + 1)));
+  }
+
+  @Test
+  void testCachedBytesStayWithinTheLimit()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = createHistory(OPERATION_COUNT);
+	long maxCachedBytes = 2000;
+	ComposedRangeCache<Operation<CombinedHandler>> cache = new ComposedRangeCache<>(
+		history.getType(),
+		ComposedRangeCache.DEFAULT_MAX_CACHED_BLOCKS,
+		maxCachedBytes);
+	long end = history.getLatest() + 1;
+	for ( long start = 2; start < end; start += 7 )
+	{
+	  assertArrayEquals(toBytes(composeDirectly(history, start, end)), toBytes(cache.compose(history, start, end)));
+	  assertTrue(cache.getCachedBytes() <= maxCachedBytes);
+	}
+	assertTrue(cache.getCachedBlockCount() > 0);
+  }
+
+  private static CustomHistory<Operation<CombinedHandler>> createHistory(int operationCount)
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	int length = 0;
+	for ( int i = 0; i < operationCount; i++ )
+	{
+	  String appended = Integer.toString(i);
+	  control
+		  .store(
+			new TaggedUserOperation(
+			  control.getLatestVersion(),
+			  "token-" + i,
+			  RTSyncTestHelper.getStringAppendOperation(STRING_ID, length, appended),
+			  null),
+			false);
+	  length += appended.length();
+	}
+	return history;
+  }
+
+  private static Operation<CombinedHandler> composeDirectly(
+	CustomHistory<Operation<CombinedHandler>> history,
+	long start,
+	long end)
+  {
+	Composer<Operation<CombinedHandler>> composer = history.getType().newComposer();
+	try (CloseableIterator<Operation<CombinedHandler>> it = history.between(start, end))
+	{
+	  while (it.hasNext())
+	  {
+		composer.add(it.next());
+	  }
+	}
+	return composer.done();
+  }
+
+  private static byte[] toBytes(Operation<CombinedHandler> op)
+  {
+	return MessageSerialization.tryToGetByteArray(new TaggedUserOperation(0, "", op, null));
+  }
+}
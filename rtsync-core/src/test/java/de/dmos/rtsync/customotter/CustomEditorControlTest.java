@@ -0,0 +1,164 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+class CustomEditorControlTest
+{
+  private static final String STRING_ID = "s1";
+
+  @Test
+  void testLatestUserOperationIsComposedIncrementally()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	storeInserts(control, 0, 3);
+	TaggedUserOperation first = control.getLatestUserOperation();
+	TaggedUserOperation cached = control.getLatestUserOperation();
+	assertEquals(first.getHistoryId(), cached.getHistoryId());
+	assertNotEquals(first.getToken(), cached.getToken());
+	assertArrayEquals(toBytes(first), toBytes(cached));
+
+	storeInserts(control, 3, 3);
+	TaggedUserOperation updated = control.getLatestUserOperation();
+	TaggedUserOperation fromScratch = new CustomEditorControl<>(history).getLatestUserOperation();
+	assertEquals(history.getLatest(), updated.getHistoryId());
+	assertArrayEquals(toBytes(fromScratch), toBytes(updated));
+  }
+
+  @Test
+  void testSetBaseOperationInvalidatesComposedState()
+  {
+	CustomEditorControl<Operation<CombinedHandler>> control =
+		new CustomEditorControl<>(RTSyncTestHelper.createCustomHistory());
+	storeInserts(control, 0, 3);
+	control.getLatestUserOperation();
+
+	TaggedUserOperation base = new TaggedUserOperation(
+	  control.getLatestVersion(),
+	  "base",
+	  RTSyncTestHelper.getStringInsertOperation(STRING_ID, "base"),
+	  null);
+	control.setBaseOperation(base);
+	assertArrayEquals(toBytes(base), toBytes(control.getLatestUserOperation()));
+  }
+
+  @Test
+  void testUserOperationsAfterAreOnlyReturnedWhileRetained()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	storeInserts(control, 0, 4);
+	long latest = control.getLatestVersion();
+	assertEquals(
+	  List.of("token-2", "token-3"),
+	  control.getUserOperationsAfter(latest - 2).stream().map(TaggedUserOperation::getToken).toList());
+	assertEquals(List.of(), control.getUserOperationsAfter(latest));
+	assertNull(control.getUserOperationsAfter(latest + 1));
+
+	history.setOldestNeededVersionSupplier(() -> latest - 1);
+	history.compact();
+	assertNull(control.getUserOperationsAfter(latest - 2));
+	assertEquals(1, control.getUserOperationsAfter(latest - 1).size());
+
+	control
+		.store(
+		  new TaggedUserOperation(latest, "base", RTSyncTestHelper.getStringInsertOperation(STRING_ID, "base"), null),
+		  true);
+	assertNull(control.getUserOperationsAfter(latest));
+  }
+
+  @Test
+  void testOperationsOnUnchangedObjectsAreStoredAsTheyAre()
+  {
+	CustomEditorControl<Operation<CombinedHandler>> control =
+		new CustomEditorControl<>(RTSyncTestHelper.createCustomHistory());
+	long base = control.getLatestVersion();
+	control.store(new TaggedUserOperation(base, "a", RTSyncTestHelper.getStringInsertOperation("a", "x"), null), false);
+
+	Operation<CombinedHandler> other = RTSyncTestHelper.getStringInsertOperation("b", "y");
+	assertFalse(control.changesObjectsChangedSince(base, other));
+	assertTrue(control.changesObjectsChangedSince(base, RTSyncTestHelper.getStringInsertOperation("a", "z")));
+	assertSame(other, control.store(new TaggedUserOperation(base, "b", other, null), false).getOperation());
+
+	TaggedUserOperation whole = new TaggedUserOperation(
+	  control.getLatestVersion(),
+	  "whole",
+	  RTSyncTestHelper.getStringInsertOperation("c", "whole"),
+	  null);
+	control.store(whole, true);
+	assertTrue(control.changesObjectsChangedSince(base, other));
+  }
+
+  @Test
+  void testEvictedSessionsMustResynchronize()
+  {
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(
+		RTSyncTestHelper.createCustomHistory());
+	control.setMaxPipelinedSessions(1);
+	long base = control.getLatestVersion();
+	control
+	.store(
+	  new TaggedUserOperation(base, "a1", RTSyncTestHelper.getStringAppendOperation(STRING_ID, 0, "a"), null),
+	  "A",
+	  false);
+	control
+	.store(
+	  new TaggedUserOperation(base, "b1", RTSyncTestHelper.getStringInsertOperation("b", "b"), null),
+	  "B",
+	  false);
+
+	// A's second operation is based on its first one, which was dropped together with A's pipeline.
+	TaggedUserOperation pipelined = new TaggedUserOperation(
+	  base,
+	  "a2",
+	  RTSyncTestHelper.getStringAppendOperation(STRING_ID, 1, "a"),
+	  null);
+	assertThrows(PipelineEvictedException.class, () -> control.store(pipelined, "A", false));
+
+	TaggedUserOperation resynchronized = new TaggedUserOperation(
+	  control.getLatestVersion(),
+	  "a2",
+	  RTSyncTestHelper.getStringAppendOperation(STRING_ID, 1, "a"),
+	  null);
+	assertNotNull(control.store(resynchronized, "A", false));
+  }
+
+  private static byte[] toBytes(TaggedUserOperation userOp)
+  {
+	return MessageSerialization
+		.tryToGetByteArray(new TaggedUserOperation(userOp.getHistoryId(), "", userOp.getOperation(), null));
+  }
+
+  private static void storeInserts(CustomEditorControl<Operation<CombinedHandler>> control, int first, int count)
+  {
+	for ( int i = first; i < first + count; i++ )
+	{
+	  control
+		  .store(
+			new TaggedUserOperation(
+			  control.getLatestVersion(),
+			  "token-" + i,
+			  RTSyncTestHelper.getStringAppendOperation(STRING_ID, i, Integer.toString(i)),
+			  null),
+			false);
+	}
+  }
+}
@@ -0,0 +1,144 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.engine.CloseableIterator;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.map.MapDelta;
+
+class CustomHistoryTest
+{
+  private static final String STRING_ID = "s1";
+
+  @Test
+  void testCompactionKeepsLatestState()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	storeInserts(control, 10);
+	TaggedUserOperation latestBefore = control.getLatestUserOperation();
+
+	history.setOldestNeededVersionSupplier(() -> 8);
+	HistoryCompactionResult result = history.compact();
+
+	assertEquals(history.getLatest(), result.wholeStateVersion());
+	assertEquals(history.getLatest(), history.getLatestWholeStateVersion());
+	assertEquals(8, history.getOldestTransformableVersion());
+	assertTrue(result.removedOperations() > 0);
+	assertArrayEquals(toBytes(latestBefore), toBytes(control.getLatestUserOperation()));
+	try (CloseableIterator<Operation<CombinedHandler>> it = history.until(9))
+	{
+	  assertFalse(it.hasNext());
+	}
+  }
+
+  @Test
+  void testCompactionPolicyTriggersCompaction()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	history.setCompactionPolicy(HistoryCompactionPolicy.everyOperations(5));
+	history.setOldestNeededVersionSupplier(() -> Long.MAX_VALUE);
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	storeInserts(control, 5);
+
+	assertEquals(history.getLatest(), history.getLatestWholeStateVersion());
+	assertEquals(history.getLatest() - 1, history.getOldestTransformableVersion());
+  }
+
+  @Test
+  void testOperationsBasedOnCompactedVersionsAreRejected()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	storeInserts(control, 5);
+	history.setOldestNeededVersionSupplier(() -> 4);
+	history.compact();
+
+	TaggedUserOperation oldOp =
+		new TaggedUserOperation(2, "old", RTSyncTestHelper.getStringInsertOperation(STRING_ID, "x"), null);
+	assertThrows(HistoryCompactedException.class, () -> control.store(oldOp, false));
+  }
+
+  @Test
+  void testCompactionDropsUnreachableObjects()
+  {
+	CustomHistory<Operation<CombinedHandler>> history = RTSyncTestHelper.createCustomHistory();
+	history.setDropUnreachableObjects(true);
+	CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	Operation<CombinedHandler> referenceOp = CombinedDelta
+		.builder()
+		.update(
+		  CustomModel.ROOT,
+		  "map",
+		  MapDelta.builder().set("kept", DataValues.toData(null), List.of("ref", "kept", "string")).done())
+		.done();
+	List<Operation<CombinedHandler>> ops = List
+		.of(
+		  referenceOp,
+		  RTSyncTestHelper.getStringInsertOperation("kept", "a"),
+		  RTSyncTestHelper.getStringInsertOperation("orphan", "b"));
+	for ( Operation<CombinedHandler> op : ops )
+	{
+	  control.store(new TaggedUserOperation(control.getLatestVersion(), "token-" + op.hashCode(), op, null), false);
+	}
+	assertEquals(Set.of(CustomModel.ROOT, "kept", "orphan"), getObjectIds(control.getLatestUserOperation()));
+
+	history.compact();
+	// The orphan is only dropped once it was unreachable during two consecutive compactions.
+	assertEquals(
+	  Set.of(CustomModel.ROOT, "kept", "orphan"),
+	  getObjectIds(history.getWholeState(history.getLatest())));
+
+	Operation<CombinedHandler> appendOp = RTSyncTestHelper.getStringAppendOperation("kept", 1, "c");
+	control.store(new TaggedUserOperation(control.getLatestVersion(), "token-append", appendOp, null), false);
+	history.compact();
+
+	assertEquals(Set.of(CustomModel.ROOT, "kept"), getObjectIds(history.getWholeState(history.getLatest())));
+	assertEquals(Set.of(CustomModel.ROOT, "kept"), getObjectIds(control.getLatestUserOperation()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Set<String> getObjectIds(TaggedUserOperation userOp)
+  {
+	Set<String> ids = new HashSet<>();
+	((Operation<CombinedHandler>) userOp.getOperation()).apply((id, type, change) -> ids.add(id));
+	return ids;
+  }
+
+  private static byte[] toBytes(TaggedUserOperation userOp)
+  {
+	return MessageSerialization
+		.tryToGetByteArray(new TaggedUserOperation(userOp.getHistoryId(), "", userOp.getOperation(), null));
+  }
+
+  private static void storeInserts(CustomEditorControl<Operation<CombinedHandler>> control, int count)
+  {
+	for ( int i = 0; i < count; i++ )
+	{
+	  control
+		  .store(
+			new TaggedUserOperation(
+			  control.getLatestVersion(),
+			  "token-" + i,
+			  RTSyncTestHelper.getStringAppendOperation(STRING_ID, i, Integer.toString(i)),
+			  null),
+			false);
+	}
+  }
+}
@@ -1,6 +1,11 @@
 package de.dmos.rtsync.customotter;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicReference;
@@ -10,6 +15,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import de.dmos.rtsync.test.RTSyncTestHelper;
+import de.dmos.rtsync.util.SharedObjectHelper;
 import se.l4.otter.engine.LocalOperationSync;
 import se.l4.otter.model.Model;
 import se.l4.otter.model.SharedMap;
@@ -110,4 +116,106 @@ class CustomModelTest
 	_sync.waitForEmpty();
 	assertEquals("Hello Cookies", s2.get());
   }
+
+  @Test
+  void testContainersAndPathsOfNestedObjects()
+  {
+	CustomModel m1 = new CustomModelBuilder(editor()).build();
+	CustomSharedMap map = m1.newMap();
+	CustomSharedList<Object> list = m1.newList();
+	CustomSharedString string = m1.newString();
+	m1.set("map", map);
+	map.set("list", list);
+	list.add("value");
+	list.add(string);
+	_sync.waitForEmpty();
+
+	assertSame(map, list.getContainer());
+	assertSame(list, string.getContainer());
+	assertEquals("list", map.getPathPartOf(list));
+	assertArrayEquals(new String[] {"map", "list", "1"}, SharedObjectHelper.getPathOf(m1, string));
+
+	CustomModel m2 = new CustomModelBuilder(editor()).build();
+	CustomSharedString remoteString = (CustomSharedString) SharedObjectHelper.getObjectAtPath(m2, "map/list/1");
+	assertArrayEquals(new String[] {"map", "list", "1"}, SharedObjectHelper.getPathOf(m2, remoteString));
+
+	assertTrue(map.removeObject(list));
+	_sync.waitForEmpty();
+	assertNull(list.getContainer());
+	assertNull(SharedObjectHelper.getPathOf(m1, string));
+  }
+
+  @Test
+  void testCollectGarbageDropsUnreachableObjects()
+  {
+	CustomModel m1 = new CustomModelBuilder(editor()).setGarbageCollectionInterval(0).build();
+	CustomSharedMap map = m1.newMap();
+	CustomSharedString removed = m1.newString();
+	CustomSharedString neverInserted = m1.newString();
+	m1.set("map", map);
+	map.set("removed", removed);
+	_sync.waitForEmpty();
+	assertEquals(0, m1.collectGarbage());
+
+	map.remove("removed");
+	_sync.waitForEmpty();
+	// The never inserted string was already unreachable during the previous collection, the removed one wasn't.
+	assertEquals(1, m1.collectGarbage());
+	assertEquals(1, m1.collectGarbage());
+	assertEquals(0, m1.collectGarbage());
+	assertSame(map, m1.getObject(map.getObjectId(), "map"));
+	assertNotSame(removed, m1.getObject(removed.getObjectId(), "string"));
+	assertNotSame(neverInserted, m1.getObject(neverInserted.getObjectId(), "string"));
+  }
+
+  @Test
+  void testCollectGarbageKeepsReinsertedObjects()
+  {
+	CustomModel m1 = new CustomModelBuilder(editor()).setGarbageCollectionInterval(0).build();
+	CustomSharedMap map = m1.newMap();
+	CustomSharedString moved = m1.newString();
+	m1.set("map", map);
+	map.set("from", moved);
+	_sync.waitForEmpty();
+	assertEquals(0, m1.collectGarbage());
+
+	map.remove("from");
+	_sync.waitForEmpty();
+	assertEquals(0, m1.collectGarbage());
+	map.set("to", moved);
+	_sync.waitForEmpty();
+	assertEquals(0, m1.collectGarbage());
+	assertEquals(0, m1.collectGarbage());
+	assertSame(moved, m1.getObject(moved.getObjectId(), "string"));
+  }
+
+  @Test
+  void testCollectedObjectsChangedByOthersAreRestored()
+  {
+	CustomModel m1 = new CustomModelBuilder(editor()).setGarbageCollectionInterval(0).build();
+	CustomModel m2 = new CustomModelBuilder(editor()).setGarbageCollectionInterval(0).build();
+	CustomSharedString string = m1.newString();
+	string.set("Hello");
+	m1.set("string", string);
+	_sync.waitForEmpty();
+	CustomSharedString remoteString = m2.get("string");
+
+	m1.remove("string");
+	_sync.waitForEmpty();
+	assertEquals(0, m1.collectGarbage());
+	assertEquals(1, m1.collectGarbage());
+
+	// The other client still holds the collected string, changes it and inserts it again.
+	remoteString.append(" World");
+	m2.set("again", remoteString);
+	_sync.waitForEmpty();
+
+	CustomSharedString restored = m1.get("again");
+	assertNotSame(string, restored);
+	assertEquals("Hello World", remoteString.get());
+	assertEquals("Hello World", restored.get());
+	restored.append("!");
+	_sync.waitForEmpty();
+	assertEquals("Hello World!", remoteString.get());
+  }
 }
@@ -0,0 +1,128 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+class FileOperationHistoryTest
+{
+  private static final String STRING_ID = "s1";
+
+  @TempDir
+  Path _directory;
+
+  @Test
+  void testHistoryIsRestoredAfterReopening() throws IOException
+  {
+	TaggedUserOperation latestBefore;
+	try (FileOperationHistory<Operation<CombinedHandler>> history = open(LogDurability.NONE))
+	{
+	  storeInserts(new CustomEditorControl<>(history), 10);
+	  latestBefore = history.getLatestUserOperation();
+	}
+
+	try (FileOperationHistory<Operation<CombinedHandler>> history = open(LogDurability.NONE))
+	{
+	  assertEquals(11, history.getLatest());
+	  assertArrayEquals(toBytes(latestBefore), toBytes(history.getLatestUserOperation()));
+	  assertEquals(latestBefore.getToken(), history.getLatestUserOperation().getToken());
+	  storeInserts(new CustomEditorControl<>(history), 1);
+	  assertEquals(12, history.getLatest());
+	}
+  }
+
+  @Test
+  void testRecoveryStartsAtTheLastCheckpoint() throws IOException
+  {
+	long wholeStateVersion;
+	TaggedUserOperation wholeState;
+	try (FileOperationHistory<Operation<CombinedHandler>> history = open(LogDurability.SYNC))
+	{
+	  CustomEditorControl<Operation<CombinedHandler>> control = new CustomEditorControl<>(history);
+	  storeInserts(control, 5);
+	  history.setOldestNeededVersionSupplier(() -> Long.MAX_VALUE);
+	  wholeStateVersion = history.compact().wholeStateVersion();
+	  wholeState = history.getWholeState(wholeStateVersion);
+	  storeInserts(control, 3);
+	}
+
+	assertEquals(1, listSegments().size());
+	try (FileOperationHistory<Operation<CombinedHandler>> history = open(LogDurability.SYNC))
+	{
+	  assertEquals(wholeStateVersion, history.getLatestWholeStateVersion());
+	  assertEquals(wholeStateVersion, history.getOldestTransformableVersion());
+	  assertEquals(wholeStateVersion + 3, history.getLatest());
+	  assertArrayEquals(toBytes(wholeState), toBytes(history.getWholeState(wholeStateVersion)));
+	}
+  }
+
+  @Test
+  void testTornTailIsTruncated() throws IOException
+  {
+	try (FileOperationHistory<Operation<CombinedHandler>> history = open(LogDurability.SYNC))
+	{
+	  storeInserts(new CustomEditorControl<>(history), 5);
+	}
+	Path segment = listSegments().get(0);
+	long validSize = Files.size(segment);
+	Files.write(segment, new byte[] {0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+	try (FileOperationHistory<Operation<CombinedHandler>> history = open(LogDurability.SYNC))
+	{
+	  assertEquals(6, history.getLatest());
+	  assertEquals(validSize, Files.size(segment));
+	}
+  }
+
+  private FileOperationHistory<Operation<CombinedHandler>> open(LogDurability durability) throws IOException
+  {
+	return FileOperationHistory.openCombined(_directory, durability);
+  }
+
+  private List<Path> listSegments() throws IOException
+  {
+	try (Stream<Path> files = Files.list(_directory))
+	{
+	  return files.sorted().toList();
+	}
+  }
+
+  private static byte[] toBytes(TaggedUserOperation userOp)
+  {
+	return MessageSerialization
+		.tryToGetByteArray(new TaggedUserOperation(userOp.getHistoryId(), "", userOp.getOperation(), null));
+  }
+
+  private static void storeInserts(CustomEditorControl<Operation<CombinedHandler>> control, int count)
+  {
+	int length = 0;
+	for ( int i = 0; i < count; i++ )
+	{
+	  String added = Integer.toString(i);
+	  control
+		  .store(
+			new TaggedUserOperation(
+			  control.getLatestVersion(),
+			  "token-" + i,
+			  RTSyncTestHelper.getStringAppendOperation(STRING_ID, length, added),
+			  null),
+			false);
+	  length += added.length();
+	}
+  }
+}
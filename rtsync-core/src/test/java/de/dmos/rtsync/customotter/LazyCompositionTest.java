@@ -0,0 +1,65 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
+
+class LazyCompositionTest
+{
+  private static final int		OPERATION_COUNT	= 200;
+  private static final String	STRING_ID		= "s1";
+
+  @Test
+  void testLazyCompositionEqualsEagerComposition()
+  {
+	Operation<CombinedHandler> initial = RTSyncTestHelper.getStringInsertOperation(STRING_ID, "start");
+	LazyComposition<Operation<CombinedHandler>> lazy =
+		new LazyComposition<>(MessageSerialization.COMBINED_TYPE::compose, initial);
+	Operation<CombinedHandler> eager = initial;
+	int length = "start".length();
+	for ( int i = 0; i < OPERATION_COUNT; i++ )
+	{
+	  String appended = Integer.toString(i);
+	  Operation<CombinedHandler> op = RTSyncTestHelper.getStringAppendOperation(STRING_ID, length, appended);
+	  length += appended.length();
+	  lazy.append(op);
+	  eager = MessageSerialization.COMBINED_TYPE.compose(eager, op);
+	  assertEquals(Integer.bitCount(i % 64 + 1), lazy.getPendingBlockCount());
+	  if ( i % 64 == 63 )
+	  {
+		assertArrayEquals(toBytes(eager), toBytes(lazy.get()));
+		assertEquals(0, lazy.getPendingBlockCount());
+	  }
+	}
+	assertArrayEquals(toBytes(eager), toBytes(lazy.get()));
+  }
+
+  @Test
+  void testSetDropsPendingOperations()
+  {
+	Operation<CombinedHandler> initial = RTSyncTestHelper.getStringInsertOperation(STRING_ID, "a");
+	LazyComposition<Operation<CombinedHandler>> lazy =
+		new LazyComposition<>(MessageSerialization.COMBINED_TYPE::compose, initial);
+	assertTrue(lazy.isValue(initial));
+
+	lazy.append(RTSyncTestHelper.getStringAppendOperation(STRING_ID, 1, "b"));
+	assertEquals(1, lazy.getPendingBlockCount());
+	Operation<CombinedHandler> reset = RTSyncTestHelper.getStringInsertOperation(STRING_ID, "c");
+	lazy.set(reset);
+	assertTrue(lazy.isValue(reset));
+	assertEquals(reset, lazy.get());
+  }
+
+  private static byte[] toBytes(Operation<CombinedHandler> op)
+  {
+	return MessageSerialization.tryToGetByteArray(new TaggedUserOperation(1, "", op, null));
+  }
+}
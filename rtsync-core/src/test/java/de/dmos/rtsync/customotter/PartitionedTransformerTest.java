@@ -0,0 +1,75 @@
+package de.dmos.rtsync.customotter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.OperationPair;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.string.StringDelta;
+
+class PartitionedTransformerTest
+{
+  private final PartitionedTransformer<Operation<CombinedHandler>> _transformer =
+	  new PartitionedTransformer<>(MessageSerialization.COMBINED_TYPE, ForkJoinPool.commonPool(), 1);
+
+  @Test
+  void testPartitionedTransformEqualsSerialTransform()
+  {
+	Operation<CombinedHandler> left = createInserts(0, 10, "left");
+	Operation<CombinedHandler> right = createInserts(5, 15, "right");
+	OperationPair<Operation<CombinedHandler>> serial = MessageSerialization.COMBINED_TYPE.transform(left, right);
+	OperationPair<Operation<CombinedHandler>> partitioned = _transformer.transform(left, right);
+	assertArrayEquals(toSortedBytes(serial.getLeft()), toSortedBytes(partitioned.getLeft()));
+	assertArrayEquals(toSortedBytes(serial.getRight()), toSortedBytes(partitioned.getRight()));
+  }
+
+  @Test
+  void testPartitionedComposeEqualsSerialCompose()
+  {
+	Operation<CombinedHandler> first = createInserts(0, 10, "first");
+	var builder = CombinedDelta.builder();
+	for ( int i = 5; i < 15; i++ )
+	{
+	  Operation<?> change = i < 10
+		  ? StringDelta.builder().retain("first".length()).insert("second").done()
+		  : StringDelta.builder().insert("second").done();
+	  builder.update("s" + i, "string", change);
+	}
+	Operation<CombinedHandler> second = builder.done();
+	assertArrayEquals(
+	  toSortedBytes(MessageSerialization.COMBINED_TYPE.compose(first, second)),
+	  toSortedBytes(_transformer.compose(first, second)));
+  }
+
+  private static Operation<CombinedHandler> createInserts(int from, int to, String text)
+  {
+	var builder = CombinedDelta.builder();
+	for ( int i = from; i < to; i++ )
+	{
+	  builder.update("s" + i, "string", StringDelta.builder().insert(text).done());
+	}
+	return builder.done();
+  }
+
+  /**
+   * Serializes the given operation with its updates ordered by object id, since the order of independent updates
+   * doesn't matter.
+   */
+  private static byte[] toSortedBytes(Operation<CombinedHandler> op)
+  {
+	Map<String, Operation<?>> updates = new TreeMap<>();
+	op.apply((id, type, change) -> updates.put(id, change));
+	var builder = CombinedDelta.builder();
+	updates.forEach((id, change) -> builder.update(id, "string", change));
+	return MessageSerialization.tryToGetByteArray(new TaggedUserOperation(1, "", builder.done(), null));
+  }
+}
@@ -0,0 +1,165 @@
+package de.dmos.rtsync.message;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+import de.dmos.rtsync.customotter.CustomModel;
+import de.dmos.rtsync.serializers.BinaryAlternative;
+import de.dmos.rtsync.serializers.BinaryMessageCodec;
+import de.dmos.rtsync.serializers.MapCompositeMessageConverter;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import se.l4.otter.model.spi.DataValues;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedDelta;
+import se.l4.otter.operations.combined.CombinedHandler;
+import se.l4.otter.operations.list.ListDelta;
+import se.l4.otter.operations.map.MapDelta;
+import se.l4.otter.operations.string.StringDelta;
+
+class BinaryMessageCodecTest
+{
+  @Test
+  void testTaggedUserOperationRoundTrip() throws IOException
+  {
+	TaggedUserOperation userOp = createRealisticOperation(42);
+	assertEquals(userOp, BinaryMessageCodec.decode(BinaryMessageCodec.encode(userOp), TaggedUserOperation.class));
+  }
+
+  @Test
+  void testBatchRoundTrip() throws IOException
+  {
+	TaggedUserOperation[] batch = {createRealisticOperation(1), createRealisticOperation(2)};
+	assertArrayEquals(
+	  batch,
+	  BinaryMessageCodec.decode(BinaryMessageCodec.encode(batch), TaggedUserOperation[].class));
+  }
+
+  @Test
+  void testStateCursorsAndSubscriberRoundTrip() throws IOException
+  {
+	UserCursors cursors =
+		new UserCursors(12345l, List.of(new CursorPosition("sId1", 0), new CursorPosition("sId2", 6)));
+	RTState state = new RTState(List.of(cursors), createRealisticOperation(7));
+	Subscriber subscriber = new Subscriber(42, "Ernst", Color.cyan, Set.of("project1", "project2"));
+
+	RTState resumedState =
+		new RTState(null, null, List.of(createRealisticOperation(8), createRealisticOperation(9)), "epoch");
+
+	assertEquals(state, BinaryMessageCodec.decode(BinaryMessageCodec.encode(state), RTState.class));
+	assertEquals(resumedState, BinaryMessageCodec.decode(BinaryMessageCodec.encode(resumedState), RTState.class));
+	assertEquals(cursors, BinaryMessageCodec.decode(BinaryMessageCodec.encode(cursors), UserCursors.class));
+	assertEquals(subscriber, BinaryMessageCodec.decode(BinaryMessageCodec.encode(subscriber), Subscriber.class));
+  }
+
+  @Test
+  void testMessageConverterNegotiatesByContentType() throws IOException
+  {
+	MapCompositeMessageConverter converter = new MapCompositeMessageConverter(
+	  new HashMap<>(
+		Map
+		.of(
+		  TaggedUserOperation.class,
+		  MessageSerialization
+		  .createSimpleMessageConverter(
+			MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER,
+			TaggedUserOperation.class))));
+	TaggedUserOperation userOp = createRealisticOperation(3);
+
+	Message<?> jsonMessage = converter.toMessage(userOp, new MessageHeaders(null));
+	assertNotEquals(BinaryMessageCodec.MIME_TYPE, jsonMessage.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+	BinaryAlternative alternative = jsonMessage.getHeaders().get(BinaryAlternative.HEADER, BinaryAlternative.class);
+	assertEquals(userOp, BinaryMessageCodec.decode(alternative.getEncoded(), TaggedUserOperation.class));
+	assertSame(alternative.getEncoded(), alternative.getEncoded());
+
+	Message<?> binaryMessage = converter.withBinaryEncoding().toMessage(userOp, new MessageHeaders(null));
+	assertEquals(BinaryMessageCodec.MIME_TYPE, binaryMessage.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+	assertFalse(converter.isBinaryEncoding());
+	assertEquals(userOp, converter.fromMessage(binaryMessage, TaggedUserOperation.class));
+	assertEquals(userOp, converter.fromMessage(jsonMessage, TaggedUserOperation.class));
+  }
+
+  @Test
+  void testUnknownOperationTypesAreNotSupported()
+  {
+	Operation<CombinedHandler> op = CombinedDelta
+		.builder()
+		.update("s1", "unknownType", StringDelta.builder().insert("x").done())
+		.done();
+	assertThrows(
+	  UnsupportedOperationException.class,
+	  () -> BinaryMessageCodec.encode(new TaggedUserOperation(1, "t", op, null)));
+  }
+
+  @Test
+  void testMalformedLengthsAreRejected()
+  {
+	byte[] emptyBatch = BinaryMessageCodec.encode(new TaggedUserOperation[0]);
+	byte[] header = Arrays.copyOf(emptyBatch, emptyBatch.length - 1);
+	// A length which exceeds the data, a negative one and one which exceeds 32 bits.
+	for ( byte[] length : new byte[][] {
+	  {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07},
+	  {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},
+	  {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01}} )
+	{
+	  byte[] data = Arrays.copyOf(header, header.length + length.length);
+	  System.arraycopy(length, 0, data, header.length, length.length);
+	  assertThrows(IOException.class, () -> BinaryMessageCodec.decode(data));
+	}
+
+	byte[] encoded = BinaryMessageCodec.encode(createRealisticOperation(5));
+	assertThrows(IOException.class, () -> BinaryMessageCodec.decode(Arrays.copyOf(encoded, encoded.length - 3)));
+  }
+
+  @Test
+  void testBinaryIsSmallerThanJson() throws IOException
+  {
+	TaggedUserOperation userOp = createRealisticOperation(1000);
+	byte[] json = MessageSerialization.toByteArray(MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER, userOp);
+	byte[] binary = BinaryMessageCodec.encode(userOp);
+	assertTrue(binary.length < json.length, () -> binary.length + " >= " + json.length);
+  }
+
+  /**
+   * Creates an operation like the ones which are sent when a text is edited in a shared string which was just added to
+   * the root map and listed in a shared list.
+   */
+  private static TaggedUserOperation createRealisticOperation(long historyId)
+  {
+	String stringId = "string-" + historyId;
+	Operation<CombinedHandler> op = CombinedDelta
+		.builder()
+		.update(stringId, "string", StringDelta.builder().insert("Hello World, this is a shared text.").done())
+		.update(
+		  CustomModel.ROOT,
+		  "map",
+		  MapDelta
+		  .builder()
+		  .set(stringId, DataValues.toData(null), List.of("ref", stringId, "string"))
+		  .set("count", 3l, historyId)
+		  .set("ratio", null, 0.5)
+		  .done())
+		.update(
+		  "list-1",
+		  "list",
+		  ListDelta.builder().retain(2).insert(List.of("ref", stringId, "string")).retain(1).done())
+		.done();
+	return new TaggedUserOperation(historyId, "editor-" + historyId, op, "user-1", new String[] {"editor-0"});
+  }
+}
@@ -1,21 +1,38 @@
 package de.dmos.rtsync.message;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.management.ThreadMXBean;
 
 import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.streaming.ByteArrayJsonInput;
+import de.dmos.rtsync.streaming.CustomJsonInput;
 import de.dmos.rtsync.test.RTSyncTestHelper;
+import se.l4.exobytes.streaming.StreamingInput;
+import se.l4.exobytes.streaming.Token;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
 
 class MessageSerializationTest
 {
+  private static final Logger LOG					= LoggerFactory.getLogger(MessageSerializationTest.class);
+
+  private static final int	  ALLOCATION_ITERATIONS = 10000;
+
   @Test
   void testTaggedOperationSerialization() throws IOException
   {
@@ -71,4 +88,83 @@ class MessageSerializationTest
 	  MessageSerialization.USER_CURSORS_SERIALIZER,
 	  new UserCursors(12345l, List.of(new CursorPosition("sId1", 0), new CursorPosition("sId2", 6))));
   }
+
+  @Test
+  void testOperationAckSerialization() throws IOException
+  {
+	RTSyncTestHelper
+	.assertEqualAfterForthAndBackSerialization(
+	  MessageSerialization.OPERATION_ACK_SERIALIZER,
+	  new OperationAck("3f-12", 4711l));
+  }
+
+  @Test
+  void testEscapedAndNonAsciiStringSerialization() throws IOException
+  {
+	TaggedUserOperation taggedUserOp =
+		RTSyncTestHelper.getStringAsTaggedUserInsertOperation("Grüße \"Welt\"\n\t\\ \u20ac 😀", "üser");
+	RTSyncTestHelper
+	.assertEqualAfterForthAndBackSerialization(
+	  MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER,
+	  taggedUserOp);
+  }
+
+  @Test
+  void testDynamicNumbersKeepTheirType() throws IOException
+  {
+	try (ByteArrayJsonInput in = new ByteArrayJsonInput("[12, -3.5, 1e3, 123456789012345678901]".getBytes()))
+	{
+	  in.next(Token.LIST_START);
+	  assertEquals(12l, in.readDynamic());
+	  assertEquals(-3.5, in.readDynamic());
+	  assertEquals(1000.0, in.readDynamic());
+	  assertEquals(123456789012345678901.0, in.readDynamic());
+	  in.next(Token.LIST_END);
+	}
+  }
+
+  /**
+   * Compares the bytes allocated while reading a tagged operation from a byte array with the {@link ByteArrayJsonInput}
+   * and with the {@link CustomJsonInput}, which decodes through an {@link java.io.InputStreamReader}.
+   */
+  @Test
+  void testByteArrayInputAllocatesLess() throws IOException
+  {
+	ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+	byte[] data = MessageSerialization
+		.toByteArray(RTSyncTestHelper.getStringAsTaggedUserInsertOperation("Hello World, this is a shared text.", "user1"));
+
+	// Warm up so that class loading and the string cache aren't measured.
+	measureAllocatedBytesPerRead(threadBean, data, true);
+	measureAllocatedBytesPerRead(threadBean, data, false);
+	long byteArrayInputBytes = measureAllocatedBytesPerRead(threadBean, data, true);
+	long readerInputBytes = measureAllocatedBytesPerRead(threadBean, data, false);
+
+	LOG
+	.info(
+	  "Allocated bytes per read of a {} byte message: ByteArrayJsonInput {}, CustomJsonInput {}",
+	  data.length,
+	  byteArrayInputBytes,
+	  readerInputBytes);
+	assertTrue(
+	  byteArrayInputBytes < readerInputBytes,
+	  () -> byteArrayInputBytes + " >= " + readerInputBytes);
+  }
+
+  private static long measureAllocatedBytesPerRead(ThreadMXBean threadBean, byte[] data, boolean byteArrayInput)
+	  throws IOException
+  {
+	long threadId = Thread.currentThread().threadId();
+	long before = threadBean.getThreadAllocatedBytes(threadId);
+	for ( int i = 0; i < ALLOCATION_ITERATIONS; i++ )
+	{
+	  try (StreamingInput in =
+		  byteArrayInput ? new ByteArrayJsonInput(data) : new CustomJsonInput(new ByteArrayInputStream(data)))
+	  {
+		in.readObject(MessageSerialization.TAGGED_USER_OPERATION_SERIALIZER);
+	  }
+	}
+	return (threadBean.getThreadAllocatedBytes(threadId) - before) / ALLOCATION_ITERATIONS;
+  }
 }
@@ -43,6 +43,15 @@ public class RTSyncTestHelper
 	return CombinedDelta.builder().update(id, "string", stringOp).done();
   }
 
+  /**
+   * Returns an operation which appends the given string to the SharedString with the given id and length.
+   */
+  public static Operation<CombinedHandler> getStringAppendOperation(String id, int currentLength, String string)
+  {
+	Operation<StringHandler> stringOp = StringDelta.builder().retain(currentLength).insert(string).done();
+	return CombinedDelta.builder().update(id, "string", stringOp).done();
+  }
+
   public static TaggedOperation<Operation<CombinedHandler>> getStringAsTaggedInsertOperation(String string)
   {
 	return new TaggedOperation<>(1, "token-" + (tokenId++), getStringInsertOperation(string));
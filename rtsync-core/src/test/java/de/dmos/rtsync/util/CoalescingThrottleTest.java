@@ -0,0 +1,50 @@
+package de.dmos.rtsync.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class CoalescingThrottleTest
+{
+  @Test
+  void testOnlyTheLatestValueIsForwardedPerInterval() throws InterruptedException
+  {
+	List<String> forwarded = new CopyOnWriteArrayList<>();
+	CountDownLatch latch = new CountDownLatch(3);
+	CoalescingThrottle<String, Integer> throttle = new CoalescingThrottle<>(Duration.ofMillis(200), (key, value) -> {
+	  forwarded.add(key + value);
+	  latch.countDown();
+	});
+
+	for ( int i = 0; i < 100; i++ )
+	{
+	  throttle.offer("a", i);
+	}
+	throttle.offer("b", 0);
+
+	assertTrue(latch.await(5, TimeUnit.SECONDS));
+	assertEquals(List.of("a0", "b0", "a99"), forwarded);
+  }
+
+  @Test
+  void testRemovedKeysAreNotForwarded() throws InterruptedException
+  {
+	List<Integer> forwarded = new CopyOnWriteArrayList<>();
+	CoalescingThrottle<String, Integer> throttle =
+		new CoalescingThrottle<>(Duration.ofMillis(50), (key, value) -> forwarded.add(value));
+
+	throttle.offer("a", 1);
+	throttle.offer("a", 2);
+	throttle.removeIf("a"::equals);
+	Thread.sleep(200);
+
+	assertEquals(List.of(1), forwarded);
+  }
+}
@@ -0,0 +1,89 @@
+package de.dmos.rtsync.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IndexedTreeListTest
+{
+  @Test
+  void testRandomEditsMatchArrayList()
+  {
+	assertRandomEditsMatchArrayList(false);
+	assertRandomEditsMatchArrayList(true);
+  }
+
+  @Test
+  void testIteratorRemovesAndDetectsModifications()
+  {
+	assertIteratorRemovesAndDetectsModifications(false);
+	assertIteratorRemovesAndDetectsModifications(true);
+  }
+
+  private static void assertRandomEditsMatchArrayList(boolean indexValues)
+  {
+	Random random = new Random(11);
+	List<Integer> expected = new ArrayList<>();
+	IndexedTreeList<Integer> list = new IndexedTreeList<>(indexValues);
+	for ( int i = 0; i < 20000; i++ )
+	{
+	  int operation = random.nextInt(4);
+	  if ( operation < 2 || expected.isEmpty() )
+	  {
+		int index = random.nextInt(expected.size() + 1);
+		Integer value = random.nextInt(500);
+		expected.add(index, value);
+		list.add(index, value);
+	  }
+	  else if ( operation == 2 )
+	  {
+		int index = random.nextInt(expected.size());
+		assertEquals(expected.remove(index), list.remove(index));
+	  }
+	  else
+	  {
+		int index = random.nextInt(expected.size());
+		Integer value = random.nextInt(500);
+		assertEquals(expected.set(index, value), list.set(index, value));
+	  }
+	  assertEquals(expected.size(), list.size());
+	}
+	assertEquals(expected, list);
+	for ( int value = 0; value < 500; value++ )
+	{
+	  assertEquals(expected.contains(value), list.contains(value));
+	  assertEquals(expected.indexOf(value), list.indexOf(value));
+	  assertEquals(expected.lastIndexOf(value), list.lastIndexOf(value));
+	}
+  }
+
+  private static void assertIteratorRemovesAndDetectsModifications(boolean indexValues)
+  {
+	IndexedTreeList<String> list = new IndexedTreeList<>(List.of("a", "b", "c", "b"), indexValues);
+	Iterator<String> iterator = list.iterator();
+	while (iterator.hasNext())
+	{
+	  if ( iterator.next().equals("b") )
+	  {
+		iterator.remove();
+	  }
+	}
+	assertEquals(List.of("a", "c"), list);
+	assertFalse(list.contains("b"));
+	assertTrue(list.contains("c"));
+
+	Iterator<String> stale = list.iterator();
+	list.add("d");
+	assertThrows(ConcurrentModificationException.class, stale::next);
+	assertThrows(IndexOutOfBoundsException.class, () -> list.get(3));
+  }
+}
@@ -0,0 +1,64 @@
+package de.dmos.rtsync.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TextRopeTest
+{
+  @Test
+  void testRandomEditsMatchStringBuilder()
+  {
+	Random random = new Random(7);
+	StringBuilder expected = new StringBuilder("abc".repeat(2000));
+	TextRope rope = new TextRope(expected);
+	for ( int i = 0; i < 5000; i++ )
+	{
+	  int index = random.nextInt(expected.length() + 1);
+	  if ( random.nextInt(3) > 0 || expected.length() < 10 )
+	  {
+		String text = i % 100 == 0 ? "x".repeat(3 * TextRope.MAX_CHUNK_LENGTH) : Integer.toString(i);
+		expected.insert(index, text);
+		rope.insert(index, text);
+	  }
+	  else
+	  {
+		int end = Math.min(expected.length(), index + random.nextInt(2 * TextRope.MAX_CHUNK_LENGTH));
+		expected.delete(index, end);
+		rope.delete(index, end);
+	  }
+	  assertEquals(expected.length(), rope.length());
+	}
+	assertEquals(expected.toString(), rope.toString());
+	int middle = expected.length() / 2;
+	assertEquals(expected.charAt(middle), rope.charAt(middle));
+	assertEquals(expected.substring(middle, middle + 3000), rope.subSequence(middle, middle + 3000));
+  }
+
+  @Test
+  void testRegionMatchesWithoutCopying()
+  {
+	TextRope rope = new TextRope("x".repeat(TextRope.MAX_CHUNK_LENGTH - 2) + "Hello World");
+	int index = TextRope.MAX_CHUNK_LENGTH - 2;
+	assertTrue(rope.regionMatches(index, "Hello World"));
+	assertTrue(rope.regionMatches(index + 6, "World"));
+	assertFalse(rope.regionMatches(index, "Hello Cookies"));
+	assertFalse(rope.regionMatches(index + 6, "World!"));
+	assertFalse(rope.regionMatches(-1, "x"));
+  }
+
+  @Test
+  void testToStringIsCachedUntilChanged()
+  {
+	TextRope rope = new TextRope("Hello");
+	String value = rope.toString();
+	assertSame(value, rope.toString());
+	rope.append(" World");
+	assertEquals("Hello World", rope.toString());
+  }
+}
@@ -28,19 +28,35 @@ public class RTProjectData extends AbstractOperationSync
 
   public RTProjectData(String project, AbstractProjectOperationSync<?> projectSync)
   {
-	super(createEditorControl(projectSync.isServer()));
+	this(project, projectSync, null);
+  }
+
+  /**
+   * @param history The history of the project or null to use a new in-memory {@link CustomHistory}.
+   */
+  public RTProjectData(
+	String project,
+	AbstractProjectOperationSync<?> projectSync,
+	CustomHistory<Operation<CombinedHandler>> history)
+  {
+	super(createEditorControl(projectSync.isServer(), history));
 	_project = project;
 	_projectSync = projectSync;
 	_editor = new CustomEditor<>(this);
 	_model = new CustomModelBuilder(_editor).setResetOnOperationException(!projectSync.isServer()).build();
   }
 
-  private static CustomEditorControl<Operation<CombinedHandler>> createEditorControl(boolean isServer)
+  private static CustomEditorControl<Operation<CombinedHandler>> createEditorControl(
+	boolean isServer,
+	CustomHistory<Operation<CombinedHandler>> history)
   {
-	CustomHistory<Operation<CombinedHandler>> history = new CustomHistory<>(
+	if ( history == null )
+	{
+	  history = new CustomHistory<>(
 		MessageSerialization.COMBINED_TYPE,
 		new DefaultCombinedDelta<>(o -> o).done(),
 		isServer);
+	}
 	return new CustomEditorControl<>(history);
   }
 
@@ -32,10 +32,23 @@ public abstract class RTSyncSimpleNetworkNode
 
   protected RTSyncSimpleNetworkNode(OperationSyncCreator syncCreator)
   {
-	CustomHistory<Operation<CombinedHandler>> history = new CustomHistory<>(
+	this(syncCreator, null);
+  }
+
+  /**
+   * @param history The history to use or null to use a new in-memory {@link CustomHistory}.
+   */
+  protected RTSyncSimpleNetworkNode(
+	OperationSyncCreator syncCreator,
+	CustomHistory<Operation<CombinedHandler>> history)
+  {
+	if ( history == null )
+	{
+	  history = new CustomHistory<>(
 		MessageSerialization.COMBINED_TYPE,
 		new DefaultCombinedDelta<>(o -> o).done(),
 		isServer());
+	}
 	_history = history;
 	_control = new CustomEditorControl<>(history);
 	_sync = syncCreator.createOperationSync(_control);
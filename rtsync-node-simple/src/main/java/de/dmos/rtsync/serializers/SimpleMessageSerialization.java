@@ -4,6 +4,7 @@ import java.util.Map;
 
 import org.springframework.messaging.converter.MessageConverter;
 
+import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.SimpleStateMessage;
 
 public class SimpleMessageSerialization extends MessageSerialization
@@ -40,6 +41,10 @@ public class SimpleMessageSerialization extends MessageSerialization
 		  SIMPLE_STATE_MESSAGE_SERIALIZER,
 		  SimpleStateMessage.class);
 
+	MessageConverter resumeStateConverter =
+		MessageSerialization.createSimpleMessageConverter(RT_STATE_SERIALIZER, RTState.class);
+
 	converterMap.put(SimpleStateMessage.class, stateMessageConverter);
+	converterMap.put(RTState.class, resumeStateConverter);
   }
 }
@@ -2,15 +2,21 @@ package de.dmos.rtsync.server;
 
 import java.awt.Color;
 import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.swing.SwingUtilities;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
 import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -19,14 +25,22 @@ import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.messaging.simp.stomp.DefaultStompSession;
+import org.springframework.messaging.simp.user.SimpSession;
 import org.springframework.messaging.simp.user.SimpUser;
 import org.springframework.messaging.simp.user.SimpUserRegistry;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.StringUtils;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
+import de.dmos.rtsync.customotter.CustomEditorControl;
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.customotter.HistoryCompactionPolicy;
+import de.dmos.rtsync.message.OperationAck;
 import de.dmos.rtsync.message.Subscriber;
+import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.network.CommunicationConstants;
 import de.dmos.rtsync.network.EndpointPaths;
+import de.dmos.rtsync.util.ExecutionModel;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
@@ -36,27 +50,119 @@ public class AbstractRTSyncServerController
   private static final Logger			LOG					 =
 	  LoggerFactory.getLogger(AbstractRTSyncServerController.class);
 
+  public static final int				DEFAULT_HISTORY_COMPACTION_INTERVAL = 1000;
+  public static final long				DEFAULT_MAX_RETAINED_VERSIONS	  =
+	  10L * DEFAULT_HISTORY_COMPACTION_INTERVAL;
+  /**
+   * The property which sets the directory in which the server logs its histories. If it is not set, the histories are
+   * only kept in memory.
+   */
+  public static final String			HISTORY_DIRECTORY_PROPERTY		  = "rtsync.history.directory";
+  /**
+   * The property which sets the {@link de.dmos.rtsync.customotter.LogDurability} of the logged histories.
+   */
+  public static final String			HISTORY_DURABILITY_PROPERTY		  = "rtsync.history.durability";
+
   protected final SimpUserRegistry									_simpUserRegistry;
   protected final SimpMessagingTemplate								_simpMessagingTemplate;
 
   /**
-   * This makes the server refuse updates sent via {@link #sendOperation} if they are based on an outdated historyId.
-   * That way, the client is forced to fetch the current state, apply it and send their update again.
+   * This makes the server refuse updates sent via {@link #sendOperation} if they are based on an outdated historyId and
+   * change model objects which have been changed in the meantime. That way, the client is forced to fetch the current
+   * state, apply it and send their update again. Clients which resume after missing operations receive the whole
+   * state, too.
    *
-   * Note that this might be too strict and it could suffice to reject only changes of model objects that have been
-   * updated in the meantime. Another idea would be to try to transform the received operation with the operation of a
-   * the matching old id which the server has stored in its history and then compose the following operations on that to
-   * get the newest state.
+   * Otherwise (default), outdated operations are transformed over the operations which the server stored since. In
+   * both cases, operations which only change objects that haven't been changed in the meantime are stored as they are,
+   * see {@link de.dmos.rtsync.customotter.CustomEditorControl#changesObjectsChangedSince(long, Operation)}.
    */
   protected boolean													_rejectOldHistoryIds = false;
 
+  /**
+   * The policy which is used for the server's histories. Null disables the automatic compaction.
+   */
+  protected HistoryCompactionPolicy									_historyCompactionPolicy =
+	  HistoryCompactionPolicy.everyOperations(DEFAULT_HISTORY_COMPACTION_INTERVAL);
+
+  /**
+   * Whether the compactions of the server's histories drop the model objects which can't be reached from the root from
+   * the composed whole states, so the states which new clients receive shrink, too. This is disabled by default since
+   * the server can't tell whether a client still holds a detached object which it is about to insert again.
+   */
+  protected boolean													_dropUnreachableObjects = false;
+
+  /**
+   * The maximum number of versions by which the oldest deltas which the server's histories retain may lag behind their
+   * latest versions. Clients which only receive operations never update their tracked versions, so otherwise a single
+   * passive client would keep every delta since it connected. Clients whose operations or resumptions are based on
+   * older versions receive the whole state instead. Values below 1 disable this limit.
+   */
+  protected long													_maxRetainedVersions =
+	  DEFAULT_MAX_RETAINED_VERSIONS;
+
+  /**
+   * The latest cursors of all users. They are broadcast throttled and sent to new clients within their state.
+   */
+  protected final CursorStore										_cursorStore;
+
+  /**
+   * The kind of threads which run the server's synchronization loops and deferred tasks.
+   */
+  protected final ExecutionModel									_executionModel;
+  /**
+   * Runs bookkeeping which has to wait until the current event has been handled, one task after another.
+   */
+  private final ExecutorService										_deferredTasks;
+
   protected AbstractRTSyncServerController(
 	SimpUserRegistry simpUserRegistry,
 	SimpMessagingTemplate simpMessagingTemplate)
+  {
+	this(simpUserRegistry, simpMessagingTemplate, ExecutionModel.PLATFORM);
+  }
+
+  protected AbstractRTSyncServerController(
+	SimpUserRegistry simpUserRegistry,
+	SimpMessagingTemplate simpMessagingTemplate,
+	ExecutionModel executionModel)
   {
 	super();
 	_simpUserRegistry = simpUserRegistry;
 	_simpMessagingTemplate = simpMessagingTemplate;
+	_cursorStore = new CursorStore((topic, cursors) -> _simpMessagingTemplate.convertAndSend(topic, cursors));
+	_executionModel = executionModel;
+	_deferredTasks = executionModel.newSerialExecutor("rt-server-deferred-tasks-");
+  }
+
+  public ExecutionModel getExecutionModel()
+  {
+	return _executionModel;
+  }
+
+  /**
+   * Runs the given task after the current one on the server's deferred task thread. Deferred tasks are run one after
+   * another in the order in which they were deferred.
+   */
+  protected void runLater(Runnable task)
+  {
+	_deferredTasks.execute(() -> {
+	  try
+	  {
+		task.run();
+	  }
+	  catch (Exception e)
+	  {
+		LOG.error("A deferred task failed", e);
+	  }
+	});
+  }
+
+  /**
+   * Stops running deferred tasks. Tasks which have already been deferred are still run.
+   */
+  protected void shutDownDeferredTasks()
+  {
+	_deferredTasks.shutdown();
   }
 
   public boolean isRejectOldHistoryIds()
@@ -69,14 +175,84 @@ public class AbstractRTSyncServerController
 	_rejectOldHistoryIds = rejectOldHistoryIds;
   }
 
+  public HistoryCompactionPolicy getHistoryCompactionPolicy()
+  {
+	return _historyCompactionPolicy;
+  }
+
+  /**
+   * Sets the {@link HistoryCompactionPolicy} of the server's histories. Null disables the automatic compaction.
+   */
+  public void setHistoryCompactionPolicy(HistoryCompactionPolicy historyCompactionPolicy)
+  {
+	_historyCompactionPolicy = historyCompactionPolicy;
+  }
+
+  public boolean isDropUnreachableObjects()
+  {
+	return _dropUnreachableObjects;
+  }
+
+  public void setDropUnreachableObjects(boolean dropUnreachableObjects)
+  {
+	_dropUnreachableObjects = dropUnreachableObjects;
+  }
+
+  public long getMaxRetainedVersions()
+  {
+	return _maxRetainedVersions;
+  }
+
+  public void setMaxRetainedVersions(long maxRetainedVersions)
+  {
+	_maxRetainedVersions = maxRetainedVersions;
+  }
+
+  public Duration getCursorBroadcastInterval()
+  {
+	return _cursorStore.getBroadcastInterval();
+  }
+
+  /**
+   * Sets the minimum interval between two broadcasts of one user's cursors. Cursors which are received in between
+   * replace each other, so only the latest ones are broadcast.
+   */
+  public void setCursorBroadcastInterval(Duration cursorBroadcastInterval)
+  {
+	_cursorStore.setBroadcastInterval(cursorBroadcastInterval);
+  }
+
+  /**
+   * Lets the history of the given control compact itself according to {@link #_historyCompactionPolicy} while keeping
+   * the deltas which the clients of the given tracker still need, but no more than {@link #_maxRetainedVersions}.
+   */
+  protected void configureHistoryCompaction(CustomEditorControl<?> control, ClientVersionTracker versionTracker)
+  {
+	if ( control.getHistory() instanceof CustomHistory<?> history )
+	{
+	  history.setCompactionPolicy(_historyCompactionPolicy);
+	  history.setDropUnreachableObjects(_dropUnreachableObjects);
+	  history.setOldestNeededVersionSupplier(() -> getOldestNeededVersion(versionTracker, history.getLatest()));
+	}
+  }
+
+  private long getOldestNeededVersion(ClientVersionTracker versionTracker, long latestVersion)
+  {
+	long oldestVersion = versionTracker.getOldestVersion();
+	return _maxRetainedVersions > 0 ? Math.max(oldestVersion, latestVersion - _maxRetainedVersions) : oldestVersion;
+  }
+
   @EventListener
   public void onDisconnectEvent(SessionDisconnectEvent event)
   {
 	Principal principal = event.getUser();
 	LOG.debug("{} disconnected", principal != null ? principal.getName() : "<unknown>");
+	if ( principal != null )
+	{
+	  _cursorStore.removeUser(getSubscriber(principal).getId());
+	}
 	// This event gets fired before the user is removed from the SimpUserRegistry, so we postpone the broadcast.
-	// This doesn't need to run on the main thread, but SwingUtilities.invokeLater is a quick solution.
-	SwingUtilities.invokeLater(this::broadCastAllSubscribers);
+	runLater(this::broadCastAllSubscribers);
   }
 
   @MessageMapping(EndpointPaths.PATH_SET_OWN_NAME)
@@ -248,7 +424,15 @@ public class AbstractRTSyncServerController
 	Object payload,
 	Principal principal)
   {
-	String user = principal != null ? principal.getName() : null;
+	broadcastToOthers(destination, payload, principal != null ? principal.getName() : null);
+  }
+
+  /**
+   * Broadcasts the payload to all users except the one with the given name like
+   * {@link #broadcastToOthers(String, Object, Principal)}.
+   */
+  protected void broadcastToOthers(String destination, Object payload, String user)
+  {
 	if ( user != null )
 	{
 	  List<String> subscribers = _simpUserRegistry
@@ -259,17 +443,231 @@ public class AbstractRTSyncServerController
 		  .toList();
 
 	  LOG.debug("broadcastToOthers({}, {}, {}). Sending to {}", destination, payload, user, subscribers);
-	  subscribers.forEach(sub -> _simpMessagingTemplate.convertAndSendToUser(sub, destination, payload));
+	  if ( subscribers.isEmpty() )
+	  {
+		return;
+	  }
+	  Message<?> message = encodeOnce(payload);
+	  subscribers.forEach(sub -> sendEncodedToUser(sub, destination, message));
 	}
 	else
 	{
-	  LOG
-	  .warn(
-		"broadCastToOthers: No user name was found in the principal {}. Sending to all subscribers of {}",
-		principal,
-		destination);
+	  LOG.warn("broadCastToOthers: No user name was given. Sending to all subscribers of {}", destination);
 	  _simpMessagingTemplate.convertAndSend(destination, payload);
 	}
   }
-}
 
+  /**
+   * Broadcasts the payload to all sessions which receive the given user specific destination except the given ones.
+   * Unlike {@link #broadcastToOthers(String, Object, String)}, the other sessions of users with the same name as an
+   * excluded session receive it, too.
+   */
+  protected void broadcastToOtherSessions(String destination, Object payload, Set<String> excludedSessions)
+  {
+	Message<?> message = null;
+	for ( SimpUser simpUser : _simpUserRegistry.getUsers() )
+	{
+	  Set<SimpSession> userSessions = simpUser.getSessions();
+	  List<String> sessions = userSessions
+		  .stream()
+		  .filter(s -> !excludedSessions.contains(s.getId()) && receivesUserDestination(s, destination))
+		  .map(SimpSession::getId)
+		  .toList();
+	  if ( sessions.isEmpty() )
+	  {
+		continue;
+	  }
+	  if ( message == null )
+	  {
+		message = encodeOnce(payload);
+	  }
+	  if ( sessions.size() == userSessions.size() )
+	  {
+		sendEncodedToUser(simpUser.getName(), destination, message);
+	  }
+	  else
+	  {
+		for ( String session : sessions )
+		{
+		  sendEncodedToUser(simpUser.getName(), destination, withSessionId(message, session));
+		}
+	  }
+	}
+  }
+
+  /**
+   * Determines whether the given session should receive the messages which are broadcast to the given user specific
+   * destination by {@link #broadcastToOtherSessions}. By default, all sessions do, since the broker drops the messages
+   * to sessions which haven't subscribed to the destination anyway.
+   */
+  protected boolean receivesUserDestination(SimpSession session, String destination)
+  {
+	return true;
+  }
+
+  /**
+   * Sends the given stored operation whole to all sessions except the one which sent it and only an
+   * {@link OperationAck} with its token and historyId to that session, which already has the operation. User names
+   * aren't unique, so other sessions of the sender's user receive the operation whole, too. If the sending session
+   * isn't connected under the operation's user name, e.g. because the operation wasn't received from a client, it is
+   * sent whole to all subscribers of the given topic instead.
+   *
+   * @param topic The topic to which operations are sent whole.
+   * @param queue The user specific destination to which the operations of others are sent. It must start with
+   *          "/queue/".
+   * @param ackQueue The user specific destination to which the acknowledgement is sent.
+   * @param senderSession The id of the STOMP session which sent the operation or null.
+   */
+  protected void broadcastAndAcknowledge(
+	String topic,
+	String queue,
+	String ackQueue,
+	TaggedUserOperation storedOp,
+	String senderSession)
+  {
+	if ( !isConnectedSender(storedOp, senderSession) )
+	{
+	  _simpMessagingTemplate.convertAndSend(topic, storedOp);
+	  return;
+	}
+	broadcastToOtherSessions(queue, storedOp, Set.of(senderSession));
+	sendAcknowledgement(ackQueue, storedOp, senderSession);
+  }
+
+  /**
+   * Sends the given stored operations like {@link #broadcastAndAcknowledge} sends a single one: The sessions which sent
+   * none of them receive the whole batch. Each session which sent some of them only receives acknowledgements of its
+   * own operations and batches of the other ones in between, all in the order in which they were stored. If none of the
+   * operations was sent by a connected session, the batch is sent whole to all subscribers of the given topic instead.
+   *
+   * @param batchTopic The topic to which batches are sent whole.
+   * @param batchQueue The user specific destination to which batches are sent. It must start with "/queue/".
+   * @param ackQueue The user specific destination to which the acknowledgements are sent.
+   */
+  protected void broadcastBatchAndAcknowledge(
+	String batchTopic,
+	String batchQueue,
+	String ackQueue,
+	List<SessionUserOperation> storedOps)
+  {
+	TaggedUserOperation[] batch =
+		storedOps.stream().map(SessionUserOperation::userOp).toArray(TaggedUserOperation[]::new);
+	Set<String> senderSessions = storedOps
+		.stream()
+		.filter(op -> isConnectedSender(op.userOp(), op.session()))
+		.map(SessionUserOperation::session)
+		.collect(Collectors.toCollection(LinkedHashSet::new));
+	if ( senderSessions.isEmpty() )
+	{
+	  _simpMessagingTemplate.convertAndSend(batchTopic, batch);
+	  return;
+	}
+	broadcastToOtherSessions(batchQueue, batch, senderSessions);
+	for ( String senderSession : senderSessions )
+	{
+	  sendBatchToSender(batchQueue, ackQueue, storedOps, senderSession);
+	}
+  }
+
+  private void sendBatchToSender(
+	String batchQueue,
+	String ackQueue,
+	List<SessionUserOperation> storedOps,
+	String senderSession)
+  {
+	String sender = null;
+	List<TaggedUserOperation> others = new ArrayList<>();
+	for ( SessionUserOperation storedOp : storedOps )
+	{
+	  if ( !senderSession.equals(storedOp.session()) )
+	  {
+		others.add(storedOp.userOp());
+		continue;
+	  }
+	  sender = storedOp.userOp().getUser();
+	  if ( !others.isEmpty() )
+	  {
+		sendToSession(sender, batchQueue, others.toArray(TaggedUserOperation[]::new), senderSession);
+		others.clear();
+	  }
+	  sendAcknowledgement(ackQueue, storedOp.userOp(), senderSession);
+	}
+	if ( !others.isEmpty() )
+	{
+	  sendToSession(sender, batchQueue, others.toArray(TaggedUserOperation[]::new), senderSession);
+	}
+  }
+
+  private boolean isConnectedSender(TaggedUserOperation storedOp, String senderSession)
+  {
+	String sender = storedOp.getUser();
+	SimpUser senderUser = sender != null ? _simpUserRegistry.getUser(sender) : null;
+	return senderSession != null && senderUser != null && senderUser.getSession(senderSession) != null;
+  }
+
+  private void sendAcknowledgement(String ackQueue, TaggedUserOperation storedOp, String senderSession)
+  {
+	sendToSession(
+	  storedOp.getUser(),
+	  ackQueue,
+	  new OperationAck(storedOp.getToken(), storedOp.getHistoryId()),
+	  senderSession);
+  }
+
+  private void sendToSession(String user, String destination, Object payload, String session)
+  {
+	SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+	accessor.setSessionId(session);
+	accessor.setLeaveMutable(true);
+	_simpMessagingTemplate.convertAndSendToUser(user, destination, payload, accessor.getMessageHeaders());
+  }
+
+  /**
+   * Converts the given payload into a message which can be sent to any number of destinations via
+   * {@link #sendEncoded} or {@link #sendEncodedToUser} without serializing the payload again. The headers of the
+   * returned message are immutable, so each send only copies them and sets its own destination, while all sent messages
+   * share the same payload bytes.
+   */
+  protected Message<?> encodeOnce(Object payload)
+  {
+	Message<?> message = _simpMessagingTemplate.getMessageConverter().toMessage(payload, new MessageHeaders(null));
+	if ( message == null )
+	{
+	  throw new MessageConversionException(
+		"Unable to convert payload with type='" + payload.getClass().getName() + "'");
+	}
+	return message;
+  }
+
+  /**
+   * Sends a message created by {@link #encodeOnce} to the given destination.
+   */
+  protected void sendEncoded(String destination, Message<?> encodedMessage)
+  {
+	_simpMessagingTemplate.send(destination, encodedMessage);
+  }
+
+  /**
+   * Returns a copy of the given message created by {@link #encodeOnce}, which the user destination resolution only
+   * delivers to the session with the given id. The copy shares the payload of the given message.
+   */
+  protected static Message<?> withSessionId(Message<?> encodedMessage, String sessionId)
+  {
+	return MessageBuilder
+		.fromMessage(encodedMessage)
+		.setHeader(SimpMessageHeaderAccessor.SESSION_ID_HEADER, sessionId)
+		.build();
+  }
+
+  /**
+   * Sends a message created by {@link #encodeOnce} to the given user destination like
+   * {@link SimpMessagingTemplate#convertAndSendToUser(String, String, Object)} does.
+   */
+  protected void sendEncodedToUser(String user, String destination, Message<?> encodedMessage)
+  {
+	String userDestination = _simpMessagingTemplate.getUserDestinationPrefix()
+		+ StringUtils.replace(user, "/", "%2F")
+		+ (destination.startsWith("/") ? destination : "/" + destination);
+	_simpMessagingTemplate.send(userDestination, encodedMessage);
+  }
+}
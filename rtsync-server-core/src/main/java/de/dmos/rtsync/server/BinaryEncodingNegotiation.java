@@ -0,0 +1,88 @@
+package de.dmos.rtsync.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import de.dmos.rtsync.serializers.BinaryAlternative;
+import de.dmos.rtsync.serializers.BinaryMessageCodec;
+
+/**
+ * Negotiates the binary encoding per connection. Clients which accept binary messages send the header
+ * {@link BinaryMessageCodec#ACCEPT_HEADER} in their CONNECT frame. On the client inbound channel, this remembers their
+ * sessions until they disconnect. On the client outbound channel, it replaces the JSON payloads of the messages to
+ * those sessions with their {@link BinaryAlternative}s, which are encoded once per message no matter to how many
+ * sessions it is sent. All other sessions keep receiving JSON.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class BinaryEncodingNegotiation implements ChannelInterceptor
+{
+  private final Set<String> _binarySessionIds = ConcurrentHashMap.newKeySet();
+
+  public boolean isBinarySession(String sessionId)
+  {
+	return sessionId != null && _binarySessionIds.contains(sessionId);
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel)
+  {
+	MessageHeaders headers = message.getHeaders();
+	SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+	String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+	if ( messageType == null || sessionId == null )
+	{
+	  return message;
+	}
+	switch (messageType)
+	{
+	  case CONNECT -> {
+		String accept = SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(BinaryMessageCodec.ACCEPT_HEADER);
+		if ( BinaryMessageCodec.isMimeType(accept) )
+		{
+		  _binarySessionIds.add(sessionId);
+		}
+	  }
+	  case DISCONNECT -> _binarySessionIds.remove(sessionId);
+	  case MESSAGE -> {
+		if ( isBinarySession(sessionId) )
+		{
+		  return toBinaryMessage(message);
+		}
+	  }
+	  default -> {
+		// Other messages don't affect the encoding.
+	  }
+	}
+	return message;
+  }
+
+  private static Message<?> toBinaryMessage(Message<?> message)
+  {
+	byte[] encoded = message.getHeaders().get(BinaryAlternative.HEADER) instanceof BinaryAlternative alternative
+		? alternative.getEncoded()
+			: null;
+	if ( encoded == null )
+	{
+	  return message;
+	}
+	SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+	accessor.setContentType(BinaryMessageCodec.MIME_TYPE);
+	if ( accessor.getFirstNativeHeader(StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER) != null )
+	{
+	  accessor.setNativeHeader(StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER, BinaryMessageCodec.MIME_TYPE.toString());
+	}
+	accessor.setLeaveMutable(true);
+	return MessageBuilder.createMessage(encoded, accessor.getMessageHeaders());
+  }
+}
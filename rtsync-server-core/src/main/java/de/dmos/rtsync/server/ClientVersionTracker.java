@@ -0,0 +1,38 @@
+package de.dmos.rtsync.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the latest historyId which every connected client is known to have, i.e. the historyId of the last
+ * operation a client has based their changes on or the historyId of the last whole state a client has received. This is
+ * used to determine which deltas a history must keep to be able to transform operations that are yet to be received.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class ClientVersionTracker
+{
+  private final Map<String, Long> _clientVersions = new ConcurrentHashMap<>();
+
+  /**
+   * Updates the known version of the given client. Versions never decrease since clients only move forward.
+   */
+  public void update(String client, long historyId)
+  {
+	_clientVersions.merge(client, historyId, Math::max);
+  }
+
+  public void remove(String client)
+  {
+	_clientVersions.remove(client);
+  }
+
+  /**
+   * Returns the oldest version any tracked client still needs or {@link Long#MAX_VALUE} if no client is tracked.
+   */
+  public long getOldestVersion()
+  {
+	return _clientVersions.values().stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE);
+  }
+}
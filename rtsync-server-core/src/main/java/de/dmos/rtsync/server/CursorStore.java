@@ -0,0 +1,83 @@
+package de.dmos.rtsync.server;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import de.dmos.rtsync.message.UserCursors;
+import de.dmos.rtsync.util.CoalescingThrottle;
+
+/**
+ * Keeps the latest {@link UserCursors} of every user per cursor topic, so they can be sent to new clients within their
+ * {@link de.dmos.rtsync.message.RTState}, and broadcasts them throttled by a {@link CoalescingThrottle}.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class CursorStore
+{
+  public static final Duration							 DEFAULT_BROADCAST_INTERVAL = Duration.ofMillis(50);
+
+  private final Map<String, Map<Long, UserCursors>>		 _cursors					= new ConcurrentHashMap<>();
+  private final CoalescingThrottle<CursorKey, UserCursors> _throttle;
+
+  /**
+   * @param broadcaster Sends the given cursors to the given topic.
+   */
+  public CursorStore(BiConsumer<String, UserCursors> broadcaster)
+  {
+	_throttle = new CoalescingThrottle<>(
+		DEFAULT_BROADCAST_INTERVAL,
+		(key, cursors) -> broadcaster.accept(key.topic(), cursors));
+  }
+
+  /**
+   * Stores the given cursors as the latest ones of their user and broadcasts them to the given topic unless newer
+   * cursors of that user replace them before the broadcast interval has passed.
+   */
+  public void update(String topic, UserCursors cursors)
+  {
+	_cursors.computeIfAbsent(topic, t -> new ConcurrentHashMap<>()).put(cursors.userId(), cursors);
+	_throttle.offer(new CursorKey(topic, cursors.userId()), cursors);
+  }
+
+  /**
+   * Returns the latest cursors of all users which sent cursors to the given topic.
+   */
+  public List<UserCursors> getCursors(String topic)
+  {
+	Map<Long, UserCursors> topicCursors = _cursors.get(topic);
+	return topicCursors != null ? List.copyOf(topicCursors.values()) : List.of();
+  }
+
+  public void removeUser(long userId)
+  {
+	_cursors.values().forEach(topicCursors -> topicCursors.remove(userId));
+	_throttle.removeIf(key -> key.userId() == userId);
+  }
+
+  public void removeTopic(String topic)
+  {
+	_cursors.remove(topic);
+	_throttle.removeIf(key -> key.topic().equals(topic));
+  }
+
+  public Duration getBroadcastInterval()
+  {
+	return _throttle.getMinInterval();
+  }
+
+  /**
+   * Sets the minimum interval between two broadcasts of the cursors of one user to one topic.
+   */
+  public void setBroadcastInterval(Duration broadcastInterval)
+  {
+	_throttle.setMinInterval(broadcastInterval);
+  }
+
+  private record CursorKey(String topic, long userId)
+  {
+  }
+}
@@ -0,0 +1,69 @@
+package de.dmos.rtsync.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how many received operations the server applies at once and broadcasts as a single batch. A batch is
+ * complete if it contains maxBatchSize operations or if maxDelay has passed since its first operation was taken from
+ * the queue.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public record OperationBatching(int maxBatchSize, Duration maxDelay)
+{
+  /**
+   * Every operation is applied and broadcast on its own.
+   */
+  public static final OperationBatching DISABLED = new OperationBatching(1, Duration.ZERO);
+
+  public OperationBatching
+  {
+	if ( maxBatchSize < 1 || maxDelay == null || maxDelay.isNegative() )
+	{
+	  throw new IllegalArgumentException(
+		"maxBatchSize must be positive and maxDelay must not be negative but were %d and %s"
+		.formatted(maxBatchSize, maxDelay));
+	}
+  }
+
+  public boolean isEnabled()
+  {
+	return maxBatchSize > 1;
+  }
+
+  /**
+   * Returns a batch which starts with the given element and is filled with further elements of the given queue
+   * according to this batching.
+   */
+  public <T> List<T> collectBatch(T first, BlockingQueue<T> queue) throws InterruptedException
+  {
+	List<T> batch = new ArrayList<>(isEnabled() ? Math.min(maxBatchSize, 64) : 1);
+	batch.add(first);
+	if ( !isEnabled() )
+	{
+	  return batch;
+	}
+	long deadline = System.nanoTime() + maxDelay.toNanos();
+	while (batch.size() < maxBatchSize)
+	{
+	  queue.drainTo(batch, maxBatchSize - batch.size());
+	  long remainingNanos = deadline - System.nanoTime();
+	  if ( batch.size() >= maxBatchSize || remainingNanos <= 0 )
+	  {
+		break;
+	  }
+	  T next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+	  if ( next == null )
+	  {
+		break;
+	  }
+	  batch.add(next);
+	}
+	return batch;
+  }
+}
@@ -0,0 +1,60 @@
+package de.dmos.rtsync.server;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the operations of every session which were received but not stored yet. A session which resumes must not be
+ * answered before its queued operations are stored, since otherwise they would be missing from the operations which it
+ * missed and the session would resend them, so they would be stored twice.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class QueuedSessionOperations
+{
+  public static final Duration	 DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+  private final Map<String, Integer> _queuedCounts = new HashMap<>();
+
+  public synchronized void queued(String session)
+  {
+	if ( session != null )
+	{
+	  _queuedCounts.merge(session, 1, Integer::sum);
+	}
+  }
+
+  /**
+   * Marks one queued operation of the given session as handled, no matter whether it could be stored or not.
+   */
+  public synchronized void handled(String session)
+  {
+	if ( session != null && _queuedCounts.computeIfPresent(session, (s, count) -> count > 1 ? count - 1 : null) == null )
+	{
+	  notifyAll();
+	}
+  }
+
+  /**
+   * Waits until all queued operations of the given session are handled.
+   *
+   * @return true if they are handled and false if the timeout elapsed before.
+   */
+  public synchronized boolean awaitHandled(String session, Duration timeout) throws InterruptedException
+  {
+	long deadline = System.nanoTime() + timeout.toNanos();
+	while (session != null && _queuedCounts.containsKey(session))
+	{
+	  long remaining = deadline - System.nanoTime();
+	  if ( remaining <= 0 )
+	  {
+		return false;
+	  }
+	  TimeUnit.NANOSECONDS.timedWait(this, remaining);
+	}
+	return true;
+  }
+}
@@ -1,10 +1,22 @@
 package de.dmos.rtsync.server;
 
-import de.dmos.rtsync.message.TaggedUserOperation;
+import java.util.List;
 
 public interface ServerNetworkHandler
 {
-  void brodcastTaggedOperation(TaggedUserOperation taggedOperation);
+  /**
+   * Broadcasts the given stored operation. Its session is the one which sent it, if any, so that session can be
+   * treated differently from other sessions of the same user.
+   */
+  void brodcastTaggedOperation(SessionUserOperation storedOp);
+
+  /**
+   * Broadcasts the given operations which were stored one after another. By default they are broadcast one by one.
+   */
+  default void brodcastTaggedOperations(List<SessionUserOperation> storedOps)
+  {
+	storedOps.forEach(this::brodcastTaggedOperation);
+  }
 
   void handleException(Throwable throwable, String sender);
 }
@@ -0,0 +1,14 @@
+package de.dmos.rtsync.server;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+
+/**
+ * A received operation together with the id of the STOMP session which sent it. The session is null if the operation
+ * wasn't received from a client.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public record SessionUserOperation(TaggedUserOperation userOp, String session)
+{
+}
@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.StompWebSocketEndpointRegistration;
@@ -17,7 +18,8 @@ import de.dmos.rtsync.network.EndpointPaths;
 
 public abstract class WebSocketMessageBrokerConfig implements WebSocketMessageBrokerConfigurer
 {
-  private final MessageConverter _combinedMessageConverter;
+  private final MessageConverter			  _combinedMessageConverter;
+  private final BinaryEncodingNegotiation _binaryEncodingNegotiation = new BinaryEncodingNegotiation();
 
   protected WebSocketMessageBrokerConfig(MessageConverter combinedMessageConverter)
   {
@@ -28,6 +30,8 @@ public abstract class WebSocketMessageBrokerConfig implements WebSocketMessageBr
   public void configureMessageBroker(MessageBrokerRegistry config) {
 	config.enableSimpleBroker(EndpointPaths.TOPIC, EndpointPaths.QUEUE);
 	config.setApplicationDestinationPrefixes(EndpointPaths.APP);
+	// Acknowledgements of operations must reach their senders after the operations which were stored before them.
+	config.setPreservePublishOrder(true);
   }
 
   @Override
@@ -41,6 +45,23 @@ public abstract class WebSocketMessageBrokerConfig implements WebSocketMessageBr
 	}
 
 	registry.setErrorHandler(new StompErrorHandler()); // This seems not to log all the errors.
+	// Clients may have several operations in flight, each based on the ones sent before it, so they must be handled in
+	// the order in which they were sent. This also lets a resuming client receive the operations it sent before as
+	// missed ones.
+	registry.setPreserveReceiveOrder(true);
+  }
+
+  @Override
+  public void configureClientInboundChannel(ChannelRegistration registration)
+  {
+	registration.interceptors(_binaryEncodingNegotiation);
+  }
+
+  @Override
+  public void configureClientOutboundChannel(ChannelRegistration registration)
+  {
+	// Messages to clients which accept binary messages are sent binary, all others as JSON.
+	registration.interceptors(_binaryEncodingNegotiation);
   }
 
   @Override
@@ -0,0 +1,253 @@
+package de.dmos.rtsync.server.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.serializers.MessageSerialization;
+
+/**
+ * Keeps track of the projects which no client needs anymore and stores snapshots of hibernated projects on disk.
+ *
+ * Idle projects are kept in memory as long as their estimated sizes don't exceed the idle memory budget. If they do,
+ * {@link #markIdle(String, long)} returns the least recently released projects which should be hibernated, i.e. written
+ * to disk as a snapshot of their whole state and closed. A hibernated project is restored from its snapshot when it is
+ * opened again. The snapshot is kept until the next hibernation replaces it, so the project can still be restored if
+ * the server stops before that. When the server shuts down, snapshots of all open projects are written, so neither
+ * idle nor restored projects lose their changes. Projects whose history is logged by a
+ * {@link de.dmos.rtsync.customotter.FileOperationHistory} don't need a snapshot because they are restored from their
+ * log.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
+public class ProjectHibernation
+{
+  public static final long		  DEFAULT_IDLE_MEMORY_BUDGET = 64L << 20;
+
+  private static final String	  SNAPSHOT_SUFFIX			 = ".snapshot";
+  private static final String	  TEMP_SUFFIX				 = ".tmp";
+
+  private final Path			  _directory;
+  /**
+   * The estimated sizes of the idle projects in the order in which they were released.
+   */
+  private final Map<String, Long> _idleProjects				 = new LinkedHashMap<>();
+  private final Set<String>		  _hibernatedProjects		 = new HashSet<>();
+  /**
+   * The open projects which have been restored from a snapshot which is still kept.
+   */
+  private final Set<String>		  _restoredProjects			 = new HashSet<>();
+
+  private long					  _idleMemoryBudget;
+  private long					  _idleBytes;
+  private long					  _hibernations;
+  private long					  _totalHibernationNanos;
+  private long					  _maxHibernationNanos;
+  private long					  _restores;
+  private long					  _totalRestoreNanos;
+  private long					  _maxRestoreNanos;
+
+  /**
+   * @param idleMemoryBudget The estimated number of bytes which the idle projects may occupy in memory before the least
+   *          recently released ones are hibernated. 0 hibernates every released project immediately.
+   */
+  public ProjectHibernation(Path directory, long idleMemoryBudget) throws IOException
+  {
+	_directory = directory;
+	setIdleMemoryBudget(idleMemoryBudget);
+	Files.createDirectories(directory);
+  }
+
+  public Path getDirectory()
+  {
+	return _directory;
+  }
+
+  public synchronized long getIdleMemoryBudget()
+  {
+	return _idleMemoryBudget;
+  }
+
+  public synchronized void setIdleMemoryBudget(long idleMemoryBudget)
+  {
+	if ( idleMemoryBudget < 0 )
+	{
+	  throw new IllegalArgumentException("idleMemoryBudget must not be negative but was " + idleMemoryBudget);
+	}
+	_idleMemoryBudget = idleMemoryBudget;
+  }
+
+  /**
+   * Marks the given project as idle.
+   *
+   * @return The idle projects which exceed the budget and should be hibernated, least recently released first.
+   */
+  public synchronized List<String> markIdle(String project, long estimatedBytes)
+  {
+	Long previous = _idleProjects.remove(project);
+	if ( previous != null )
+	{
+	  _idleBytes -= previous;
+	}
+	_idleProjects.put(project, estimatedBytes);
+	_idleBytes += estimatedBytes;
+
+	List<String> toHibernate = new ArrayList<>();
+	Iterator<Map.Entry<String, Long>> it = _idleProjects.entrySet().iterator();
+	while (_idleBytes > _idleMemoryBudget && it.hasNext())
+	{
+	  Map.Entry<String, Long> eldest = it.next();
+	  toHibernate.add(eldest.getKey());
+	  _idleBytes -= eldest.getValue();
+	  it.remove();
+	}
+	return toHibernate;
+  }
+
+  /**
+   * Removes the given project from the idle projects, e.g. because a client subscribed to it again or it was closed.
+   *
+   * @return Whether the project was idle.
+   */
+  public synchronized boolean markActive(String project)
+  {
+	Long size = _idleProjects.remove(project);
+	if ( size == null )
+	{
+	  return false;
+	}
+	_idleBytes -= size;
+	return true;
+  }
+
+  /**
+   * Atomically replaces the snapshot of the given project.
+   */
+  public void writeSnapshot(String project, TaggedUserOperation wholeState) throws IOException
+  {
+	byte[] bytes = MessageSerialization.toStorageByteArray(wholeState);
+	Path snapshot = getSnapshotPath(project);
+	Path temp = snapshot.resolveSibling(snapshot.getFileName() + TEMP_SUFFIX);
+	try (FileChannel channel = FileChannel
+		.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+	{
+	  channel.write(ByteBuffer.wrap(bytes));
+	  channel.force(false);
+	}
+	Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Reads the snapshot of the given project. The snapshot isn't deleted, so it is still there if the restored project
+   * is lost before a later hibernation replaces it.
+   *
+   * @return The snapshot or null if there is none.
+   */
+  public TaggedUserOperation readSnapshot(String project) throws IOException
+  {
+	Path snapshot = getSnapshotPath(project);
+	byte[] bytes;
+	try
+	{
+	  bytes = Files.readAllBytes(snapshot);
+	}
+	catch (NoSuchFileException e)
+	{
+	  return null;
+	}
+	return MessageSerialization.readStoredTaggedUserOperation(bytes);
+  }
+
+  /**
+   * Returns whether the given project has been hibernated and not been restored since. Projects whose snapshot was
+   * written before the server started count as hibernated until they are restored.
+   */
+  public synchronized boolean isHibernated(String project)
+  {
+	return _hibernatedProjects.contains(project)
+		|| !_restoredProjects.contains(project) && Files.exists(getSnapshotPath(project));
+  }
+
+  /**
+   * Marks the given project as closed, so it is neither idle anymore nor restored. If it has a snapshot, it will be
+   * restored from it again when it is opened.
+   */
+  public synchronized void markClosed(String project)
+  {
+	markActive(project);
+	_restoredProjects.remove(project);
+  }
+
+  private Path getSnapshotPath(String project)
+  {
+	return _directory.resolve(RTProjectServerOperationSync.toFileName(project) + SNAPSHOT_SUFFIX);
+  }
+
+  synchronized void recordHibernation(String project, long nanos)
+  {
+	_hibernatedProjects.add(project);
+	_restoredProjects.remove(project);
+	_hibernations++;
+	_totalHibernationNanos += nanos;
+	_maxHibernationNanos = Math.max(_maxHibernationNanos, nanos);
+  }
+
+  synchronized void recordRestore(String project, long nanos)
+  {
+	_hibernatedProjects.remove(project);
+	_restoredProjects.add(project);
+	_restores++;
+	_totalRestoreNanos += nanos;
+	_maxRestoreNanos = Math.max(_maxRestoreNanos, nanos);
+  }
+
+  public synchronized Metrics getMetrics()
+  {
+	return new Metrics(
+	  _idleProjects.size(),
+	  _idleBytes,
+	  _hibernations,
+	  Duration.ofNanos(_hibernations > 0 ? _totalHibernationNanos / _hibernations : 0),
+	  Duration.ofNanos(_maxHibernationNanos),
+	  _restores,
+	  Duration.ofNanos(_restores > 0 ? _totalRestoreNanos / _restores : 0),
+	  Duration.ofNanos(_maxRestoreNanos));
+  }
+
+  /**
+   * @param idleProjects The number of idle projects which are still in memory.
+   * @param idleBytes The estimated size of the idle projects which are still in memory.
+   * @param hibernations The number of projects which have been hibernated.
+   * @param averageUnloadLatency The average time it took to write a snapshot and close a project.
+   * @param maxUnloadLatency The longest time it took to write a snapshot and close a project.
+   * @param restores The number of hibernated projects which have been opened again.
+   * @param averageLoadLatency The average time it took to open a hibernated project.
+   * @param maxLoadLatency The longest time it took to open a hibernated project.
+   */
+  public record Metrics(
+	int idleProjects,
+	long idleBytes,
+	long hibernations,
+	Duration averageUnloadLatency,
+	Duration maxUnloadLatency,
+	long restores,
+	Duration averageLoadLatency,
+	Duration maxLoadLatency)
+  {
+  }
+}
@@ -1,10 +1,25 @@
 package de.dmos.rtsync.server.project;
 
-import de.dmos.rtsync.message.TaggedUserOperation;
+import java.util.List;
+
+import de.dmos.rtsync.server.SessionUserOperation;
 
 public interface ProjectServerNetworkHandler
 {
-  void brodcastTaggedOperation(String project, TaggedUserOperation taggedOperation);
+  /**
+   * Broadcasts the given stored operation of the given project. Its session is the one which sent it, if any, so that
+   * session can be treated differently from other sessions of the same user.
+   */
+  void brodcastTaggedOperation(String project, SessionUserOperation storedOp);
+
+  /**
+   * Broadcasts the given operations of the given project which were stored one after another. By default they are
+   * broadcast one by one.
+   */
+  default void brodcastTaggedOperations(String project, List<SessionUserOperation> storedOps)
+  {
+	storedOps.forEach(op -> brodcastTaggedOperation(project, op));
+  }
 
   void handleException(Throwable throwable, String project, String sender);
 }
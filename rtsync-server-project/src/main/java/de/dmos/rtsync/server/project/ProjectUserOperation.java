@@ -1,9 +1,9 @@
 package de.dmos.rtsync.server.project;
 
-import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.project.RTProjectData;
+import de.dmos.rtsync.server.SessionUserOperation;
 
-public record ProjectUserOperation(RTProjectData rtpData, TaggedUserOperation userOp)
+public record ProjectUserOperation(RTProjectData rtpData, SessionUserOperation sessionOp)
 {
 
 }
@@ -1,90 +1,261 @@
 package de.dmos.rtsync.server.project;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.dmos.rtsync.customotter.CustomEditorControl;
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.customotter.FileOperationHistory;
+import de.dmos.rtsync.customotter.LogDurability;
+import de.dmos.rtsync.customotter.OperationSizeEstimator;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.project.AbstractProjectOperationSync;
 import de.dmos.rtsync.project.RTProjectData;
+import de.dmos.rtsync.serializers.MessageSerialization;
+import de.dmos.rtsync.server.OperationBatching;
+import de.dmos.rtsync.server.QueuedSessionOperations;
+import de.dmos.rtsync.server.SessionUserOperation;
+import de.dmos.rtsync.util.ExecutionModel;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.lock.CloseableLock;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
 
+/**
+ * The server side {@link AbstractProjectOperationSync}. Received operations are applied by a fixed number of worker
+ * threads, which are platform or virtual threads depending on the {@link ExecutionModel}. Every project is assigned to
+ * exactly one worker, so the operations of one project are applied in the order in which they were received while
+ * different projects are applied in parallel.
+ *
+ * @author <a href="mailto:michael.danzig@dmos2002.de">Michael Danzig</a>
+ * @version $Rev$
+ */
 public class RTProjectServerOperationSync extends AbstractProjectOperationSync<RTProjectData>
 {
-  private static final Logger						LOG	=
+  private static final Logger				 LOG											=
 	  LoggerFactory.getLogger(RTProjectServerOperationSync.class);
 
-  private final Thread							   _triggerThread;
-  private final BlockingQueue<ProjectUserOperation>	_messageQueue;
-  private final ProjectServerNetworkHandler			_serverNetworkHandler;
+  public static final int					 DEFAULT_MAX_QUEUED_OPERATIONS_PER_PROJECT	= 1000;
+
+  private final ProjectWorker[]				 _workers;
+  private final Map<String, Integer>		 _queuedOperationCounts						= new ConcurrentHashMap<>();
+  private final QueuedSessionOperations		 _queuedSessionOperations					= new QueuedSessionOperations();
+  private final int							 _maxQueuedOperationsPerProject;
+  private final ProjectServerNetworkHandler	 _serverNetworkHandler;
+  private volatile OperationBatching		 _operationBatching							= OperationBatching.DISABLED;
+  private Path								 _historyDirectory;
+  private LogDurability						 _historyDurability							= LogDurability.GROUP_COMMIT;
+  private volatile ProjectHibernation		 _hibernation;
 
   public RTProjectServerOperationSync(ProjectServerNetworkHandler networkHandler)
+  {
+	this(networkHandler, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUED_OPERATIONS_PER_PROJECT);
+  }
+
+  /**
+   * @param workerCount The number of threads which apply received operations.
+   * @param maxQueuedOperationsPerProject The maximum number of operations of a single project which may wait to be
+   *          applied. Further operations of that project are rejected and their senders are notified via
+   *          {@link ProjectServerNetworkHandler#handleException}.
+   */
+  public RTProjectServerOperationSync(
+	ProjectServerNetworkHandler networkHandler,
+	int workerCount,
+	int maxQueuedOperationsPerProject)
+  {
+	this(networkHandler, workerCount, maxQueuedOperationsPerProject, ExecutionModel.PLATFORM);
+  }
+
+  /**
+   * @param executionModel The kind of threads which apply received operations.
+   * @see #RTProjectServerOperationSync(ProjectServerNetworkHandler, int, int)
+   */
+  public RTProjectServerOperationSync(
+	ProjectServerNetworkHandler networkHandler,
+	int workerCount,
+	int maxQueuedOperationsPerProject,
+	ExecutionModel executionModel)
   {
 	super();
+	if ( workerCount < 1 || maxQueuedOperationsPerProject < 1 )
+	{
+	  throw new IllegalArgumentException(
+		"workerCount and maxQueuedOperationsPerProject must be positive but were %d and %d"
+		.formatted(workerCount, maxQueuedOperationsPerProject));
+	}
 	_serverNetworkHandler = networkHandler;
-	_messageQueue = new LinkedBlockingQueue<>();
-	_triggerThread = new Thread(this::send, "rt-server-operation-sync-send-thread");
-	_triggerThread.start();
+	_maxQueuedOperationsPerProject = maxQueuedOperationsPerProject;
+	_workers = new ProjectWorker[workerCount];
+	for ( int i = 0; i < workerCount; i++ )
+	{
+	  _workers[i] = new ProjectWorker("rt-server-operation-sync-send-thread-" + i, executionModel);
+	}
   }
 
   @Override
   public void send(RTProjectData data, TaggedOperation<Operation<CombinedHandler>> op)
   {
-	_messageQueue.add(new ProjectUserOperation(data, TaggedUserOperation.toTaggedUserOperation(op)));
+	send(data, TaggedUserOperation.toTaggedUserOperation(op), null);
   }
 
-  private void send()
+  /**
+   * Queues the given operation which the given session sent, so it is transformed over the operations which the
+   * session pipelined before it.
+   */
+  public void send(RTProjectData data, TaggedUserOperation userOp, String session)
   {
-	while (!Thread.interrupted())
+	String project = data.getProject();
+	if ( _queuedOperationCounts.merge(project, 1, Integer::sum) > _maxQueuedOperationsPerProject )
 	{
-	  ProjectUserOperation puOp = null;
-	  try
-	  {
-		puOp = _messageQueue.take();
-		applyAndSendTaggedOperationToNetwork(puOp);
-	  }
-	  catch (InterruptedException e)
-	  {
-		return;
-	  }
-	  catch (Exception e)
-	  {
-		if ( puOp != null )
-		{
-		  _serverNetworkHandler
-		  .handleException(e, puOp.rtpData().getProject(), puOp.userOp().getUser());
-		}
-		else
-		{
-		  _serverNetworkHandler.handleException(e, null, null);
-		}
-	  }
+	  decrementQueuedCount(project);
+	  LOG.warn("Rejecting {} because project {} has too many queued operations", userOp, project);
+	  _serverNetworkHandler
+	  .handleException(
+		new RejectedExecutionException("Too many operations are queued for project " + project),
+		project,
+		userOp.getUser());
+	  return;
 	}
+	_queuedSessionOperations.queued(session);
+	getWorker(project).add(new ProjectUserOperation(data, new SessionUserOperation(userOp, session)));
   }
 
   /**
-   * This stores the given {@link TaggedOperation}, notifies local listeners and then the network nodes of the store
-   * result.
+   * Waits until the operations which the given session sent before are stored, so a resuming session can be answered
+   * with all operations it missed.
+   *
+   * @return true if they are stored and false if that took too long.
    */
-  protected void applyAndSendTaggedOperationToNetwork(ProjectUserOperation puOp)
+  public boolean awaitQueuedOperations(String session)
   {
-	try (CloseableLock lock = puOp.rtpData().getControl().lock())
+	try
+	{
+	  return _queuedSessionOperations.awaitHandled(session, QueuedSessionOperations.DEFAULT_TIMEOUT);
+	}
+	catch (InterruptedException e)
 	{
-	  TaggedUserOperation storedOp = puOp.rtpData().storeTaggedOperation(puOp.userOp(), false);
-	  puOp.rtpData().notifyListeners(storedOp, false);
-	  _serverNetworkHandler.brodcastTaggedOperation(puOp.rtpData().getProject(), storedOp);
+	  Thread.currentThread().interrupt();
+	  return false;
+	}
+  }
+
+  private ProjectWorker getWorker(String project)
+  {
+	return _workers[Math.floorMod(project.hashCode(), _workers.length)];
+  }
+
+  /**
+   * Returns the number of operations of the given project which have been received but not yet applied.
+   */
+  public int getQueuedOperationCount(String project)
+  {
+	return _queuedOperationCounts.getOrDefault(project, 0);
+  }
+
+  public int getWorkerCount()
+  {
+	return _workers.length;
+  }
+
+  public int getMaxQueuedOperationsPerProject()
+  {
+	return _maxQueuedOperationsPerProject;
+  }
+
+  public OperationBatching getOperationBatching()
+  {
+	return _operationBatching;
+  }
+
+  /**
+   * Sets how many received operations a worker applies at once. The operations of each project within such a batch are
+   * broadcast as one batch. Batching is disabled by default.
+   */
+  public void setOperationBatching(OperationBatching operationBatching)
+  {
+	_operationBatching = operationBatching;
+  }
+
+  public Path getHistoryDirectory()
+  {
+	return _historyDirectory;
+  }
+
+  public LogDurability getHistoryDurability()
+  {
+	return _historyDurability;
+  }
+
+  /**
+   * Lets the histories of the projects which are opened afterwards be logged to and restored from subdirectories of the
+   * given directory which are named after the projects. If the directory is null (default), the histories are only kept
+   * in memory.
+   */
+  public void setHistoryStorage(Path historyDirectory, LogDurability historyDurability)
+  {
+	_historyDirectory = historyDirectory;
+	_historyDurability = historyDurability;
+  }
+
+  /**
+   * This stores the given operations of one project one after another, notifies local listeners of each and then the
+   * network nodes of all store results at once. Operations which can't be stored are reported to their senders and
+   * don't prevent the others from being stored.
+   */
+  protected void applyAndSendTaggedOperationsToNetwork(RTProjectData data, List<SessionUserOperation> sessionOps)
+  {
+	List<SessionUserOperation> storedOps = new ArrayList<>(sessionOps.size());
+	try (CloseableLock lock = data.getControl().lock())
+	{
+	  for ( SessionUserOperation sessionOp : sessionOps )
+	  {
+		TaggedUserOperation userOp = sessionOp.userOp();
+		try
+		{
+		  TaggedUserOperation storedOp = data.storeTaggedOperation(userOp, sessionOp.session(), false);
+		  data.notifyListeners(storedOp, false);
+		  storedOps.add(new SessionUserOperation(storedOp, sessionOp.session()));
+		}
+		catch (Exception e)
+		{
+		  _serverNetworkHandler.handleException(e, data.getProject(), userOp.getUser());
+		}
+		finally
+		{
+		  decrementQueuedCount(data.getProject());
+		  _queuedSessionOperations.handled(sessionOp.session());
+		}
+	  }
+	  if ( !storedOps.isEmpty() )
+	  {
+		// With group commit, the whole batch is forced at once before any of its operations is acknowledged.
+		data.awaitDurable();
+		_serverNetworkHandler.brodcastTaggedOperations(data.getProject(), storedOps);
+	  }
 	}
   }
 
   @Override
   public void close()
   {
-	_triggerThread.interrupt();
+	for ( ProjectWorker worker : _workers )
+	{
+	  worker.interrupt();
+	}
 	super.close();
   }
 
@@ -94,17 +265,323 @@ public class RTProjectServerOperationSync extends AbstractProjectOperationSync<R
 	return true;
   }
 
+  public ProjectHibernation getHibernation()
+  {
+	return _hibernation;
+  }
+
+  /**
+   * Sets the hibernation which {@link #releaseProject(String)} uses. If it is null (default), released projects are
+   * closed.
+   */
+  public void setHibernation(ProjectHibernation hibernation)
+  {
+	_hibernation = hibernation;
+  }
+
+  @Override
+  public synchronized RTProjectData getOrCreateRTProjectData(String project)
+  {
+	ProjectHibernation hibernation = _hibernation;
+	if ( hibernation != null )
+	{
+	  hibernation.markActive(project);
+	}
+	return super.getOrCreateRTProjectData(project);
+  }
+
   @Override
   protected RTProjectData createRTProjectData(String project)
   {
 	LOG.info("Opening project {}", project);
-	return new RTProjectData(project, this);
+	long start = System.nanoTime();
+	ProjectHibernation hibernation = _hibernation;
+	boolean hibernated = hibernation != null && hibernation.isHibernated(project);
+	CustomHistory<Operation<CombinedHandler>> history = null;
+	if ( _historyDirectory != null )
+	{
+	  history = openHistory(project);
+	}
+	else if ( hibernated )
+	{
+	  history = restoreSnapshot(hibernation, project);
+	}
+	RTProjectData data = new RTProjectData(project, this, history);
+	data.getControl().setMaxPipelinedSessions(CustomEditorControl.DEFAULT_MAX_PIPELINED_SESSIONS);
+	if ( hibernated )
+	{
+	  hibernation.recordRestore(project, System.nanoTime() - start);
+	  LOG.info("Restored hibernated project {}", project);
+	}
+	return data;
+  }
+
+  private FileOperationHistory<Operation<CombinedHandler>> openHistory(String project)
+  {
+	Path directory = _historyDirectory.resolve(toFileName(project));
+	try
+	{
+	  return FileOperationHistory.openCombined(directory, _historyDurability);
+	}
+	catch (IOException e)
+	{
+	  throw new UncheckedIOException("Could not open the history of project " + project + " in " + directory, e);
+	}
+  }
+
+  /**
+   * Returns a history which starts with the snapshot of the given hibernated project or null if there is no snapshot.
+   */
+  private static CustomHistory<Operation<CombinedHandler>> restoreSnapshot(
+	ProjectHibernation hibernation,
+	String project)
+  {
+	try
+	{
+	  TaggedUserOperation snapshot = hibernation.readSnapshot(project);
+	  return snapshot != null ? new CustomHistory<>(MessageSerialization.COMBINED_TYPE, snapshot, true) : null;
+	}
+	catch (IOException e)
+	{
+	  throw new UncheckedIOException("Could not restore the hibernated project " + project, e);
+	}
+  }
+
+  /**
+   * Encodes the given project name so it can be used as name of a single file or directory.
+   */
+  static String toFileName(String project)
+  {
+	return URLEncoder.encode(project, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+  }
+
+  /**
+   * Releases a project which no client needs anymore. Without {@link ProjectHibernation}, the project is closed.
+   * Otherwise its history is compacted and it stays in memory as idle project until the idle projects exceed the
+   * hibernation's budget. Then the least recently released projects are hibernated. Like
+   * {@link #getOrCreateRTProjectData(String)}, this is synchronized, so a project can't be reopened while it is
+   * released or hibernated.
+   */
+  public synchronized void releaseProject(String project)
+  {
+	ProjectHibernation hibernation = _hibernation;
+	RTProjectData data = getProjectData(project);
+	if ( hibernation == null || data == null )
+	{
+	  closeProject(project);
+	  return;
+	}
+	hibernation.markIdle(project, compactAndEstimateSize(data)).forEach(this::hibernateProject);
+  }
+
+  /**
+   * Writes a snapshot of the given project to disk and closes it. If its history is logged by a
+   * {@link FileOperationHistory}, no snapshot is needed since the history is restored from its log. The project stays
+   * open if the snapshot can't be written.
+   */
+  public synchronized void hibernateProject(String project)
+  {
+	ProjectHibernation hibernation = _hibernation;
+	RTProjectData data = getProjectData(project);
+	if ( hibernation == null || data == null )
+	{
+	  return;
+	}
+	long start = System.nanoTime();
+	try
+	{
+	  writeSnapshot(hibernation, data);
+	}
+	catch (IOException e)
+	{
+	  LOG.error("Could not hibernate project " + project, e);
+	  return;
+	}
+	closeProject(project);
+	hibernation.recordHibernation(project, System.nanoTime() - start);
+	LOG.info("Hibernated project {}", project);
+  }
+
+  /**
+   * Writes snapshots of all open projects without closing them, e.g. when the server shuts down. Otherwise, the idle
+   * projects which are still in memory would be lost and the projects which were restored from a snapshot would be
+   * restored from that outdated snapshot again.
+   */
+  public synchronized void writeSnapshots()
+  {
+	ProjectHibernation hibernation = _hibernation;
+	if ( hibernation == null )
+	{
+	  return;
+	}
+	for ( RTProjectData data : _projectData.values() )
+	{
+	  try
+	  {
+		writeSnapshot(hibernation, data);
+	  }
+	  catch (IOException e)
+	  {
+		LOG.error("Could not write a snapshot of project " + data.getProject(), e);
+	  }
+	}
+  }
+
+  /**
+   * Writes a snapshot of the given project unless its history is logged by a {@link FileOperationHistory}.
+   */
+  private static void writeSnapshot(ProjectHibernation hibernation, RTProjectData data) throws IOException
+  {
+	try (CloseableLock lock = data.getControl().lock())
+	{
+	  TaggedUserOperation snapshot = createSnapshot(data);
+	  if ( !(data.getControl().getHistory() instanceof FileOperationHistory) )
+	  {
+		hibernation.writeSnapshot(data.getProject(), snapshot);
+	  }
+	}
+  }
+
+  /**
+   * Compacts the history of the given project and returns its estimated size without serializing it.
+   */
+  private static long compactAndEstimateSize(RTProjectData data)
+  {
+	try (CloseableLock lock = data.getControl().lock())
+	{
+	  if ( data.getControl().getHistory() instanceof CustomHistory<?> history )
+	  {
+		history.compact();
+		return history.estimateSize();
+	  }
+	  return OperationSizeEstimator.estimateSize(data.getControl().getLatestUserOperation());
+	}
+  }
+
+  /**
+   * Compacts the history of the given project and returns its latest whole state.
+   */
+  private static TaggedUserOperation createSnapshot(RTProjectData data)
+  {
+	try (CloseableLock lock = data.getControl().lock())
+	{
+	  if ( data.getControl().getHistory() instanceof CustomHistory<?> history )
+	  {
+		return history.getWholeState(history.compact().wholeStateVersion());
+	  }
+	  return data.getControl().getLatestUserOperation();
+	}
   }
 
   @Override
   public RTProjectData closeProject(String project)
   {
 	LOG.info("Closing project {}", project);
-	return super.closeProject(project);
+	ProjectHibernation hibernation = _hibernation;
+	if ( hibernation != null )
+	{
+	  hibernation.markClosed(project);
+	}
+	RTProjectData closed = super.closeProject(project);
+	if ( closed != null )
+	{
+	  closeHistory(closed);
+	}
+	return closed;
+  }
+
+  /**
+   * Closes the logged histories of all open projects without closing the projects, e.g. when the server shuts down.
+   */
+  public void closeHistories()
+  {
+	_projectData.values().forEach(this::closeHistory);
+  }
+
+  private void closeHistory(RTProjectData data)
+  {
+	if ( data.getControl().getHistory() instanceof FileOperationHistory<?> history )
+	{
+	  try
+	  {
+		history.close();
+	  }
+	  catch (IOException e)
+	  {
+		LOG.error("Could not close the history of project " + data.getProject(), e);
+	  }
+	}
+  }
+
+  /**
+   * Applies the operations of all projects that are assigned to it one after another on its own thread.
+   */
+  private class ProjectWorker implements Runnable
+  {
+	private final BlockingQueue<ProjectUserOperation> _messageQueue = new LinkedBlockingQueue<>();
+	private final Thread							  _thread;
+
+	ProjectWorker(String name, ExecutionModel executionModel)
+	{
+	  _thread = executionModel.newThread(name, this);
+	  _thread.start();
+	}
+
+	void interrupt()
+	{
+	  _thread.interrupt();
+	}
+
+	void add(ProjectUserOperation puOp)
+	{
+	  _messageQueue.add(puOp);
+	}
+
+	@Override
+	public void run()
+	{
+	  while (!Thread.interrupted())
+	  {
+		List<ProjectUserOperation> batch;
+		try
+		{
+		  batch = _operationBatching.collectBatch(_messageQueue.take(), _messageQueue);
+		}
+		catch (InterruptedException e)
+		{
+		  return;
+		}
+		applyBatch(batch);
+	  }
+	}
+
+	private void applyBatch(List<ProjectUserOperation> batch)
+	{
+	  Map<RTProjectData, List<SessionUserOperation>> opsByProject = new LinkedHashMap<>();
+	  for ( ProjectUserOperation puOp : batch )
+	  {
+		opsByProject.computeIfAbsent(puOp.rtpData(), d -> new ArrayList<>()).add(puOp.sessionOp());
+	  }
+	  opsByProject.forEach((data, sessionOps) -> {
+		try
+		{
+		  applyAndSendTaggedOperationsToNetwork(data, sessionOps);
+		}
+		catch (Exception e)
+		{
+		  _serverNetworkHandler.handleException(e, data.getProject(), null);
+		}
+	  });
+	}
+  }
+
+  /**
+   * Decrements the number of queued operations of the given project and removes it once no operation is queued, so the
+   * count of a closed project isn't removed while its last operations are still applied and isn't reused after the
+   * project is reopened.
+   */
+  private void decrementQueuedCount(String project)
+  {
+	_queuedOperationCounts.computeIfPresent(project, (p, count) -> count > 1 ? count - 1 : null);
   }
 }
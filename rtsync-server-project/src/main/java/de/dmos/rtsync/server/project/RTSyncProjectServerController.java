@@ -1,29 +1,36 @@
 package de.dmos.rtsync.server.project;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.security.Principal;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import javax.swing.SwingUtilities;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.messaging.simp.user.SimpSession;
 import org.springframework.messaging.simp.user.SimpUserRegistry;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
 
+import de.dmos.rtsync.customotter.HistoryCompactionPolicy;
+import de.dmos.rtsync.customotter.LogDurability;
 import de.dmos.rtsync.listeners.LocalProjectListener;
 import de.dmos.rtsync.message.CursorPosition;
 import de.dmos.rtsync.message.RTState;
@@ -35,6 +42,11 @@ import de.dmos.rtsync.network.EndpointPaths;
 import de.dmos.rtsync.project.ProjectPathUtil;
 import de.dmos.rtsync.project.RTProjectData;
 import de.dmos.rtsync.server.AbstractRTSyncServerController;
+import de.dmos.rtsync.server.ClientVersionTracker;
+import de.dmos.rtsync.server.OperationBatching;
+import de.dmos.rtsync.server.SessionUserOperation;
+import de.dmos.rtsync.util.ExecutionModel;
+import jakarta.annotation.PreDestroy;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
@@ -48,6 +60,17 @@ LocalProjectListener<RTProjectData>
   private static final Logger				 LOG							 =
 	  LoggerFactory.getLogger(RTSyncProjectServerController.class);
 
+  /**
+   * The property which sets the directory in which released projects are hibernated. If it is not set, released
+   * projects are closed.
+   */
+  public static final String				 HIBERNATION_DIRECTORY_PROPERTY	 = "rtsync.hibernation.directory";
+  /**
+   * The property which sets the estimated number of bytes which released projects may occupy in memory before they are
+   * hibernated.
+   */
+  public static final String				 IDLE_MEMORY_BUDGET_PROPERTY	 = "rtsync.hibernation.idle-memory-budget";
+
   private static final String				 PROJECT_VARIABLE				 = "{project}";
   private static final String				 PROJECT_PATH_VARIABLE			 =
 	  EndpointPaths.DELIMITER + PROJECT_VARIABLE;
@@ -55,23 +78,91 @@ LocalProjectListener<RTProjectData>
 	  EndpointPaths.TOPIC + EndpointPaths.DELIMITER;
   private static final String				 TOPIC_PROJECT_OPERATIONS_FORMAT =
 	  TOPIC_PATH + "%s" + EndpointPaths.PATH_OPERATIONS;
+  private static final String				 TOPIC_PROJECT_OPERATION_BATCHES_FORMAT =
+	  TOPIC_PATH + "%s" + EndpointPaths.PATH_OPERATION_BATCHES;
+  private static final String				 QUEUE_PATH						 =
+	  EndpointPaths.QUEUE + EndpointPaths.DELIMITER;
   private static final String				 QUEUE_PROJECT_EXCEPTION_FORMAT	 =
-	  EndpointPaths.QUEUE + EndpointPaths.DELIMITER + "%s" + EndpointPaths.PATH_EXCEPTION;
+	  QUEUE_PATH + "%s" + EndpointPaths.PATH_EXCEPTION;
+  private static final String				 QUEUE_PROJECT_OPERATIONS_FORMAT =
+	  QUEUE_PATH + "%s" + EndpointPaths.PATH_OPERATIONS;
+  private static final String				 QUEUE_PROJECT_OPERATION_BATCHES_FORMAT =
+	  QUEUE_PATH + "%s" + EndpointPaths.PATH_OPERATION_BATCHES;
+  private static final String				 QUEUE_PROJECT_ACKS_FORMAT		 =
+	  QUEUE_PATH + "%s" + EndpointPaths.PATH_ACKS;
 
   private final RTProjectServerOperationSync _serverSync;
+  private final Map<String, ClientVersionTracker> _clientVersions			 = new ConcurrentHashMap<>();
 
   private boolean							 _autoCloseProjects				 = true;
 
-  @Autowired
   public RTSyncProjectServerController(
 	SimpUserRegistry simpUserRegistry,
 	SimpMessagingTemplate simpMessagingTemplate)
   {
-	super(simpUserRegistry, simpMessagingTemplate);
-	_serverSync = new RTProjectServerOperationSync(this);
+	this(
+	  simpUserRegistry,
+	  simpMessagingTemplate,
+	  null,
+	  LogDurability.GROUP_COMMIT,
+	  null,
+	  ProjectHibernation.DEFAULT_IDLE_MEMORY_BUDGET,
+	  ExecutionModel.PLATFORM);
+  }
+
+  /**
+   * @param historyDirectory The directory in which the histories of the projects are logged and from which they are
+   *          restored. If it is null or empty, the histories are only kept in memory.
+   * @param hibernationDirectory The directory in which released projects are hibernated. If it is null or empty,
+   *          released projects are closed.
+   * @param idleMemoryBudget See {@link ProjectHibernation#ProjectHibernation(Path, long)}.
+   * @param executionModel The kind of threads which apply the received operations and run deferred tasks.
+   */
+  @Autowired
+  public RTSyncProjectServerController(
+	SimpUserRegistry simpUserRegistry,
+	SimpMessagingTemplate simpMessagingTemplate,
+	@Value("${" + HISTORY_DIRECTORY_PROPERTY + ":}") String historyDirectory,
+	@Value("${" + HISTORY_DURABILITY_PROPERTY + ":GROUP_COMMIT}") LogDurability historyDurability,
+	@Value("${" + HIBERNATION_DIRECTORY_PROPERTY + ":}") String hibernationDirectory,
+	@Value("${" + IDLE_MEMORY_BUDGET_PROPERTY + ":" + ProjectHibernation.DEFAULT_IDLE_MEMORY_BUDGET
+	  + "}") long idleMemoryBudget,
+	@Value("${" + ExecutionModel.PROPERTY + ":PLATFORM}") ExecutionModel executionModel)
+  {
+	super(simpUserRegistry, simpMessagingTemplate, executionModel);
+	_serverSync = new RTProjectServerOperationSync(
+	  this,
+	  Runtime.getRuntime().availableProcessors(),
+	  RTProjectServerOperationSync.DEFAULT_MAX_QUEUED_OPERATIONS_PER_PROJECT,
+	  executionModel);
+	if ( historyDirectory != null && !historyDirectory.isBlank() )
+	{
+	  LOG.info("Logging the project histories to {} with durability {}", historyDirectory, historyDurability);
+	  _serverSync.setHistoryStorage(Path.of(historyDirectory), historyDurability);
+	}
+	if ( hibernationDirectory != null && !hibernationDirectory.isBlank() )
+	{
+	  LOG.info("Hibernating released projects to {}", hibernationDirectory);
+	  try
+	  {
+		_serverSync.setHibernation(new ProjectHibernation(Path.of(hibernationDirectory), idleMemoryBudget));
+	  }
+	  catch (IOException e)
+	  {
+		throw new UncheckedIOException("Could not create the hibernation directory " + hibernationDirectory, e);
+	  }
+	}
 	_serverSync.addWeakLocalProjectListener(this);
   }
 
+  @PreDestroy
+  public void closeHistories()
+  {
+	shutDownDeferredTasks();
+	_serverSync.writeSnapshots();
+	_serverSync.closeHistories();
+  }
+
   @EventListener
   public void onUnsubscribeEvent(SessionUnsubscribeEvent unsubscribeEvent)
   {
@@ -87,7 +178,8 @@ LocalProjectListener<RTProjectData>
 	Set<String> removedProjectSubscriptions = new HashSet<>(
 		unsubscriber.getProjects().stream().filter(p -> !usersRemainingProjectSubsciptions.contains(p)).toList());
 	removedProjectSubscriptions.forEach(unsubscriber::removeProject);
-	SwingUtilities.invokeLater(() -> {
+	removedProjectSubscriptions.forEach(p -> getClientVersionTracker(p).remove(simpSessionId));
+	runLater(() -> {
 	  removedProjectSubscriptions.forEach(this::broadCastProjectSubscribers);
 	  autoCloseProjectsIfSuitable(removedProjectSubscriptions);
 	});
@@ -98,7 +190,8 @@ LocalProjectListener<RTProjectData>
   {
 	super.onDisconnectEvent(event);
 	Subscriber subscriber = getSubscriber(event.getUser());
-	SwingUtilities.invokeLater(() -> autoCloseProjectsIfSuitable(subscriber.getProjects()));
+	_clientVersions.values().forEach(t -> t.remove(event.getSessionId()));
+	runLater(() -> autoCloseProjectsIfSuitable(subscriber.getProjects()));
   }
 
   @Override
@@ -109,31 +202,41 @@ LocalProjectListener<RTProjectData>
   }
 
   @MessageMapping(PROJECT_PATH_VARIABLE + EndpointPaths.PATH_UPDATE_OWN_CURSORS)
-  @SendTo(EndpointPaths.TOPIC + PROJECT_PATH_VARIABLE + EndpointPaths.PATH_CURSORS)
-  public UserCursors setCursors(
+  public void setCursors(
 	@DestinationVariable("project") String project,
 	@Payload CursorPosition cursorPosition,
 	Principal principal)
   {
-	// TODO: Store this information somewhere and attach it to StateMessages.
-	return new UserCursors(getSubscriber(principal).getId(), List.of(cursorPosition));
 	// It would be more professionell to broadcast it only to thers like this:
 	//	broadcastToOthers(EndpointPaths.TOPIC_CURSORS, toBroadcast, principal);
+	_cursorStore
+	.update(
+	  getProjectCursorsTopic(project),
+	  new UserCursors(getSubscriber(principal).getId(), List.of(cursorPosition)));
+  }
+
+  private static String getProjectCursorsTopic(String project)
+  {
+	return TOPIC_PATH + project + EndpointPaths.PATH_CURSORS;
   }
 
   @MessageMapping(PROJECT_PATH_VARIABLE + EndpointPaths.PATH_SEND_OPERATION)
   public void sendOperation(
 	@DestinationVariable("project") String project,
 	@Payload TaggedOperation<Operation<CombinedHandler>> taggedOp,
-	Principal principal)
+	Principal principal,
+	@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId)
   {
 	RTProjectData data = _serverSync.getOrCreateRTProjectData(project);
+	getClientVersionTracker(project).update(sessionId, taggedOp.getHistoryId());
 	long currentHistoryId = data.getLatestVersion();
-	if ( _rejectOldHistoryIds && taggedOp.getHistoryId() < currentHistoryId )
+	if ( _rejectOldHistoryIds
+		&& taggedOp.getHistoryId() < currentHistoryId
+		&& data.getControl().changesObjectsChangedSince(taggedOp.getHistoryId(), taggedOp.getOperation()) )
 	{
 	  LOG
 	  .info(
-		"{} called {}/sendOperation({}) with an older historyId than {}",
+		"{} called {}/sendOperation({}) with an older historyId than {} and changes objects which were changed since",
 		principal.getName(),
 		project,
 		taggedOp,
@@ -149,7 +252,7 @@ LocalProjectListener<RTProjectData>
 	// Maybe we should send the user's id instead of the their principal's name.
 	TaggedOperation<Operation<CombinedHandler>> userOp = new TaggedUserOperation(taggedOp, principal.getName());
 	LOG.debug("sendOperation({})", userOp);
-	_serverSync.send(data, userOp);
+	_serverSync.send(data, userOp, sessionId);
   }
 
   private String getProjectExceptionEndpoint(String project)
@@ -158,10 +261,53 @@ LocalProjectListener<RTProjectData>
   }
 
   @SubscribeMapping(PROJECT_PATH_VARIABLE + EndpointPaths.PATH_GET_LATEST_OPERATION)
-  public TaggedUserOperation getLatestOperation(@DestinationVariable("project") String project)
+  public TaggedUserOperation getLatestOperation(
+	@DestinationVariable("project") String project,
+	@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId)
   {
 	LOG.debug("{}/getLatestOperation called", project);
-	return _serverSync.getLatestUserOperation(project);
+	TaggedUserOperation latest = _serverSync.getLatestUserOperation(project);
+	if ( sessionId != null )
+	{
+	  getClientVersionTracker(project).update(sessionId, latest.getHistoryId());
+	}
+	return latest;
+  }
+
+  /**
+   * Returns only the operations of the project after the given version if they are still retained and its whole state
+   * otherwise. The client is only resumed if its version belongs to the project's current history epoch and the
+   * operations which it sent before are stored, since they would be missing from the missed operations and be stored
+   * twice when the client resends them otherwise.
+   */
+  @SubscribeMapping(PROJECT_PATH_VARIABLE + EndpointPaths.PATH_RESUME)
+  public RTState resume(
+	@DestinationVariable("project") String project,
+	@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId,
+	@Header(name = CommunicationConstants.RESUME_FROM_HEADER, required = false) Long resumeFrom,
+	@Header(name = CommunicationConstants.RESUME_EPOCH_HEADER, required = false) String resumeEpoch)
+  {
+	LOG.debug("{}/resume called from {} in epoch {}", project, resumeFrom, resumeEpoch);
+	List<UserCursors> cursors = _cursorStore.getCursors(getProjectCursorsTopic(project));
+	RTProjectData data = _serverSync.getOrCreateRTProjectData(project);
+	String epoch = data.getControl().getHistoryEpoch();
+	List<TaggedUserOperation> missedOperations = resumeFrom != null
+		&& epoch.equals(resumeEpoch)
+		&& _serverSync.awaitQueuedOperations(sessionId)
+		? data.getControl().getUserOperationsAfter(resumeFrom)
+			: null;
+	// Resent operations would be rebased on the missed ones, so they couldn't be rejected anymore.
+	if ( missedOperations == null || (_rejectOldHistoryIds && !missedOperations.isEmpty()) )
+	{
+	  return new RTState(cursors, getLatestOperation(project, sessionId), null, epoch);
+	}
+	getClientVersionTracker(project).update(sessionId, resumeFrom + missedOperations.size());
+	return new RTState(cursors, null, missedOperations, epoch);
+  }
+
+  private ClientVersionTracker getClientVersionTracker(String project)
+  {
+	return _clientVersions.computeIfAbsent(project, p -> new ClientVersionTracker());
   }
 
   @SubscribeMapping(EndpointPaths.PATH_INIT_CLIENT)
@@ -172,10 +318,58 @@ LocalProjectListener<RTProjectData>
   }
 
   @Override
-  public void brodcastTaggedOperation(String project, TaggedUserOperation taggedOperation)
+  public void brodcastTaggedOperation(String project, SessionUserOperation storedOp)
+  {
+	LOG.debug("broadcastTaggedOperation({}, {})", project, storedOp.userOp());
+	broadcastAndAcknowledge(
+	  TOPIC_PROJECT_OPERATIONS_FORMAT.formatted(project),
+	  QUEUE_PROJECT_OPERATIONS_FORMAT.formatted(project),
+	  QUEUE_PROJECT_ACKS_FORMAT.formatted(project),
+	  storedOp.userOp(),
+	  storedOp.session());
+  }
+
+  @Override
+  public void brodcastTaggedOperations(String project, List<SessionUserOperation> storedOps)
+  {
+	if ( storedOps.size() == 1 )
+	{
+	  brodcastTaggedOperation(project, storedOps.get(0));
+	  return;
+	}
+	LOG.debug("broadcastTaggedOperations({}, {} operations)", project, storedOps.size());
+	broadcastBatchAndAcknowledge(
+	  TOPIC_PROJECT_OPERATION_BATCHES_FORMAT.formatted(project),
+	  QUEUE_PROJECT_OPERATION_BATCHES_FORMAT.formatted(project),
+	  QUEUE_PROJECT_ACKS_FORMAT.formatted(project),
+	  storedOps);
+  }
+
+  /**
+   * Only the sessions which subscribed to all user specific queues of a project receive its operations, so the
+   * operations aren't sent to every connected user. Clients subscribe to these queues before the project itself.
+   */
+  @Override
+  protected boolean receivesUserDestination(SimpSession session, String destination)
+  {
+	String projectQueues = EndpointPaths.USER
+		+ destination.substring(0, destination.lastIndexOf(EndpointPaths.DELIMITER))
+		+ EndpointPaths.PATH_ALL_TOPICS;
+	return session.getSubscriptions().stream().anyMatch(s -> projectQueues.equals(s.getDestination()));
+  }
+
+  public OperationBatching getOperationBatching()
+  {
+	return _serverSync.getOperationBatching();
+  }
+
+  /**
+   * Sets how many received operations are applied at once. The operations of each project within such a batch are
+   * broadcast as one batch. Batching is disabled by default.
+   */
+  public void setOperationBatching(OperationBatching operationBatching)
   {
-	LOG.debug("broadcastTaggedOperation({})", taggedOperation);
-	_simpMessagingTemplate.convertAndSend(TOPIC_PROJECT_OPERATIONS_FORMAT.formatted(project), taggedOperation);
+	_serverSync.setOperationBatching(operationBatching);
   }
 
   public void broadCastProjectSubscribers(String project)
@@ -246,21 +440,43 @@ LocalProjectListener<RTProjectData>
 	  broadCastProjectSubscribers(project);
 	}
 
-	return new RTState(null, getLatestOperation(project));
+	// The epoch is read first, so it can only be older than the state, which makes the client's next resume fall back
+	// to the whole state instead of resuming in the wrong history.
+	String epoch = _serverSync.getOrCreateRTProjectData(project).getControl().getHistoryEpoch();
+	return new RTState(
+	  _cursorStore.getCursors(getProjectCursorsTopic(project)),
+	  getLatestOperation(project, sessionId),
+	  null,
+	  epoch);
   }
 
   @Override
   public void localProjectCreated(RTProjectData project)
   {
+	configureHistoryCompaction(project.getControl(), getClientVersionTracker(project.getProject()));
 	broadCastProjectList();
   }
 
   @Override
   public void localProjectClosed(RTProjectData project)
   {
+	_clientVersions.remove(project.getProject());
+	_cursorStore.removeTopic(getProjectCursorsTopic(project.getProject()));
 	broadCastProjectList();
   }
 
+  @Override
+  public void setHistoryCompactionPolicy(HistoryCompactionPolicy historyCompactionPolicy)
+  {
+	super.setHistoryCompactionPolicy(historyCompactionPolicy);
+	_serverSync
+	.getLocalProjectNames()
+	.forEach(
+	  p -> configureHistoryCompaction(
+		_serverSync.getProjectData(p).getControl(),
+		getClientVersionTracker(p)));
+  }
+
   public void setAutoCloseProjects(boolean autoCloseProjects)
   {
 	_autoCloseProjects = autoCloseProjects;
@@ -273,7 +489,17 @@ LocalProjectListener<RTProjectData>
   }
 
   /**
-   * Closes projects which no client has subscribed to if _autoCloseProjects is set.
+   * Returns the load and unload metrics of hibernated projects or null if hibernation is disabled.
+   */
+  public ProjectHibernation.Metrics getHibernationMetrics()
+  {
+	ProjectHibernation hibernation = _serverSync.getHibernation();
+	return hibernation != null ? hibernation.getMetrics() : null;
+  }
+
+  /**
+   * Releases projects which no client has subscribed to if _autoCloseProjects is set. Released projects are closed or,
+   * if a {@link ProjectHibernation} is configured, hibernated.
    *
    * @param projectsToCheck An optional set of projects to potentially close. If null, then all opened projects are
    *          checked.
@@ -297,6 +523,6 @@ LocalProjectListener<RTProjectData>
 	  projectsToCheck = _serverSync.getLocalProjectNames();
 	}
 	LOG.trace("projects to check: {}\nneeded projects: {}", projectsToCheck, neededProjects);
-	projectsToCheck.stream().filter(p -> !neededProjects.contains(p)).forEach(_serverSync::closeProject);
+	projectsToCheck.stream().filter(p -> !neededProjects.contains(p)).forEach(_serverSync::releaseProject);
   }
 }
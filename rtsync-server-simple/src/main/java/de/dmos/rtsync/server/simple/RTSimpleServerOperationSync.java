@@ -1,12 +1,18 @@
 package de.dmos.rtsync.server.simple;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import de.dmos.rtsync.customotter.AbstractOperationSync;
 import de.dmos.rtsync.customotter.CustomEditorControl;
 import de.dmos.rtsync.message.TaggedUserOperation;
+import de.dmos.rtsync.server.OperationBatching;
+import de.dmos.rtsync.server.QueuedSessionOperations;
 import de.dmos.rtsync.server.ServerNetworkHandler;
+import de.dmos.rtsync.server.SessionUserOperation;
+import de.dmos.rtsync.util.ExecutionModel;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.lock.CloseableLock;
 import se.l4.otter.operations.Operation;
@@ -15,67 +21,148 @@ import se.l4.otter.operations.combined.CombinedHandler;
 public class RTSimpleServerOperationSync extends AbstractOperationSync
 {
   private final Thread                               _triggerThread;
-  private final BlockingQueue<TaggedUserOperation> _messageQueue;
+  private final BlockingQueue<SessionUserOperation> _messageQueue;
+  private final QueuedSessionOperations            _queuedSessionOperations = new QueuedSessionOperations();
   private final ServerNetworkHandler               _serverNetworkHandler;
+  private volatile OperationBatching               _operationBatching = OperationBatching.DISABLED;
 
   public RTSimpleServerOperationSync(
 	CustomEditorControl<Operation<CombinedHandler>> control,
 	ServerNetworkHandler networkHandler)
+  {
+	this(control, networkHandler, ExecutionModel.PLATFORM);
+  }
+
+  /**
+   * @param executionModel The kind of thread which applies received operations.
+   */
+  public RTSimpleServerOperationSync(
+	CustomEditorControl<Operation<CombinedHandler>> control,
+	ServerNetworkHandler networkHandler,
+	ExecutionModel executionModel)
   {
 	super(control);
 	_serverNetworkHandler = networkHandler;
 	_messageQueue = new LinkedBlockingQueue<>();
-	_triggerThread = new Thread(this::send, "rt-server-operation-sync-send-thread");
+	_triggerThread = executionModel.newThread("rt-server-operation-sync-send-thread", this::send);
 	_triggerThread.start();
   }
 
   @Override
   public void send(TaggedOperation<Operation<CombinedHandler>> op)
   {
-	_messageQueue.add(TaggedUserOperation.toTaggedUserOperation(op));
+	send(TaggedUserOperation.toTaggedUserOperation(op), null);
   }
 
   public void send(TaggedUserOperation userOp)
   {
-	_messageQueue.add(userOp);
+	send(userOp, null);
+  }
+
+  /**
+   * Queues the given operation which the given session sent, so it is transformed over the operations which the
+   * session pipelined before it.
+   */
+  public void send(TaggedUserOperation userOp, String session)
+  {
+	_queuedSessionOperations.queued(session);
+	_messageQueue.add(new SessionUserOperation(userOp, session));
+  }
+
+  /**
+   * Waits until the operations which the given session sent before are stored, so a resuming session can be answered
+   * with all operations it missed.
+   *
+   * @return true if they are stored and false if that took too long.
+   */
+  public boolean awaitQueuedOperations(String session)
+  {
+	try
+	{
+	  return _queuedSessionOperations.awaitHandled(session, QueuedSessionOperations.DEFAULT_TIMEOUT);
+	}
+	catch (InterruptedException e)
+	{
+	  Thread.currentThread().interrupt();
+	  return false;
+	}
+  }
+
+  public OperationBatching getOperationBatching()
+  {
+	return _operationBatching;
+  }
+
+  /**
+   * Sets how many received operations are applied at once and broadcast as one batch. Batching is disabled by default.
+   */
+  public void setOperationBatching(OperationBatching operationBatching)
+  {
+	_operationBatching = operationBatching;
   }
 
   private void send()
   {
 	while (!Thread.interrupted())
 	{
-	  TaggedUserOperation taggedOp = null;
+	  List<SessionUserOperation> batch;
 	  try
 	  {
-		taggedOp = _messageQueue.take();
-		applyAndSendTaggedOperationToNetwork(taggedOp);
+		batch = _operationBatching.collectBatch(_messageQueue.take(), _messageQueue);
 	  }
 	  catch (InterruptedException e)
 	  {
 		_triggerThread.interrupt();
 		return;
 	  }
+	  try
+	  {
+		applyAndSendTaggedOperationsToNetwork(batch);
+	  }
 	  catch (Exception e)
 	  {
-		_serverNetworkHandler.handleException(e, taggedOp != null ? taggedOp.getUser() : null);
+		_serverNetworkHandler.handleException(e, null);
 	  }
 	}
   }
 
   /**
-   * This stores the given {@link TaggedOperation}, notifies local listeners and then the network nodes of the store
-   * result.
+   * This stores the given {@link TaggedOperation}s one after another, notifies local listeners of each and then the
+   * network nodes of all store results at once. Operations which can't be stored are reported to their senders and
+   * don't prevent the others from being stored.
    *
-   * @implNote If the given operation is a {@link TaggedUserOperation}, then the local listeners and network nodes are
-   *           notified of a {@link TaggedUserOperation} with the user information.
+   * @implNote The local listeners and network nodes are notified of {@link TaggedUserOperation}s with the user
+   *           information.
    */
-  protected void applyAndSendTaggedOperationToNetwork(TaggedUserOperation taggedOperation)
+  protected void applyAndSendTaggedOperationsToNetwork(List<SessionUserOperation> sessionOps)
   {
+	List<SessionUserOperation> storedOps = new ArrayList<>(sessionOps.size());
 	try (CloseableLock lock = _control.lock())
 	{
-	  TaggedUserOperation storedOp = storeTaggedOperation(taggedOperation, false);
-	  notifyListeners(storedOp, false);
-	  _serverNetworkHandler.brodcastTaggedOperation(storedOp);
+	  for ( SessionUserOperation sessionOp : sessionOps )
+	  {
+		TaggedUserOperation taggedOperation = sessionOp.userOp();
+		try
+		{
+		  TaggedUserOperation storedOp = storeTaggedOperation(taggedOperation, sessionOp.session(), false);
+		  notifyListeners(storedOp, false);
+		  storedOps.add(new SessionUserOperation(storedOp, sessionOp.session()));
+		}
+		catch (Exception e)
+		{
+		  _serverNetworkHandler.handleException(e, taggedOperation.getUser());
+		}
+		finally
+		{
+		  _queuedSessionOperations.handled(sessionOp.session());
+		}
+	  }
+	  if ( !storedOps.isEmpty() )
+	  {
+		// With group commit, the whole batch is forced at once before any of its operations is acknowledged.
+		awaitDurable();
+		_serverNetworkHandler.brodcastTaggedOperations(storedOps);
+	  }
 	}
   }
 
@@ -1,28 +1,44 @@
 package de.dmos.rtsync.server.simple;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.security.Principal;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.messaging.simp.user.SimpUserRegistry;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
+import de.dmos.rtsync.customotter.CustomHistory;
+import de.dmos.rtsync.customotter.FileOperationHistory;
+import de.dmos.rtsync.customotter.HistoryCompactionPolicy;
+import de.dmos.rtsync.customotter.LogDurability;
 import de.dmos.rtsync.message.CursorPosition;
 import de.dmos.rtsync.message.RTState;
 import de.dmos.rtsync.message.SimpleStateMessage;
 import de.dmos.rtsync.message.TaggedUserOperation;
 import de.dmos.rtsync.message.UserCursors;
+import de.dmos.rtsync.network.CommunicationConstants;
 import de.dmos.rtsync.network.EndpointPaths;
 import de.dmos.rtsync.network.RTSyncSimpleNetworkNode;
 import de.dmos.rtsync.server.AbstractRTSyncServerController;
+import de.dmos.rtsync.server.ClientVersionTracker;
+import de.dmos.rtsync.server.OperationBatching;
 import de.dmos.rtsync.server.ServerNetworkHandler;
+import de.dmos.rtsync.server.SessionUserOperation;
+import de.dmos.rtsync.util.ExecutionModel;
+import jakarta.annotation.PreDestroy;
 import se.l4.otter.engine.TaggedOperation;
 import se.l4.otter.operations.Operation;
 import se.l4.otter.operations.combined.CombinedHandler;
@@ -36,34 +52,109 @@ ServerNetworkHandler
 
   private final RTSimpleServerOperationSync	_serverSync;
   private final RTSyncSimpleNetworkNode	_serverNode;
+  private final ClientVersionTracker		_clientVersions = new ClientVersionTracker();
 
-  @Autowired
   public RTSyncSimpleServerController(SimpUserRegistry simpUserRegistry, SimpMessagingTemplate simpMessagingTemplate)
   {
-	super(simpUserRegistry, simpMessagingTemplate);
-	_serverNode = new RTSyncSimpleServerNode(control -> new RTSimpleServerOperationSync(control, this));
+	this(simpUserRegistry, simpMessagingTemplate, null, LogDurability.GROUP_COMMIT, ExecutionModel.PLATFORM);
+  }
+
+  /**
+   * @param historyDirectory The directory in which the history is logged and from which it is restored. If it is null
+   *          or empty, the history is only kept in memory.
+   * @param executionModel The kind of threads which apply the received operations and run deferred tasks.
+   */
+  @Autowired
+  public RTSyncSimpleServerController(
+	SimpUserRegistry simpUserRegistry,
+	SimpMessagingTemplate simpMessagingTemplate,
+	@Value("${" + HISTORY_DIRECTORY_PROPERTY + ":}") String historyDirectory,
+	@Value("${" + HISTORY_DURABILITY_PROPERTY + ":GROUP_COMMIT}") LogDurability historyDurability,
+	@Value("${" + ExecutionModel.PROPERTY + ":PLATFORM}") ExecutionModel executionModel)
+  {
+	super(simpUserRegistry, simpMessagingTemplate, executionModel);
+	_serverNode = new RTSyncSimpleServerNode(
+	  control -> new RTSimpleServerOperationSync(control, this, executionModel),
+	  openHistory(historyDirectory, historyDurability));
 	_serverSync = (RTSimpleServerOperationSync) _serverNode.getSync();
+	configureHistoryCompaction(_serverSync.getControl(), _clientVersions);
+  }
+
+  private static CustomHistory<Operation<CombinedHandler>> openHistory(
+	String historyDirectory,
+	LogDurability historyDurability)
+  {
+	if ( historyDirectory == null || historyDirectory.isBlank() )
+	{
+	  return null;
+	}
+	Path directory = Path.of(historyDirectory);
+	try
+	{
+	  LOG.info("Logging the history to {} with durability {}", directory, historyDurability);
+	  return FileOperationHistory.openCombined(directory, historyDurability);
+	}
+	catch (IOException e)
+	{
+	  throw new UncheckedIOException("Could not open the history in " + directory, e);
+	}
+  }
+
+  @PreDestroy
+  public void closeHistory()
+  {
+	shutDownDeferredTasks();
+	if ( _serverSync.getControl().getHistory() instanceof FileOperationHistory<?> history )
+	{
+	  try
+	  {
+		history.close();
+	  }
+	  catch (IOException e)
+	  {
+		LOG.error("Could not close the history in " + history.getDirectory(), e);
+	  }
+	}
+  }
+
+  @Override
+  public void setHistoryCompactionPolicy(HistoryCompactionPolicy historyCompactionPolicy)
+  {
+	super.setHistoryCompactionPolicy(historyCompactionPolicy);
+	configureHistoryCompaction(_serverSync.getControl(), _clientVersions);
+  }
+
+  @Override
+  public void onDisconnectEvent(SessionDisconnectEvent event)
+  {
+	super.onDisconnectEvent(event);
+	_clientVersions.remove(event.getSessionId());
   }
 
   @MessageMapping(EndpointPaths.PATH_UPDATE_OWN_CURSORS)
-  @SendTo(EndpointPaths.TOPIC_CURSORS)
-  public UserCursors setCursor(@Payload CursorPosition cursorPosition, Principal principal)
+  public void setCursor(@Payload CursorPosition cursorPosition, Principal principal)
   {
-	// TODO: Store this information somewhere and attach it to StateMessages.
-	return new UserCursors(getSubscriber(principal).getId(), List.of(cursorPosition));
 	// It would be more professionell to broadcast it only to others like this:
 	//	broadcastToOthers(EndpointPaths.TOPIC_CURSORS, toBroadcast, principal);
+	_cursorStore
+	.update(EndpointPaths.TOPIC_CURSORS, new UserCursors(getSubscriber(principal).getId(), List.of(cursorPosition)));
   }
 
   @MessageMapping(EndpointPaths.PATH_SEND_OPERATION)
-  public void sendOperation(@Payload TaggedOperation<Operation<CombinedHandler>> taggedOp, Principal principal)
+  public void sendOperation(
+	@Payload TaggedOperation<Operation<CombinedHandler>> taggedOp,
+	Principal principal,
+	@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId)
   {
+	_clientVersions.update(sessionId, taggedOp.getHistoryId());
 	long currentHistoryId = _serverSync.getLatestVersion();
-	if ( _rejectOldHistoryIds && taggedOp.getHistoryId() < currentHistoryId )
+	if ( _rejectOldHistoryIds
+		&& taggedOp.getHistoryId() < currentHistoryId
+		&& _serverSync.getControl().changesObjectsChangedSince(taggedOp.getHistoryId(), taggedOp.getOperation()) )
 	{
 	  LOG
 	  .info(
-		"{} called sendOperation({}) with an older historyId than {}",
+		"{} called sendOperation({}) with an older historyId than {} and changes objects which were changed since",
 		principal.getName(),
 		taggedOp,
 		currentHistoryId);
@@ -75,31 +166,114 @@ ServerNetworkHandler
 	// Maybe we should send the user's id instead of the their principal's name.
 	TaggedUserOperation userOp = new TaggedUserOperation(taggedOp, principal.getName());
 	LOG.debug("sendOperation({})", userOp);
-	_serverSync.send(userOp);
+	_serverSync.send(userOp, sessionId);
   }
 
   @SubscribeMapping(EndpointPaths.PATH_GET_LATEST_OPERATION)
-  public TaggedUserOperation getLatestOperation()
+  public TaggedUserOperation getLatestOperation(@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId)
   {
 	LOG.debug("getLatestOperation called");
-	return _serverSync.getLatestUserOperation();
+	return getLatestOperationAndTrackVersion(sessionId);
   }
 
+  private TaggedUserOperation getLatestOperationAndTrackVersion(String sessionId)
+  {
+	TaggedUserOperation latest = _serverSync.getLatestUserOperation();
+	_clientVersions.update(sessionId, latest.getHistoryId());
+	return latest;
+  }
+
+  /**
+   * @param resumeFrom The version up to which a reconnecting client is synchronized, if it sent one.
+   * @param resumeEpoch The history epoch of the client's version.
+   */
   @SubscribeMapping(EndpointPaths.PATH_INIT_CLIENT)
-  public SimpleStateMessage initClient(Principal principal)
+  public SimpleStateMessage initClient(
+	Principal principal,
+	@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId,
+	@Header(name = CommunicationConstants.RESUME_FROM_HEADER, required = false) Long resumeFrom,
+	@Header(name = CommunicationConstants.RESUME_EPOCH_HEADER, required = false) String resumeEpoch)
   {
 	LOG.debug("{} called initClient", principal.getName());
 	broadCastAllSubscribers();
+	return new SimpleStateMessage(
+	  getSubscriber(principal),
+	  getStateAndTrackVersion(sessionId, resumeFrom, resumeEpoch));
+  }
 
-	RTState state = new RTState(null, _serverSync.getLatestUserOperation());
-	return new SimpleStateMessage(getSubscriber(principal), state);
+  @SubscribeMapping(EndpointPaths.PATH_RESUME)
+  public RTState resume(
+	@Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId,
+	@Header(name = CommunicationConstants.RESUME_FROM_HEADER, required = false) Long resumeFrom,
+	@Header(name = CommunicationConstants.RESUME_EPOCH_HEADER, required = false) String resumeEpoch)
+  {
+	LOG.debug("resume called from {} in epoch {}", resumeFrom, resumeEpoch);
+	return getStateAndTrackVersion(sessionId, resumeFrom, resumeEpoch);
+  }
+
+  /**
+   * Returns only the operations after the given version if they are still retained and the whole state otherwise. The
+   * client is only resumed if its version belongs to the current history epoch and the operations which it sent before
+   * are stored, since they would be missing from the missed operations and be stored twice when the client resends
+   * them otherwise.
+   */
+  private RTState getStateAndTrackVersion(String sessionId, Long resumeFrom, String resumeEpoch)
+  {
+	List<UserCursors> cursors = _cursorStore.getCursors(EndpointPaths.TOPIC_CURSORS);
+	String epoch = _serverSync.getControl().getHistoryEpoch();
+	List<TaggedUserOperation> missedOperations = resumeFrom != null
+		&& epoch.equals(resumeEpoch)
+		&& _serverSync.awaitQueuedOperations(sessionId)
+		? _serverSync.getControl().getUserOperationsAfter(resumeFrom)
+			: null;
+	// Resent operations would be rebased on the missed ones, so they couldn't be rejected anymore.
+	if ( missedOperations == null || (_rejectOldHistoryIds && !missedOperations.isEmpty()) )
+	{
+	  return new RTState(cursors, getLatestOperationAndTrackVersion(sessionId), null, epoch);
+	}
+	_clientVersions.update(sessionId, resumeFrom + missedOperations.size());
+	return new RTState(cursors, null, missedOperations, epoch);
   }
 
   @Override
-  public void brodcastTaggedOperation(TaggedUserOperation taggedOperation)
+  public void brodcastTaggedOperation(SessionUserOperation storedOp)
+  {
+	LOG.debug("broadcastTaggedOperation({})", storedOp.userOp());
+	broadcastAndAcknowledge(
+	  EndpointPaths.TOPIC_OPERATIONS,
+	  EndpointPaths.QUEUE_OPERATIONS,
+	  EndpointPaths.QUEUE_ACKS,
+	  storedOp.userOp(),
+	  storedOp.session());
+  }
+
+  @Override
+  public void brodcastTaggedOperations(List<SessionUserOperation> storedOps)
+  {
+	if ( storedOps.size() == 1 )
+	{
+	  brodcastTaggedOperation(storedOps.get(0));
+	  return;
+	}
+	LOG.debug("broadcastTaggedOperations({} operations)", storedOps.size());
+	broadcastBatchAndAcknowledge(
+	  EndpointPaths.TOPIC_OPERATION_BATCHES,
+	  EndpointPaths.QUEUE_OPERATION_BATCHES,
+	  EndpointPaths.QUEUE_ACKS,
+	  storedOps);
+  }
+
+  public OperationBatching getOperationBatching()
+  {
+	return _serverSync.getOperationBatching();
+  }
+
+  /**
+   * Sets how many received operations are applied at once and broadcast as one batch. Batching is disabled by default.
+   */
+  public void setOperationBatching(OperationBatching operationBatching)
   {
-	LOG.debug("broadcastTaggedOperation({})", taggedOperation);
-	_simpMessagingTemplate.convertAndSend(EndpointPaths.TOPIC_OPERATIONS, taggedOperation);
+	_serverSync.setOperationBatching(operationBatching);
   }
 }
 
@@ -1,12 +1,24 @@
 package de.dmos.rtsync.server.simple;
 
+import de.dmos.rtsync.customotter.CustomEditorControl;
+import de.dmos.rtsync.customotter.CustomHistory;
 import de.dmos.rtsync.network.RTSyncSimpleNetworkNode;
+import se.l4.otter.operations.Operation;
+import se.l4.otter.operations.combined.CombinedHandler;
 
 public class RTSyncSimpleServerNode extends RTSyncSimpleNetworkNode
 {
   protected RTSyncSimpleServerNode(OperationSyncCreator syncCreator)
   {
-	super(syncCreator);
+	this(syncCreator, null);
+  }
+
+  protected RTSyncSimpleServerNode(
+	OperationSyncCreator syncCreator,
+	CustomHistory<Operation<CombinedHandler>> history)
+  {
+	super(syncCreator, history);
+	_control.setMaxPipelinedSessions(CustomEditorControl.DEFAULT_MAX_PIPELINED_SESSIONS);
   }
 
   @Override